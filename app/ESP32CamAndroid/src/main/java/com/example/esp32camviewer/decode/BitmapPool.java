@@ -0,0 +1,100 @@
+package com.example.esp32camviewer.decode;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按宽、高、像素格式分组的Bitmap复用池，配合BitmapFactory.Options.inBitmap使用。
+ * 解码线程取、主线程还，方法都是同步的。
+ */
+public final class BitmapPool {
+    private final int maxPerSize;
+    private final Map<Long, ArrayDeque<Bitmap>> pools = new HashMap<>();
+
+    private long allocations = 0;
+    private long allocatedBytes = 0;
+    private long reuses = 0;
+
+    /**
+     * @param maxPerSize 每种尺寸最多保留的Bitmap数，应不少于解码中+待显示+显示缓冲的数量
+     */
+    public BitmapPool(int maxPerSize) {
+        this.maxPerSize = maxPerSize;
+    }
+
+    /** 取一个可复用的Bitmap，没有时返回null */
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> pool = pools.get(key(width, height, config));
+        while (pool != null && !pool.isEmpty()) {
+            Bitmap bitmap = pool.pollFirst();
+            if (!bitmap.isRecycled()) {
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /** 不再显示的Bitmap放回池中，池满或不可复用的直接回收 */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable()) {
+            bitmap.recycle();
+            return;
+        }
+        long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> pool = pools.get(key);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            pools.put(key, pool);
+        }
+        if (pool.size() >= maxPerSize) {
+            bitmap.recycle();
+            return;
+        }
+        pool.addLast(bitmap);
+    }
+
+    /** 解码器每次得到新分配的Bitmap时调用 */
+    synchronized void recordAllocation(Bitmap bitmap) {
+        allocations++;
+        allocatedBytes += bitmap.getAllocationByteCount();
+    }
+
+    /** 解码器成功复用inBitmap时调用 */
+    synchronized void recordReuse() {
+        reuses++;
+    }
+
+    /** 回收池中所有Bitmap，例如分辨率切换或界面销毁时 */
+    public synchronized void clear() {
+        for (ArrayDeque<Bitmap> pool : pools.values()) {
+            for (Bitmap bitmap : pool) {
+                bitmap.recycle();
+            }
+        }
+        pools.clear();
+    }
+
+    /** 新分配的Bitmap数量，稳定状态下应该不再增长 */
+    public synchronized long allocations() {
+        return allocations;
+    }
+
+    public synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized long reuses() {
+        return reuses;
+    }
+
+    private static long key(int width, int height, Bitmap.Config config) {
+        int configOrdinal = config == null ? 0xFF : config.ordinal();
+        return ((long) width << 32) | ((long) (height & 0xFFFFFF) << 8) | configOrdinal;
+    }
+}
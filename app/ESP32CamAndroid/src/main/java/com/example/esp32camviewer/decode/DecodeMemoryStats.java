@@ -0,0 +1,60 @@
+package com.example.esp32camviewer.decode;
+
+import android.os.Debug;
+
+/**
+ * 解码路径的内存统计：Bitmap分配/复用次数和ART的GC计数。
+ * 稳定播放时bitmapAllocations和gcCount都不应再增长。
+ */
+public final class DecodeMemoryStats {
+    public final long bitmapAllocations;
+    public final long bitmapAllocatedBytes;
+    public final long bitmapReuses;
+    /** 进程启动以来的GC次数，取不到时为-1 */
+    public final long gcCount;
+    /** 其中阻塞了应用线程的GC次数 */
+    public final long blockingGcCount;
+    public final long gcTimeMillis;
+
+    private DecodeMemoryStats(BitmapPool pool) {
+        bitmapAllocations = pool.allocations();
+        bitmapAllocatedBytes = pool.allocatedBytes();
+        bitmapReuses = pool.reuses();
+        gcCount = runtimeStat("art.gc.gc-count");
+        blockingGcCount = runtimeStat("art.gc.blocking-gc-count");
+        gcTimeMillis = runtimeStat("art.gc.gc-time");
+    }
+
+    public static DecodeMemoryStats snapshot(BitmapPool pool) {
+        return new DecodeMemoryStats(pool);
+    }
+
+    /** 两次快照之间的分配量和GC次数 */
+    public String since(DecodeMemoryStats earlier) {
+        return "bitmapAllocations=" + (bitmapAllocations - earlier.bitmapAllocations)
+                + " bitmapBytes=" + (bitmapAllocatedBytes - earlier.bitmapAllocatedBytes)
+                + " reuses=" + (bitmapReuses - earlier.bitmapReuses)
+                + " gc=" + (gcCount - earlier.gcCount)
+                + " blockingGc=" + (blockingGcCount - earlier.blockingGcCount)
+                + " gcTime=" + (gcTimeMillis - earlier.gcTimeMillis) + "ms";
+    }
+
+    @Override
+    public String toString() {
+        return "bitmapAllocations=" + bitmapAllocations + " bitmapBytes=" + bitmapAllocatedBytes
+                + " reuses=" + bitmapReuses + " gc=" + gcCount + " blockingGc=" + blockingGcCount
+                + " gcTime=" + gcTimeMillis + "ms";
+    }
+
+    private static long runtimeStat(String name) {
+        String value = Debug.getRuntimeStat(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
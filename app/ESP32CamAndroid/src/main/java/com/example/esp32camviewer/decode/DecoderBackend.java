@@ -0,0 +1,55 @@
+package com.example.esp32camviewer.decode;
+
+/**
+ * 可选的解码后端。AUTO在每次连接开始时用前几帧校准，选出本机最快的后端。
+ */
+public enum DecoderBackend {
+    AUTO("自动"),
+    BITMAP_FACTORY("BitmapFactory"),
+    IMAGE_DECODER("ImageDecoder"),
+    MEDIA_CODEC("MediaCodec");
+
+    private final String label;
+
+    DecoderBackend(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    public boolean isSupported() {
+        switch (this) {
+            case IMAGE_DECODER:
+                return ImageDecoderFrameDecoder.isSupported();
+            case MEDIA_CODEC:
+                return MediaCodecFrameDecoder.isSupported();
+            default:
+                return true;
+        }
+    }
+
+    /** 按保存的名字取后端，没有或已不支持时返回fallback */
+    public static DecoderBackend fromName(String name, DecoderBackend fallback) {
+        for (DecoderBackend backend : values()) {
+            if (backend.name().equals(name)) {
+                return backend;
+            }
+        }
+        return fallback;
+    }
+
+    FrameDecoder create(BitmapPool pool) {
+        switch (this) {
+            case IMAGE_DECODER:
+                return new ImageDecoderFrameDecoder();
+            case MEDIA_CODEC:
+                return new MediaCodecFrameDecoder();
+            case BITMAP_FACTORY:
+                return new PooledBitmapDecoder(pool);
+            default:
+                throw new IllegalArgumentException("AUTO不是具体的后端");
+        }
+    }
+}
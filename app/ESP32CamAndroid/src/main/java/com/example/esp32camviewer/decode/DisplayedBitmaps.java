@@ -0,0 +1,43 @@
+package com.example.esp32camviewer.decode;
+
+import android.graphics.Bitmap;
+
+import com.example.esp32camviewer.stream.FramePipeline;
+
+import java.util.ArrayDeque;
+
+/**
+ * 记录最近显示过的Bitmap，只有确定界面不再绘制时才交还给产出它的解码器（BitmapFactory后端即还回池中）。
+ *
+ * 画完一帧后GPU可能还在读上一张，所以保留最近depth张：SurfaceFrameRenderer用2（当前+上一张）。
+ * 不是线程安全的，由SurfaceFrameRenderer在它的渲染线程上调用；
+ * 多个渲染器共用一个渲染线程时各自持有一个实例。
+ */
+public final class DisplayedBitmaps {
+    private final FramePipeline.Recycler<Bitmap> recycler;
+    private final int depth;
+    private final ArrayDeque<Bitmap> displayed = new ArrayDeque<>();
+
+    public DisplayedBitmaps(FramePipeline.Recycler<Bitmap> recycler, int depth) {
+        this.recycler = recycler;
+        this.depth = depth;
+    }
+
+    /** 某张Bitmap刚交给界面显示 */
+    public void onDisplayed(Bitmap bitmap) {
+        if (displayed.peekLast() == bitmap) {
+            return;
+        }
+        displayed.addLast(bitmap);
+        while (displayed.size() > depth) {
+            recycler.recycle(displayed.pollFirst());
+        }
+    }
+
+    /** 界面已清空图像，全部交还 */
+    public void clear() {
+        while (!displayed.isEmpty()) {
+            recycler.recycle(displayed.pollFirst());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.esp32camviewer.decode;
+
+import android.graphics.Bitmap;
+
+import com.example.esp32camviewer.stream.FramePipeline;
+
+/**
+ * 一种JPEG解码后端。decode()只在解码线程上调用；recycle()可能在解码线程或主线程上调用，
+ * 用来归还本后端产出、已不再显示的Bitmap。
+ */
+public interface FrameDecoder extends FramePipeline.Decoder<Bitmap>, FramePipeline.Recycler<Bitmap> {
+
+    /** 日志和界面上显示的名字 */
+    String name();
+
+    /**
+     * 画面在屏幕上占用的像素尺寸，布局变化或旋转时更新，可以在任意线程调用。
+     * 后端据此在解码时直接缩小，0表示按原尺寸解码。截图等需要原始分辨率的场合不要使用这里的结果。
+     */
+    void setTargetSize(int width, int height);
+
+    /** 释放后端持有的解码器、缓冲区等资源，之后不能再使用 */
+    void close();
+}
@@ -0,0 +1,83 @@
+package com.example.esp32camviewer.decode;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.JpegHeaderReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 用ImageDecoder（API 28+）解码，输出HARDWARE Bitmap，显示时不需要再上传纹理。
+ *
+ * 帧数组来自ByteArrayPool，只有几个在轮换，每个数组对应的ByteBuffer包装只创建一次，
+ * 之后每帧只重设limit。HARDWARE Bitmap不能作为inBitmap复用，用完直接recycle()。
+ * 设置了目标尺寸时在头部解析完成后用setTargetSampleSize()缩小。
+ * 只能在解码线程上调用decode()。
+ */
+@TargetApi(Build.VERSION_CODES.P)
+public final class ImageDecoderFrameDecoder implements FrameDecoder {
+    private static final String TAG = "ESP32CamViewer";
+
+    // 数组按引用作键，池里丢弃的数组被GC后包装也随之清除
+    private final Map<byte[], ByteBuffer> sources = new WeakHashMap<>();
+    private volatile int targetWidth = 0;
+    private volatile int targetHeight = 0;
+    private final ImageDecoder.OnHeaderDecodedListener headerListener = (decoder, info, source) -> {
+        decoder.setAllocator(ImageDecoder.ALLOCATOR_HARDWARE);
+        decoder.setTargetSampleSize(JpegHeaderReader.sampleSizeFor(
+                info.getSize().getWidth(), info.getSize().getHeight(), targetWidth, targetHeight));
+    };
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+    }
+
+    @Override
+    public String name() {
+        return "ImageDecoder";
+    }
+
+    @Override
+    public void setTargetSize(int width, int height) {
+        targetWidth = width;
+        targetHeight = height;
+    }
+
+    @Override
+    public Bitmap decode(JpegFrame frame) {
+        byte[] data = frame.data();
+        ByteBuffer buffer = sources.get(data);
+        if (buffer == null) {
+            buffer = ByteBuffer.wrap(data);
+            sources.put(data, buffer);
+        }
+        buffer.clear();
+        buffer.limit(frame.length());
+        try {
+            return ImageDecoder.decodeBitmap(ImageDecoder.createSource(buffer), headerListener);
+        } catch (IOException e) {
+            Log.w(TAG, "ImageDecoder解码失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void recycle(Bitmap bitmap) {
+        if (bitmap != null && !bitmap.isRecycled()) {
+            bitmap.recycle();
+        }
+    }
+
+    @Override
+    public void close() {
+        sources.clear();
+    }
+}
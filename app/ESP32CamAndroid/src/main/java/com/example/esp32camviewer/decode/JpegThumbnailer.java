@@ -0,0 +1,54 @@
+package com.example.esp32camviewer.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.example.esp32camviewer.record.SnapshotWriter;
+import com.example.esp32camviewer.stream.JpegHeaderReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 照片的缩略图：按SOF头里的尺寸选inSampleSize，解码时直接缩小，不解出整张原图再缩放。
+ * 在SnapshotWriter的写线程上调用，每次新分配Bitmap，用完立即回收。
+ */
+public final class JpegThumbnailer implements SnapshotWriter.Thumbnailer {
+    public static final int DEFAULT_SIZE = 160;
+    private static final int QUALITY = 85;
+
+    private final int width;
+    private final int height;
+
+    public JpegThumbnailer() {
+        this(DEFAULT_SIZE, DEFAULT_SIZE * 3 / 4);
+    }
+
+    /** 缩略图不小于width x height，inSampleSize只能是2的幂，实际尺寸在这个到两倍之间 */
+    public JpegThumbnailer(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void write(byte[] jpeg, int length, File file) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        int dimensions = JpegHeaderReader.readDimensions(jpeg, length);
+        if (dimensions >= 0) {
+            options.inSampleSize = JpegHeaderReader.sampleSizeFor(JpegHeaderReader.width(dimensions),
+                    JpegHeaderReader.height(dimensions), width, height);
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        if (bitmap == null) {
+            throw new IOException("无法解码照片: " + file.getName());
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, QUALITY, out)) {
+                throw new IOException("无法写入缩略图: " + file);
+            }
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
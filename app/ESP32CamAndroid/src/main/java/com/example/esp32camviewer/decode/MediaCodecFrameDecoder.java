@@ -0,0 +1,243 @@
+package com.example.esp32camviewer.decode;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.ColorSpace;
+import android.graphics.ImageFormat;
+import android.hardware.HardwareBuffer;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.MediaCodec;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.JpegHeaderReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用设备的MJPEG硬件解码器（MediaCodec）解码，输出直接渲染到ImageReader的Surface上，
+ * 再把Image的HardwareBuffer包装成HARDWARE Bitmap交给界面，整个过程不经过CPU拷贝像素。
+ *
+ * Bitmap显示期间对应的Image必须保持打开，否则解码器会把下一帧写进同一块缓冲区，
+ * 所以Image在recycle()时才关闭。解码器总是输出原尺寸，目标尺寸只影响显示时的缩放。需要API 29，且只有部分设备提供MJPEG解码器，
+ * 用{@link #isSupported()}判断。只能在解码线程上调用decode()。
+ */
+@TargetApi(Build.VERSION_CODES.Q)
+public final class MediaCodecFrameDecoder implements FrameDecoder {
+    private static final String TAG = "ESP32CamViewer";
+    // 不同厂商登记MJPEG解码器时用的MIME类型不一样
+    private static final String[] MIME_TYPES = {"video/mjpeg", "video/x-motion-jpeg"};
+    // 解码中、待显示各一张，加上界面显示缓冲最多三张，再留一张余量
+    private static final int MAX_IMAGES = 6;
+    private static final long TIMEOUT_US = 50_000;
+
+    private final Map<Bitmap, Image> images = new IdentityHashMap<>();
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private final Semaphore imageAvailable = new Semaphore(0);
+
+    private HandlerThread callbackThread;
+    private MediaCodec codec;
+    private ImageReader reader;
+    private final List<ImageReader> retiredReaders = new ArrayList<>();
+    private int configuredDimensions = -1;
+    private long presentationTimeUs = 0;
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && findDecoder() != null;
+    }
+
+    @Override
+    public String name() {
+        return "MediaCodec";
+    }
+
+    @Override
+    public void setTargetSize(int width, int height) {
+        // 硬件解码器按原尺寸输出到Surface，缩放由显示时的GPU完成
+    }
+
+    @Override
+    public Bitmap decode(JpegFrame frame) {
+        int dimensions = JpegHeaderReader.readDimensions(frame.data(), frame.length());
+        if (dimensions < 0) {
+            return null;
+        }
+        try {
+            if (codec == null || dimensions != configuredDimensions) {
+                configure(dimensions);
+            }
+            int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+            if (inputIndex < 0) {
+                return null;
+            }
+            ByteBuffer input = codec.getInputBuffer(inputIndex);
+            if (input == null || input.capacity() < frame.length()) {
+                codec.queueInputBuffer(inputIndex, 0, 0, presentationTimeUs, 0);
+                return null;
+            }
+            input.clear();
+            input.put(frame.data(), 0, frame.length());
+            codec.queueInputBuffer(inputIndex, 0, frame.length(), presentationTimeUs++, 0);
+            return awaitOutput();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException | IllegalStateException e) {
+            // 包括MediaCodec.CodecException，丢掉解码器，下一帧重新创建
+            Log.w(TAG, "MediaCodec解码失败: " + e.getMessage());
+            releaseCodec();
+            return null;
+        }
+    }
+
+    @Override
+    public void recycle(Bitmap bitmap) {
+        Image image;
+        synchronized (images) {
+            image = images.remove(bitmap);
+        }
+        if (bitmap != null && !bitmap.isRecycled()) {
+            bitmap.recycle();
+        }
+        if (image != null) {
+            image.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        releaseCodec();
+        synchronized (images) {
+            for (Image image : images.values()) {
+                image.close();
+            }
+            images.clear();
+        }
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        for (ImageReader retired : retiredReaders) {
+            retired.close();
+        }
+        retiredReaders.clear();
+        if (callbackThread != null) {
+            callbackThread.quitSafely();
+            callbackThread = null;
+        }
+    }
+
+    private void configure(int dimensions) throws IOException {
+        releaseCodec();
+        String[] decoder = findDecoder();
+        if (decoder == null) {
+            throw new IOException("没有可用的MJPEG解码器");
+        }
+        String mimeType = decoder[0];
+        String codecName = decoder[1];
+        int width = JpegHeaderReader.width(dimensions);
+        int height = JpegHeaderReader.height(dimensions);
+
+        if (callbackThread == null) {
+            callbackThread = new HandlerThread("mjpeg-codec-output");
+            callbackThread.start();
+        }
+        // 分辨率变化时旧的ImageReader先不关闭，还在显示的Image随各自的Bitmap回收时关闭
+        if (reader != null) {
+            retiredReaders.add(reader);
+        }
+        reader = ImageReader.newInstance(width, height, ImageFormat.PRIVATE, MAX_IMAGES,
+                HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE);
+        imageAvailable.drainPermits();
+        reader.setOnImageAvailableListener(r -> imageAvailable.release(), new Handler(callbackThread.getLooper()));
+
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, width * height);
+        codec = MediaCodec.createByCodecName(codecName);
+        codec.configure(format, reader.getSurface(), null, 0);
+        codec.start();
+        configuredDimensions = dimensions;
+    }
+
+    private Bitmap awaitOutput() throws InterruptedException {
+        while (true) {
+            int outputIndex = codec.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+            if (outputIndex >= 0) {
+                // render=true：这一帧被写入ImageReader的Surface
+                codec.releaseOutputBuffer(outputIndex, true);
+                break;
+            }
+            if (outputIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return null;
+            }
+            // INFO_OUTPUT_FORMAT_CHANGED等，继续等输出
+        }
+
+        if (!imageAvailable.tryAcquire(TIMEOUT_US, TimeUnit.MICROSECONDS)) {
+            return null;
+        }
+        imageAvailable.drainPermits();
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // 显示中的Image已达MAX_IMAGES，跳过这一帧
+            return null;
+        }
+        if (image == null) {
+            return null;
+        }
+        HardwareBuffer hardwareBuffer = image.getHardwareBuffer();
+        Bitmap bitmap = hardwareBuffer == null ? null
+                : Bitmap.wrapHardwareBuffer(hardwareBuffer, ColorSpace.get(ColorSpace.Named.SRGB));
+        if (hardwareBuffer != null) {
+            hardwareBuffer.close();
+        }
+        if (bitmap == null) {
+            image.close();
+            return null;
+        }
+        synchronized (images) {
+            images.put(bitmap, image);
+        }
+        return bitmap;
+    }
+
+    private void releaseCodec() {
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                // 出错状态下stop会抛异常，直接release
+            }
+            codec.release();
+            codec = null;
+        }
+        configuredDimensions = -1;
+    }
+
+    // 返回{MIME类型, 解码器名}，设备没有MJPEG解码器时返回null
+    private static String[] findDecoder() {
+        MediaCodecList codecs = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (String mime : MIME_TYPES) {
+            String codecName = codecs.findDecoderForFormat(MediaFormat.createVideoFormat(mime, 640, 480));
+            if (codecName != null) {
+                return new String[]{mime, codecName};
+            }
+        }
+        return null;
+    }
+}
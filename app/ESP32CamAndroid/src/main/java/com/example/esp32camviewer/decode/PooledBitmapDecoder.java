@@ -0,0 +1,100 @@
+package com.example.esp32camviewer.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.JpegHeaderReader;
+
+/**
+ * 通过inBitmap把帧解码进池中已有的Bitmap，分辨率不变时稳定状态下不再分配新的Bitmap。
+ * 设置了目标尺寸时先读SOF头拿到原图尺寸，用inSampleSize在解码时直接缩小，
+ * 按缩小后的尺寸从池里取Bitmap。只能在解码线程上使用。
+ */
+public final class PooledBitmapDecoder implements FrameDecoder {
+    private static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_8888;
+
+    private final BitmapPool pool;
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private int lastWidth = 0;
+    private int lastHeight = 0;
+    private volatile int targetWidth = 0;
+    private volatile int targetHeight = 0;
+
+    public PooledBitmapDecoder(BitmapPool pool) {
+        this.pool = pool;
+        options.inMutable = true;
+        options.inPreferredConfig = CONFIG;
+    }
+
+    @Override
+    public String name() {
+        return "BitmapFactory";
+    }
+
+    @Override
+    public void setTargetSize(int width, int height) {
+        if (width == targetWidth && height == targetHeight) {
+            return;
+        }
+        targetWidth = width;
+        targetHeight = height;
+        // 旧尺寸的Bitmap不会再被取用，池里的直接回收
+        pool.clear();
+    }
+
+    @Override
+    public Bitmap decode(JpegFrame frame) {
+        int width = lastWidth;
+        int height = lastHeight;
+        int sampleSize = 1;
+        int dimensions = JpegHeaderReader.readDimensions(frame.data(), frame.length());
+        if (dimensions >= 0) {
+            sampleSize = JpegHeaderReader.sampleSizeFor(JpegHeaderReader.width(dimensions),
+                    JpegHeaderReader.height(dimensions), targetWidth, targetHeight);
+            width = JpegHeaderReader.scaledSize(JpegHeaderReader.width(dimensions), sampleSize);
+            height = JpegHeaderReader.scaledSize(JpegHeaderReader.height(dimensions), sampleSize);
+        }
+        options.inSampleSize = sampleSize;
+
+        // 按解码后的尺寸取可复用的Bitmap；读不到SOF时按上一帧的尺寸
+        Bitmap reusable = width > 0 ? pool.acquire(width, height, CONFIG) : null;
+        Bitmap bitmap;
+        try {
+            options.inBitmap = reusable;
+            bitmap = BitmapFactory.decodeByteArray(frame.data(), 0, frame.length(), options);
+        } catch (IllegalArgumentException e) {
+            // 分辨率变大，复用的Bitmap放不下新帧，改为新分配
+            pool.release(reusable);
+            reusable = null;
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(frame.data(), 0, frame.length(), options);
+        } finally {
+            options.inBitmap = null;
+        }
+
+        if (bitmap == null) {
+            pool.release(reusable);
+            return null;
+        }
+        if (bitmap == reusable) {
+            pool.recordReuse();
+        } else {
+            pool.recordAllocation(bitmap);
+            pool.release(reusable);
+        }
+        lastWidth = bitmap.getWidth();
+        lastHeight = bitmap.getHeight();
+        return bitmap;
+    }
+
+    @Override
+    public void recycle(Bitmap bitmap) {
+        pool.release(bitmap);
+    }
+
+    @Override
+    public void close() {
+        // 池由调用方持有，这里没有需要释放的资源
+    }
+}
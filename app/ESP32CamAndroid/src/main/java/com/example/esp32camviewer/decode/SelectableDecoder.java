@@ -0,0 +1,261 @@
+package com.example.esp32camviewer.decode;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.example.esp32camviewer.stream.DecodeTimings;
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 查看器使用的解码器：把解码交给选中的后端，Bitmap回收时交还给产出它的后端。
+ *
+ * 选择AUTO时，连接开始后的前几帧轮流交给每个可用后端解码并计时（每个后端第一帧不计，
+ * 包含创建解码器的开销），之后固定使用中位耗时最短且没有失败的后端。
+ * 校准期间每一帧照常显示，不会额外解码。选中的后端运行中抛出异常时退回BitmapFactory。
+ * decode()只在解码线程上调用，select()/recycle()可以在任意线程调用。
+ */
+public final class SelectableDecoder implements FrameDecoder {
+    private static final String TAG = "ESP32CamViewer";
+    // 每个后端计时的帧数
+    private static final int CALIBRATION_FRAMES = 4;
+
+    private final BitmapPool pool;
+    private final Map<DecoderBackend, FrameDecoder> decoders = new EnumMap<>(DecoderBackend.class);
+    private final Map<Bitmap, FrameDecoder> owners = new IdentityHashMap<>();
+
+    private DecoderBackend selected = DecoderBackend.AUTO;
+    private DecoderBackend current = DecoderBackend.BITMAP_FACTORY;
+    // 校准中的候选后端及各自的计时，不在校准时为null
+    private List<DecoderBackend> candidates;
+    private Map<DecoderBackend, DecodeTimings> timings;
+    private final Set<DecoderBackend> warmedUp = EnumSet.noneOf(DecoderBackend.class);
+    private int calibrationIndex = 0;
+    // 解码线程正在使用的后端，不能被关闭
+    private DecoderBackend decoding;
+    private int targetWidth = 0;
+    private int targetHeight = 0;
+
+    public SelectableDecoder(BitmapPool pool) {
+        this.pool = pool;
+        select(DecoderBackend.AUTO);
+    }
+
+    /** 选择后端，AUTO会在下一帧开始重新校准 */
+    public synchronized void select(DecoderBackend backend) {
+        selected = backend;
+        if (backend == DecoderBackend.AUTO) {
+            candidates = new ArrayList<>();
+            timings = new EnumMap<>(DecoderBackend.class);
+            for (DecoderBackend candidate : DecoderBackend.values()) {
+                if (candidate != DecoderBackend.AUTO && candidate.isSupported()) {
+                    candidates.add(candidate);
+                    timings.put(candidate, new DecodeTimings(CALIBRATION_FRAMES));
+                }
+            }
+            warmedUp.clear();
+            calibrationIndex = 0;
+            current = DecoderBackend.BITMAP_FACTORY;
+        } else {
+            candidates = null;
+            timings = null;
+            current = backend.isSupported() ? backend : DecoderBackend.BITMAP_FACTORY;
+            closeUnused();
+        }
+    }
+
+    /** 每次连接开始时调用：选择AUTO时重新校准，网络或分辨率不同，最快的后端也可能不同 */
+    public synchronized void restartCalibration() {
+        if (selected == DecoderBackend.AUTO) {
+            select(DecoderBackend.AUTO);
+        }
+    }
+
+    /** 用户选择的后端，可能是AUTO */
+    public synchronized DecoderBackend selected() {
+        return selected;
+    }
+
+    /** 实际在用的后端，AUTO校准结束前为BitmapFactory */
+    public synchronized DecoderBackend current() {
+        return current;
+    }
+
+    public synchronized boolean isCalibrating() {
+        return candidates != null;
+    }
+
+    @Override
+    public String name() {
+        return decoderFor(current()).name();
+    }
+
+    @Override
+    public synchronized void setTargetSize(int width, int height) {
+        targetWidth = width;
+        targetHeight = height;
+        for (FrameDecoder decoder : decoders.values()) {
+            decoder.setTargetSize(width, height);
+        }
+    }
+
+    @Override
+    public Bitmap decode(JpegFrame frame) {
+        DecoderBackend backend;
+        boolean warmup;
+        synchronized (this) {
+            if (candidates != null) {
+                backend = candidates.get(calibrationIndex++ % candidates.size());
+                warmup = warmedUp.add(backend);
+            } else {
+                backend = current;
+                warmup = false;
+            }
+            decoding = backend;
+        }
+
+        FrameDecoder decoder = decoderFor(backend);
+        long start = System.nanoTime();
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decode(frame);
+        } catch (RuntimeException e) {
+            Log.w(TAG, decoder.name() + "解码异常: " + e.getMessage());
+            bitmap = null;
+            onBackendFailed(backend);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        synchronized (this) {
+            decoding = null;
+            if (bitmap != null) {
+                owners.put(bitmap, decoder);
+            }
+            if (candidates != null && candidates.contains(backend)) {
+                DecodeTimings samples = timings.get(backend);
+                if (bitmap == null) {
+                    // 失败的后端退出校准，后面的帧交给其余后端
+                    samples.recordFailure();
+                    candidates.remove(backend);
+                } else if (!warmup) {
+                    samples.record(elapsed);
+                }
+                finishCalibrationIfDone();
+            } else if (backend != current) {
+                // 解码期间切换了后端，旧后端现在才能关闭
+                closeUnused();
+            }
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void recycle(Bitmap bitmap) {
+        FrameDecoder owner;
+        synchronized (this) {
+            owner = owners.remove(bitmap);
+        }
+        if (owner != null) {
+            owner.recycle(bitmap);
+        } else {
+            pool.release(bitmap);
+        }
+        synchronized (this) {
+            if (owner != null && !owners.containsValue(owner)) {
+                closeUnused();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        List<FrameDecoder> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(decoders.values());
+            decoders.clear();
+            owners.clear();
+        }
+        for (FrameDecoder decoder : toClose) {
+            decoder.close();
+        }
+    }
+
+    private synchronized FrameDecoder decoderFor(DecoderBackend backend) {
+        FrameDecoder decoder = decoders.get(backend);
+        if (decoder == null) {
+            decoder = backend.create(pool);
+            decoder.setTargetSize(targetWidth, targetHeight);
+            decoders.put(backend, decoder);
+        }
+        return decoder;
+    }
+
+    private synchronized void onBackendFailed(DecoderBackend backend) {
+        if (candidates != null) {
+            return;
+        }
+        if (backend == current && backend != DecoderBackend.BITMAP_FACTORY) {
+            Log.w(TAG, backend.label() + "不可用，改用BitmapFactory");
+            current = DecoderBackend.BITMAP_FACTORY;
+        }
+    }
+
+    // 在持有锁时调用
+    private void finishCalibrationIfDone() {
+        for (DecoderBackend candidate : candidates) {
+            if (!timings.get(candidate).isFull()) {
+                return;
+            }
+        }
+
+        DecoderBackend fastest = DecoderBackend.BITMAP_FACTORY;
+        long fastestMedian = Long.MAX_VALUE;
+        StringBuilder report = new StringBuilder("解码器校准:");
+        for (Map.Entry<DecoderBackend, DecodeTimings> entry : timings.entrySet()) {
+            DecoderBackend candidate = entry.getKey();
+            DecodeTimings samples = entry.getValue();
+            report.append(' ').append(candidate.label()).append('=');
+            if (samples.failures() > 0) {
+                report.append("失败");
+                continue;
+            }
+            long median = samples.medianNanos();
+            report.append(median / 1000).append("us");
+            if (median < fastestMedian) {
+                fastestMedian = median;
+                fastest = candidate;
+            }
+        }
+        Log.i(TAG, report + " 选用" + fastest.label());
+
+        current = fastest;
+        candidates = null;
+        timings = null;
+        closeUnused();
+    }
+
+    // 关闭没被选中、也没有Bitmap还在显示的后端，释放MediaCodec等资源。在持有锁时调用
+    private void closeUnused() {
+        if (candidates != null) {
+            return;
+        }
+        List<DecoderBackend> unused = new ArrayList<>();
+        for (Map.Entry<DecoderBackend, FrameDecoder> entry : decoders.entrySet()) {
+            DecoderBackend backend = entry.getKey();
+            if (backend != current && backend != decoding && backend != DecoderBackend.BITMAP_FACTORY
+                    && !owners.containsValue(entry.getValue())) {
+                unused.add(backend);
+            }
+        }
+        for (DecoderBackend backend : unused) {
+            decoders.remove(backend).close();
+        }
+    }
+}
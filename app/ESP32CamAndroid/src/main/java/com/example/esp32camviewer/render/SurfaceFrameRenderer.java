@@ -0,0 +1,267 @@
+package com.example.esp32camviewer.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.example.esp32camviewer.decode.DisplayedBitmaps;
+import com.example.esp32camviewer.stream.DecodedFrame;
+import com.example.esp32camviewer.stream.FramePipeline;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在独立的渲染线程上用lockHardwareCanvas()把帧直接画到SurfaceView上，
+ * 不经过ImageView.setImageBitmap()的invalidate/布局检查，也不占用主线程。
+ *
+ * 把{@link #executor()}作为FramePipeline的renderExecutor：流水线投递的渲染任务
+ * 在下一个Choreographer vsync回调时执行，取到的总是最新一帧，所以每个vsync最多画一帧，
+ * 流的帧率再高也不会多画。SurfaceView可以随时attach/detach，Surface不可用期间的帧只计数不画。
+ * 画过的Bitmap由内部的DisplayedBitmaps交还给解码器。
+ * 多路网格中每个画面一个实例，共用同一个渲染线程的Looper。
+ */
+public final class SurfaceFrameRenderer implements FramePipeline.Renderer<Bitmap>, SurfaceHolder.Callback {
+    // 画完后GPU可能还在读上一张，保留当前和上一张
+    private static final int DISPLAY_DEPTH = 2;
+
+    // 自己创建的渲染线程，共用外部线程时为null
+    private final HandlerThread renderThread;
+    private final Handler renderHandler;
+    private final VsyncExecutor vsyncExecutor = new VsyncExecutor();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect destination = new Rect();
+    // 以下只在渲染线程上访问
+    private final DisplayedBitmaps displayed;
+    private Bitmap lastBitmap;
+
+    // 主线程的Surface回调与渲染线程的绘制通过surfaceLock互斥，surfaceDestroyed返回后不会再画
+    private final Object surfaceLock = new Object();
+    private SurfaceHolder holder;
+    private SurfaceView surfaceView;
+
+    private final AtomicLong presented = new AtomicLong();
+    private final AtomicLong droppedWithoutSurface = new AtomicLong();
+    private final AtomicLong vsyncCallbacks = new AtomicLong();
+
+    /**
+     * @param recycler 不再显示的Bitmap交给它，一般是产出Bitmap的解码器
+     */
+    public SurfaceFrameRenderer(FramePipeline.Recycler<Bitmap> recycler) {
+        this(recycler, startRenderThread(), null);
+    }
+
+    /**
+     * 在外部的渲染线程上绘制，release()时不停止该线程
+     *
+     * @param renderLooper 多个渲染器共用的渲染线程的Looper
+     */
+    public SurfaceFrameRenderer(FramePipeline.Recycler<Bitmap> recycler, Looper renderLooper) {
+        this(recycler, null, renderLooper);
+    }
+
+    private SurfaceFrameRenderer(FramePipeline.Recycler<Bitmap> recycler, HandlerThread ownThread, Looper renderLooper) {
+        displayed = new DisplayedBitmaps(recycler, DISPLAY_DEPTH);
+        renderThread = ownThread;
+        renderHandler = new Handler(ownThread != null ? ownThread.getLooper() : renderLooper);
+        // Choreographer按线程创建，必须在渲染线程上取
+        renderHandler.post(() -> vsyncExecutor.choreographer = Choreographer.getInstance());
+    }
+
+    private static HandlerThread startRenderThread() {
+        HandlerThread thread = new HandlerThread("frame-render");
+        thread.start();
+        return thread;
+    }
+
+    /** 流水线的renderExecutor：任务在渲染线程的下一个vsync执行 */
+    public Executor executor() {
+        return vsyncExecutor;
+    }
+
+    /** 绑定要绘制的SurfaceView，在主线程调用。之前绑定的会先解绑 */
+    public void attach(SurfaceView view) {
+        if (surfaceView == view) {
+            return;
+        }
+        detach(surfaceView);
+        surfaceView = view;
+        SurfaceHolder surfaceHolder = view.getHolder();
+        surfaceHolder.addCallback(this);
+        if (surfaceHolder.getSurface() != null && surfaceHolder.getSurface().isValid()) {
+            surfaceCreated(surfaceHolder);
+            redraw();
+        }
+    }
+
+    /** 解绑SurfaceView，在主线程调用，例如Compose的AndroidView释放时 */
+    public void detach(SurfaceView view) {
+        if (view == null || view != surfaceView) {
+            return;
+        }
+        view.getHolder().removeCallback(this);
+        synchronized (surfaceLock) {
+            holder = null;
+        }
+        surfaceView = null;
+    }
+
+    @Override
+    public void render(DecodedFrame<Bitmap> frame) {
+        Bitmap bitmap = frame.image();
+        if (draw(bitmap)) {
+            presented.incrementAndGet();
+        } else {
+            droppedWithoutSurface.incrementAndGet();
+        }
+        lastBitmap = bitmap;
+        displayed.onDisplayed(bitmap);
+    }
+
+    /** 清空画面并交还所有显示过的Bitmap，可以在任意线程调用 */
+    public void clear() {
+        renderHandler.post(() -> {
+            lastBitmap = null;
+            draw(null);
+            displayed.clear();
+        });
+    }
+
+    /** 交还所有Bitmap并停止自己创建的渲染线程，界面销毁或画面移除时调用 */
+    public void release() {
+        renderHandler.post(() -> {
+            lastBitmap = null;
+            displayed.clear();
+        });
+        if (renderThread != null) {
+            renderThread.quitSafely();
+        }
+    }
+
+    /** 实际画到Surface上的帧数 */
+    public long presentedFrames() {
+        return presented.get();
+    }
+
+    /** 轮到绘制时没有可用Surface（切到后台、未绑定）的帧数 */
+    public long droppedWithoutSurface() {
+        return droppedWithoutSurface.get();
+    }
+
+    /** 显示帧数与流水线收到帧数的对照，用于日志 */
+    public String summary(FramePipeline.Stats stats) {
+        long shown = presented.get();
+        long percent = stats.received == 0 ? 0 : shown * 100 / stats.received;
+        return "显示/收到=" + shown + "/" + stats.received + "(" + percent + "%)"
+                + " 无Surface=" + droppedWithoutSurface.get() + " vsync=" + vsyncCallbacks.get();
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder surfaceHolder) {
+        synchronized (surfaceLock) {
+            holder = surfaceHolder;
+        }
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder surfaceHolder, int format, int width, int height) {
+        // 尺寸变化或从后台回来后Surface内容已失效，把最后一帧按新尺寸重画
+        redraw();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
+        synchronized (surfaceLock) {
+            holder = null;
+        }
+    }
+
+    private void redraw() {
+        renderHandler.post(() -> draw(lastBitmap));
+    }
+
+    // 在渲染线程上调用；bitmap为null时只清成黑色
+    private boolean draw(Bitmap bitmap) {
+        synchronized (surfaceLock) {
+            if (holder == null) {
+                return false;
+            }
+            Surface surface = holder.getSurface();
+            if (surface == null || !surface.isValid()) {
+                return false;
+            }
+            Canvas canvas;
+            try {
+                canvas = surface.lockHardwareCanvas();
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // Surface正在被销毁
+                return false;
+            }
+            try {
+                canvas.drawColor(Color.BLACK);
+                if (bitmap != null && !bitmap.isRecycled()) {
+                    fitCenter(bitmap.getWidth(), bitmap.getHeight(), canvas.getWidth(), canvas.getHeight());
+                    canvas.drawBitmap(bitmap, null, destination, paint);
+                }
+            } finally {
+                surface.unlockCanvasAndPost(canvas);
+            }
+            return true;
+        }
+    }
+
+    // 与ImageView的fitCenter一致：等比缩放到完整放入画布并居中
+    private void fitCenter(int width, int height, int canvasWidth, int canvasHeight) {
+        if (width * canvasHeight > height * canvasWidth) {
+            int scaledHeight = height * canvasWidth / width;
+            int top = (canvasHeight - scaledHeight) / 2;
+            destination.set(0, top, canvasWidth, top + scaledHeight);
+        } else {
+            int scaledWidth = width * canvasHeight / height;
+            int left = (canvasWidth - scaledWidth) / 2;
+            destination.set(left, 0, left + scaledWidth, canvasHeight);
+        }
+    }
+
+    /**
+     * 投递的任务先放进队列，在渲染线程的下一个vsync回调里统一执行。
+     * FramePipeline同一时间只投递一个渲染任务，队列里一般最多一项。
+     */
+    private final class VsyncExecutor implements Executor, Choreographer.FrameCallback {
+        // 以下只在渲染线程上访问
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        private Choreographer choreographer;
+        private boolean callbackPosted = false;
+
+        @Override
+        public void execute(Runnable task) {
+            renderHandler.post(() -> {
+                pending.addLast(task);
+                if (!callbackPosted) {
+                    callbackPosted = true;
+                    choreographer.postFrameCallback(this);
+                }
+            });
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            callbackPosted = false;
+            vsyncCallbacks.incrementAndGet();
+            Runnable task;
+            while ((task = pending.pollFirst()) != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.esp32camviewer.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 把JMH的CSV结果（gradle jmh写到build/results/jmh/results.csv）与保存的基线比较，
+ * 有基准变差时以状态1退出，gradle jmhCheck因此失败。
+ *
+ * 按基准名加参数配对；吞吐模式越高越好，其他模式越低越好。变差超过容差、并且超出两边误差中较大的一个才算退步，
+ * 机器上的正常波动不会报出来；误差太大时多跑几轮（jmh的iterations）再比较。加-prof gc时还比较每次操作分配的字节（gc.alloc.rate.norm），
+ * 额外允许16字节的偏差，原本不分配的路径开始分配时能发现。
+ * 结果里有、基线里没有的基准只列出来不比较；只跑了部分基准时，基线里其他的基准不受影响。
+ *
+ * 参数: 结果文件 基线文件 [容差，默认0.15] [--update]，--update时用结果覆盖基线。
+ * 基线和机器有关，换了机器先在同一台机器上--update一次。
+ */
+public final class BaselineCheck {
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    private static final double ALLOCATION_SLACK_BYTES = 16;
+
+    /** 一条结果: 分数、99.9%误差和单位，越高越好还是越低越好 */
+    static final class Score {
+        final double value;
+        final double error;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Score(double value, double error, String unit, boolean higherIsBetter) {
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("用法: BaselineCheck 结果.csv 基线.csv [容差] [--update]");
+            System.exit(2);
+        }
+        File results = new File(args[0]);
+        File baseline = new File(args[1]);
+        double tolerance = 0.15;
+        boolean update = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--update")) {
+                update = true;
+            } else {
+                tolerance = Double.parseDouble(args[i]);
+            }
+        }
+        if (!results.isFile()) {
+            System.err.println("没有结果文件，先运行gradle jmh: " + results);
+            System.exit(2);
+        }
+        if (update) {
+            File directory = baseline.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("无法创建目录: " + directory);
+            }
+            Files.copy(results.toPath(), baseline.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("已更新基线: " + baseline);
+            return;
+        }
+        if (!baseline.isFile()) {
+            System.err.println("没有基线，用-PjmhUpdateBaseline保存这次的结果: " + baseline);
+            System.exit(2);
+        }
+
+        Map<String, Score> current = read(results);
+        Map<String, Score> expected = read(baseline);
+        List<String> regressions = new ArrayList<>();
+        System.out.printf(Locale.ROOT, "%-72s %14s %14s %8s%n", "基准", "基线", "本次", "变化");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            String key = entry.getKey();
+            Score now = entry.getValue();
+            Score before = expected.get(key);
+            if (before == null) {
+                System.out.printf(Locale.ROOT, "%-72s %14s %14s %8s%n", key, "-", format(now), "新增");
+                continue;
+            }
+            boolean regressed = isRegression(key, before, now, tolerance);
+            double change = before.value == 0 ? 0 : (now.value - before.value) / before.value * 100;
+            System.out.printf(Locale.ROOT, "%-72s %14s %14s %+7.1f%%%s%n", key, format(before), format(now), change,
+                    regressed ? "  退步" : "");
+            if (regressed) {
+                regressions.add(key);
+            }
+        }
+        if (!regressions.isEmpty()) {
+            System.out.println(regressions.size() + "项比基线差超过" + Math.round(tolerance * 100) + "%: " + regressions);
+            System.exit(1);
+        }
+        System.out.println("没有超过" + Math.round(tolerance * 100) + "%的退步");
+    }
+
+    static boolean isRegression(String key, Score before, Score now, double tolerance) {
+        if (key.contains(ALLOCATION)) {
+            return now.value > before.value * (1 + tolerance) + ALLOCATION_SLACK_BYTES;
+        }
+        double worse = before.higherIsBetter ? before.value - now.value : now.value - before.value;
+        double noise = Math.max(Double.isNaN(before.error) ? 0 : before.error, Double.isNaN(now.error) ? 0 : now.error);
+        return worse > before.value * tolerance && worse > noise;
+    }
+
+    private static String format(Score score) {
+        return String.format(Locale.ROOT, "%.3f %s", score.value, score.unit);
+    }
+
+    /**
+     * 读取JMH的CSV结果，键为"基准名[参数=值,...]"，次要指标的基准名带":指标名"。
+     * 只保留主要分数和每次操作分配的字节，其他次要指标（GC次数、分配速率等）随吞吐变化，不做比较。
+     */
+    static Map<String, Score> read(File file) throws IOException {
+        // 基准名和参数都是ASCII，按单字节读，JMH用什么编码写的"·"都不会读失败
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1);
+        Map<String, Score> scores = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return scores;
+        }
+        List<String> header = parseLine(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        int unit = header.indexOf("Unit");
+        if (benchmark < 0 || mode < 0 || score < 0 || unit < 0) {
+            throw new IOException("不是JMH的CSV结果: " + file);
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            List<String> fields = parseLine(line);
+            String name = fields.get(benchmark);
+            int colon = name.indexOf(':');
+            if (colon >= 0) {
+                if (!name.endsWith(ALLOCATION)) {
+                    continue;
+                }
+                // JMH在次要指标名前加"·"，非UTF-8的区域设置下写成"?"，去掉后不同机器上的结果才能配对
+                name = name.substring(0, colon + 1) + ALLOCATION;
+            }
+            Map<String, String> params = new TreeMap<>();
+            for (int i = 0; i < header.size() && i < fields.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty()) {
+                    params.put(header.get(i).substring("Param: ".length()), fields.get(i));
+                }
+            }
+            String key = params.isEmpty() ? name : name + params.toString().replace('{', '[').replace('}', ']')
+                    .replace(", ", ",");
+            scores.put(key, new Score(parseNumber(fields.get(score)),
+                    error < 0 ? Double.NaN : parseNumber(fields.get(error)), fields.get(unit),
+                    fields.get(mode).equals("thrpt")));
+        }
+        return scores;
+    }
+
+    private static double parseNumber(String text) {
+        if (text.isEmpty() || text.equals("NaN")) {
+            return Double.NaN;
+        }
+        // 有的区域设置下JMH用逗号作小数点
+        return Double.parseDouble(text.replace(',', '.'));
+    }
+
+    /** 逗号分隔，字段可以用双引号括起来，引号内的两个双引号表示一个 */
+    static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.esp32camviewer.metrics;
+
+import com.example.esp32camviewer.stream.FrameParser;
+import com.example.esp32camviewer.stream.FramePipeline;
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import com.example.esp32camviewer.stream.MultipartMjpegParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指标采集的开销，每组有无指标各跑一次，比较每帧耗时：
+ * parse为I/O线程上只切帧（最苛刻的对比，采集的开销全落在这里），
+ * path为切帧、解码、显示整条路径（解码用ImageIO，和查看器一样每帧都记录到达、解码和显示）。
+ * 两次运行之间的波动往往比指标本身的开销还大，所以另外单独测每帧记录指标的耗时（metricsPerFrame，
+ * 与onFrame()加onPresented()做的事相同），用它除以path得到开销比例，应低于1%。
+ *
+ * 运行: gradle jmh -PjmhIncludes=MetricsOverheadBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class MetricsOverheadBenchmark {
+    private static final int FRAMES = 8;
+    private static final int CHUNK = 16 * 1024;
+
+    @Param({"VGA", "UXGA"})
+    public MjpegTestStreams.FrameSize frameSize;
+
+    private byte[] stream;
+    private final byte[] readBuffer = new byte[CHUNK];
+    private final StreamMetrics metrics = new StreamMetrics("benchmark");
+    private final StreamMetrics perFrame = new StreamMetrics("perFrame");
+    private final LatencyHistogram decodeTimes = new LatencyHistogram();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long sink;
+    private long clock;
+
+    private FrameParser parsePlain;
+    private FrameParser parseMetered;
+    private FramePipeline<BufferedImage> pipelinePlain;
+    private FramePipeline<BufferedImage> pipelineMetered;
+    private FrameParser pathPlain;
+    private FrameParser pathMetered;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        List<byte[]> jpegs = MjpegTestStreams.decodableFrames(frameSize, FRAMES);
+        stream = MjpegTestStreams.multipartStream(jpegs);
+        parsePlain = new MultipartMjpegParser("frame", frame -> {
+            sink += frame.length();
+            frame.release();
+        });
+        parseMetered = new MultipartMjpegParser("frame", frame -> {
+            metrics.onFrame(frame);
+            sink += frame.length();
+            frame.release();
+        });
+
+        // 解码和显示都在调用线程上同步执行，测到的是整条路径的CPU时间
+        pipelinePlain = new FramePipeline<>(new ImageIoDecoder(frameSize), frame -> sink++, Runnable::run, null,
+                Runnable::run);
+        pipelineMetered = new FramePipeline<>(new ImageIoDecoder(frameSize), frame -> sink++, Runnable::run, null,
+                Runnable::run);
+        StreamMetrics pathMetrics = new StreamMetrics("path");
+        pathMetrics.attach(pipelineMetered);
+        pipelinePlain.start();
+        pipelineMetered.start();
+        pathPlain = new MultipartMjpegParser("frame", pipelinePlain::submit);
+        pathMetered = new MultipartMjpegParser("frame", frame -> {
+            pathMetrics.onFrame(frame);
+            pipelineMetered.submit(frame);
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        pipelinePlain.stop();
+        pipelineMetered.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long parse() {
+        feedChunks(parsePlain);
+        return sink;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long parseWithMetrics() {
+        feedChunks(parseMetered);
+        return sink;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long path() {
+        feedChunks(pathPlain);
+        return sink;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long pathWithMetrics() {
+        feedChunks(pathMetered);
+        return sink;
+    }
+
+    @Benchmark
+    public long metricsPerFrame() {
+        // 帧间隔约50ms，解码约5ms，延迟约20ms，落在真实的桶里
+        clock += 50_000_000 + (clock & 0xFFFF);
+        perFrame.onFrame(40_000, clock);
+        decodeTimes.recordNanos(5_000_000 + (clock & 0xFFFFF));
+        latencies.recordNanos(20_000_000 + (clock & 0xFFFFF));
+        return clock;
+    }
+
+    private void feedChunks(FrameParser parser) {
+        for (int offset = 0; offset < stream.length; offset += CHUNK) {
+            int n = Math.min(CHUNK, stream.length - offset);
+            System.arraycopy(stream, offset, readBuffer, 0, n);
+            parser.feed(readBuffer, 0, n);
+        }
+    }
+
+    /** 复用读取器和目标图像的ImageIO解码 */
+    private static final class ImageIoDecoder implements FramePipeline.Decoder<BufferedImage> {
+        private final ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        private final BufferedImage destination;
+
+        ImageIoDecoder(MjpegTestStreams.FrameSize size) {
+            destination = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        }
+
+        @Override
+        public BufferedImage decode(JpegFrame frame) {
+            try (MemoryCacheImageInputStream input = new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(frame.data(), 0, frame.length()))) {
+                reader.setInput(input);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setDestination(destination);
+                return reader.read(0, param);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+}
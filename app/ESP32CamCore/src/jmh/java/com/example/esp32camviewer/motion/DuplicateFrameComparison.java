@@ -0,0 +1,102 @@
+package com.example.esp32camviewer.motion;
+
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 静止和忙碌画面上去重的效果：跳过的帧和字节的比例、需要比较DC亮度的帧数，
+ * 以及每帧的判断耗时、完整解码的耗时和去重后平均每帧的解码阶段耗时（判断 + 没跳过的帧的解码）。
+ * 按20fps的时间戳送入，参考帧每秒至少保留一帧，和查看器、录像里的用法一致。
+ *
+ * 默认使用合成的室内场景（噪点、自动曝光起伏，忙碌画面里一直有物体横穿）。
+ * 要用录制的数据，把静止和忙碌的流保存为static-vga.mjpeg、busy-vga.mjpeg（svga同理），
+ * 运行时加-Desp32cam.corpus.dir=目录。
+ *
+ * 运行: gradle jmhJar && java -cp build/libs/esp32cam-core-1.0-jmh.jar \
+ *   com.example.esp32camviewer.motion.DuplicateFrameComparison [帧数]
+ */
+public final class DuplicateFrameComparison {
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 20;
+
+    public static void main(String[] args) throws Exception {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        System.out.println("分辨率  画面  来源  跳过帧   跳过字节  DC比较  判断(µs/帧)  解码(µs/帧)  去重后(µs/帧)");
+        for (MjpegTestStreams.FrameSize size : new MjpegTestStreams.FrameSize[]{
+                MjpegTestStreams.FrameSize.VGA, MjpegTestStreams.FrameSize.SVGA}) {
+            for (boolean busy : new boolean[]{false, true}) {
+                String name = (busy ? "busy-" : "static-") + size.name().toLowerCase() + ".mjpeg";
+                List<byte[]> jpegs = MjpegTestStreams.recorded(name, frameCount);
+                String source = "录制";
+                if (jpegs == null) {
+                    boolean[] moving = new boolean[frameCount];
+                    Arrays.fill(moving, busy);
+                    jpegs = MjpegTestStreams.motionScenes(size, moving, 7);
+                    source = "合成";
+                }
+                run(size, busy ? "忙碌" : "静止", source, jpegs);
+            }
+        }
+    }
+
+    private static void run(MjpegTestStreams.FrameSize size, String scene, String source, List<byte[]> jpegs)
+            throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        BufferedImage destination = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        // 先各跑一遍预热
+        filter(jpegs, new boolean[jpegs.size()]);
+        for (byte[] jpeg : jpegs) {
+            decode(reader, destination, jpeg);
+        }
+
+        boolean[] duplicate = new boolean[jpegs.size()];
+        long start = System.nanoTime();
+        DuplicateFrameFilter.Stats stats = filter(jpegs, duplicate);
+        long filterNanos = System.nanoTime() - start;
+
+        long decodeNanos = 0;
+        long keptDecodeNanos = 0;
+        for (int i = 0; i < jpegs.size(); i++) {
+            long before = System.nanoTime();
+            decode(reader, destination, jpegs.get(i));
+            long elapsed = System.nanoTime() - before;
+            decodeNanos += elapsed;
+            if (!duplicate[i]) {
+                keptDecodeNanos += elapsed;
+            }
+        }
+        reader.dispose();
+        int frames = jpegs.size();
+        System.out.printf("%-6s  %-4s  %-4s  %6.1f%%  %7.1f%%  %6d  %11.1f  %11.1f  %13.1f%n", size, scene, source,
+                stats.savedFrameRatio() * 100, stats.savedByteRatio() * 100, stats.lumaChecks,
+                filterNanos / 1000.0 / frames, decodeNanos / 1000.0 / frames,
+                (filterNanos + keptDecodeNanos) / 1000.0 / frames);
+    }
+
+    private static DuplicateFrameFilter.Stats filter(List<byte[]> jpegs, boolean[] duplicate) {
+        DuplicateFrameFilter filter = new DuplicateFrameFilter();
+        for (int i = 0; i < jpegs.size(); i++) {
+            byte[] jpeg = jpegs.get(i);
+            duplicate[i] = filter.isDuplicate(jpeg, jpeg.length, i * FRAME_INTERVAL_NANOS);
+        }
+        return filter.stats();
+    }
+
+    private static void decode(ImageReader reader, BufferedImage destination, byte[] jpeg) throws IOException {
+        try (MemoryCacheImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(jpeg))) {
+            reader.setInput(input);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(destination);
+            reader.read(0, param);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.esp32camviewer.motion;
+
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 移动检测每帧的耗时：只取DC系数的亮度平面（extract）、加上背景差分（analyze），
+ * 对比先完整解码成RGB再按8x8块求平均亮度（fullDecode，即在显示解码之外再解一次的代价）。
+ *
+ * 运行: gradle jmh -PjmhIncludes=MotionDetectionBenchmark
+ * 使用录制数据时加-Desp32cam.corpus.dir=目录，从vga.mjpeg等文件中取帧。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class MotionDetectionBenchmark {
+    private static final int FRAMES = 8;
+
+    @Param({"VGA", "SVGA", "UXGA"})
+    public MjpegTestStreams.FrameSize frameSize;
+
+    private byte[][] jpegs;
+    private final DcLumaExtractor extractor = new DcLumaExtractor();
+    private final MotionDetector detector = new MotionDetector();
+    private ImageReader reader;
+    private BufferedImage destination;
+    private int[] blockLuma;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        List<byte[]> frames = MjpegTestStreams.decodableFrames(frameSize, FRAMES);
+        jpegs = frames.toArray(new byte[0][]);
+        reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        destination = new BufferedImage(frameSize.width, frameSize.height, BufferedImage.TYPE_INT_RGB);
+        blockLuma = new int[(frameSize.width / 8) * (frameSize.height / 8)];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void extract(Blackhole blackhole) {
+        for (byte[] jpeg : jpegs) {
+            blackhole.consume(extractor.extract(jpeg, jpeg.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void analyze(Blackhole blackhole) {
+        for (byte[] jpeg : jpegs) {
+            blackhole.consume(detector.analyze(jpeg, jpeg.length));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void fullDecode(Blackhole blackhole) throws IOException {
+        for (byte[] jpeg : jpegs) {
+            try (MemoryCacheImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(jpeg))) {
+                reader.setInput(input);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setDestination(destination);
+                reader.read(0, param);
+            }
+            int[] pixels = ((DataBufferInt) destination.getRaster().getDataBuffer()).getData();
+            int blocksWide = frameSize.width / 8;
+            for (int i = 0; i < blockLuma.length; i++) {
+                blockLuma[i] = 0;
+            }
+            for (int y = 0; y < frameSize.height; y++) {
+                int row = (y / 8) * blocksWide;
+                for (int x = 0; x < frameSize.width; x++) {
+                    int rgb = pixels[y * frameSize.width + x];
+                    blockLuma[row + x / 8] += (77 * ((rgb >> 16) & 0xFF) + 150 * ((rgb >> 8) & 0xFF) + 29 * (rgb & 0xFF)) >> 8;
+                }
+            }
+            blackhole.consume(blockLuma);
+        }
+    }
+}
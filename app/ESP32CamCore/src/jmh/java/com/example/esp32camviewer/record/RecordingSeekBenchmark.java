@@ -0,0 +1,93 @@
+package com.example.esp32camviewer.record;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多小时录像上按时间戳定位的耗时，以及定位后读出一帧的耗时。
+ * 录像按20fps生成，每帧只有几百字节（定位只和索引条数有关，帧大小只影响读帧），每段1MB，分段数和真实录像相当。
+ *
+ * 运行: gradle jmh -PjmhIncludes=RecordingSeekBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class RecordingSeekBenchmark {
+    private static final int FPS = 20;
+    private static final int FRAME_BYTES = 512;
+
+    @Param({"1", "4"})
+    public int hours;
+
+    private File directory;
+    private RecordingReader reader;
+    private long durationNanos;
+    private final SplittableRandom random = new SplittableRandom(7);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_BYTES);
+
+    @Setup(Level.Trial)
+    public void record() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("recording-seek").toFile();
+        File recording = new File(directory, "recording");
+        byte[] frame = new byte[FRAME_BYTES];
+        long frames = hours * 3600L * FPS;
+        long interval = TimeUnit.SECONDS.toNanos(1) / FPS;
+        long base = System.nanoTime();
+        try (MjpegRecorder recorder = new MjpegRecorder(recording, 1024 * 1024, MjpegRecorder.DEFAULT_MAX_PENDING_BYTES)) {
+            for (long i = 0; i < frames; i++) {
+                // 写线程跟不上时等一下，不丢帧
+                while (!recorder.offer(frame, frame.length, base + i * interval)) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+        reader = RecordingReader.open(recording);
+        durationNanos = reader.durationNanos();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        reader.close();
+        File recording = new File(directory, "recording");
+        File[] files = recording.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        recording.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public int seek() {
+        return reader.seek(random.nextLong(durationNanos));
+    }
+
+    @Benchmark
+    public int seekAndRead() throws IOException {
+        int frame = reader.seek(random.nextLong(durationNanos));
+        ((Buffer) buffer).clear();
+        return reader.readFrame(frame, buffer);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录像的写入吞吐，各分辨率各跑两遍：
+ * 不限速（调用方在排队满时等待，看写线程每秒最多能写多少帧和多少MB）和20fps（与固件一致，
+ * 看offer()在调用方线程上的耗时、写线程每帧的耗时和丢帧数，丢帧应为0）。
+ * 录像写到系统临时目录（-Djava.io.tmpdir可以改到要测的磁盘），跑完删除。
+ *
+ * 运行: gradle jmhJar && java -cp build/libs/esp32cam-core-1.0-jmh.jar \
+ *   com.example.esp32camviewer.record.RecordingThroughput [每组秒数]
+ */
+public final class RecordingThroughput {
+    private static final int CAMERA_FPS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        System.out.println("分辨率  限速  帧/秒   MB/秒   offer(µs)  写入(µs/帧)  丢帧  分段");
+        for (MjpegTestStreams.FrameSize size : MjpegTestStreams.FrameSize.values()) {
+            List<byte[]> jpegs = MjpegTestStreams.jpegFrames(size, 16, 42);
+            for (int fps : new int[]{0, CAMERA_FPS}) {
+                File directory = Files.createTempDirectory("recording-throughput").toFile();
+                try {
+                    run(size, jpegs, fps, seconds, directory);
+                } finally {
+                    delete(directory);
+                }
+            }
+        }
+    }
+
+    private static void run(MjpegTestStreams.FrameSize size, List<byte[]> jpegs, int fps, int seconds, File directory)
+            throws IOException, InterruptedException {
+        // 每段64MB，多跑几秒就会换段
+        MjpegRecorder recorder = new MjpegRecorder(new File(directory, "recording"), 64L * 1024 * 1024,
+                MjpegRecorder.DEFAULT_MAX_PENDING_BYTES);
+        long interval = fps == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / fps;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long offerNanos = 0;
+        long offers = 0;
+        long next = start;
+        for (int i = 0; System.nanoTime() < end; i++) {
+            byte[] jpeg = jpegs.get(i % jpegs.size());
+            if (fps > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                next += interval;
+                long before = System.nanoTime();
+                recorder.offer(jpeg, jpeg.length, before);
+                offerNanos += System.nanoTime() - before;
+                offers++;
+            } else {
+                while (!recorder.offer(jpeg, jpeg.length, System.nanoTime())) {
+                    Thread.yield();
+                }
+            }
+        }
+        recorder.close();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-6s  %4s  %6.1f  %6.1f  %9s  %11.1f  %4d  %4d%n", size,
+                fps == 0 ? "不限" : String.valueOf(fps), recorder.framesWritten() / elapsed,
+                recorder.bytesWritten() / elapsed / (1024 * 1024),
+                offers == 0 ? "-" : String.format("%.1f", offerNanos / 1000.0 / offers),
+                recorder.averageWriteNanosPerFrame() / 1000.0, fps == 0 ? 0 : recorder.droppedFrames(),
+                recorder.segmentCount());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
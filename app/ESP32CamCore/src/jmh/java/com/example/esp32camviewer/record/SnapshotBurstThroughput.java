@@ -0,0 +1,73 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 连拍的写入吞吐：各分辨率不限速地送入一次连拍的全部帧，看写线程每秒能写多少帧和多少MB、
+ * offer()在调用方线程上的平均耗时和写线程每帧的耗时。固件最高约25fps，连拍写入要比它快几倍，
+ * 连拍之后才能马上追上。
+ * 照片写到系统临时目录（-Djava.io.tmpdir可以改到要测的磁盘），跑完删除。
+ *
+ * 运行: gradle jmhJar && java -cp build/libs/esp32cam-core-1.0-jmh.jar \
+ *   com.example.esp32camviewer.record.SnapshotBurstThroughput [每次连拍帧数]
+ */
+public final class SnapshotBurstThroughput {
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        System.out.println("分辨率  帧/秒   MB/秒   offer(µs)  写入(µs/帧)  丢帧");
+        for (MjpegTestStreams.FrameSize size : MjpegTestStreams.FrameSize.values()) {
+            List<byte[]> jpegs = MjpegTestStreams.jpegFrames(size, 4, 9);
+            File directory = Files.createTempDirectory("snapshot-throughput").toFile();
+            try {
+                run(size, jpegs, frames, directory);
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    private static void run(MjpegTestStreams.FrameSize size, List<byte[]> jpegs, int frames, File directory)
+            throws InterruptedException {
+        // 排队上限放得下整次连拍，只看写线程的速度
+        SnapshotWriter writer = new SnapshotWriter(directory, null, 64 * 1024 * 1024);
+        CountDownLatch captured = new CountDownLatch(1);
+        AtomicReference<SnapshotWriter.Result> result = new AtomicReference<>();
+        writer.capture(frames, TimeUnit.MINUTES.toMillis(1), r -> {
+            result.set(r);
+            captured.countDown();
+        });
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            byte[] jpeg = jpegs.get(i % jpegs.size());
+            writer.offer(JpegFrame.wrap(jpeg, jpeg.length, i, System.nanoTime()));
+        }
+        long offered = System.nanoTime() - start;
+        captured.await();
+        writer.close();
+
+        SnapshotWriter.Result burst = result.get();
+        double seconds = burst.elapsedNanos / 1e9;
+        System.out.printf("%-6s  %6.1f  %6.1f  %9.1f  %11.1f  %4d%n", size, burst.files.size() / seconds,
+                writer.bytesWritten() / seconds / (1024 * 1024), offered / 1000.0 / frames,
+                writer.averageWriteNanosPerFrame() / 1000.0, burst.dropped);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.esp32camviewer.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在同一批帧上比较解码后端的每帧耗时。JVM上用ImageIO的两种用法代替Android后端：
+ * 每帧新建图像（对应BitmapFactory不复用）、复用目标图像（对应inBitmap），
+ * 以及按显示区域缩小到1/4解码（对应inSampleSize，UXGA显示在400x300左右的区域时）。
+ * 设备上的后端用同一个{@link DecoderComparison}比较，见ESP32CamAndroid的SelectableDecoder。
+ *
+ * 运行: gradle jmh -PjmhIncludes=DecoderBackendBenchmark
+ * 快速排名（不经过JMH）: java -cp build/libs/esp32cam-core-1.0-jmh.jar \
+ *   com.example.esp32camviewer.stream.DecoderBackendBenchmark
+ * 使用录制数据时加-Desp32cam.corpus.dir=目录，从vga.mjpeg等文件中取帧。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class DecoderBackendBenchmark {
+    private static final int FRAMES = 8;
+
+    @Param({"VGA", "SVGA", "UXGA"})
+    public MjpegTestStreams.FrameSize frameSize;
+
+    private JpegFrame[] frames;
+    private JvmDecoders.AllocatingDecoder allocating;
+    private JvmDecoders.ReusingDecoder reusing;
+    private JvmDecoders.ReusingDecoder sampled;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        List<byte[]> jpegs = MjpegTestStreams.decodableFrames(frameSize, FRAMES);
+        frames = new JpegFrame[jpegs.size()];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = JpegFrame.wrap(jpegs.get(i), jpegs.get(i).length);
+        }
+        allocating = new JvmDecoders.AllocatingDecoder();
+        reusing = new JvmDecoders.ReusingDecoder();
+        sampled = new JvmDecoders.ReusingDecoder(4);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void allocatingDecode(Blackhole blackhole) {
+        for (JpegFrame frame : frames) {
+            blackhole.consume(allocating.decode(frame));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void reusingDecode(Blackhole blackhole) {
+        for (JpegFrame frame : frames) {
+            BufferedImage image = reusing.decode(frame);
+            blackhole.consume(image);
+            reusing.recycle(image);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void sampledDecode(Blackhole blackhole) {
+        for (JpegFrame frame : frames) {
+            BufferedImage image = sampled.decode(frame);
+            blackhole.consume(image);
+            sampled.recycle(image);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        for (MjpegTestStreams.FrameSize size : MjpegTestStreams.FrameSize.values()) {
+            JvmDecoders.ReusingDecoder reusingDecoder = new JvmDecoders.ReusingDecoder();
+            Map<String, FramePipeline.Decoder<BufferedImage>> decoders = new LinkedHashMap<>();
+            decoders.put("allocating", new JvmDecoders.AllocatingDecoder());
+            decoders.put("reusing", reusingDecoder);
+            List<DecoderComparison.Result> results = DecoderComparison.run(decoders, reusingDecoder::recycle,
+                    MjpegTestStreams.decodableFrames(size, FRAMES), 5);
+            System.out.println(size + " " + results);
+        }
+    }
+}
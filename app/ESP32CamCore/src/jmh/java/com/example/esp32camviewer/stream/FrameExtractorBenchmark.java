@@ -0,0 +1,75 @@
+package com.example.esp32camviewer.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 原切帧循环与MjpegFrameExtractor的每帧耗时对比，按1024字节分块送入，与查看器的读取方式一致。
+ * 原循环的耗时随帧大小平方增长，UXGA下单帧就要数秒，因此每次只处理少量帧。
+ *
+ * 运行: gradle jmh -PjmhIncludes=FrameExtractorBenchmark
+ * 使用录制数据: java -Desp32cam.corpus.dir=目录 -jar build/libs/esp32cam-core-1.0-jmh.jar
+ *   （目录中放vga.mjpeg、svga.mjpeg、uxga.mjpeg）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class FrameExtractorBenchmark {
+    private static final int FRAMES = 3;
+    private static final int CHUNK = 1024;
+
+    @Param({"VGA", "SVGA", "UXGA"})
+    public MjpegTestStreams.FrameSize frameSize;
+
+    private byte[] stream;
+    private final byte[] readBuffer = new byte[CHUNK];
+    private MjpegFrameExtractor extractor;
+    private Blackhole blackhole;
+
+    @Setup(Level.Trial)
+    public void load(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        stream = MjpegTestStreams.load(frameSize, FRAMES);
+        extractor = new MjpegFrameExtractor(frame -> {
+            this.blackhole.consume(frame.length());
+            frame.release();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void extractor() {
+        for (int offset = 0; offset < stream.length; offset += CHUNK) {
+            int n = Math.min(CHUNK, stream.length - offset);
+            System.arraycopy(stream, offset, readBuffer, 0, n);
+            extractor.feed(readBuffer, 0, n);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void legacyLoop() {
+        LegacyMarkerScanner legacy = new LegacyMarkerScanner(jpeg -> blackhole.consume(jpeg.length));
+        for (int offset = 0; offset < stream.length; offset += CHUNK) {
+            int n = Math.min(CHUNK, stream.length - offset);
+            System.arraycopy(stream, offset, readBuffer, 0, n);
+            legacy.feed(readBuffer, n);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.esp32camviewer.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本机回环上的端到端帧率：StandInMjpegServer不限速发送，NioMjpegClient读取、按multipart切帧，
+ * receive只数收到的帧，display再经过FramePipeline解码（ImageIO，复用目标图像）后数显示的帧。
+ * 每次调用等待一帧，得分即每秒帧数；服务器受TCP流控，发送速度跟着客户端走。
+ * 加-prof gc时gc.alloc.rate.norm是每帧在所有线程上分配的字节数（包括同进程里服务器的分配）。
+ *
+ * 运行: gradle jmh -PjmhIncludes=LoopbackStreamBenchmark
+ * 使用录制数据时加-PjmhCorpus=目录，从vga.mjpeg等文件中取帧。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class LoopbackStreamBenchmark {
+    private static final int FRAMES = 8;
+    // 流断了时不让基准一直卡住
+    private static final long FRAME_TIMEOUT_MS = 5000;
+
+    @Param({"VGA", "SVGA", "XGA", "SXGA", "UXGA"})
+    public MjpegTestStreams.FrameSize frameSize;
+
+    @Param({"receive", "display"})
+    public String path;
+
+    private final Semaphore frames = new Semaphore(0);
+    private StandInMjpegServer server;
+    private NioMjpegClient client;
+    private NioMjpegClient.Stream stream;
+    private FramePipeline<BufferedImage> pipeline;
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        List<byte[]> jpegs = MjpegTestStreams.decodableFrames(frameSize, FRAMES);
+        server = new StandInMjpegServer(jpegs, 0);
+        client = new NioMjpegClient(1);
+        FrameListener listener;
+        if (path.equals("display")) {
+            JvmDecoders.ReusingDecoder decoder = new JvmDecoders.ReusingDecoder();
+            pipeline = new FramePipeline<>(decoder, image -> frames.release(), Runnable::run, decoder);
+            pipeline.start();
+            listener = pipeline::submit;
+        } else {
+            listener = frame -> {
+                frame.release();
+                frames.release();
+            };
+        }
+        stream = client.open(server.url(), 2000, 5000, listener, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException {
+        stream.close();
+        client.close();
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public void frame() throws InterruptedException {
+        if (!frames.tryAcquire(FRAME_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException(FRAME_TIMEOUT_MS + "ms内没有收到帧: " + stream.stats());
+        }
+    }
+}
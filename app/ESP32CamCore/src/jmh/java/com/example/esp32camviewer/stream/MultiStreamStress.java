@@ -0,0 +1,130 @@
+package com.example.esp32camviewer.stream;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 多路网格的压力测试：1到16个本机模拟摄像头（20fps），读取共用NioMjpegClient的两个I/O线程，
+ * 解码共享一个按核数定长的线程池，每个画面按网格布局下的尺寸缩小解码、按TileFrameRatePolicy限速，
+ * 超出屏幕的画面暂停解码但保持连接。输出每种路数的解码帧率、进程CPU占用和GC后的堆占用。
+ *
+ * 模拟服务器也在同一进程里，CPU占用包含服务器发送的开销；最后一组对比16路全部暂停和全部解码，
+ * 两者之差就是解码的开销，全部暂停时的数值是保持连接的开销上限。
+ *
+ * 运行: gradle jmhJar && java -cp build/libs/esp32cam-core-1.0-jmh.jar \
+ *   com.example.esp32camviewer.stream.MultiStreamStress [每组秒数]
+ */
+public final class MultiStreamStress {
+    private static final int CAMERA_FPS = 20;
+    // 模拟1080x1920的竖屏手机，网格列数随路数增加
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        List<byte[]> frames = MjpegTestStreams.decodableFrames(MjpegTestStreams.FrameSize.VGA, 8);
+        int workers = Runtime.getRuntime().availableProcessors();
+        System.out.printf("VGA %d fps/路, 解码线程 %d, 每组 %d 秒%n", CAMERA_FPS, workers, seconds);
+        System.out.println("路数  可见  每路上限  解码fps  跳过fps  CPU(核)  堆(MB)");
+
+        for (int streams : new int[]{1, 2, 4, 8, 16}) {
+            run(frames, streams, workers, seconds, false, false);
+        }
+        System.out.println("16路全部暂停 / 全部不限速:");
+        run(frames, 16, workers, seconds, true, false);
+        run(frames, 16, workers, seconds, false, true);
+    }
+
+    private static void run(List<byte[]> frames, int streams, int workers, int seconds,
+                            boolean pauseAll, boolean noLimit) throws Exception {
+        int columns = (int) Math.ceil(Math.sqrt(streams));
+        int tileWidth = SCREEN_WIDTH / columns;
+        int tileHeight = tileWidth * 3 / 4;
+        int visibleRows = Math.max(1, SCREEN_HEIGHT / tileHeight);
+        int sampleSize = JpegHeaderReader.sampleSizeFor(640, 480, tileWidth, tileHeight);
+
+        ExecutorService decodePool = Executors.newFixedThreadPool(workers);
+        List<StandInMjpegServer> servers = new ArrayList<>();
+        NioMjpegClient client = new NioMjpegClient(2);
+        List<NioMjpegClient.Stream> connections = new ArrayList<>();
+        List<FramePipeline<BufferedImage>> pipelines = new ArrayList<>();
+        int visible = 0;
+        int maxFps = TileFrameRatePolicy.UNLIMITED;
+        try {
+            for (int i = 0; i < streams; i++) {
+                StandInMjpegServer server = new StandInMjpegServer(frames, CAMERA_FPS);
+                servers.add(server);
+                JvmDecoders.ReusingDecoder decoder = new JvmDecoders.ReusingDecoder(sampleSize);
+                FramePipeline<BufferedImage> pipeline = new FramePipeline<>(decoder, frame -> {
+                }, Runnable::run, decoder, decodePool);
+                boolean onScreen = !pauseAll && i / columns < visibleRows;
+                int fps = noLimit ? TileFrameRatePolicy.UNLIMITED
+                        : TileFrameRatePolicy.maxFpsFor(tileWidth, tileHeight, onScreen);
+                TileFrameRatePolicy.apply(pipeline, fps);
+                if (fps != TileFrameRatePolicy.PAUSED) {
+                    visible++;
+                    maxFps = fps;
+                }
+                pipeline.start();
+                pipelines.add(pipeline);
+
+                connections.add(client.open(server.url(), 2000, 5000, pipeline::submit, null));
+            }
+
+            // 先跑一秒让连接建立、JIT预热，再开始计数
+            Thread.sleep(1000);
+            long decodedBefore = 0;
+            long skippedBefore = 0;
+            for (FramePipeline<BufferedImage> pipeline : pipelines) {
+                decodedBefore += pipeline.stats().decoded;
+                skippedBefore += pipeline.stats().skipped;
+            }
+            long cpuBefore = processCpuNanos();
+            long wallBefore = System.nanoTime();
+
+            Thread.sleep(seconds * 1000L);
+
+            long wall = System.nanoTime() - wallBefore;
+            double cpuCores = (double) (processCpuNanos() - cpuBefore) / wall;
+            long decoded = -decodedBefore;
+            long skipped = -skippedBefore;
+            for (FramePipeline<BufferedImage> pipeline : pipelines) {
+                decoded += pipeline.stats().decoded;
+                skipped += pipeline.stats().skipped;
+            }
+            System.gc();
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            long heapMb = memory.getHeapMemoryUsage().getUsed() / (1024 * 1024);
+            double wallSeconds = wall / 1e9;
+
+            System.out.printf("%4d  %4d  %8s  %7.1f  %7.1f  %7.2f  %6d%n", streams, visible,
+                    visible == 0 ? "-" : maxFps == TileFrameRatePolicy.UNLIMITED ? "不限" : String.valueOf(maxFps),
+                    decoded / wallSeconds, skipped / wallSeconds, cpuCores, heapMb);
+        } finally {
+            for (NioMjpegClient.Stream connection : connections) {
+                connection.close();
+            }
+            client.close();
+            for (FramePipeline<BufferedImage> pipeline : pipelines) {
+                pipeline.stop();
+            }
+            for (StandInMjpegServer server : servers) {
+                server.close();
+            }
+            decodePool.shutdownNow();
+        }
+    }
+
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
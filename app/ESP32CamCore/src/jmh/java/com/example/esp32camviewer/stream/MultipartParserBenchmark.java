@@ -0,0 +1,103 @@
+package com.example.esp32camviewer.stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按JPEG标记切帧与按multipart边界/Content-Length切帧的吞吐对比。
+ * 辅助计数器bytes、frames给出每秒处理的字节数和帧数。
+ *
+ * 运行: gradle jmh -PjmhIncludes=MultipartParserBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class MultipartParserBenchmark {
+    private static final int FRAMES = 20;
+    private static final int CHUNK = 1024;
+
+    @Param({"VGA", "SVGA", "UXGA"})
+    public MjpegTestStreams.FrameSize frameSize;
+
+    private byte[] stream;
+    private final byte[] readBuffer = new byte[CHUNK];
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long bytes;
+        public long frames;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+            frames = 0;
+        }
+    }
+
+    private Throughput counters;
+    private FrameParser markerScan;
+    private FrameParser multipartFeed;
+    private FrameParser multipartRead;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        stream = MjpegTestStreams.load(frameSize, FRAMES);
+        FrameListener count = frame -> {
+            this.counters.frames++;
+            frame.release();
+        };
+        markerScan = new MjpegFrameExtractor(count);
+        multipartFeed = new MultipartMjpegParser("frame", count);
+        multipartRead = new MultipartMjpegParser("frame", count);
+    }
+
+    @Benchmark
+    public void markerScan(Throughput counters) {
+        this.counters = counters;
+        feedChunks(markerScan);
+        counters.bytes += stream.length;
+    }
+
+    @Benchmark
+    public void multipartFeed(Throughput counters) {
+        this.counters = counters;
+        feedChunks(multipartFeed);
+        counters.bytes += stream.length;
+    }
+
+    @Benchmark
+    public void multipartReadFrom(Throughput counters) throws IOException {
+        this.counters = counters;
+        ByteArrayInputStream in = new ByteArrayInputStream(stream);
+        while (multipartRead.readFrom(in)) {
+            // 正文直接读进帧缓冲区
+        }
+        counters.bytes += stream.length;
+    }
+
+    // 与查看器一样先读进1024字节的缓冲区再交给解析器
+    private void feedChunks(FrameParser parser) {
+        for (int offset = 0; offset < stream.length; offset += CHUNK) {
+            int n = Math.min(CHUNK, stream.length - offset);
+            System.arraycopy(stream, offset, readBuffer, 0, n);
+            parser.feed(readBuffer, 0, n);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 各分辨率下读取方式的对比，本机回环模拟摄像头，只切帧不解码：
+ * 原先的阻塞读取（HttpURLConnection内部8KB缓冲 + BufferedInputStream + 每次1KB）、
+ * 固定32KB直接缓冲区的NioMjpegClient、按帧大小自适应缓冲区和SO_RCVBUF的NioMjpegClient。
+ * 三种方式用同一个MultipartMjpegParser切帧，差别只在读取。
+ *
+ * 每种方式各跑两遍：20fps（和固件一致，看每帧的read次数和CPU）和不限速（看回环上的最大吞吐）。
+ * CPU是读取线程的CPU时间，不含模拟服务器。
+ *
+ * 运行: gradle jmhJar && java -cp build/libs/esp32cam-core-1.0-jmh.jar \
+ *   com.example.esp32camviewer.stream.ReceiveBufferComparison [每组秒数]
+ */
+public final class ReceiveBufferComparison {
+    private static final int CAMERA_FPS = 20;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        System.out.println("分辨率  方式          限速  帧/秒   read/帧  字节/read  CPU(µs/帧)  缓冲区");
+        for (MjpegTestStreams.FrameSize size : MjpegTestStreams.FrameSize.values()) {
+            List<byte[]> jpegs = MjpegTestStreams.jpegFrames(size, 8, 42);
+            for (int fps : new int[]{CAMERA_FPS, 0}) {
+                try (StandInMjpegServer server = new StandInMjpegServer(jpegs, fps)) {
+                    print(size, "阻塞1KB", fps, legacy(server, seconds));
+                }
+                try (StandInMjpegServer server = new StandInMjpegServer(jpegs, fps)) {
+                    print(size, "NIO 32KB", fps, nio(server, seconds, NioMjpegClient.READ_BUFFER_SIZE));
+                }
+                try (StandInMjpegServer server = new StandInMjpegServer(jpegs, fps)) {
+                    print(size, "NIO 自适应", fps, nio(server, seconds, 0));
+                }
+            }
+        }
+    }
+
+    private static void print(MjpegTestStreams.FrameSize size, String mode, int fps, Result result) {
+        System.out.printf("%-6s  %-12s  %4s  %6.1f  %7.2f  %9d  %10.1f  %s%n", size, mode,
+                fps == 0 ? "不限" : String.valueOf(fps), result.stats.framesPerSecond(), result.stats.readsPerFrame(),
+                result.stats.bytesPerRead(), result.cpuFrames == 0 ? 0 : result.cpuNanos / 1000.0 / result.cpuFrames,
+                result.stats.readBufferSize / 1024 + "K");
+    }
+
+    // 原先streamVideo()的读取方式：socket流外面是HttpURLConnection的缓冲，再套一层BufferedInputStream，每次读1KB
+    private static Result legacy(StandInMjpegServer server, int seconds) throws Exception {
+        AtomicLong frames = new AtomicLong();
+        MultipartMjpegParser parser = new MultipartMjpegParser("frame", frame -> {
+            frame.release();
+            frames.incrementAndGet();
+        });
+        try (Socket socket = new Socket("127.0.0.1", server.port())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET / HTTP/1.1\r\nHost: " + server.host() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            CountingInputStream counting = new CountingInputStream(socket.getInputStream());
+            InputStream in = new BufferedInputStream(new BufferedInputStream(counting, 8192));
+            byte[] buffer = new byte[1024];
+
+            long cpuStart = THREADS.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            int n;
+            while (System.nanoTime() < end && (n = in.read(buffer)) != -1) {
+                parser.feed(buffer, 0, n);
+            }
+            long cpu = THREADS.getCurrentThreadCpuTime() - cpuStart;
+            return new Result(new StreamStats(counting.reads, counting.bytes, frames.get(), System.nanoTime() - start,
+                    buffer.length, socket.getReceiveBufferSize(), 0, 0, 0, 0), cpu, frames.get());
+        }
+    }
+
+    private static Result nio(StandInMjpegServer server, int seconds, int fixedReadBufferSize) throws Exception {
+        NioMjpegClient client = new NioMjpegClient(1);
+        client.setFixedReadBufferSize(fixedReadBufferSize);
+        AtomicReference<Thread> ioThread = new AtomicReference<>();
+        try {
+            NioMjpegClient.Stream stream = client.open(server.url(), 2000, 2000, frame -> {
+                ioThread.set(Thread.currentThread());
+                frame.release();
+            }, null);
+            // 等第一帧到达，拿到I/O线程以便读取它的CPU时间
+            while (ioThread.get() == null) {
+                Thread.sleep(1);
+            }
+            long id = ioThread.get().getId();
+            long framesBefore = stream.stats().frames;
+            long cpuStart = THREADS.getThreadCpuTime(id);
+            Thread.sleep(seconds * 1000L);
+            long cpu = THREADS.getThreadCpuTime(id) - cpuStart;
+            long cpuFrames = stream.stats().frames - framesBefore;
+            stream.close();
+            return new Result(stream.stats(), cpu, cpuFrames);
+        } finally {
+            client.close();
+        }
+    }
+
+    private static final class Result {
+        final StreamStats stats;
+        final long cpuNanos;
+        // CPU时间所覆盖的帧数
+        final long cpuFrames;
+
+        Result(StreamStats stats, long cpuNanos, long cpuFrames) {
+            this.stats = stats;
+            this.cpuNanos = cpuNanos;
+            this.cpuFrames = cpuFrames;
+        }
+    }
+
+    // 统计socket流上的read调用，即系统调用次数
+    private static final class CountingInputStream extends FilterInputStream {
+        long reads = 0;
+        long bytes = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            reads++;
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytes += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务器端批量接入时三种读取方式的对比：每路一个平台线程（ThreadPerStreamClient + platformThreads），
+ * NIO Selector（NioMjpegClient，2个I/O线程），每路一个虚拟线程（ThreadPerStreamClient + virtualThreads，
+ * 需要Java 21，更早的JVM上跳过）。分别接入10、100、1000个本机模拟摄像头。
+ *
+ * 模拟摄像头每路5fps、每帧8KB（约等于QVGA），全部路数的总码率和单核能承受的量级相当。
+ * 输出全部连上并收到第一帧的耗时、实际收到的帧率占应有帧率的比例、进程CPU占用、
+ * 读取一方新增的平台线程数、GC后的堆占用，以及close()取消全部会话并等它们结束的耗时。
+ * 模拟服务器在同一进程里，每个连接一个发送线程：CPU占用包含服务器的开销，各方式之间的差才是读取方式本身的差别；
+ * 线程数已扣除服务器的发送线程。NioMjpegClient.close()只通知I/O线程关闭，不等连接全部关完。
+ *
+ * 运行: gradle jmhJar && java -cp build/libs/esp32cam-core-1.0-jmh.jar \
+ *   com.example.esp32camviewer.stream.StreamEngineComparison [每组秒数]
+ */
+public final class StreamEngineComparison {
+    private static final int CAMERA_FPS = 5;
+    private static final int FRAME_BYTES = 8 * 1024;
+    // 每个模拟服务器承载的连接数，避免一个监听队列上同时涌入上千个连接
+    private static final int CONNECTIONS_PER_SERVER = 100;
+
+    /** 三种读取方式的共同部分 */
+    private interface Engine extends Closeable {
+        void open(String url, FrameListener listener) throws IOException;
+
+        @Override
+        void close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Random random = new Random(3);
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            frames.add(MjpegTestStreams.jpeg(MjpegTestStreams.FrameSize.VGA, FRAME_BYTES, random));
+        }
+        boolean virtualAvailable = ThreadPerStreamClient.virtualThreads() != null;
+        System.out.printf("每路%dfps、%dKB/帧，每组%d秒，CPU %d核，Java %s%n", CAMERA_FPS, FRAME_BYTES / 1024, seconds,
+                Runtime.getRuntime().availableProcessors(), System.getProperty("java.version"));
+        if (!virtualAvailable) {
+            System.out.println("当前JVM没有虚拟线程（需要Java 21），跳过virtual");
+        }
+        System.out.println("方式        路数  全部首帧(ms)  收到/应有  CPU(核)  读取线程  堆(MB)  关闭(ms)");
+        for (int cameras : new int[]{10, 100, 1000}) {
+            run("platform", cameras, frames, seconds);
+            run("nio", cameras, frames, seconds);
+            if (virtualAvailable) {
+                run("virtual", cameras, frames, seconds);
+            }
+        }
+    }
+
+    private static Engine create(String kind) {
+        if (kind.equals("nio")) {
+            NioMjpegClient client = new NioMjpegClient(2);
+            return new Engine() {
+                @Override
+                public void open(String url, FrameListener listener) throws IOException {
+                    client.open(url, 10_000, 10_000, listener, null);
+                }
+
+                @Override
+                public void close() {
+                    client.close();
+                }
+            };
+        }
+        ThreadFactory threads = kind.equals("virtual")
+                ? ThreadPerStreamClient.virtualThreads() : ThreadPerStreamClient.platformThreads();
+        ThreadPerStreamClient client = new ThreadPerStreamClient(threads);
+        return new Engine() {
+            @Override
+            public void open(String url, FrameListener listener) throws IOException {
+                client.open(url, 10_000, 10_000, listener, null);
+            }
+
+            @Override
+            public void close() {
+                client.close();
+            }
+        };
+    }
+
+    private static void run(String kind, int cameras, List<byte[]> frames, int seconds) throws Exception {
+        List<StandInMjpegServer> servers = new ArrayList<>();
+        for (int i = 0; i < cameras; i += CONNECTIONS_PER_SERVER) {
+            servers.add(new StandInMjpegServer(frames, CAMERA_FPS));
+        }
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        System.gc();
+        // 服务器每个连接一个发送线程，读取一方新增的线程 = 新增线程 - 路数
+        int threadsBefore = threadBean.getThreadCount();
+        AtomicLong received = new AtomicLong();
+        AtomicInteger firstFrames = new AtomicInteger();
+        Engine engine = create(kind);
+        long closeNanos;
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < cameras; i++) {
+                AtomicInteger count = new AtomicInteger();
+                engine.open(servers.get(i / CONNECTIONS_PER_SERVER).url(), frame -> {
+                    frame.release();
+                    received.incrementAndGet();
+                    if (count.incrementAndGet() == 1) {
+                        firstFrames.incrementAndGet();
+                    }
+                });
+            }
+            long deadline = start + TimeUnit.SECONDS.toNanos(30);
+            while (firstFrames.get() < cameras && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            long allFirstMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            boolean allConnected = firstFrames.get() == cameras;
+
+            long receivedBefore = received.get();
+            long cpuBefore = processCpuNanos();
+            long wallBefore = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            long wall = System.nanoTime() - wallBefore;
+            double cpuCores = (double) (processCpuNanos() - cpuBefore) / wall;
+            double delivered = (received.get() - receivedBefore) / (cameras * CAMERA_FPS * wall / 1e9);
+            int readerThreads = threadBean.getThreadCount() - threadsBefore - cameras;
+            System.gc();
+            long heapMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+
+            long closeStart = System.nanoTime();
+            engine.close();
+            closeNanos = System.nanoTime() - closeStart;
+            System.out.printf("%-10s  %4d  %12s  %8.1f%%  %7.2f  %8d  %6d  %8d%n", kind, cameras,
+                    allConnected ? String.valueOf(allFirstMs) : firstFrames.get() + "路超时", delivered * 100, cpuCores,
+                    readerThreads, heapMb, TimeUnit.NANOSECONDS.toMillis(closeNanos));
+        } finally {
+            engine.close();
+            for (StandInMjpegServer server : servers) {
+                server.close();
+            }
+            // 等服务器的发送线程退出，不算进下一组
+            Thread.sleep(500);
+        }
+    }
+
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
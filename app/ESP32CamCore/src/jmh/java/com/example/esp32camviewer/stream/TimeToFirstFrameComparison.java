@@ -0,0 +1,112 @@
+package com.example.esp32camviewer.stream;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 启动到第一帧的耗时对比，本机回环模拟摄像头（20fps，与固件一致），每次都用新的NioMjpegClient，相当于冷启动：
+ * 先初始化界面再连接（原先的顺序）和先发起连接再初始化界面，主机名冷缓存、热缓存和直接填IP。
+ * 主机名解析用固定延迟模拟mDNS（.local名字在Android上解析一次常要几百毫秒），界面初始化用sleep模拟。
+ *
+ * 首帧时间取“第一帧到达”和“界面初始化完成”中较晚的一个，即画面真正能显示的时刻；
+ * 另外列出连接建立、收到响应头、第一帧相对于open()的中位数。
+ *
+ * 运行: gradle jmhJar && java -cp build/libs/esp32cam-core-1.0-jmh.jar \
+ *   com.example.esp32camviewer.stream.TimeToFirstFrameComparison [每组次数] [解析ms] [界面ms]
+ */
+public final class TimeToFirstFrameComparison {
+    private static final int CAMERA_FPS = 20;
+    private static final String HOST_NAME = "esp32cam.local";
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        long resolveMs = args.length > 1 ? Long.parseLong(args[1]) : 300;
+        long uiInitMs = args.length > 2 ? Long.parseLong(args[2]) : 150;
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 8, 42);
+        System.out.printf("模拟解析%dms，界面初始化%dms，每组%d次%n", resolveMs, uiInitMs, runs);
+        System.out.println("方式                      首帧中位  首帧P90  连接  响应头  第一帧  (ms)");
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, CAMERA_FPS)) {
+            print("先界面后连接 主机名 冷", measure(server, HOST_NAME, resolveMs, false, false, uiInitMs, runs));
+            print("先连接后界面 主机名 冷", measure(server, HOST_NAME, resolveMs, false, true, uiInitMs, runs));
+            print("先连接后界面 主机名 热", measure(server, HOST_NAME, resolveMs, true, true, uiInitMs, runs));
+            print("先界面后连接 IP", measure(server, "127.0.0.1", resolveMs, false, false, uiInitMs, runs));
+            print("先连接后界面 IP", measure(server, "127.0.0.1", resolveMs, false, true, uiInitMs, runs));
+        }
+    }
+
+    private static void print(String mode, long[][] samples) {
+        System.out.printf("%-22s  %8.1f  %7.1f  %4.1f  %6.1f  %6.1f%n", mode,
+                percentile(samples[0], 50), percentile(samples[0], 90), percentile(samples[1], 50),
+                percentile(samples[2], 50), percentile(samples[3], 50));
+    }
+
+    // 返回{首帧, 连接, 响应头, 第一帧}四组样本，单位纳秒
+    private static long[][] measure(StandInMjpegServer server, String host, long resolveMs, boolean warm,
+                                    boolean connectFirst, long uiInitMs, int runs) throws Exception {
+        long[][] samples = new long[4][runs];
+        for (int i = 0; i < runs; i++) {
+            AddressCache cache = new AddressCache(TimeUnit.MINUTES.toNanos(10), name -> {
+                sleep(resolveMs);
+                return InetAddress.getLoopbackAddress();
+            });
+            if (warm) {
+                cache.resolve(host);
+            }
+            NioMjpegClient client = new NioMjpegClient(1);
+            client.setAddressCache(cache);
+            try {
+                AtomicLong firstFrameAt = new AtomicLong();
+                CountDownLatch firstFrame = new CountDownLatch(1);
+                FrameListener listener = frame -> {
+                    firstFrameAt.compareAndSet(0, System.nanoTime());
+                    frame.release();
+                    firstFrame.countDown();
+                };
+                String url = "http://" + host + ":" + server.port() + "/";
+                long start = System.nanoTime();
+                NioMjpegClient.Stream stream;
+                if (connectFirst) {
+                    stream = client.open(url, 2000, 2000, listener, null);
+                    sleep(uiInitMs);
+                } else {
+                    sleep(uiInitMs);
+                    // 原先在调用线程上解析主机名
+                    cache.resolve(host);
+                    stream = client.open(url, 2000, 2000, listener, null);
+                }
+                long uiReadyAt = System.nanoTime();
+                if (!firstFrame.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("没有收到第一帧");
+                }
+                StreamStats stats = stream.stats();
+                stream.close();
+                samples[0][i] = Math.max(firstFrameAt.get(), uiReadyAt) - start;
+                samples[1][i] = stats.connectNanos;
+                samples[2][i] = stats.headersNanos;
+                samples[3][i] = stats.firstFrameNanos;
+            } finally {
+                client.close();
+            }
+        }
+        return samples;
+    }
+
+    private static double percentile(long[] values, int percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percentile / 100.0) - 1);
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
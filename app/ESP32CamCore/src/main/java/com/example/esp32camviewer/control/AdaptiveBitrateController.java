@@ -0,0 +1,311 @@
+package com.example.esp32camviewer.control;
+
+import com.example.esp32camviewer.metrics.StreamMetrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 按接收和解码的情况调整摄像头的分辨率和JPEG画质，让画面在目标帧率下尽量清晰。
+ *
+ * 查看器每隔一两秒把这段时间的{@link StreamMetrics}快照差交给{@link #update(Sample)}，
+ * 控制器在{@link #LADDER}上选一档，通过控制通道发/framesize/名字和/quality/数值给固件：
+ * <ul>
+ * <li>收到的帧率低于目标的80%时，认为链路（或摄像头）跟不上，这段时间的吞吐量就是链路的容量，
+ * 直接降到按帧大小估算能放进容量85%的最高一档；</li>
+ * <li>解码耗时的90分位超过帧间隔的80%时，按像素数估算解码耗时，降到来得及解码的最高一档；
+ * 解码不慢但超过1/4的帧没有解码（渲染跟不上）时降一档；</li>
+ * <li>连续几个窗口都有余量时升一档。已知链路容量时先估算上一档放不放得下，放不下就不试；
+ * 容量的记忆过一段时间失效，之后再试探。升上去很快又降下来，说明这一档不行，
+ * 下次升到这一档要等的窗口数加倍（最多32个），不会在两档之间来回跳。</li>
+ * </ul>
+ * 切换后的第一个窗口不参与判断：在途的帧还是旧设置，传感器重新配置时会停顿一下。
+ *
+ * 固件回复400表示分辨率超出它初始化时的设置，控制器以后不再用这个分辨率及以上的档位。
+ * 旧固件没有这两个接口，回复的不是"framesize=名字"时控制器停止调整，见{@link Listener#onUnsupported}。
+ * 多路网格按可见性限速会有大量没解码的帧，不适合用这个控制器。
+ */
+public final class AdaptiveBitrateController {
+
+    /** 一档设置：分辨率和画质 */
+    public static final class Level {
+        public final FrameSize frameSize;
+        public final int quality;
+
+        Level(FrameSize frameSize, int quality) {
+            this.frameSize = frameSize;
+            this.quality = quality;
+        }
+
+        // 相对VGA、画质10的帧大小：和像素数成正比，画质数值翻倍帧大小约减半，只用来比较各档
+        double relativeBytes() {
+            return (double) frameSize.pixels() / FrameSize.VGA.pixels() * 10.0 / quality;
+        }
+
+        @Override
+        public String toString() {
+            return frameSize + "/q" + quality;
+        }
+    }
+
+    /** 从低到高的档位，VGA、画质10是固件的默认设置 */
+    public static final List<Level> LADDER = Collections.unmodifiableList(Arrays.asList(
+            new Level(FrameSize.QVGA, 20),
+            new Level(FrameSize.QVGA, 12),
+            new Level(FrameSize.CIF, 12),
+            new Level(FrameSize.VGA, 15),
+            new Level(FrameSize.VGA, 10),
+            new Level(FrameSize.SVGA, 10),
+            new Level(FrameSize.XGA, 10),
+            new Level(FrameSize.SXGA, 10),
+            new Level(FrameSize.UXGA, 10)));
+    static final int DEFAULT_LEVEL = 4;
+
+    /** 一个窗口内的接收和解码情况 */
+    public static final class Sample {
+        final long durationNanos;
+        final long frames;
+        final long bytes;
+        final long notDecoded;
+        final long decodeP90Nanos;
+
+        /**
+         * @param notDecoded     没有解码就被新帧替换的帧数，没有流水线时为0
+         * @param decodeP90Nanos 解码耗时的90分位，没有解码数据时为0
+         */
+        public Sample(long durationNanos, long frames, long bytes, long notDecoded, long decodeP90Nanos) {
+            this.durationNanos = durationNanos;
+            this.frames = frames;
+            this.bytes = bytes;
+            this.notDecoded = notDecoded;
+            this.decodeP90Nanos = decodeP90Nanos;
+        }
+
+        /** @param interval 两次快照之差 */
+        public static Sample of(StreamMetrics.Snapshot interval) {
+            return new Sample(interval.elapsedNanos, interval.frames, interval.bytes, interval.notDecoded,
+                    interval.decodeTimes.percentile(90) * 1000);
+        }
+    }
+
+    /** 在调用update()的线程或命令线程上回调，只能做很快的事 */
+    public interface Listener {
+        void onLevelChanged(Level from, Level to, String reason);
+
+        /** 固件不支持调整，控制器已停止 */
+        void onUnsupported(CommandResult result);
+    }
+
+    private static final double LINK_LIMITED_FPS = 0.8;
+    private static final double CAPACITY_HEADROOM = 0.85;
+    private static final double DECODE_BUDGET = 0.8;
+    private static final double DROP_LIMIT = 0.25;
+    private static final int SETTLE_WINDOWS = 1;
+    // 升档后这么多个窗口内又降下来，算这一档试探失败
+    private static final int PROBE_WINDOWS = 3;
+    private static final int MAX_HOLD_WINDOWS = 32;
+
+    private final CommandChannel channel;
+    private final double targetFps;
+    private final Listener listener;
+
+    // 以下由this保护
+    private final int[] holdWindows = new int[LADDER.size()];
+    private int level;
+    private int maxLevel;
+    private boolean supported = true;
+    private int settleWindows = 0;
+    private int goodWindows = 0;
+    private int windowsSinceChange = 0;
+    private boolean lastChangeWasUp = false;
+    private double capacityBytesPerSecond = 0;
+    private int capacityAge = 0;
+    private int capacityMemoryWindows = 30;
+
+    /**
+     * @param channel      发送设置的控制通道，为null时只做决定不发送
+     * @param targetFps    希望维持的帧率
+     * @param maxFrameSize 允许的最大分辨率，固件没有PSRAM时为SVGA
+     */
+    public AdaptiveBitrateController(CommandChannel channel, double targetFps, FrameSize maxFrameSize,
+                                     Listener listener) {
+        this.channel = channel;
+        this.targetFps = targetFps;
+        this.listener = listener;
+        this.maxLevel = highestLevelUpTo(maxFrameSize);
+        this.level = Math.min(DEFAULT_LEVEL, maxLevel);
+        setHoldWindows(3);
+    }
+
+    /** 把当前档位发给固件，同时确认固件支持这两个接口 */
+    public synchronized void start() {
+        settleWindows = SETTLE_WINDOWS;
+        send(null, LADDER.get(level));
+    }
+
+    public synchronized Level level() {
+        return LADDER.get(level);
+    }
+
+    public synchronized boolean isSupported() {
+        return supported;
+    }
+
+    /** 连续多少个有余量的窗口之后升档，试探失败时各档分别加倍 */
+    synchronized void setHoldWindows(int windows) {
+        Arrays.fill(holdWindows, windows);
+    }
+
+    /** 链路容量的估计保留多少个窗口 */
+    synchronized void setCapacityMemoryWindows(int windows) {
+        capacityMemoryWindows = windows;
+    }
+
+    synchronized int holdWindows(Level level) {
+        return holdWindows[LADDER.indexOf(level)];
+    }
+
+    /** 交给控制器一个窗口的数据，返回调整后的档位 */
+    public synchronized Level update(Sample sample) {
+        if (!supported || sample.frames == 0 || sample.durationNanos <= 0) {
+            // 没有帧时是断线或暂停，看不出链路的情况
+            return LADDER.get(level);
+        }
+        windowsSinceChange++;
+        if (settleWindows > 0) {
+            settleWindows--;
+            return LADDER.get(level);
+        }
+        if (capacityBytesPerSecond > 0 && ++capacityAge > capacityMemoryWindows) {
+            capacityBytesPerSecond = 0;
+        }
+
+        double seconds = sample.durationNanos / 1e9;
+        double fps = sample.frames / seconds;
+        double throughput = sample.bytes / seconds;
+        double bytesPerFrame = (double) sample.bytes / sample.frames;
+        double dropRate = (double) sample.notDecoded / sample.frames;
+        double decodeBudgetNanos = DECODE_BUDGET * 1e9 / targetFps;
+        Level current = LADDER.get(level);
+
+        int target = level;
+        String reason = null;
+        if (fps < targetFps * LINK_LIMITED_FPS) {
+            capacityBytesPerSecond = throughput;
+            capacityAge = 0;
+            target = level - 1;
+            while (target > 0 && predictedBytesPerSecond(target, current, bytesPerFrame)
+                    > capacityBytesPerSecond * CAPACITY_HEADROOM) {
+                target--;
+            }
+            reason = String.format(Locale.ROOT, "%.1ffps，吞吐%.0fKB/s", fps, throughput / 1024);
+        }
+        if (sample.decodeP90Nanos > decodeBudgetNanos) {
+            int decodable = level - 1;
+            while (decodable > 0 && predictedDecodeNanos(decodable, current, sample.decodeP90Nanos)
+                    > decodeBudgetNanos) {
+                decodable--;
+            }
+            if (decodable < target) {
+                target = decodable;
+                reason = String.format(Locale.ROOT, "解码p90 %.1fms", sample.decodeP90Nanos / 1e6);
+            }
+        } else if (dropRate > DROP_LIMIT && level - 1 < target) {
+            target = level - 1;
+            reason = String.format(Locale.ROOT, "%.0f%%的帧没有解码", dropRate * 100);
+        }
+        target = Math.max(0, target);
+
+        if (target < level) {
+            if (lastChangeWasUp && windowsSinceChange <= PROBE_WINDOWS) {
+                holdWindows[level] = Math.min(holdWindows[level] * 2, MAX_HOLD_WINDOWS);
+            }
+            change(target, reason);
+            return LADDER.get(level);
+        }
+
+        int next = level + 1;
+        boolean roomToGrow = next <= maxLevel
+                && dropRate <= DROP_LIMIT / 2
+                && (capacityBytesPerSecond == 0 || predictedBytesPerSecond(next, current, bytesPerFrame)
+                <= capacityBytesPerSecond * CAPACITY_HEADROOM)
+                && predictedDecodeNanos(next, current, sample.decodeP90Nanos) <= decodeBudgetNanos;
+        goodWindows = roomToGrow ? goodWindows + 1 : 0;
+        if (roomToGrow && goodWindows >= holdWindows[next]) {
+            change(next, capacityBytesPerSecond == 0 ? "试探" : "有余量");
+        }
+        return LADDER.get(level);
+    }
+
+    private double predictedBytesPerSecond(int index, Level current, double bytesPerFrame) {
+        return bytesPerFrame * LADDER.get(index).relativeBytes() / current.relativeBytes() * targetFps;
+    }
+
+    private static double predictedDecodeNanos(int index, Level current, long decodeNanos) {
+        return (double) decodeNanos * LADDER.get(index).frameSize.pixels() / current.frameSize.pixels();
+    }
+
+    // 调用方持有锁
+    private void change(int target, String reason) {
+        Level from = LADDER.get(level);
+        lastChangeWasUp = target > level;
+        level = target;
+        goodWindows = 0;
+        windowsSinceChange = 0;
+        settleWindows = SETTLE_WINDOWS;
+        Level to = LADDER.get(level);
+        send(from, to);
+        if (listener != null) {
+            listener.onLevelChanged(from, to, reason);
+        }
+    }
+
+    // 调用方持有锁；只发和上一档不同的设置
+    private void send(Level from, Level to) {
+        if (channel == null) {
+            return;
+        }
+        if (from == null || from.frameSize != to.frameSize) {
+            channel.send(CameraCommand.frameSize(to.frameSize),
+                    result -> onResult(result, "framesize=" + to.frameSize.pathName(), to.frameSize));
+        }
+        if (from == null || from.quality != to.quality) {
+            channel.send(CameraCommand.quality(to.quality), result -> onResult(result, "quality=" + to.quality, null));
+        }
+    }
+
+    private synchronized void onResult(CommandResult result, String expectedBody, FrameSize frameSize) {
+        if (result.superseded || result.error != null || !supported) {
+            // 网络错误时不改变判断，下次切换时再发
+            return;
+        }
+        if (result.statusCode == 400 && frameSize != null) {
+            // 超出了固件初始化时的分辨率，只用更小的分辨率
+            while (maxLevel > 0 && LADDER.get(maxLevel).frameSize.compareTo(frameSize) >= 0) {
+                maxLevel--;
+            }
+            if (level > maxLevel) {
+                change(maxLevel, "固件不支持" + frameSize);
+            }
+            return;
+        }
+        if (!result.isSuccess() || !expectedBody.equals(result.body)) {
+            supported = false;
+            if (listener != null) {
+                listener.onUnsupported(result);
+            }
+        }
+    }
+
+    private static int highestLevelUpTo(FrameSize maxFrameSize) {
+        int highest = 0;
+        for (int i = 0; i < LADDER.size(); i++) {
+            if (LADDER.get(i).frameSize.compareTo(maxFrameSize) <= 0) {
+                highest = i;
+            }
+        }
+        return highest;
+    }
+}
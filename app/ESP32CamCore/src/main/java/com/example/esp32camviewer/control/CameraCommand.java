@@ -0,0 +1,80 @@
+package com.example.esp32camviewer.control;
+
+import com.example.esp32camviewer.device.CameraDevice;
+
+/**
+ * 发给摄像头的一条控制命令（GET请求）。
+ * coalesceKey相同的命令在发出之前会互相替换，例如连续点开灯/关灯只发最后一次。
+ */
+public final class CameraCommand {
+    /** 开关灯的超时：固件在两帧之间处理命令，正常几十毫秒内响应 */
+    public static final int LIGHT_TIMEOUT_MS = 2000;
+    /** 重启的超时：固件回复后等一秒再重启，回复前可能还在发一帧 */
+    public static final int RESTART_TIMEOUT_MS = 5000;
+    /** 调整分辨率、画质的超时：传感器重新配置要一两百毫秒 */
+    public static final int SETTING_TIMEOUT_MS = 3000;
+
+    private final String name;
+    private final String path;
+    private final String coalesceKey;
+    private final int timeoutMs;
+
+    public CameraCommand(String name, String path, String coalesceKey, int timeoutMs) {
+        this.name = name;
+        this.path = path;
+        this.coalesceKey = coalesceKey;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /** 开关LED或闪光灯，路径按设备类型选择 */
+    public static CameraCommand light(CameraDevice device, boolean on) {
+        return light(device.lightEndpoint(), on);
+    }
+
+    /**
+     * @param endpoint "/flash/"或"/led/"
+     */
+    public static CameraCommand light(String endpoint, boolean on) {
+        return new CameraCommand(on ? "开灯" : "关灯", endpoint + (on ? "on" : "off"), "light", LIGHT_TIMEOUT_MS);
+    }
+
+    public static CameraCommand restart() {
+        return new CameraCommand("重启", "/restart", "restart", RESTART_TIMEOUT_MS);
+    }
+
+    /** 调整分辨率，固件回复"framesize=名字"，超出固件初始化时的分辨率回复400 */
+    public static CameraCommand frameSize(FrameSize size) {
+        return new CameraCommand("分辨率" + size, "/framesize/" + size.pathName(), "framesize", SETTING_TIMEOUT_MS);
+    }
+
+    /**
+     * 调整JPEG画质，固件回复"quality=数值"
+     *
+     * @param quality 4-63，越小画质越好、帧越大
+     */
+    public static CameraCommand quality(int quality) {
+        return new CameraCommand("画质" + quality, "/quality/" + quality, "quality", SETTING_TIMEOUT_MS);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public String coalesceKey() {
+        return coalesceKey;
+    }
+
+    /** 从发起连接到读完响应的总时限 */
+    public int timeoutMs() {
+        return timeoutMs;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + path;
+    }
+}
@@ -0,0 +1,425 @@
+package com.example.esp32camviewer.control;
+
+import com.example.esp32camviewer.stream.AddressCache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一台摄像头的控制通道：开关灯、重启等命令在自己的线程上按顺序发送，和视频流互不等待。
+ *
+ * 命令复用一条keep-alive连接，固件在两帧之间处理控制连接上的请求并保持连接，
+ * 连续操作时省去每次建立TCP连接；连接空闲超过{@link #KEEP_ALIVE_IDLE_NANOS}后不再复用，
+ * 复用的连接已被对方关闭时自动换新连接重发一次。旧固件每次回复后关闭连接，同样可用。
+ *
+ * 同一coalesceKey的命令还没发出时，新命令替换旧命令，旧命令的回调收到superseded结果，
+ * 连续点开灯/关灯时只发最后一次。每条命令有自己的总超时，超时后断开连接，不影响后面的命令。
+ * 回调在命令线程上执行。
+ */
+public final class CommandChannel implements Closeable {
+
+    /** 命令结果回调，在命令线程上执行 */
+    public interface Callback {
+        void onResult(CommandResult result);
+    }
+
+    // 固件空闲5秒关闭控制连接，这边提前放弃，避免用到刚被关闭的连接
+    static final long KEEP_ALIVE_IDLE_NANOS = 4_000_000_000L;
+    private static final int MAX_LINE = 1024;
+    private static final int MAX_BODY = 4096;
+
+    // 没有缓存的主机名在这里解析，命令线程最多等到命令的截止时间；空闲一分钟后线程退出
+    private static final ExecutorService RESOLVER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "camera-command-resolve");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String host;
+    private final int port;
+    private final AddressCache addresses;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "camera-command");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 还没发出的命令，按coalesceKey各保留最新一条
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong roundTripSumNanos = new AtomicLong();
+    private volatile long maxRoundTripNanos = 0;
+    private volatile long lastRoundTripNanos = 0;
+
+    // 以下只在命令线程上访问，close()时从外部关闭socket让阻塞的读取返回
+    private volatile Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private long idleSinceNanos;
+
+    /**
+     * @param host 与查看器里保存的格式一致：IP或IP:端口，不带http://
+     */
+    public CommandChannel(String host) {
+        this(host, AddressCache.DEFAULT);
+    }
+
+    CommandChannel(String host, AddressCache addresses) {
+        this.addresses = addresses;
+        int colon = host.lastIndexOf(':');
+        if (colon > 0 && host.indexOf(':') == colon) {
+            this.host = host.substring(0, colon);
+            this.port = Integer.parseInt(host.substring(colon + 1));
+        } else {
+            this.host = host;
+            this.port = 80;
+        }
+    }
+
+    /** 排队发送，可以在任意线程调用 */
+    public void send(CameraCommand command, Callback callback) {
+        Pending replaced;
+        synchronized (pending) {
+            replaced = pending.put(command.coalesceKey(), new Pending(command, callback));
+        }
+        try {
+            if (replaced != null) {
+                // 已经排队的任务会取到新命令，这里只通知被替换的命令
+                coalesced.incrementAndGet();
+                executor.execute(() -> deliver(replaced.callback, CommandResult.superseded(replaced.command)));
+            } else {
+                executor.execute(() -> runPending(command.coalesceKey()));
+            }
+        } catch (RejectedExecutionException e) {
+            synchronized (pending) {
+                pending.remove(command.coalesceKey());
+            }
+            deliver(callback, CommandResult.failed(command, new IOException("控制通道已关闭")));
+        }
+    }
+
+    /** 已发出（含失败）的命令数 */
+    public long sentCount() {
+        return sent.get();
+    }
+
+    public long failedCount() {
+        return failed.get();
+    }
+
+    /** 发出前被替换掉的命令数 */
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+
+    /** 累计建立的TCP连接数，复用正常时远小于命令数 */
+    public long connectionCount() {
+        return connections.get();
+    }
+
+    public long averageRoundTripNanos() {
+        long succeeded = sent.get() - failed.get();
+        return succeeded <= 0 ? 0 : roundTripSumNanos.get() / succeeded;
+    }
+
+    public long maxRoundTripNanos() {
+        return maxRoundTripNanos;
+    }
+
+    public long lastRoundTripNanos() {
+        return lastRoundTripNanos;
+    }
+
+    /** 丢弃还没发出的命令并断开连接 */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        closeConnection();
+    }
+
+    private void runPending(String key) {
+        Pending next;
+        synchronized (pending) {
+            next = pending.remove(key);
+        }
+        if (next == null) {
+            return;
+        }
+        CommandResult result = execute(next.command);
+        sent.incrementAndGet();
+        if (result.error != null) {
+            failed.incrementAndGet();
+        } else {
+            long rtt = result.roundTripNanos;
+            lastRoundTripNanos = rtt;
+            roundTripSumNanos.addAndGet(rtt);
+            if (rtt > maxRoundTripNanos) {
+                maxRoundTripNanos = rtt;
+            }
+        }
+        deliver(next.callback, result);
+    }
+
+    private static void deliver(Callback callback, CommandResult result) {
+        if (callback == null) {
+            return;
+        }
+        try {
+            callback.onResult(result);
+        } catch (RuntimeException ignored) {
+            // 回调出错不影响后面的命令
+        }
+    }
+
+    private CommandResult execute(CameraCommand command) {
+        long deadline = System.nanoTime() + command.timeoutMs() * 1_000_000L;
+        boolean reuse = socket != null && System.nanoTime() - idleSinceNanos < KEEP_ALIVE_IDLE_NANOS;
+        if (!reuse) {
+            closeConnection();
+        }
+        try {
+            return exchange(command, deadline, reuse);
+        } catch (StaleConnectionException e) {
+            // 复用的连接已被摄像头关闭，请求没有被处理，换新连接重发
+            closeConnection();
+            try {
+                return exchange(command, deadline, false);
+            } catch (IOException retryError) {
+                closeConnection();
+                return CommandResult.failed(command, retryError);
+            }
+        } catch (IOException e) {
+            closeConnection();
+            return CommandResult.failed(command, e);
+        }
+    }
+
+    private CommandResult exchange(CameraCommand command, long deadline, boolean reused) throws IOException {
+        if (socket == null) {
+            connect(deadline);
+        }
+        socket.setSoTimeout(remainingMillis(deadline));
+        long start = System.nanoTime();
+        try {
+            out.write(("GET " + command.path() + " HTTP/1.1\r\n"
+                    + "Host: " + host + (port == 80 ? "" : ":" + port) + "\r\n"
+                    + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } catch (SocketException e) {
+            if (reused) {
+                throw new StaleConnectionException();
+            }
+            throw e;
+        }
+
+        String statusLine;
+        try {
+            statusLine = readLine(true);
+        } catch (EOFException | SocketException e) {
+            if (reused) {
+                throw new StaleConnectionException();
+            }
+            throw e;
+        }
+        String[] status = statusLine.split(" ");
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new IOException("不是HTTP响应: " + statusLine);
+        }
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(status[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("不是HTTP响应: " + statusLine);
+        }
+
+        int contentLength = -1;
+        boolean keepAlive = statusLine.startsWith("HTTP/1.1");
+        String line;
+        while (!(line = readLine(false)).isEmpty()) {
+            socket.setSoTimeout(remainingMillis(deadline));
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim().toLowerCase(Locale.US);
+            if (name.equals("content-length")) {
+                contentLength = parseContentLength(value);
+            } else if (name.equals("connection")) {
+                keepAlive = value.contains("keep-alive") || (keepAlive && !value.contains("close"));
+            }
+        }
+
+        socket.setSoTimeout(remainingMillis(deadline));
+        String body = readBody(contentLength);
+        long roundTrip = System.nanoTime() - start;
+        if (keepAlive && contentLength >= 0) {
+            idleSinceNanos = System.nanoTime();
+        } else {
+            // 没有Content-Length的响应以关闭连接结束，不能复用
+            closeConnection();
+        }
+        return new CommandResult(command, statusCode, body, null, roundTrip, reused, false);
+    }
+
+    // 固件发来的长度格式不对或超出int时按响应错误处理，不让NumberFormatException逃出命令线程
+    static int parseContentLength(String value) throws IOException {
+        int length;
+        try {
+            length = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("bad Content-Length: " + value);
+        }
+        if (length < 0) {
+            throw new IOException("bad Content-Length: " + value);
+        }
+        return length;
+    }
+
+    private void connect(long deadline) throws IOException {
+        InetAddress address = resolve(deadline);
+        Socket fresh = new Socket();
+        fresh.setTcpNoDelay(true);
+        try {
+            fresh.connect(new InetSocketAddress(address, port), remainingMillis(deadline));
+        } catch (IOException e) {
+            fresh.close();
+            addresses.invalidate(host);
+            throw e;
+        }
+        connections.incrementAndGet();
+        socket = fresh;
+        in = new BufferedInputStream(fresh.getInputStream(), 512);
+        out = fresh.getOutputStream();
+    }
+
+    // 与视频流共用解析缓存，填主机名时不会每次重连都查DNS；解析算在命令的超时之内
+    private InetAddress resolve(long deadline) throws IOException {
+        InetAddress cached = addresses.cached(host);
+        if (cached != null) {
+            return cached;
+        }
+        Future<InetAddress> lookup = RESOLVER.submit(() -> addresses.resolve(host));
+        try {
+            return lookup.get(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 解析继续进行，结果进缓存，下一条命令直接使用
+            throw new SocketTimeoutException("解析超时: " + host);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("解析失败: " + host, cause);
+        } catch (InterruptedException e) {
+            lookup.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("命令线程被中断");
+        }
+    }
+
+    private void closeConnection() {
+        Socket current = socket;
+        socket = null;
+        in = null;
+        out = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static int remainingMillis(long deadline) throws SocketTimeoutException {
+        long remaining = (deadline - System.nanoTime()) / 1_000_000;
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("命令超时");
+        }
+        return (int) remaining;
+    }
+
+    // 读一行响应头，去掉结尾的CRLF；first为true时在读到任何字节之前断开抛EOFException
+    private String readLine(boolean first) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() < MAX_LINE) {
+                line.append((char) b);
+            }
+        }
+        if (first && line.length() == 0) {
+            throw new EOFException("连接已关闭");
+        }
+        throw new IOException("响应不完整");
+    }
+
+    private String readBody(int contentLength) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int remaining = contentLength < 0 ? MAX_BODY : contentLength;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, Math.min(buffer.length, remaining));
+            if (n == -1) {
+                if (contentLength >= 0) {
+                    throw new IOException("响应不完整");
+                }
+                break;
+            }
+            if (body.size() < MAX_BODY) {
+                body.write(buffer, 0, n);
+            }
+            remaining -= n;
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    private static final class Pending {
+        final CameraCommand command;
+        final Callback callback;
+
+        Pending(CameraCommand command, Callback callback) {
+            this.command = command;
+            this.callback = callback;
+        }
+    }
+
+    // 复用的连接在收到响应之前断开，请求没有被处理，可以安全重发
+    private static final class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException() {
+            super("连接已被关闭");
+        }
+    }
+}
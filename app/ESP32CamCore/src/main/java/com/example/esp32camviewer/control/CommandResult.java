@@ -0,0 +1,58 @@
+package com.example.esp32camviewer.control;
+
+import java.io.IOException;
+
+/** 一条命令的结果 */
+public final class CommandResult {
+    public final CameraCommand command;
+    /** HTTP状态码，没有收到响应时为-1 */
+    public final int statusCode;
+    /** 响应正文，固件返回的是一行简短的说明 */
+    public final String body;
+    /** 失败原因，成功或被替换时为null */
+    public final IOException error;
+    /** 从发出请求到读完响应的耗时，不含建立连接 */
+    public final long roundTripNanos;
+    /** 是否复用了之前的连接 */
+    public final boolean reusedConnection;
+    /** 发出之前被同类的新命令替换，没有发送 */
+    public final boolean superseded;
+
+    CommandResult(CameraCommand command, int statusCode, String body, IOException error, long roundTripNanos,
+                  boolean reusedConnection, boolean superseded) {
+        this.command = command;
+        this.statusCode = statusCode;
+        this.body = body;
+        this.error = error;
+        this.roundTripNanos = roundTripNanos;
+        this.reusedConnection = reusedConnection;
+        this.superseded = superseded;
+    }
+
+    static CommandResult superseded(CameraCommand command) {
+        return new CommandResult(command, -1, null, null, 0, false, true);
+    }
+
+    static CommandResult failed(CameraCommand command, IOException error) {
+        return new CommandResult(command, -1, null, error, 0, false, false);
+    }
+
+    public boolean isSuccess() {
+        return statusCode == 200;
+    }
+
+    public long roundTripMillis() {
+        return roundTripNanos / 1_000_000;
+    }
+
+    @Override
+    public String toString() {
+        if (superseded) {
+            return command + " 已被替换";
+        }
+        if (error != null) {
+            return command + " 失败: " + error.getMessage();
+        }
+        return command + " -> " + statusCode + " " + roundTripMillis() + "ms" + (reusedConnection ? " (复用连接)" : "");
+    }
+}
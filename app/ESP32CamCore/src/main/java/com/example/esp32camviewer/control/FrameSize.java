@@ -0,0 +1,31 @@
+package com.example.esp32camviewer.control;
+
+import java.util.Locale;
+
+/** 固件支持调整的分辨率，名字与esp32-camera的FRAMESIZE_*一致，从小到大排列 */
+public enum FrameSize {
+    QVGA(320, 240),
+    CIF(400, 296),
+    VGA(640, 480),
+    SVGA(800, 600),
+    XGA(1024, 768),
+    SXGA(1280, 1024),
+    UXGA(1600, 1200);
+
+    public final int width;
+    public final int height;
+
+    FrameSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int pixels() {
+        return width * height;
+    }
+
+    /** 控制接口路径里的名字，如"vga" */
+    public String pathName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
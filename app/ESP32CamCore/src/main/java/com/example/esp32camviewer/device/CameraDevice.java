@@ -0,0 +1,56 @@
+package com.example.esp32camviewer.device;
+
+/**
+ * 一台摄像头的连接信息。type与设备类型选择器的选项一致："ESP32-CAM"或"ESP32 XIAO"。
+ */
+public final class CameraDevice {
+    public static final String TYPE_ESP32_CAM = "ESP32-CAM";
+    public static final String TYPE_XIAO = "ESP32 XIAO";
+
+    private final String name;
+    private final String host;
+    private final String type;
+
+    public CameraDevice(String name, String host, String type) {
+        this.name = name == null || name.isEmpty() ? host : name;
+        this.host = host;
+        this.type = TYPE_XIAO.equals(type) ? TYPE_XIAO : TYPE_ESP32_CAM;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** IP或IP:端口，不带http:// */
+    public String host() {
+        return host;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    public String streamUrl() {
+        return "http://" + host;
+    }
+
+    /** LED/闪光灯控制的路径前缀，两种固件不同 */
+    public String lightEndpoint() {
+        return TYPE_ESP32_CAM.equals(type) ? "/flash/" : "/led/";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CameraDevice && host.equals(((CameraDevice) o).host);
+    }
+
+    @Override
+    public int hashCode() {
+        return host.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name.equals(host) ? host : name + " (" + host + ")";
+    }
+}
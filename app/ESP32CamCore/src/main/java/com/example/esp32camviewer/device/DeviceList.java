@@ -0,0 +1,89 @@
+package com.example.esp32camviewer.device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 多路查看用的设备列表，和单路的ip_address、device_type存在同一个ESP32CamPrefs里。
+ * 序列化为一行一台设备，字段用制表符分隔：名称、地址、类型。按地址去重，保持添加顺序。
+ */
+public final class DeviceList {
+    /** SharedPreferences中保存列表的键 */
+    public static final String PREF_DEVICES = "devices";
+
+    private final List<CameraDevice> devices = new ArrayList<>();
+
+    public static DeviceList parse(String text) {
+        DeviceList list = new DeviceList();
+        if (text == null) {
+            return list;
+        }
+        for (String line : text.split("\n")) {
+            String[] fields = line.split("\t", -1);
+            String host = fields.length > 1 ? fields[1].trim() : fields[0].trim();
+            if (host.isEmpty()) {
+                continue;
+            }
+            String name = fields.length > 1 ? fields[0].trim() : host;
+            String type = fields.length > 2 ? fields[2].trim() : CameraDevice.TYPE_ESP32_CAM;
+            list.add(new CameraDevice(name, host, type));
+        }
+        return list;
+    }
+
+    /**
+     * 读取保存的列表。还没有列表时用单路查看保存的地址生成一项，升级后网格里不会是空的。
+     */
+    public static DeviceList load(String savedList, String singleIp, String singleType) {
+        DeviceList list = parse(savedList);
+        if (list.isEmpty() && singleIp != null && !singleIp.trim().isEmpty()) {
+            list.add(new CameraDevice(null, singleIp.trim(), singleType));
+        }
+        return list;
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        for (CameraDevice device : devices) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(clean(device.name())).append('\t')
+                    .append(clean(device.host())).append('\t')
+                    .append(device.type());
+        }
+        return sb.toString();
+    }
+
+    /** 添加设备，地址已存在时替换原来的名称和类型，位置不变。返回是否新增 */
+    public boolean add(CameraDevice device) {
+        int index = devices.indexOf(device);
+        if (index >= 0) {
+            devices.set(index, device);
+            return false;
+        }
+        devices.add(device);
+        return true;
+    }
+
+    public boolean remove(String host) {
+        return devices.remove(new CameraDevice(null, host, null));
+    }
+
+    public List<CameraDevice> devices() {
+        return Collections.unmodifiableList(devices);
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public boolean isEmpty() {
+        return devices.isEmpty();
+    }
+
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+}
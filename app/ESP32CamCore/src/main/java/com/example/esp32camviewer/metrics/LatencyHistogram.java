@@ -0,0 +1,139 @@
+package com.example.esp32camviewer.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按HdrHistogram的思路分桶的耗时直方图，单位微秒：0-255µs每微秒一个桶，之后每个2的幂区间分128个桶，
+ * 相对误差不超过1/128（约0.8%），最大约268秒，更大的值计入最后一个桶。
+ * <p>
+ * 记录只是对一个数组元素做一次原子加，不加锁、不分配内存，可以在I/O线程和渲染线程上直接调用，
+ * 多个线程同时记录也是安全的。读取时复制一份快照，在快照上算分位数；两个快照相减得到一段时间内的分布。
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    // 最后一个区间是[2^27, 2^28)µs
+    private static final int MAX_EXPONENT = 27 - SUB_BUCKET_BITS;
+    static final int BUCKETS = LINEAR_LIMIT + MAX_EXPONENT * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /** 记录一个以微秒为单位的值，负数按0计 */
+    public void record(long micros) {
+        counts.incrementAndGet(indexOf(micros));
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    static int indexOf(long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return micros < 0 ? 0 : (int) micros;
+        }
+        // 最高位所在的位置决定区间，之后的7位决定区间内的桶
+        int exponent = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> exponent) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (exponent - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** 桶里最小的值 */
+    static long lowestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << exponent;
+    }
+
+    /** 桶的中间值，作为落在这个桶里的值的估计 */
+    static long medianValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        return lowestValue(index) + (1L << ((index - LINEAR_LIMIT) / SUB_BUCKETS + 1)) / 2;
+    }
+
+    /** 直方图在某一时刻的副本，不再变化 */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        /** 这个快照减去更早的快照，得到两次快照之间记录的值 */
+        public Snapshot minus(Snapshot earlier) {
+            long[] difference = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference);
+        }
+
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @param percentile 0-100
+         * @return 不小于percentile%的值所在桶的中间值，单位微秒；没有数据时返回0
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return medianValue(i);
+                }
+            }
+            return medianValue(BUCKETS - 1);
+        }
+
+        public long max() {
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return medianValue(i);
+                }
+            }
+            return 0;
+        }
+
+        public double mean() {
+            if (count == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] != 0) {
+                    sum += (double) counts[i] * medianValue(i);
+                }
+            }
+            return sum / count;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.esp32camviewer.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * 把指标快照导出为JSON（不依赖JSON库），写文件或交给{@link MetricsHttpServer}返回。
+ * 格式: {"streams":[{"name":...,"fps":...,"decodeMs":{"p50":...},...}]}，耗时的单位都是毫秒。
+ */
+public final class MetricsExport {
+
+    private MetricsExport() {
+    }
+
+    public static String toJson(Collection<StreamMetrics.Snapshot> snapshots) {
+        StringBuilder json = new StringBuilder(512 * Math.max(1, snapshots.size()));
+        json.append("{\"streams\":[");
+        boolean first = true;
+        for (StreamMetrics.Snapshot snapshot : snapshots) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            snapshot.appendJson(json);
+        }
+        return json.append("]}").toString();
+    }
+
+    /** 先写临时文件再改名，读取方不会看到写了一半的文件 */
+    public static void writeJson(File file, String json) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建目录: " + directory);
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        if (!temporary.renameTo(file)) {
+            // 有的文件系统不能覆盖已存在的文件
+            if (!file.delete() || !temporary.renameTo(file)) {
+                temporary.delete();
+                throw new IOException("无法写入: " + file);
+            }
+        }
+    }
+
+    static StringBuilder appendField(StringBuilder json, String key, long value) {
+        return json.append('"').append(key).append("\":").append(value);
+    }
+
+    static StringBuilder appendField(StringBuilder json, String key, double value) {
+        json.append('"').append(key).append("\":");
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return json.append('0');
+        }
+        return json.append(String.format(Locale.ROOT, "%.3f", value));
+    }
+
+    static StringBuilder appendField(StringBuilder json, String key, String value) {
+        json.append('"').append(key).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
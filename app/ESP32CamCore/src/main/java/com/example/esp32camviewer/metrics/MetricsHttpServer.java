@@ -0,0 +1,104 @@
+package com.example.esp32camviewer.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 只监听本机回环地址的指标接口，GET /metrics返回JSON。
+ * 在Android上用adb forward tcp:端口 tcp:端口转发到电脑后用浏览器或脚本读取，不对局域网开放。
+ * 连接在单独的线程上逐个处理，每次请求现取一次快照。
+ */
+public final class MetricsHttpServer implements Closeable {
+
+    /** 每次请求时调用，返回要输出的JSON */
+    public interface Source {
+        String json();
+    }
+
+    private static final int MAX_REQUEST_BYTES = 4096;
+    private static final int READ_TIMEOUT_MS = 2000;
+
+    private final ServerSocket serverSocket;
+    private final Source source;
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /** @param port 0表示由系统分配，用{@link #port()}读取 */
+    public MetricsHttpServer(int port, Source source) throws IOException {
+        this.serverSocket = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+        this.source = source;
+        this.thread = new Thread(this::acceptLoop, "metrics-http");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                serve(socket);
+            } catch (IOException e) {
+                // 单个请求出错不影响后面的请求；关闭时accept()抛出的异常在循环条件里退出
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        String requestLine = readRequestLine(socket.getInputStream());
+        String[] parts = requestLine == null ? new String[0] : requestLine.split(" ");
+        OutputStream out = socket.getOutputStream();
+        if (parts.length < 2 || !parts[0].equals("GET")) {
+            respond(out, "405 Method Not Allowed", "text/plain; charset=utf-8", "只支持GET");
+        } else if (parts[1].equals("/metrics") || parts[1].equals("/")) {
+            respond(out, "200 OK", "application/json; charset=utf-8", source.json());
+        } else {
+            respond(out, "404 Not Found", "text/plain; charset=utf-8", "只有/metrics");
+        }
+    }
+
+    /** 读到请求头结束，返回第一行 */
+    private static String readRequestLine(InputStream in) throws IOException {
+        StringBuilder header = new StringBuilder();
+        int b;
+        while (header.length() < MAX_REQUEST_BYTES && (b = in.read()) != -1) {
+            header.append((char) b);
+            int n = header.length();
+            if (n >= 4 && header.charAt(n - 4) == '\r' && header.charAt(n - 3) == '\n'
+                    && header.charAt(n - 2) == '\r' && header.charAt(n - 1) == '\n') {
+                break;
+            }
+        }
+        int end = header.indexOf("\r\n");
+        return end < 0 ? null : header.substring(0, end);
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, String body) throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + "\r\nContent-Type: " + contentType + "\r\nContent-Length: "
+                + content.length + "\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(content);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        try {
+            thread.join(READ_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.esp32camviewer.metrics;
+
+import com.example.esp32camviewer.stream.DecodedFrame;
+import com.example.esp32camviewer.stream.FramePipeline;
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一路视频流的运行指标：收到的帧数和字节数、帧到达间隔和抖动、解码耗时、从收到到显示的延迟，
+ * 以及流水线解码、显示和没有解码的帧数。
+ * <p>
+ * {@link #onFrame(JpegFrame)}在I/O线程上调用，{@link #onPresented(DecodedFrame)}作为流水线的TimingListener
+ * 在渲染线程上回调，两者都只做原子加和volatile写，不加锁、不分配内存。
+ * {@link #snapshot()}可以在任意线程调用，两个快照相减得到这段时间的帧率、码率和耗时分布。
+ */
+public final class StreamMetrics implements FramePipeline.TimingListener {
+    private final String name;
+    private final long createdNanos = System.nanoTime();
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong displayed = new AtomicLong();
+    private final LatencyHistogram arrivalIntervals = new LatencyHistogram();
+    private final LatencyHistogram decodeTimes = new LatencyHistogram();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    // 以下只在I/O线程上写（重连后可能换了I/O线程，但不会同时写）
+    private volatile long lastArrivalNanos = 0;
+    private volatile long lastIntervalNanos = 0;
+    private volatile long jitterNanos = 0;
+
+    private volatile FramePipeline<?> pipeline;
+
+    public StreamMetrics(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** 快照里带上这个流水线的解码、没有解码的帧数，并把自己设为它的TimingListener */
+    public void attach(FramePipeline<?> pipeline) {
+        this.pipeline = pipeline;
+        pipeline.setTimingListener(this);
+    }
+
+    /** 在I/O线程上每收到一帧调用一次，不持有也不释放frame */
+    public void onFrame(JpegFrame frame) {
+        onFrame(frame.length(), frame.receivedNanos());
+    }
+
+    public void onFrame(int length, long receivedNanos) {
+        frames.incrementAndGet();
+        bytes.addAndGet(length);
+        long last = lastArrivalNanos;
+        lastArrivalNanos = receivedNanos;
+        if (last == 0) {
+            return;
+        }
+        long interval = receivedNanos - last;
+        arrivalIntervals.recordNanos(interval);
+        long previous = lastIntervalNanos;
+        lastIntervalNanos = interval;
+        if (previous != 0) {
+            // 与RFC 3550相同的平滑方式：相邻两次间隔之差的绝对值，按1/16更新
+            long difference = Math.abs(interval - previous);
+            jitterNanos += (difference - jitterNanos) / 16;
+        }
+    }
+
+    @Override
+    public void onPresented(DecodedFrame<?> frame) {
+        displayed.incrementAndGet();
+        decodeTimes.recordNanos(frame.decodedNanos() - frame.decodeStartNanos());
+        latencies.recordNanos(frame.presentedNanos() - frame.receivedNanos());
+    }
+
+    /** 从创建到现在的累计值 */
+    public Snapshot snapshot() {
+        FramePipeline<?> attached = pipeline;
+        long decoded = 0;
+        long notDecoded = 0;
+        if (attached != null) {
+            FramePipeline.Stats stats = attached.stats();
+            decoded = stats.decoded;
+            notDecoded = stats.notDecoded();
+        }
+        long now = System.nanoTime();
+        return new Snapshot(name, now, now - createdNanos, frames.get(), bytes.get(), decoded, displayed.get(),
+                notDecoded, jitterNanos, arrivalIntervals.snapshot(), decodeTimes.snapshot(), latencies.snapshot());
+    }
+
+    /** 某一时刻的累计值，或两个快照之间的差 */
+    public static final class Snapshot {
+        public final String name;
+        public final long takenNanos;
+        /** 累计快照为从创建开始的时长，相减得到的快照为两次之间的时长 */
+        public final long elapsedNanos;
+        public final long frames;
+        public final long bytes;
+        public final long decoded;
+        public final long displayed;
+        /** 被更新的帧替换、暂停或限速而没有解码的帧 */
+        public final long notDecoded;
+        /** 拍快照时的到达间隔抖动，不随相减变化 */
+        public final long jitterNanos;
+        public final LatencyHistogram.Snapshot arrivalIntervals;
+        public final LatencyHistogram.Snapshot decodeTimes;
+        public final LatencyHistogram.Snapshot latencies;
+
+        Snapshot(String name, long takenNanos, long elapsedNanos, long frames, long bytes, long decoded,
+                 long displayed, long notDecoded, long jitterNanos, LatencyHistogram.Snapshot arrivalIntervals,
+                 LatencyHistogram.Snapshot decodeTimes, LatencyHistogram.Snapshot latencies) {
+            this.name = name;
+            this.takenNanos = takenNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.frames = frames;
+            this.bytes = bytes;
+            this.decoded = decoded;
+            this.displayed = displayed;
+            this.notDecoded = notDecoded;
+            this.jitterNanos = jitterNanos;
+            this.arrivalIntervals = arrivalIntervals;
+            this.decodeTimes = decodeTimes;
+            this.latencies = latencies;
+        }
+
+        /** 两次快照之间的增量，用来显示最近一段时间的帧率和分布 */
+        public Snapshot minus(Snapshot earlier) {
+            return new Snapshot(name, takenNanos, takenNanos - earlier.takenNanos, frames - earlier.frames,
+                    bytes - earlier.bytes, decoded - earlier.decoded, displayed - earlier.displayed,
+                    notDecoded - earlier.notDecoded, jitterNanos, arrivalIntervals.minus(earlier.arrivalIntervals),
+                    decodeTimes.minus(earlier.decodeTimes), latencies.minus(earlier.latencies));
+        }
+
+        public double framesPerSecond() {
+            return perSecond(frames);
+        }
+
+        public double displayedPerSecond() {
+            return perSecond(displayed);
+        }
+
+        public double kilobitsPerSecond() {
+            return perSecond(bytes * 8) / 1000;
+        }
+
+        private double perSecond(long count) {
+            return elapsedNanos <= 0 ? 0 : count * 1e9 / elapsedNanos;
+        }
+
+        /** 叠加在画面上的几行文字 */
+        public String toOverlayText() {
+            return String.format(Locale.ROOT, "%.1ffps %.0fkbps 显示%.1ffps 未解码%d\n解码 p50 %.1fms p99 %.1fms\n"
+                            + "延迟 p50 %.1fms p99 %.1fms 抖动 %.1fms",
+                    framesPerSecond(), kilobitsPerSecond(), displayedPerSecond(), notDecoded,
+                    millis(decodeTimes.percentile(50)), millis(decodeTimes.percentile(99)),
+                    millis(latencies.percentile(50)), millis(latencies.percentile(99)),
+                    TimeUnit.NANOSECONDS.toMicros(jitterNanos) / 1000.0);
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append('{');
+            MetricsExport.appendField(json, "name", name).append(',');
+            MetricsExport.appendField(json, "elapsedMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append(',');
+            MetricsExport.appendField(json, "frames", frames).append(',');
+            MetricsExport.appendField(json, "bytes", bytes).append(',');
+            MetricsExport.appendField(json, "decoded", decoded).append(',');
+            MetricsExport.appendField(json, "displayed", displayed).append(',');
+            MetricsExport.appendField(json, "notDecoded", notDecoded).append(',');
+            MetricsExport.appendField(json, "fps", framesPerSecond()).append(',');
+            MetricsExport.appendField(json, "displayedFps", displayedPerSecond()).append(',');
+            MetricsExport.appendField(json, "kbps", kilobitsPerSecond()).append(',');
+            MetricsExport.appendField(json, "jitterMs", TimeUnit.NANOSECONDS.toMicros(jitterNanos) / 1000.0).append(',');
+            appendHistogram(json, "arrivalIntervalMs", arrivalIntervals).append(',');
+            appendHistogram(json, "decodeMs", decodeTimes).append(',');
+            appendHistogram(json, "latencyMs", latencies);
+            json.append('}');
+        }
+
+        private static StringBuilder appendHistogram(StringBuilder json, String key, LatencyHistogram.Snapshot histogram) {
+            json.append('"').append(key).append("\":{");
+            MetricsExport.appendField(json, "count", histogram.count()).append(',');
+            MetricsExport.appendField(json, "mean", histogram.mean() / 1000).append(',');
+            MetricsExport.appendField(json, "p50", millis(histogram.percentile(50))).append(',');
+            MetricsExport.appendField(json, "p90", millis(histogram.percentile(90))).append(',');
+            MetricsExport.appendField(json, "p99", millis(histogram.percentile(99))).append(',');
+            MetricsExport.appendField(json, "max", millis(histogram.max()));
+            return json.append('}');
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + toOverlayText().replace('\n', ' ');
+        }
+    }
+}
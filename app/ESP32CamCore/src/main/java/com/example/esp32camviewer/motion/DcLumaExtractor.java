@@ -0,0 +1,467 @@
+package com.example.esp32camviewer.motion;
+
+/**
+ * 只取JPEG每个8x8亮度块的DC系数，得到1/8分辨率的亮度平面（VGA为80x60），只对DC做反量化，不做IDCT和颜色转换。
+ * 霍夫曼码不能跳着读，熵解码仍要走完所有系数，但AC系数只跳过不保存，色度块也只解码不保存。
+ * <p>
+ * 只支持8位精度的顺序霍夫曼编码（SOF0/SOF1，ESP32摄像头输出的就是这种），渐进式、无损和算术编码返回false。
+ * 量化表、霍夫曼表和亮度平面在实例内复用，尺寸不变的帧之间不分配内存。不是线程安全的。
+ */
+public final class DcLumaExtractor {
+    private static final int LOOKUP_BITS = 9;
+
+    // 霍夫曼表：0-3为DC表，4-7为AC表
+    private final int[][] lookup = new int[8][1 << LOOKUP_BITS];
+    private final int[][] maxCode = new int[8][17];
+    private final int[][] valueOffset = new int[8][17];
+    private final byte[][] values = new byte[8][256];
+    private final boolean[] tableDefined = new boolean[8];
+    private final int[] counts = new int[17];
+
+    // 每个量化表只需要DC那一项
+    private final int[] dcQuant = new int[4];
+
+    // 帧内的分量，最多4个，第0个是亮度
+    private final int[] componentId = new int[4];
+    private final int[] componentH = new int[4];
+    private final int[] componentV = new int[4];
+    private final int[] componentQuant = new int[4];
+    private int componentCount;
+
+    // 扫描中的分量（下标指向上面的分量数组）
+    private final int[] scanComponent = new int[4];
+    private final int[] scanDcTable = new int[4];
+    private final int[] scanAcTable = new int[4];
+    private final int[] dcPrediction = new int[4];
+    private int scanCount;
+
+    private int width;
+    private int height;
+    private int blocksWide;
+    private int blocksHigh;
+    private int restartInterval;
+    private short[] luma = new short[0];
+
+    // 熵编码数据的位读取器，64位缓冲区左对齐
+    private byte[] data;
+    private int position;
+    private int end;
+    private long bitBuffer;
+    private int bitCount;
+
+    /**
+     * 解出一帧的亮度平面，结果通过{@link #luma()}读取，到下一次调用前有效。
+     *
+     * @return 不是支持的JPEG或者数据损坏时返回false，此时平面内容无效
+     */
+    public boolean extract(byte[] jpeg, int length) {
+        if (length < 4 || jpeg[0] != (byte) 0xFF || jpeg[1] != (byte) 0xD8) {
+            return false;
+        }
+        for (int i = 0; i < tableDefined.length; i++) {
+            tableDefined[i] = false;
+        }
+        componentCount = 0;
+        restartInterval = 0;
+        int i = 2;
+        while (i + 3 < length) {
+            if (jpeg[i] != (byte) 0xFF) {
+                return false;
+            }
+            int marker = jpeg[i + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // 填充字节
+                i++;
+                continue;
+            }
+            int segmentLength = ((jpeg[i + 2] & 0xFF) << 8) | (jpeg[i + 3] & 0xFF);
+            int segment = i + 4;
+            int segmentEnd = i + 2 + segmentLength;
+            if (segmentLength < 2 || segmentEnd > length) {
+                return false;
+            }
+            switch (marker) {
+                case 0xDB:
+                    if (!readQuantTables(jpeg, segment, segmentEnd)) {
+                        return false;
+                    }
+                    break;
+                case 0xC4:
+                    if (!readHuffmanTables(jpeg, segment, segmentEnd)) {
+                        return false;
+                    }
+                    break;
+                case 0xC0:
+                case 0xC1:
+                    if (!readFrameHeader(jpeg, segment, segmentEnd)) {
+                        return false;
+                    }
+                    break;
+                case 0xDD:
+                    if (segmentEnd - segment < 2) {
+                        return false;
+                    }
+                    restartInterval = ((jpeg[segment] & 0xFF) << 8) | (jpeg[segment + 1] & 0xFF);
+                    break;
+                case 0xDA:
+                    return readScanHeader(jpeg, segment, segmentEnd) && decodeScan(jpeg, segmentEnd, length);
+                case 0xD9:
+                    return false;
+                default:
+                    if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC8 && marker != 0xCC) {
+                        // 渐进式、无损或算术编码
+                        return false;
+                    }
+                    break;
+            }
+            i = segmentEnd;
+        }
+        return false;
+    }
+
+    /** 亮度平面，按行存放blocksWide x blocksHigh个块的平均亮度(0-255)，数组可能比平面大 */
+    public short[] luma() {
+        return luma;
+    }
+
+    public int blocksWide() {
+        return blocksWide;
+    }
+
+    public int blocksHigh() {
+        return blocksHigh;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    private boolean readQuantTables(byte[] jpeg, int i, int segmentEnd) {
+        while (i < segmentEnd) {
+            int precision = (jpeg[i] & 0xFF) >> 4;
+            int table = jpeg[i] & 0x0F;
+            int tableBytes = precision == 0 ? 64 : 128;
+            if (table > 3 || i + 1 + tableBytes > segmentEnd) {
+                return false;
+            }
+            // 按之字形顺序存放，第一项就是DC
+            dcQuant[table] = precision == 0 ? jpeg[i + 1] & 0xFF
+                    : ((jpeg[i + 1] & 0xFF) << 8) | (jpeg[i + 2] & 0xFF);
+            i += 1 + tableBytes;
+        }
+        return true;
+    }
+
+    private boolean readHuffmanTables(byte[] jpeg, int i, int segmentEnd) {
+        while (i + 17 <= segmentEnd) {
+            int tableClass = (jpeg[i] & 0xFF) >> 4;
+            int tableId = jpeg[i] & 0x0F;
+            if (tableClass > 1 || tableId > 3) {
+                return false;
+            }
+            int table = tableClass * 4 + tableId;
+            int total = 0;
+            for (int bits = 1; bits <= 16; bits++) {
+                counts[bits] = jpeg[i + bits] & 0xFF;
+                total += counts[bits];
+            }
+            i += 17;
+            if (total > 256 || i + total > segmentEnd) {
+                return false;
+            }
+            System.arraycopy(jpeg, i, values[table], 0, total);
+            i += total;
+            if (!buildTable(table)) {
+                return false;
+            }
+        }
+        return i == segmentEnd;
+    }
+
+    /** 按JPEG规范附录C生成码表，码长不超过LOOKUP_BITS的码直接查表 */
+    private boolean buildTable(int table) {
+        int[] fast = lookup[table];
+        int[] max = maxCode[table];
+        int[] offset = valueOffset[table];
+        byte[] symbols = values[table];
+        for (int i = 0; i < fast.length; i++) {
+            fast[i] = 0;
+        }
+        int code = 0;
+        int k = 0;
+        for (int bits = 1; bits <= 16; bits++) {
+            offset[bits] = k - code;
+            for (int n = 0; n < counts[bits]; n++) {
+                if (code >= (1 << bits)) {
+                    // 码字数超出了这个码长能表示的范围
+                    return false;
+                }
+                if (bits <= LOOKUP_BITS) {
+                    int shift = LOOKUP_BITS - bits;
+                    int first = code << shift;
+                    int entry = (bits << 8) | (symbols[k] & 0xFF);
+                    for (int j = 0; j < (1 << shift); j++) {
+                        fast[first + j] = entry;
+                    }
+                }
+                code++;
+                k++;
+            }
+            max[bits] = counts[bits] == 0 ? -1 : code - 1;
+            code <<= 1;
+        }
+        tableDefined[table] = true;
+        return true;
+    }
+
+    private boolean readFrameHeader(byte[] jpeg, int i, int segmentEnd) {
+        if (segmentEnd - i < 6 || jpeg[i] != 8) {
+            return false;
+        }
+        height = ((jpeg[i + 1] & 0xFF) << 8) | (jpeg[i + 2] & 0xFF);
+        width = ((jpeg[i + 3] & 0xFF) << 8) | (jpeg[i + 4] & 0xFF);
+        int count = jpeg[i + 5] & 0xFF;
+        if (width == 0 || height == 0 || count < 1 || count > 4 || segmentEnd - i < 6 + count * 3) {
+            return false;
+        }
+        for (int c = 0; c < count; c++) {
+            int base = i + 6 + c * 3;
+            componentId[c] = jpeg[base] & 0xFF;
+            componentH[c] = (jpeg[base + 1] & 0xFF) >> 4;
+            componentV[c] = jpeg[base + 1] & 0x0F;
+            componentQuant[c] = jpeg[base + 2] & 0x0F;
+            if (componentH[c] < 1 || componentH[c] > 4 || componentV[c] < 1 || componentV[c] > 4
+                    || componentQuant[c] > 3) {
+                return false;
+            }
+        }
+        componentCount = count;
+        return true;
+    }
+
+    private boolean readScanHeader(byte[] jpeg, int i, int segmentEnd) {
+        if (componentCount == 0 || segmentEnd - i < 1) {
+            return false;
+        }
+        int count = jpeg[i] & 0xFF;
+        if (count < 1 || count > componentCount || segmentEnd - i < 1 + count * 2) {
+            return false;
+        }
+        for (int s = 0; s < count; s++) {
+            int id = jpeg[i + 1 + s * 2] & 0xFF;
+            int tables = jpeg[i + 2 + s * 2] & 0xFF;
+            int component = -1;
+            for (int c = 0; c < componentCount; c++) {
+                if (componentId[c] == id) {
+                    component = c;
+                }
+            }
+            int dc = tables >> 4;
+            int ac = 4 + (tables & 0x0F);
+            if (component < 0 || dc > 3 || ac > 7 || !tableDefined[dc] || !tableDefined[ac]) {
+                return false;
+            }
+            scanComponent[s] = component;
+            scanDcTable[s] = dc;
+            scanAcTable[s] = ac;
+        }
+        scanCount = count;
+        // 亮度必须在第一个扫描里（顺序编码的帧几乎总是所有分量交织在一个扫描里）
+        return scanComponent[0] == 0;
+    }
+
+    private boolean decodeScan(byte[] jpeg, int start, int length) {
+        int maxH = 1;
+        int maxV = 1;
+        for (int c = 0; c < componentCount; c++) {
+            maxH = Math.max(maxH, componentH[c]);
+            maxV = Math.max(maxV, componentV[c]);
+        }
+        // 亮度分量按采样因子缩放后的块数，通常亮度的采样因子就是最大的，即图像宽高除以8向上取整
+        blocksWide = ceilDiv(ceilDiv(width * componentH[0], maxH), 8);
+        blocksHigh = ceilDiv(ceilDiv(height * componentV[0], maxV), 8);
+        if (luma.length < blocksWide * blocksHigh) {
+            luma = new short[blocksWide * blocksHigh];
+        }
+        int mcusWide;
+        int mcusHigh;
+        if (scanCount == 1) {
+            // 单分量扫描不交织，一个块就是一个MCU
+            mcusWide = blocksWide;
+            mcusHigh = blocksHigh;
+        } else {
+            mcusWide = ceilDiv(width, 8 * maxH);
+            mcusHigh = ceilDiv(height, 8 * maxV);
+        }
+        int quant = dcQuant[componentQuant[0]];
+
+        data = jpeg;
+        position = start;
+        end = length;
+        bitBuffer = 0;
+        bitCount = 0;
+        for (int s = 0; s < scanCount; s++) {
+            dcPrediction[s] = 0;
+        }
+        int mcus = mcusWide * mcusHigh;
+        for (int mcu = 0; mcu < mcus; mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                if (!restart()) {
+                    return false;
+                }
+                for (int s = 0; s < scanCount; s++) {
+                    dcPrediction[s] = 0;
+                }
+            }
+            int mcuX = mcu % mcusWide;
+            int mcuY = mcu / mcusWide;
+            for (int s = 0; s < scanCount; s++) {
+                int component = scanComponent[s];
+                int h = scanCount == 1 ? 1 : componentH[component];
+                int v = scanCount == 1 ? 1 : componentV[component];
+                for (int by = 0; by < v; by++) {
+                    for (int bx = 0; bx < h; bx++) {
+                        int size = decodeHuffman(scanDcTable[s]);
+                        if (size < 0 || size > 11) {
+                            return false;
+                        }
+                        dcPrediction[s] += receiveExtend(size);
+                        if (!skipAc(scanAcTable[s])) {
+                            return false;
+                        }
+                        if (component == 0) {
+                            int x = mcuX * h + bx;
+                            int y = mcuY * v + by;
+                            if (x < blocksWide && y < blocksHigh) {
+                                // DC系数是块内像素减128后之和的1/8
+                                int value = 128 + dcPrediction[s] * quant / 8;
+                                luma[y * blocksWide + x] = (short) (value < 0 ? 0 : value > 255 ? 255 : value);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        data = null;
+        return true;
+    }
+
+    private boolean skipAc(int table) {
+        for (int k = 1; k < 64; ) {
+            int symbol = decodeHuffman(table);
+            if (symbol < 0) {
+                return false;
+            }
+            int run = symbol >> 4;
+            int size = symbol & 0x0F;
+            if (size == 0) {
+                if (run != 15) {
+                    // EOB
+                    return true;
+                }
+                k += 16;
+            } else {
+                k += run + 1;
+                skipBits(size);
+            }
+        }
+        return true;
+    }
+
+    private int decodeHuffman(int table) {
+        if (bitCount < 16) {
+            fill();
+        }
+        int entry = lookup[table][(int) (bitBuffer >>> (64 - LOOKUP_BITS))];
+        if (entry != 0) {
+            consume(entry >> 8);
+            return entry & 0xFF;
+        }
+        int[] max = maxCode[table];
+        int peek = (int) (bitBuffer >>> 48);
+        for (int bits = LOOKUP_BITS + 1; bits <= 16; bits++) {
+            int code = peek >>> (16 - bits);
+            if (code <= max[bits]) {
+                consume(bits);
+                return values[table][code + valueOffset[table][bits]] & 0xFF;
+            }
+        }
+        // 无效的码
+        return -1;
+    }
+
+    private int receiveExtend(int size) {
+        if (size == 0) {
+            return 0;
+        }
+        if (bitCount < size) {
+            fill();
+        }
+        int value = (int) (bitBuffer >>> (64 - size));
+        consume(size);
+        return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+    }
+
+    private void skipBits(int size) {
+        if (bitCount < size) {
+            fill();
+        }
+        consume(size);
+    }
+
+    private void consume(int bits) {
+        bitBuffer <<= bits;
+        bitCount -= bits;
+    }
+
+    /** 补足缓冲区；遇到标记或数据结束后补0，由restart()或扫描结束处理标记 */
+    private void fill() {
+        while (bitCount <= 56) {
+            int b = 0;
+            if (position < end) {
+                b = data[position] & 0xFF;
+                if (b == 0xFF) {
+                    int next = position + 1 < end ? data[position + 1] & 0xFF : -1;
+                    if (next == 0) {
+                        // 0xFF后面填充的0
+                        position += 2;
+                    } else {
+                        b = 0;
+                    }
+                } else {
+                    position++;
+                }
+            }
+            bitBuffer |= (long) b << (56 - bitCount);
+            bitCount += 8;
+        }
+    }
+
+    /** 丢掉当前字节剩下的位，跳过RSTn标记 */
+    private boolean restart() {
+        bitBuffer = 0;
+        bitCount = 0;
+        while (position + 1 < end) {
+            if (data[position] == (byte) 0xFF) {
+                int marker = data[position + 1] & 0xFF;
+                if (marker >= 0xD0 && marker <= 0xD7) {
+                    position += 2;
+                    return true;
+                }
+                if (marker != 0 && marker != 0xFF) {
+                    return false;
+                }
+            }
+            position++;
+        }
+        return false;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
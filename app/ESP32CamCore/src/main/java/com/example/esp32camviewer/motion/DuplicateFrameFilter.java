@@ -0,0 +1,303 @@
+package com.example.esp32camviewer.motion;
+
+import com.example.esp32camviewer.stream.FramePipeline;
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 判断一帧和上一次保留的帧（参考帧）是否几乎一样，静止画面里一样的帧可以不解码、不渲染、不存储。
+ *
+ * 按代价从低到高逐级判断，都只看压缩数据：
+ * <ol>
+ * <li>遍历标记找到扫描数据的起点，头部（量化表、霍夫曼表、尺寸）的哈希和参考帧不同说明画质或分辨率变了，保留；</li>
+ * <li>熵编码数据的长度和哈希都相同、逐字节比较也相同，是完全重复的帧；</li>
+ * <li>长度相差超过sizeTolerance，画面有明显变化，保留。霍夫曼码是变长的，一处系数变化后面的字节就全部错位，
+ * 所以长度相近时比较字节内容没有意义；</li>
+ * <li>剩下的（长度相近、字节不同，静止画面里的传感器噪点就是这种）用{@link DcLumaExtractor}只熵解码、
+ * 取每个8x8块的DC亮度，和参考帧逐块比较，差值超过blockThreshold的块不超过maxChangedRatio时算几乎一样。</li>
+ * </ol>
+ * 总是和最后保留的帧比较而不是和上一帧比较，缓慢的变化（物体慢慢移动、自动曝光）累积起来也会保留下一帧；
+ * 参考帧超过maxIntervalNanos时无论如何保留一帧，录像里隔一段时间就有一帧真实数据。
+ *
+ * 参考帧的数据复制在实例内，它的亮度平面在第一次需要时才解出，忙碌画面里长度就能判断的帧不做熵解码。
+ * 尺寸不变时每帧不分配内存。不是线程安全的，只有{@link #reset()}和统计可以在任意线程调用。
+ */
+public final class DuplicateFrameFilter implements FramePipeline.DuplicateFilter {
+    public static final int DEFAULT_BLOCK_THRESHOLD = 8;
+    public static final float DEFAULT_MAX_CHANGED_RATIO = 0.002f;
+    public static final float DEFAULT_SIZE_TOLERANCE = 0.03f;
+    public static final long DEFAULT_MAX_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final DcLumaExtractor extractor = new DcLumaExtractor();
+    private final int blockThreshold;
+    private final float maxChangedRatio;
+    private final float sizeTolerance;
+    private final long maxIntervalNanos;
+
+    // 参考帧
+    private boolean hasReference = false;
+    private byte[] reference = new byte[0];
+    private int referenceLength;
+    private int referenceScan;
+    private long referenceHeaderHash;
+    private long referenceEntropyHash;
+    private long referenceNanos;
+    private short[] referenceLuma = new short[0];
+    private int referenceBlocksWide;
+    private int referenceBlocksHigh;
+    // 参考帧的亮度平面：0还没解，1有效，-1解不出
+    private int referenceLumaState;
+    private volatile boolean resetRequested = false;
+
+    // 只在调用isDuplicate()的线程上写
+    private volatile long frames;
+    private volatile long bytes;
+    private volatile long duplicates;
+    private volatile long exactDuplicates;
+    private volatile long duplicateBytes;
+    private volatile long lumaChecks;
+
+    public DuplicateFrameFilter() {
+        this(DEFAULT_BLOCK_THRESHOLD, DEFAULT_MAX_CHANGED_RATIO, DEFAULT_SIZE_TOLERANCE, DEFAULT_MAX_INTERVAL_NANOS);
+    }
+
+    /**
+     * @param blockThreshold   块平均亮度（0-255）相差超过多少算这一块变了
+     * @param maxChangedRatio  变了的块不超过这个比例算几乎一样
+     * @param sizeTolerance    熵编码数据的长度相差超过这个比例直接算变化
+     * @param maxIntervalNanos 参考帧最长保留多久，之后的第一帧一定保留
+     */
+    public DuplicateFrameFilter(int blockThreshold, float maxChangedRatio, float sizeTolerance, long maxIntervalNanos) {
+        if (blockThreshold <= 0 || maxChangedRatio < 0 || maxChangedRatio >= 1 || sizeTolerance < 0
+                || maxIntervalNanos <= 0) {
+            throw new IllegalArgumentException("blockThreshold=" + blockThreshold + " maxChangedRatio="
+                    + maxChangedRatio + " sizeTolerance=" + sizeTolerance + " maxIntervalNanos=" + maxIntervalNanos);
+        }
+        this.blockThreshold = blockThreshold;
+        this.maxChangedRatio = maxChangedRatio;
+        this.sizeTolerance = sizeTolerance;
+        this.maxIntervalNanos = maxIntervalNanos;
+    }
+
+    @Override
+    public boolean isDuplicate(JpegFrame frame) {
+        return isDuplicate(frame.data(), frame.length(), frame.receivedNanos());
+    }
+
+    /**
+     * 按到达顺序传入每一帧。返回false时这一帧成为新的参考帧；返回true时调用方可以丢弃它，
+     * 上一次保留的帧代替它显示或存储。
+     *
+     * @param receivedNanos 收到这一帧时的System.nanoTime()
+     */
+    public boolean isDuplicate(byte[] jpeg, int length, long receivedNanos) {
+        frames++;
+        bytes += length;
+        if (resetRequested) {
+            resetRequested = false;
+            hasReference = false;
+        }
+        int scan = scanDataStart(jpeg, length);
+        if (scan < 0) {
+            // 不认识的数据交给解码器处理，也不作为参考帧
+            hasReference = false;
+            return false;
+        }
+        long headerHash = hash(jpeg, 0, scan);
+        if (!hasReference || headerHash != referenceHeaderHash || receivedNanos - referenceNanos >= maxIntervalNanos) {
+            keep(jpeg, length, scan, headerHash, hash(jpeg, scan, length), receivedNanos, false);
+            return false;
+        }
+        int entropyLength = length - scan;
+        int referenceEntropyLength = referenceLength - referenceScan;
+        long entropyHash = hash(jpeg, scan, length);
+        // 哈希相同后再逐字节确认，碰撞不会把变了的帧当成重复
+        if (entropyLength == referenceEntropyLength && entropyHash == referenceEntropyHash
+                && sameBytes(jpeg, scan, reference, referenceScan, entropyLength)) {
+            exactDuplicates++;
+            return duplicate(length);
+        }
+        if (Math.abs(entropyLength - referenceEntropyLength) > referenceEntropyLength * sizeTolerance) {
+            keep(jpeg, length, scan, headerHash, entropyHash, receivedNanos, false);
+            return false;
+        }
+
+        lumaChecks++;
+        if (referenceLumaState == 0) {
+            referenceLumaState = extractor.extract(reference, referenceLength) ? 1 : -1;
+            if (referenceLumaState == 1) {
+                saveLuma();
+            }
+        }
+        if (!extractor.extract(jpeg, length)) {
+            hasReference = false;
+            return false;
+        }
+        if (referenceLumaState == 1 && unchanged()) {
+            return duplicate(length);
+        }
+        keep(jpeg, length, scan, headerHash, entropyHash, receivedNanos, true);
+        return false;
+    }
+
+    /** 丢掉参考帧，下一帧一定保留，比如参考帧没能解码显示或者画面被清掉了 */
+    @Override
+    public void reset() {
+        resetRequested = true;
+    }
+
+    public Stats stats() {
+        return new Stats(frames, bytes, duplicates, exactDuplicates, duplicateBytes, lumaChecks);
+    }
+
+    private boolean duplicate(int length) {
+        duplicates++;
+        duplicateBytes += length;
+        return true;
+    }
+
+    private boolean unchanged() {
+        int wide = extractor.blocksWide();
+        int high = extractor.blocksHigh();
+        if (wide != referenceBlocksWide || high != referenceBlocksHigh) {
+            return false;
+        }
+        short[] luma = extractor.luma();
+        int blocks = wide * high;
+        int allowed = (int) (blocks * maxChangedRatio);
+        int changed = 0;
+        for (int i = 0; i < blocks; i++) {
+            int difference = luma[i] - referenceLuma[i];
+            if ((difference > blockThreshold || difference < -blockThreshold) && ++changed > allowed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // lumaExtracted为true时extractor里已经是这一帧的亮度平面，直接作为参考帧的平面
+    private void keep(byte[] jpeg, int length, int scan, long headerHash, long entropyHash, long receivedNanos,
+                      boolean lumaExtracted) {
+        if (reference.length < length) {
+            reference = new byte[Math.max(length, reference.length + reference.length / 2)];
+        }
+        System.arraycopy(jpeg, 0, reference, 0, length);
+        referenceLength = length;
+        referenceScan = scan;
+        referenceHeaderHash = headerHash;
+        referenceEntropyHash = entropyHash;
+        referenceNanos = receivedNanos;
+        referenceLumaState = 0;
+        if (lumaExtracted) {
+            saveLuma();
+            referenceLumaState = 1;
+        }
+        hasReference = true;
+    }
+
+    private void saveLuma() {
+        int blocks = extractor.blocksWide() * extractor.blocksHigh();
+        if (referenceLuma.length < blocks) {
+            referenceLuma = new short[blocks];
+        }
+        System.arraycopy(extractor.luma(), 0, referenceLuma, 0, blocks);
+        referenceBlocksWide = extractor.blocksWide();
+        referenceBlocksHigh = extractor.blocksHigh();
+    }
+
+    /** SOS段之后第一个字节的位置，不是JPEG或者找不到SOS时返回-1 */
+    static int scanDataStart(byte[] jpeg, int length) {
+        if (length < 4 || jpeg[0] != (byte) 0xFF || jpeg[1] != (byte) 0xD8) {
+            return -1;
+        }
+        int i = 2;
+        while (i + 3 < length) {
+            if (jpeg[i] != (byte) 0xFF) {
+                return -1;
+            }
+            int marker = jpeg[i + 1] & 0xFF;
+            if (marker == 0xFF) {
+                i++;
+                continue;
+            }
+            int segmentEnd = i + 2 + (((jpeg[i + 2] & 0xFF) << 8) | (jpeg[i + 3] & 0xFF));
+            if (segmentEnd > length) {
+                return -1;
+            }
+            if (marker == 0xDA) {
+                return segmentEnd;
+            }
+            i = segmentEnd;
+        }
+        return -1;
+    }
+
+    // Java 8没有按范围比较的Arrays.equals
+    static boolean sameBytes(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 四路交错的乘加哈希，打断逐字节的依赖链；长度不同的数据由调用方另外比较
+    static long hash(byte[] data, int from, int to) {
+        long h0 = 1;
+        long h1 = 2;
+        long h2 = 3;
+        long h3 = 4;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            h0 = h0 * 0x100000001B3L + data[i];
+            h1 = h1 * 0x100000001B3L + data[i + 1];
+            h2 = h2 * 0x100000001B3L + data[i + 2];
+            h3 = h3 * 0x100000001B3L + data[i + 3];
+        }
+        for (; i < to; i++) {
+            h0 = h0 * 0x100000001B3L + data[i];
+        }
+        return ((h0 * 31 + h1) * 31 + h2) * 31 + h3;
+    }
+
+    /** 累计的帧数和节省的比例 */
+    public static final class Stats {
+        public final long frames;
+        public final long bytes;
+        /** 判为重复（含完全重复）的帧 */
+        public final long duplicates;
+        /** 熵编码数据完全相同的帧 */
+        public final long exactDuplicates;
+        public final long duplicateBytes;
+        /** 需要比较DC亮度平面的帧 */
+        public final long lumaChecks;
+
+        Stats(long frames, long bytes, long duplicates, long exactDuplicates, long duplicateBytes, long lumaChecks) {
+            this.frames = frames;
+            this.bytes = bytes;
+            this.duplicates = duplicates;
+            this.exactDuplicates = exactDuplicates;
+            this.duplicateBytes = duplicateBytes;
+            this.lumaChecks = lumaChecks;
+        }
+
+        /** 省掉的帧占全部帧的比例 */
+        public double savedFrameRatio() {
+            return frames == 0 ? 0 : (double) duplicates / frames;
+        }
+
+        /** 省掉的字节占全部字节的比例 */
+        public double savedByteRatio() {
+            return bytes == 0 ? 0 : (double) duplicateBytes / bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "frames=%d duplicates=%d(exact %d) saved=%.1f%%/%.1f%%bytes lumaChecks=%d",
+                    frames, duplicates, exactDuplicates, savedFrameRatio() * 100, savedByteRatio() * 100, lumaChecks);
+        }
+    }
+}
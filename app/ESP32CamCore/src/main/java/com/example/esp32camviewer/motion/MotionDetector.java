@@ -0,0 +1,160 @@
+package com.example.esp32camviewer.motion;
+
+/**
+ * 在1/8分辨率的亮度平面上做背景差分：每个块和缓慢跟随的背景比较，差值超过阈值的块算变化，
+ * 变化块占全部块的比例就是这一帧的分数。
+ * <p>
+ * 比较前先减去全部块的平均差值，自动曝光和白平衡引起的整体亮度变化不算移动；
+ * 孤立的单个变化块（噪点、压缩块效应）不计入。分数达到触发比例时进入移动状态，
+ * 连续holdFrames帧低于触发比例的一半才退出，避免一次移动被拆成多次报警。
+ * 所有状态都是预先分配的int[]/short[]，尺寸不变时每帧不分配内存。不是线程安全的。
+ */
+public final class MotionDetector {
+    public static final int DEFAULT_BLOCK_THRESHOLD = 14;
+    public static final float DEFAULT_TRIGGER_RATIO = 0.005f;
+    public static final int DEFAULT_HOLD_FRAMES = 10;
+
+    // 背景按4位小数的定点数保存
+    private static final int FRACTION_BITS = 4;
+    // 没变化的块每帧向当前值靠近1/8，变化的块1/64，停下的物体几秒后并入背景
+    private static final int LEARN_SHIFT = 3;
+    private static final int SLOW_LEARN_SHIFT = 6;
+
+    private final DcLumaExtractor extractor = new DcLumaExtractor();
+    private final int blockThreshold;
+    private final float triggerRatio;
+    private final int holdFrames;
+
+    private int[] background = new int[0];
+    private byte[] changed = new byte[0];
+    private int blocksWide;
+    private int blocksHigh;
+    private boolean hasBackground = false;
+
+    private float score;
+    private int changedBlocks;
+    private boolean motion = false;
+    private int quietFrames = 0;
+
+    public MotionDetector() {
+        this(DEFAULT_BLOCK_THRESHOLD, DEFAULT_TRIGGER_RATIO, DEFAULT_HOLD_FRAMES);
+    }
+
+    /**
+     * @param blockThreshold 块平均亮度（0-255）与背景相差超过多少算变化
+     * @param triggerRatio   变化块占比达到多少算有移动
+     * @param holdFrames     连续多少帧安静之后退出移动状态
+     */
+    public MotionDetector(int blockThreshold, float triggerRatio, int holdFrames) {
+        if (blockThreshold <= 0 || triggerRatio <= 0 || triggerRatio > 1 || holdFrames < 1) {
+            throw new IllegalArgumentException("blockThreshold=" + blockThreshold + " triggerRatio=" + triggerRatio
+                    + " holdFrames=" + holdFrames);
+        }
+        this.blockThreshold = blockThreshold;
+        this.triggerRatio = triggerRatio;
+        this.holdFrames = holdFrames;
+    }
+
+    /**
+     * 分析一帧并更新背景和移动状态。
+     *
+     * @return 变化块的比例(0-1)；第一帧或尺寸变化后的第一帧只建立背景，返回0；无法解析时返回-1，状态不变
+     */
+    public float analyze(byte[] jpeg, int length) {
+        if (!extractor.extract(jpeg, length)) {
+            return -1;
+        }
+        short[] luma = extractor.luma();
+        int wide = extractor.blocksWide();
+        int high = extractor.blocksHigh();
+        int blocks = wide * high;
+        if (!hasBackground || wide != blocksWide || high != blocksHigh) {
+            if (background.length < blocks) {
+                background = new int[blocks];
+                changed = new byte[blocks];
+            }
+            for (int i = 0; i < blocks; i++) {
+                background[i] = luma[i] << FRACTION_BITS;
+            }
+            blocksWide = wide;
+            blocksHigh = high;
+            hasBackground = true;
+            return update(0, 0);
+        }
+
+        long totalDifference = 0;
+        for (int i = 0; i < blocks; i++) {
+            totalDifference += (luma[i] << FRACTION_BITS) - background[i];
+        }
+        int offset = (int) (totalDifference / blocks);
+        int threshold = blockThreshold << FRACTION_BITS;
+        for (int i = 0; i < blocks; i++) {
+            int difference = (luma[i] << FRACTION_BITS) - background[i] - offset;
+            changed[i] = (byte) (difference > threshold || difference < -threshold ? 1 : 0);
+        }
+
+        int count = 0;
+        for (int y = 0; y < high; y++) {
+            int row = y * wide;
+            for (int x = 0; x < wide; x++) {
+                int i = row + x;
+                if (changed[i] != 0 && ((x > 0 && changed[i - 1] != 0) || (x + 1 < wide && changed[i + 1] != 0)
+                        || (y > 0 && changed[i - wide] != 0) || (y + 1 < high && changed[i + wide] != 0))) {
+                    count++;
+                }
+            }
+        }
+
+        for (int i = 0; i < blocks; i++) {
+            int current = luma[i] << FRACTION_BITS;
+            int shift = changed[i] != 0 ? SLOW_LEARN_SHIFT : LEARN_SHIFT;
+            background[i] += (current - background[i]) >> shift;
+        }
+        return update(count, (float) count / blocks);
+    }
+
+    private float update(int count, float frameScore) {
+        changedBlocks = count;
+        score = frameScore;
+        if (frameScore >= triggerRatio) {
+            motion = true;
+            quietFrames = 0;
+        } else if (motion && frameScore < triggerRatio / 2 && ++quietFrames >= holdFrames) {
+            motion = false;
+            quietFrames = 0;
+        }
+        return frameScore;
+    }
+
+    /** 当前是否处于移动状态 */
+    public boolean isMotion() {
+        return motion;
+    }
+
+    /** 最近一次成功分析的分数 */
+    public float score() {
+        return score;
+    }
+
+    /** 最近一次成功分析中计入分数的变化块数 */
+    public int changedBlocks() {
+        return changedBlocks;
+    }
+
+    public int blocksWide() {
+        return blocksWide;
+    }
+
+    public int blocksHigh() {
+        return blocksHigh;
+    }
+
+    /** 丢掉背景和移动状态，下一帧重新建立背景（比如切换了摄像头） */
+    public void reset() {
+        hasBackground = false;
+        motion = false;
+        quietFrames = 0;
+        score = 0;
+        changedBlocks = 0;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.esp32camviewer.motion;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.io.Closeable;
+
+/**
+ * 在独立线程上做移动检测，和显示用的解码线程互不影响。
+ * 接收线程调用offer()把帧数据复制进待分析缓冲区；分析线程还没取走上一帧时直接覆盖，
+ * 只分析最新的帧，分析跟不上时丢掉的是过时的帧。两块缓冲区轮流使用，只在帧比以往都大时扩容。
+ */
+public final class MotionMonitor implements Closeable {
+
+    /** 在分析线程上回调 */
+    public interface Listener {
+        void onMotionStarted(float score, long receivedNanos);
+
+        void onMotionEnded(long receivedNanos);
+    }
+
+    private final MotionDetector detector;
+    private final Listener listener;
+    private final Object lock = new Object();
+
+    private byte[] pending = new byte[64 * 1024];
+    private int pendingLength;
+    private long pendingReceivedNanos;
+    private boolean hasPending = false;
+    private byte[] working = new byte[64 * 1024];
+    private boolean closed = false;
+    private Thread thread;
+
+    private volatile long analyzedFrames;
+    private volatile long skippedFrames;
+    private volatile long failedFrames;
+    private volatile long motionEvents;
+    private volatile long analyzeNanos;
+
+    public MotionMonitor(MotionDetector detector, Listener listener) {
+        this.detector = detector;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::analyzeLoop, "motion-detect");
+        thread.setDaemon(true);
+        // 报警不需要和画面抢CPU
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /** 复制帧数据，不持有也不释放frame */
+    public boolean offer(JpegFrame frame) {
+        return offer(frame.data(), frame.length(), frame.receivedNanos());
+    }
+
+    /**
+     * 复制一帧等待分析，分析线程忙时替换掉还没分析的那一帧。
+     *
+     * @return 已关闭时返回false
+     */
+    public boolean offer(byte[] data, int length, long receivedNanos) {
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            if (pending.length < length) {
+                pending = new byte[length + length / 4];
+            }
+            System.arraycopy(data, 0, pending, 0, length);
+            pendingLength = length;
+            pendingReceivedNanos = receivedNanos;
+            if (hasPending) {
+                skippedFrames++;
+            }
+            hasPending = true;
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    private void analyzeLoop() {
+        while (true) {
+            int length;
+            long receivedNanos;
+            synchronized (lock) {
+                while (!hasPending && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                byte[] swap = working;
+                working = pending;
+                pending = swap;
+                length = pendingLength;
+                receivedNanos = pendingReceivedNanos;
+                hasPending = false;
+            }
+            long start = System.nanoTime();
+            boolean wasMotion = detector.isMotion();
+            float score = detector.analyze(working, length);
+            analyzeNanos += System.nanoTime() - start;
+            if (score < 0) {
+                failedFrames++;
+                continue;
+            }
+            analyzedFrames++;
+            boolean motion = detector.isMotion();
+            if (listener != null && motion != wasMotion) {
+                if (motion) {
+                    motionEvents++;
+                    listener.onMotionStarted(score, receivedNanos);
+                } else {
+                    listener.onMotionEnded(receivedNanos);
+                }
+            }
+        }
+    }
+
+    /** 停止分析线程并等它退出，正在分析的那一帧会分析完 */
+    @Override
+    public void close() {
+        Thread stopping;
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        synchronized (this) {
+            stopping = thread;
+        }
+        if (stopping != null && stopping != Thread.currentThread()) {
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public long analyzedFrames() {
+        return analyzedFrames;
+    }
+
+    /** 分析线程忙时被新帧替换掉、没有分析的帧数 */
+    public long skippedFrames() {
+        return skippedFrames;
+    }
+
+    /** 无法解析的帧数（渐进式JPEG、数据损坏） */
+    public long failedFrames() {
+        return failedFrames;
+    }
+
+    public long motionEvents() {
+        return motionEvents;
+    }
+
+    public long averageAnalyzeNanos() {
+        long frames = analyzedFrames + failedFrames;
+        return frames == 0 ? 0 : analyzeNanos / frames;
+    }
+
+    @Override
+    public String toString() {
+        return "分析" + analyzedFrames + "帧 跳过" + skippedFrames + " 失败" + failedFrames + " 移动" + motionEvents
+                + "次 每帧" + averageAnalyzeNanos() / 1000 + "µs";
+    }
+}
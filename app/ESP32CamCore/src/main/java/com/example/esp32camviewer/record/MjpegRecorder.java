@@ -0,0 +1,353 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.motion.DuplicateFrameFilter;
+import com.example.esp32camviewer.stream.ByteArrayPool;
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把视频流的原始JPEG数据（不重新编码）录制到一个目录中的分段文件。
+ *
+ * 每段是一个数据文件（00000.mjpg，JPEG首尾相接）和一个索引文件（00000.idx，格式见{@link RecordingIndex}），
+ * 数据写满segmentBytes后换下一段。索引条目在对应的数据写入之后才追加，进程被杀时索引不会指向没写完的数据。
+ * 时间戳相对第一帧的接收时间，事件前缓冲里较早的帧（见{@link PreEventBuffer}）也能按原来的间隔写入。
+ * 回放用{@link RecordingReader}，按时间戳二分查找。
+ *
+ * {@link #offer(JpegFrame)}可以直接在I/O线程上调用：只把帧复制到池化数组并入队，
+ * 写文件在"mjpeg-recorder"线程上批量进行（一次聚集写入多帧）。排队的数据超过上限（存储跟不上）时
+ * 丢弃新帧并计数，不会阻塞读取。
+ *
+ * 设置了{@link DuplicateFrameFilter}时，写线程上判断和上一次写入的帧几乎一样的帧只追加索引条目，
+ * 指向上一帧的数据，不写数据：时间戳照常保留，回放时这段时间显示同一幅画面。
+ */
+public final class MjpegRecorder implements Closeable {
+
+    /** 每段数据文件的默认上限，段内偏移用int保存，不能超过2GB */
+    public static final long DEFAULT_SEGMENT_BYTES = 256L * 1024 * 1024;
+    /** 等待写入的数据默认上限，约为UXGA一秒多的数据 */
+    public static final int DEFAULT_MAX_PENDING_BYTES = 8 * 1024 * 1024;
+    static final String DATA_SUFFIX = ".mjpg";
+    static final String INDEX_SUFFIX = ".idx";
+    private static final int MAX_BATCH = 32;
+    private static final Pending END = new Pending(null, 0, 0);
+
+    private final File directory;
+    private final long segmentBytes;
+    private final int maxPendingBytes;
+    private final long createdNanos = System.nanoTime();
+    private final long createdEpochMillis = System.currentTimeMillis();
+    private final ByteArrayPool pool = new ByteArrayPool(MAX_BATCH * 2);
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private volatile IOException error;
+
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong duplicateFrames = new AtomicLong();
+    private volatile DuplicateFrameFilter duplicateFilter;
+    private volatile int segmentCount = 0;
+
+    // 以下只在写线程上访问
+    private FileChannel data;
+    private FileChannel index;
+    private long segmentSize;
+    private boolean started = false;
+    private long startNanos;
+    private long startEpochMillis;
+    private long lastTimestampNanos = 0;
+    // 最后一帧写入的数据在当前分段里的位置
+    private int lastOffset;
+    private int lastLength;
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_BATCH];
+    private final ByteBuffer entries = ByteBuffer.allocate(MAX_BATCH * RecordingIndex.ENTRY_BYTES);
+
+    public MjpegRecorder(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * @param directory 录像目录，不存在时创建；里面已经有录像时抛出异常，不覆盖
+     */
+    public MjpegRecorder(File directory, long segmentBytes, int maxPendingBytes) throws IOException {
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes: " + segmentBytes);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建录像目录: " + directory);
+        }
+        if (new File(directory, segmentName(0) + INDEX_SUFFIX).exists()) {
+            throw new IOException("录像目录里已经有录像: " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxPendingBytes = maxPendingBytes;
+        this.writer = new Thread(this::writeLoop, "mjpeg-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    /**
+     * 复制一帧并排队写入，不阻塞；调用方仍然持有frame，照常release()。
+     *
+     * @return false表示这一帧被丢弃（排队数据超过上限、已关闭或写入出错）
+     */
+    public boolean offer(JpegFrame frame) {
+        return offer(frame.data(), frame.length(), frame.receivedNanos());
+    }
+
+    /**
+     * 同{@link #offer(JpegFrame)}，用于不是JpegFrame的数据
+     *
+     * @param receivedNanos 收到这一帧时的System.nanoTime()，录像里的时间戳按它计算
+     */
+    public boolean offer(byte[] jpeg, int length, long receivedNanos) {
+        if (closed || error != null || pendingBytes.get() + length > maxPendingBytes) {
+            droppedFrames.incrementAndGet();
+            return false;
+        }
+        byte[] copy = pool.acquire(length);
+        System.arraycopy(jpeg, 0, copy, 0, length);
+        pendingBytes.addAndGet(length);
+        queue.add(new Pending(copy, length, receivedNanos));
+        return true;
+    }
+
+    /**
+     * 同{@link #offer(byte[], int, long)}，排队数据超过上限时等待而不丢帧，用于导出事件前缓冲等不在I/O线程上的写入
+     *
+     * @return false表示已关闭或写入出错
+     */
+    public boolean append(byte[] jpeg, int length, long receivedNanos) throws InterruptedException {
+        while (!closed && error == null && pendingBytes.get() > 0 && pendingBytes.get() + length > maxPendingBytes) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return offer(jpeg, length, receivedNanos);
+    }
+
+    /**
+     * 几乎一样的帧只写索引不写数据，为null时每帧都写。要在第一次offer()之前设置，
+     * filter只在写线程上使用，不能再给别的地方用。
+     */
+    public void setDuplicateFilter(DuplicateFrameFilter filter) {
+        this.duplicateFilter = filter;
+    }
+
+    /** 写完已排队的帧后关闭文件 */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public long framesWritten() {
+        return framesWritten.get();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** 因排队数据超过上限或写入出错而丢弃的帧数 */
+    public long droppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /** 只写了索引、数据沿用上一帧的帧数，包含在{@link #framesWritten()}中 */
+    public long duplicateFrames() {
+        return duplicateFrames.get();
+    }
+
+    public int segmentCount() {
+        return segmentCount;
+    }
+
+    /** 每帧平均的写文件耗时（写线程上），远小于帧间隔才能跟上视频流 */
+    public long averageWriteNanosPerFrame() {
+        long frames = framesWritten.get();
+        return frames == 0 ? 0 : writeNanos.get() / frames;
+    }
+
+    /** 写入出错后不再录制，返回出错的原因 */
+    public IOException error() {
+        return error;
+    }
+
+    static String segmentName(int segment) {
+        return String.format(Locale.ROOT, "%05d", segment);
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        boolean ended = false;
+        try {
+            while (!ended) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                ended = batch.remove(END);
+                if (error == null) {
+                    try {
+                        write(batch);
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                if (error != null) {
+                    droppedFrames.addAndGet(batch.size());
+                }
+                for (Pending pending : batch) {
+                    pendingBytes.addAndGet(-pending.length);
+                    pool.release(pending.data);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                closeSegment();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    private void write(List<Pending> batch) throws IOException {
+        long start = System.nanoTime();
+        int count = 0;
+        long bytes = 0;
+        int duplicates = 0;
+        DuplicateFrameFilter filter = duplicateFilter;
+        for (Pending pending : batch) {
+            if (!started) {
+                started = true;
+                startNanos = pending.receivedNanos;
+                startEpochMillis = createdEpochMillis + TimeUnit.NANOSECONDS.toMillis(startNanos - createdNanos);
+            }
+            long timestamp = Math.max(lastTimestampNanos, Math.max(0, pending.receivedNanos - startNanos));
+            lastTimestampNanos = timestamp;
+            // 上一帧的数据总在当前分段里（换段只在写数据时发生），索引可以直接指向它
+            if (filter != null && data != null && filter.isDuplicate(pending.data, pending.length, pending.receivedNanos)) {
+                RecordingIndex.writeEntry(entries, timestamp, lastOffset, lastLength);
+                duplicates++;
+                continue;
+            }
+            if (data == null || (segmentSize > 0 && segmentSize + pending.length > segmentBytes)) {
+                flush(count);
+                count = 0;
+                nextSegment();
+            }
+            lastOffset = (int) segmentSize;
+            lastLength = pending.length;
+            RecordingIndex.writeEntry(entries, timestamp, lastOffset, lastLength);
+            gather[count++] = ByteBuffer.wrap(pending.data, 0, pending.length);
+            segmentSize += pending.length;
+            bytes += pending.length;
+        }
+        flush(count);
+        framesWritten.addAndGet(batch.size());
+        duplicateFrames.addAndGet(duplicates);
+        bytesWritten.addAndGet(bytes);
+        writeNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    // 先写数据再写对应的索引条目
+    private void flush(int count) throws IOException {
+        if (count > 0) {
+            while (gather[count - 1].hasRemaining()) {
+                data.write(gather, 0, count);
+            }
+        }
+        if (entries.position() == 0) {
+            return;
+        }
+        ((Buffer) entries).flip();
+        while (entries.hasRemaining()) {
+            index.write(entries);
+        }
+        ((Buffer) entries).clear();
+        for (int i = 0; i < count; i++) {
+            gather[i] = null;
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        closeSegment();
+        String name = segmentName(segmentCount);
+        data = new FileOutputStream(new File(directory, name + DATA_SUFFIX)).getChannel();
+        index = new FileOutputStream(new File(directory, name + INDEX_SUFFIX)).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(RecordingIndex.HEADER_BYTES);
+        RecordingIndex.writeHeader(header, startEpochMillis);
+        ((Buffer) header).flip();
+        while (header.hasRemaining()) {
+            index.write(header);
+        }
+        segmentSize = 0;
+        segmentCount++;
+    }
+
+    private void closeSegment() throws IOException {
+        if (data == null) {
+            return;
+        }
+        try {
+            // 换段和结束时落盘一次，录制过程中交给系统回写
+            data.force(false);
+            index.force(false);
+        } finally {
+            data.close();
+            index.close();
+            data = null;
+            index = null;
+        }
+    }
+
+    private static final class Pending {
+        final byte[] data;
+        final int length;
+        final long receivedNanos;
+
+        Pending(byte[] data, int length, long receivedNanos) {
+            this.data = data;
+            this.length = length;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 事件前缓冲（即时回放）：在堆外内存里保留最近一段时间的原始JPEG，触发时可以取出或录下触发前的画面。
+ *
+ * 帧数据首尾相接写进一块固定大小的直接ByteBuffer，末尾放不下时从头开始；每帧的位置、长度和接收时间
+ * 放在固定数量的槽位里。写入新帧时淘汰最旧的帧，三个上限任一个超出都会淘汰：缓冲区字节数、
+ * 时长（最新一帧减最旧一帧）和槽位数。稳定运行时写入不分配堆内存，缓冲区大小在构造时固定。
+ *
+ * 单写多读：{@link #offer(JpegFrame)}在I/O线程上调用，同一时刻只有一个写入方（内部的锁只在写入方之间，
+ * 防止误用）；回放、截图和导出在其他线程上读取，不加锁也不阻塞写入：先读槽位里的序号和位置，
+ * 复制数据后再确认这段数据在复制期间没有被写入方覆盖，被覆盖了就当作已淘汰。
+ */
+public final class PreEventBuffer {
+
+    private final ByteBuffer data;
+    // 写入方专用的视图，写入时不用每帧duplicate()
+    private final ByteBuffer writeView;
+    private final int capacity;
+    private final long maxAgeNanos;
+    private final int slots;
+    // 槽位：帧在缓冲区中的绝对字节位置（一直增长，对capacity取模才是实际位置）、长度、接收时间和序号
+    private final AtomicLongArray offsets;
+    private final AtomicIntegerArray lengths;
+    private final AtomicLongArray timestamps;
+    // 槽位里是哪一帧，写入槽位期间为-1
+    private final AtomicLongArray stamps;
+
+    // [tail, head)是还在缓冲区里的帧
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // 写入方已经占用到的绝对字节位置，读取方复制完后据此判断数据有没有被覆盖
+    private final AtomicLong writeLimit = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+
+    // 以下只由写入方修改（持有this的锁）
+    private long writePosition = 0;
+    private volatile long bufferedBytes = 0;
+    private volatile long offeredFrames = 0;
+    private volatile long droppedFrames = 0;
+    private volatile long evictedByBytes = 0;
+    private volatile long evictedByAge = 0;
+    private volatile long evictedBySlots = 0;
+    private volatile MjpegRecorder sink;
+
+    /**
+     * @param capacityBytes 堆外缓冲区大小，超过它的单帧会被丢弃
+     * @param maxAgeNanos   最多保留多长时间的画面
+     * @param maxFrames     最多保留的帧数，按最高帧率乘以时长给
+     */
+    public PreEventBuffer(int capacityBytes, long maxAgeNanos, int maxFrames) {
+        if (capacityBytes <= 0 || maxFrames <= 0) {
+            throw new IllegalArgumentException("capacityBytes=" + capacityBytes + " maxFrames=" + maxFrames);
+        }
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        this.writeView = data.duplicate();
+        this.capacity = capacityBytes;
+        this.maxAgeNanos = maxAgeNanos;
+        this.slots = maxFrames;
+        this.offsets = new AtomicLongArray(maxFrames);
+        this.lengths = new AtomicIntegerArray(maxFrames);
+        this.timestamps = new AtomicLongArray(maxFrames);
+        this.stamps = new AtomicLongArray(maxFrames);
+        for (int i = 0; i < maxFrames; i++) {
+            stamps.set(i, -1);
+        }
+    }
+
+    /** 保存一帧的副本，调用方仍然持有frame，照常release() */
+    public boolean offer(JpegFrame frame) {
+        return offer(frame.data(), frame.length(), frame.receivedNanos());
+    }
+
+    /**
+     * 同{@link #offer(JpegFrame)}
+     *
+     * @return false表示单帧超过了缓冲区大小，没有保存
+     */
+    public synchronized boolean offer(byte[] jpeg, int length, long receivedNanos) {
+        offeredFrames++;
+        if (length > capacity) {
+            droppedFrames++;
+            return false;
+        }
+        long start = writePosition;
+        int physical = (int) (start % capacity);
+        if (physical + length > capacity) {
+            // 末尾放不下，整帧从缓冲区开头写，读取时每帧都是连续的一段
+            start += capacity - physical;
+            physical = 0;
+        }
+        long end = start + length;
+        long sequence = head.get();
+        evict(sequence, end, receivedNanos);
+        // 先声明要覆盖的范围再写数据
+        writeLimit.set(end);
+        ((Buffer) writeView).limit(physical + length).position(physical);
+        writeView.put(jpeg, 0, length);
+
+        int slot = slot(sequence);
+        stamps.set(slot, -1);
+        offsets.set(slot, start);
+        lengths.set(slot, length);
+        timestamps.set(slot, receivedNanos);
+        stamps.set(slot, sequence);
+        head.set(sequence + 1);
+        writePosition = end;
+        bufferedBytes += length;
+
+        MjpegRecorder recorder = sink;
+        if (recorder != null) {
+            recorder.offer(jpeg, length, receivedNanos);
+        }
+        return true;
+    }
+
+    /**
+     * 把最近preEventNanos内的帧写入recorder，之后的新帧在offer()里直接转给它，
+     * 录像从触发前的画面开始，中间不缺帧也不重复。事件前的部分在调用线程上写入，排队满时等待，
+     * 不要在I/O线程上调用。
+     */
+    public void recordTo(MjpegRecorder recorder, long preEventNanos) throws InterruptedException {
+        long next = firstSequenceAfter(latestReceivedNanos() - preEventNanos);
+        // 先在锁外追赶，最后几帧在锁内补齐后再接上，避免长时间挡住写入方
+        for (int i = 0; i < 3 && head.get() - next > 2; i++) {
+            next = copyTo(recorder, next, head.get(), true);
+        }
+        synchronized (this) {
+            copyTo(recorder, next, head.get(), false);
+            sink = recorder;
+        }
+    }
+
+    /** 停止转发新帧给recordTo()的录像，返回它，由调用方关闭 */
+    public synchronized MjpegRecorder stopRecording() {
+        MjpegRecorder recorder = sink;
+        sink = null;
+        return recorder;
+    }
+
+    /** 最旧一帧的序号 */
+    public long oldestSequence() {
+        return tail.get();
+    }
+
+    /** 下一帧的序号，缓冲区里的帧是[oldestSequence(), nextSequence()) */
+    public long nextSequence() {
+        return head.get();
+    }
+
+    /** 最新一帧的接收时间，没有帧时为0 */
+    public long latestReceivedNanos() {
+        long newest = head.get() - 1;
+        long received = newest < 0 ? -1 : receivedNanos(newest);
+        return Math.max(received, 0);
+    }
+
+    /** 一帧的接收时间，已淘汰时返回-1 */
+    public long receivedNanos(long sequence) {
+        int slot = slot(sequence);
+        if (sequence < tail.get() || stamps.get(slot) != sequence) {
+            return -1;
+        }
+        long received = timestamps.get(slot);
+        return stamps.get(slot) == sequence ? received : -1;
+    }
+
+    /** 第一帧接收时间不早于sinceNanos的帧的序号，都更早时返回nextSequence() */
+    public long firstSequenceAfter(long sinceNanos) {
+        long end = head.get();
+        for (long sequence = tail.get(); sequence < end; sequence++) {
+            long received = receivedNanos(sequence);
+            if (received >= sinceNanos) {
+                return sequence;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 把一帧复制到dst（从dst的position开始）
+     *
+     * @return 帧长度；已淘汰或在复制期间被覆盖时返回-1，dst不变
+     */
+    public int read(long sequence, ByteBuffer dst) {
+        int slot = slot(sequence);
+        if (sequence < tail.get() || stamps.get(slot) != sequence) {
+            return -1;
+        }
+        long offset = offsets.get(slot);
+        int length = lengths.get(slot);
+        if (stamps.get(slot) != sequence) {
+            return -1;
+        }
+        if (dst.remaining() < length) {
+            throw new IllegalArgumentException("缓冲区不足: " + dst.remaining() + " < " + length);
+        }
+        int physical = (int) (offset % capacity);
+        ByteBuffer source = data.duplicate();
+        ((Buffer) source).limit(physical + length).position(physical);
+        int position = dst.position();
+        dst.put(source);
+        if (!intact(offset)) {
+            ((Buffer) dst).position(position);
+            return -1;
+        }
+        return length;
+    }
+
+    /** 复制出一帧，序号和接收时间不变；已淘汰时返回null */
+    public JpegFrame copy(long sequence) {
+        int slot = slot(sequence);
+        if (sequence < tail.get() || stamps.get(slot) != sequence) {
+            return null;
+        }
+        int length = lengths.get(slot);
+        long received = timestamps.get(slot);
+        ByteBuffer target = ByteBuffer.allocate(length);
+        // read()会再检查一遍槽位，长度不一致说明槽位在两次读取之间被复用
+        if (read(sequence, target) != length || timestamps.get(slot) != received) {
+            return null;
+        }
+        return JpegFrame.wrap(target.array(), length, sequence, received);
+    }
+
+    /** 复制出接收时间不早于sinceNanos的所有帧，用于截图、回放和导出 */
+    public List<JpegFrame> copySince(long sinceNanos) {
+        long end = head.get();
+        List<JpegFrame> frames = new ArrayList<>();
+        for (long sequence = firstSequenceAfter(sinceNanos); sequence < end; sequence++) {
+            JpegFrame frame = copy(sequence);
+            if (frame != null) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    /** 堆外缓冲区大小，加上槽位数组的大小就是这个缓冲的全部内存 */
+    public int capacityBytes() {
+        return capacity;
+    }
+
+    /** 槽位数组占用的堆内存 */
+    public long slotBytes() {
+        return slots * 28L;
+    }
+
+    /** 缓冲区里的帧数据总字节数 */
+    public long bufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public int bufferedFrames() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /** 缓冲区里最旧一帧到最新一帧的时间 */
+    public long bufferedNanos() {
+        long oldest = tail.get();
+        long newest = head.get() - 1;
+        if (newest < oldest) {
+            return 0;
+        }
+        long first = receivedNanos(oldest);
+        long last = receivedNanos(newest);
+        return first < 0 || last < 0 ? 0 : last - first;
+    }
+
+    public long offeredFrames() {
+        return offeredFrames;
+    }
+
+    /** 超过缓冲区大小而没有保存的帧 */
+    public long droppedFrames() {
+        return droppedFrames;
+    }
+
+    public long evictedByBytes() {
+        return evictedByBytes;
+    }
+
+    public long evictedByAge() {
+        return evictedByAge;
+    }
+
+    public long evictedBySlots() {
+        return evictedBySlots;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d帧 %.1fs %dKB/%dKB 淘汰(字节%d 时长%d 槽位%d) 丢弃%d",
+                bufferedFrames(), bufferedNanos() / 1e9, bufferedBytes() / 1024, capacity / 1024,
+                evictedByBytes, evictedByAge, evictedBySlots, droppedFrames);
+    }
+
+    // 写入方调用：为写入[.., end)和序号sequence腾出空间
+    private void evict(long sequence, long end, long receivedNanos) {
+        long oldest = tail.get();
+        while (oldest < sequence) {
+            int slot = slot(oldest);
+            if (offsets.get(slot) + capacity < end) {
+                evictedByBytes++;
+            } else if (sequence - oldest >= slots) {
+                evictedBySlots++;
+            } else if (receivedNanos - timestamps.get(slot) > maxAgeNanos) {
+                evictedByAge++;
+            } else {
+                break;
+            }
+            bufferedBytes -= lengths.get(slot);
+            oldest++;
+        }
+        tail.set(oldest);
+    }
+
+    // 复制完成后确认数据没有被覆盖。先做一次原子写，保证复制数据的读取不会被重排到检查之后
+    private boolean intact(long offset) {
+        reads.incrementAndGet();
+        return writeLimit.get() <= offset + capacity;
+    }
+
+    // 把[from, to)写入recorder，返回下一个要写的序号；已淘汰的帧跳过
+    private long copyTo(MjpegRecorder recorder, long from, long to, boolean wait) throws InterruptedException {
+        for (long sequence = Math.max(from, tail.get()); sequence < to; sequence++) {
+            JpegFrame frame = copy(sequence);
+            if (frame == null) {
+                continue;
+            }
+            if (wait) {
+                recorder.append(frame.data(), frame.length(), frame.receivedNanos());
+            } else {
+                recorder.offer(frame);
+            }
+        }
+        return Math.max(to, from);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % slots);
+    }
+}
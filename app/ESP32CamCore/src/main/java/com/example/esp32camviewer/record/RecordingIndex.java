@@ -0,0 +1,101 @@
+package com.example.esp32camviewer.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 一个录像分段的索引，只读映射到内存。
+ *
+ * 文件格式：16字节文件头（魔数、版本、录制开始的墙钟毫秒），之后每帧16字节：
+ * 相对录制开始的时间戳（纳秒）、帧在数据文件中的偏移、帧长度，时间戳单调不减。
+ * 末尾写了一半的条目（进程在写索引时被杀）忽略。
+ */
+final class RecordingIndex {
+    static final int MAGIC = 0x4D4A4958; // "MJIX"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int ENTRY_BYTES = 16;
+
+    private final ByteBuffer map;
+    private final int size;
+    private final long startEpochMillis;
+
+    private RecordingIndex(ByteBuffer map, int size, long startEpochMillis) {
+        this.map = map;
+        this.size = size;
+        this.startEpochMillis = startEpochMillis;
+    }
+
+    static RecordingIndex open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                throw new IOException("索引文件不完整: " + file);
+            }
+            // 映射在通道关闭后仍然有效
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                throw new IOException("不是录像索引: " + file);
+            }
+            return new RecordingIndex(map, (int) ((length - HEADER_BYTES) / ENTRY_BYTES), map.getLong(8));
+        }
+    }
+
+    /** 写在文件头里的内容，MjpegRecorder新建分段时调用 */
+    static void writeHeader(ByteBuffer buffer, long startEpochMillis) {
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(startEpochMillis);
+    }
+
+    static void writeEntry(ByteBuffer buffer, long timestampNanos, int offset, int length) {
+        buffer.putLong(timestampNanos).putInt(offset).putInt(length);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long startEpochMillis() {
+        return startEpochMillis;
+    }
+
+    long timestampNanos(int entry) {
+        return map.getLong(position(entry));
+    }
+
+    int offset(int entry) {
+        return map.getInt(position(entry) + 8);
+    }
+
+    int length(int entry) {
+        return map.getInt(position(entry) + 12);
+    }
+
+    /** 时间戳不晚于timestampNanos的最后一条，全部晚于它时返回-1 */
+    int floor(long timestampNanos) {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timestampNanos(mid) <= timestampNanos) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private int position(int entry) {
+        if (entry < 0 || entry >= size) {
+            throw new IndexOutOfBoundsException("entry " + entry + " / " + size);
+        }
+        return HEADER_BYTES + entry * ENTRY_BYTES;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 回放{@link MjpegRecorder}录制的目录。
+ *
+ * 打开时映射所有分段的索引，之后按时间戳定位是两次二分查找（先找分段，再找段内的帧），
+ * 与录像时长无关；读帧是一次按偏移的FileChannel读取。帧按全局序号访问，从0开始。
+ * 正在录制的目录也可以打开，看到的是打开时已经写入索引的帧。
+ */
+public final class RecordingReader implements Closeable {
+    private final RecordingIndex[] indexes;
+    private final FileChannel[] data;
+    // 每段第一帧的全局序号
+    private final int[] firstFrames;
+    private final int frameCount;
+
+    private RecordingReader(RecordingIndex[] indexes, FileChannel[] data) {
+        this.indexes = indexes;
+        this.data = data;
+        this.firstFrames = new int[indexes.length];
+        int total = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            firstFrames[i] = total;
+            total += indexes[i].size();
+        }
+        this.frameCount = total;
+    }
+
+    public static RecordingReader open(File directory) throws IOException {
+        List<RecordingIndex> indexes = new ArrayList<>();
+        List<FileChannel> data = new ArrayList<>();
+        try {
+            for (int segment = 0; ; segment++) {
+                String name = MjpegRecorder.segmentName(segment);
+                File indexFile = new File(directory, name + MjpegRecorder.INDEX_SUFFIX);
+                if (!indexFile.exists()) {
+                    break;
+                }
+                indexes.add(RecordingIndex.open(indexFile));
+                data.add(new FileInputStream(new File(directory, name + MjpegRecorder.DATA_SUFFIX)).getChannel());
+            }
+        } catch (IOException e) {
+            for (FileChannel channel : data) {
+                channel.close();
+            }
+            throw e;
+        }
+        if (indexes.isEmpty()) {
+            throw new IOException("目录里没有录像: " + directory);
+        }
+        return new RecordingReader(indexes.toArray(new RecordingIndex[0]), data.toArray(new FileChannel[0]));
+    }
+
+    public int frameCount() {
+        return frameCount;
+    }
+
+    /** 开始录制时的墙钟时间，帧的时间戳都相对于它 */
+    public long startEpochMillis() {
+        return indexes[0].startEpochMillis();
+    }
+
+    /** 最后一帧的时间戳，没有帧时为0 */
+    public long durationNanos() {
+        return frameCount == 0 ? 0 : timestampNanos(frameCount - 1);
+    }
+
+    public int segmentCount() {
+        return indexes.length;
+    }
+
+    /** 相对录制开始的时间戳 */
+    public long timestampNanos(int frame) {
+        int segment = segmentOf(frame);
+        return indexes[segment].timestampNanos(frame - firstFrames[segment]);
+    }
+
+    public int frameLength(int frame) {
+        int segment = segmentOf(frame);
+        return indexes[segment].length(frame - firstFrames[segment]);
+    }
+
+    /**
+     * 时间戳不晚于timestampNanos的最后一帧的序号，早于第一帧时返回0；没有帧时返回-1
+     */
+    public int seek(long timestampNanos) {
+        if (frameCount == 0) {
+            return -1;
+        }
+        // 最后一个第一帧不晚于目标的分段
+        int low = 0;
+        int high = indexes.length - 1;
+        int segment = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            // 空分段只可能是最后一段（刚换段还没写入帧），按晚于目标处理
+            if (indexes[mid].size() > 0 && indexes[mid].timestampNanos(0) <= timestampNanos) {
+                segment = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int entry = indexes[segment].floor(timestampNanos);
+        return entry < 0 ? 0 : firstFrames[segment] + entry;
+    }
+
+    /** 读出一帧的JPEG数据，返回的帧不来自池，release()可以不调用 */
+    public JpegFrame readFrame(int frame) throws IOException {
+        int segment = segmentOf(frame);
+        int entry = frame - firstFrames[segment];
+        int length = indexes[segment].length(entry);
+        byte[] jpeg = new byte[length];
+        readFully(data[segment], ByteBuffer.wrap(jpeg), indexes[segment].offset(entry));
+        return JpegFrame.wrap(jpeg, length);
+    }
+
+    /**
+     * 把一帧读进dst（从dst的position开始），回放时可以反复使用同一个缓冲区
+     *
+     * @return 帧长度
+     */
+    public int readFrame(int frame, ByteBuffer dst) throws IOException {
+        int segment = segmentOf(frame);
+        int entry = frame - firstFrames[segment];
+        int length = indexes[segment].length(entry);
+        if (dst.remaining() < length) {
+            throw new IllegalArgumentException("缓冲区不足: " + dst.remaining() + " < " + length);
+        }
+        ByteBuffer slice = dst.duplicate();
+        ((Buffer) slice).limit(slice.position() + length);
+        readFully(data[segment], slice, indexes[segment].offset(entry));
+        ((Buffer) dst).position(dst.position() + length);
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (FileChannel channel : data) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private int segmentOf(int frame) {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("frame " + frame + " / " + frameCount);
+        }
+        int low = 0;
+        int high = firstFrames.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstFrames[mid] <= frame) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // 相同起点的空分段排在后面，往前找到有帧的那一段
+        while (indexes[low].size() == 0) {
+            low--;
+        }
+        return low;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("录像数据不完整");
+            }
+            position += n;
+        }
+    }
+}
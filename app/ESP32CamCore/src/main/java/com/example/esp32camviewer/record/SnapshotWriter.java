@@ -0,0 +1,384 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.stream.ByteArrayPool;
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 拍照和连拍：把视频流里的原始JPEG（不重新编码，分辨率和画质与摄像头输出一致）写成单独的.jpg文件。
+ *
+ * {@link #snapshot(PreEventBuffer, Callback)}拍最近收到的一帧：从事件前缓冲里复制，不等下一帧，
+ * 画面卡住或正在重连时拍到的就是屏幕上停住的那一帧。
+ *
+ * {@link #capture(int, long, Callback)}连拍接下来的n帧，视频流的每一帧都交给{@link #offer(JpegFrame)}：
+ * 没有待拍的请求时只读一个volatile字段；有请求时在I/O线程上把帧从解析缓冲区复制到池化数组，
+ * 写文件和生成缩略图在"snapshot-writer"线程上进行，连拍时不会拖慢收帧。
+ * 排队的数据超过上限（存储跟不上）时丢弃这一帧并计数，连拍的结果里少了这一帧而不是阻塞读取；
+ * 超时还没拍够时按已拍到的帧回调，视频流中断时不会一直占着连拍。
+ *
+ * 文件名是请求时的本地时间，连拍的帧加两位序号，缩略图在thumbs子目录下同名。
+ */
+public final class SnapshotWriter implements Closeable {
+
+    /** 等待写入的数据默认上限，约为VGA连拍一百多帧 */
+    public static final int DEFAULT_MAX_PENDING_BYTES = 4 * 1024 * 1024;
+    /** 连拍默认最多等5秒 */
+    public static final long DEFAULT_CAPTURE_TIMEOUT_MS = 5000;
+    static final String THUMBNAIL_DIRECTORY = "thumbs";
+
+    /** 生成缩略图，在写线程上调用；Android上用BitmapFactory按inSampleSize缩小解码 */
+    public interface Thumbnailer {
+        void write(byte[] jpeg, int length, File file) throws IOException;
+    }
+
+    /** 一次拍照的全部帧写完（或失败、超时、被关闭）后在写线程上回调 */
+    public interface Callback {
+        void onCaptured(Result result);
+    }
+
+    /** 一次拍照的结果 */
+    public static final class Result {
+        /** 按帧的顺序，只包含写成功的帧 */
+        public final List<File> files;
+        /** 按下标与files对应，生成失败的为null；没有设置Thumbnailer时为空 */
+        public final List<File> thumbnails;
+        public final int requested;
+        /** 排队超过上限、写入出错、超时或关闭时没有拍到的帧 */
+        public final int dropped;
+        /** 连拍在超时前没有等到足够的帧 */
+        public final boolean timedOut;
+        /** 第一个照片写入错误，没有出错时为null；缩略图失败不算在内 */
+        public final IOException error;
+        /** 从请求到最后一帧写完的耗时 */
+        public final long elapsedNanos;
+
+        Result(List<File> files, List<File> thumbnails, int requested, int dropped, boolean timedOut,
+               IOException error, long elapsedNanos) {
+            this.files = Collections.unmodifiableList(new ArrayList<>(files));
+            this.thumbnails = Collections.unmodifiableList(new ArrayList<>(thumbnails));
+            this.requested = requested;
+            this.dropped = dropped;
+            this.timedOut = timedOut;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return files.size() + "/" + requested + "帧 丢" + dropped + " " + elapsedNanos / 1_000_000 + "ms"
+                    + (timedOut ? " 超时" : "") + (error == null ? "" : " 出错: " + error.getMessage());
+        }
+    }
+
+    // 一次拍照请求；offered只在调用offer()的线程上修改，timedOut在finish()里设置，其余只在写线程上访问
+    private static final class Capture {
+        final String name;
+        final int requested;
+        final Callback callback;
+        final long requestedNanos = System.nanoTime();
+        int offered = 0;
+        final List<File> files = new ArrayList<>();
+        final List<File> thumbnails = new ArrayList<>();
+        IOException error;
+        // 在capture()里持有锁时设置，finish()持有同一把锁之后才读取
+        ScheduledFuture<?> timeout;
+        volatile boolean timedOut = false;
+        // 已经回调，超时后才到的帧不再写入
+        boolean completed = false;
+
+        Capture(String name, int requested, Callback callback) {
+            this.name = name;
+            this.requested = requested;
+            this.callback = callback;
+        }
+    }
+
+    private final File directory;
+    private final Thumbnailer thumbnailer;
+    private final int maxPendingBytes;
+    private final ByteArrayPool pool = new ByteArrayPool(8);
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SimpleDateFormat nameFormat = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.ROOT);
+    private volatile Capture active;
+    private volatile boolean closed = false;
+
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong thumbnailFailures = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    public SnapshotWriter(File directory, Thumbnailer thumbnailer) {
+        this(directory, thumbnailer, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * @param directory   照片目录，第一次写入时创建
+     * @param thumbnailer 为null时不生成缩略图
+     */
+    public SnapshotWriter(File directory, Thumbnailer thumbnailer, int maxPendingBytes) {
+        this.directory = directory;
+        this.thumbnailer = thumbnailer;
+        this.maxPendingBytes = maxPendingBytes;
+        // 连拍结束时取消它的超时任务，关闭时队列里不会留着还没到期的超时
+        writer.setRemoveOnCancelPolicy(true);
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    /**
+     * 拍最近收到的一帧，立即返回；复制和写文件都在写线程上，可以和连拍同时进行。
+     * 缓冲区里还没有帧时回调的结果没有文件，error说明原因。
+     *
+     * @param frames 查看器在I/O线程上写入的事件前缓冲，最新一帧就是正在显示的画面
+     * @return false表示已经关闭
+     */
+    public synchronized boolean snapshot(PreEventBuffer frames, Callback callback) {
+        if (closed) {
+            return false;
+        }
+        Capture capture = new Capture(nameFormat.format(new Date()), 1, callback);
+        return submit(() -> writeLatest(capture, frames), 0);
+    }
+
+    /** 连拍，最多等{@link #DEFAULT_CAPTURE_TIMEOUT_MS} */
+    public boolean capture(int frames, Callback callback) {
+        return capture(frames, DEFAULT_CAPTURE_TIMEOUT_MS, callback);
+    }
+
+    /**
+     * 拍接下来到达的frames帧，立即返回。timeoutMs后还没拍够时按已拍到的帧回调，timedOut为true。
+     *
+     * @return false表示上一次连拍还没拍完或者已经关闭，这次请求被忽略
+     */
+    public synchronized boolean capture(int frames, long timeoutMs, Callback callback) {
+        if (frames <= 0 || timeoutMs <= 0) {
+            throw new IllegalArgumentException("frames: " + frames + " timeoutMs: " + timeoutMs);
+        }
+        if (closed || active != null) {
+            return false;
+        }
+        Capture capture = new Capture(nameFormat.format(new Date()), frames, callback);
+        active = capture;
+        capture.timeout = writer.schedule(() -> finish(capture, true), timeoutMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /** 是否有还没拍完的连拍 */
+    public boolean isCapturing() {
+        return active != null;
+    }
+
+    /**
+     * 视频流的每一帧都交给这里，只能在一个线程（通常是I/O线程）上调用；调用方仍然持有frame，照常release()。
+     *
+     * @return true表示这一帧被复制并排队写入
+     */
+    public boolean offer(JpegFrame frame) {
+        Capture capture = active;
+        if (capture == null) {
+            return false;
+        }
+        int index = capture.offered++;
+        boolean last = capture.offered == capture.requested;
+        boolean queued = false;
+        if (pendingBytes.get() + frame.length() <= maxPendingBytes) {
+            byte[] copy = pool.acquire(frame.length());
+            System.arraycopy(frame.data(), 0, copy, 0, frame.length());
+            queued = submit(() -> writeQueued(capture, index, copy, frame.length()), frame.length());
+            if (!queued) {
+                pool.release(copy);
+            }
+        }
+        if (!queued) {
+            droppedFrames.incrementAndGet();
+        }
+        if (last) {
+            finish(capture, false);
+        }
+        return queued;
+    }
+
+    /** 写完已排队的帧后停止写线程，没拍完的请求按已拍到的帧回调 */
+    @Override
+    public void close() {
+        Capture capture;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            capture = active;
+        }
+        if (capture != null) {
+            // offer()可能正在另一个线程上处理这个请求，结束由finish()里的active检查去重
+            finish(capture, false);
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long framesWritten() {
+        return framesWritten.get();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /** 到达时因排队数据超过上限、已关闭或连拍已超时而丢弃的帧 */
+    public long droppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /** 照片已保存、缩略图没能生成的帧 */
+    public long thumbnailFailures() {
+        return thumbnailFailures.get();
+    }
+
+    /** 每帧平均的写文件和缩略图耗时（写线程上） */
+    public long averageWriteNanosPerFrame() {
+        long frames = framesWritten.get();
+        return frames == 0 ? 0 : writeNanos.get() / frames;
+    }
+
+    private boolean submit(Runnable task, int bytes) {
+        pendingBytes.addAndGet(bytes);
+        try {
+            writer.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingBytes.addAndGet(-bytes);
+            return false;
+        }
+    }
+
+    private void finish(Capture capture, boolean timedOut) {
+        synchronized (this) {
+            if (active != capture) {
+                return;
+            }
+            active = null;
+            capture.timedOut = timedOut;
+        }
+        if (capture.timeout != null) {
+            capture.timeout.cancel(false);
+        }
+        // 写线程按顺序执行，回调排在这次请求的所有帧之后
+        if (!submit(() -> complete(capture), 0)) {
+            complete(capture);
+        }
+    }
+
+    // 以下在写线程上执行
+
+    private void writeLatest(Capture capture, PreEventBuffer frames) {
+        JpegFrame latest = null;
+        // 最新一帧在复制期间被写入方覆盖时取更新的一帧
+        for (int attempt = 0; attempt < 3 && latest == null; attempt++) {
+            long newest = frames.nextSequence() - 1;
+            if (newest < frames.oldestSequence()) {
+                break;
+            }
+            latest = frames.copy(newest);
+        }
+        if (latest == null) {
+            capture.error = new IOException("还没有收到画面");
+        } else {
+            write(capture, 0, latest.data(), latest.length());
+        }
+        complete(capture);
+    }
+
+    private void writeQueued(Capture capture, int index, byte[] jpeg, int length) {
+        try {
+            if (capture.completed) {
+                // 超时回调之后才排进来的帧
+                droppedFrames.incrementAndGet();
+            } else {
+                write(capture, index, jpeg, length);
+            }
+        } finally {
+            pendingBytes.addAndGet(-length);
+            pool.release(jpeg);
+        }
+    }
+
+    private void write(Capture capture, int index, byte[] jpeg, int length) {
+        long start = System.nanoTime();
+        try {
+            if (capture.error == null) {
+                String name = capture.requested == 1 ? capture.name
+                        : String.format(Locale.ROOT, "%s_%02d", capture.name, index + 1);
+                File file = new File(directory, name + ".jpg");
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("无法创建照片目录: " + directory);
+                }
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    out.write(jpeg, 0, length);
+                }
+                capture.files.add(file);
+                bytesWritten.addAndGet(length);
+                framesWritten.incrementAndGet();
+                if (thumbnailer != null) {
+                    capture.thumbnails.add(thumbnail(jpeg, length, name));
+                }
+            }
+        } catch (IOException e) {
+            capture.error = e;
+        } finally {
+            writeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    // 照片已经保存，缩略图失败只计数，返回null占位，和files的下标保持一致
+    private File thumbnail(byte[] jpeg, int length, String name) {
+        File thumbnails = new File(directory, THUMBNAIL_DIRECTORY);
+        File thumbnail = new File(thumbnails, name + ".jpg");
+        try {
+            if (!thumbnails.isDirectory() && !thumbnails.mkdirs()) {
+                throw new IOException("无法创建缩略图目录: " + thumbnails);
+            }
+            thumbnailer.write(jpeg, length, thumbnail);
+            return thumbnail;
+        } catch (IOException e) {
+            thumbnailFailures.incrementAndGet();
+            return null;
+        }
+    }
+
+    private void complete(Capture capture) {
+        capture.completed = true;
+        int dropped = capture.requested - capture.files.size();
+        if (capture.callback != null) {
+            capture.callback.onCaptured(new Result(capture.files, capture.thumbnails, capture.requested, dropped,
+                    capture.timedOut, capture.error, System.nanoTime() - capture.requestedNanos));
+        }
+    }
+}
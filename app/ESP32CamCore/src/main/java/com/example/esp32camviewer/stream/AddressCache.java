@@ -0,0 +1,120 @@
+package com.example.esp32camviewer.stream;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 主机名解析缓存，视频流和控制通道共用。
+ *
+ * 摄像头一般直接填IP，IP字面量不查DNS也不进缓存；填主机名时（包括以后的mDNS .local名字，
+ * 解析一次可能要几百毫秒到一秒多）只在第一次连接时解析，之后直接用缓存的地址。
+ * 连接失败时调用{@link #invalidate(String)}，下次重新解析，摄像头换了IP也能连上。
+ * 解析方式可以替换，例如Android上用NsdManager解析.local名字。
+ */
+public final class AddressCache {
+
+    /** 实际的解析方式，会阻塞 */
+    public interface Resolver {
+        InetAddress resolve(String host) throws UnknownHostException;
+    }
+
+    /** 查看器和控制通道默认共用的缓存 */
+    public static final AddressCache DEFAULT = new AddressCache(TimeUnit.MINUTES.toNanos(10), InetAddress::getByName);
+
+    private final long ttlNanos;
+    private final Resolver resolver;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong lookupNanos = new AtomicLong();
+
+    public AddressCache(long ttlNanos, Resolver resolver) {
+        this.ttlNanos = ttlNanos;
+        this.resolver = resolver;
+    }
+
+    /** 是否是IPv4或IPv6字面量，字面量解析不会查DNS */
+    public static boolean isLiteral(String host) {
+        if (host.indexOf(':') >= 0) {
+            return true;
+        }
+        int dots = 0;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c == '.') {
+                dots++;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return dots == 3;
+    }
+
+    /** 不阻塞：字面量或缓存未过期时返回地址，否则返回null，需要调用{@link #resolve(String)} */
+    public InetAddress cached(String host) {
+        if (isLiteral(host)) {
+            try {
+                return InetAddress.getByName(host);
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+        Entry entry = entries.get(host);
+        if (entry == null || System.nanoTime() - entry.resolvedNanos > ttlNanos) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.address;
+    }
+
+    /** 先查缓存，没有时解析并缓存，会阻塞 */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        InetAddress cached = cached(host);
+        if (cached != null) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        InetAddress address = resolver.resolve(host);
+        long now = System.nanoTime();
+        lookups.incrementAndGet();
+        lookupNanos.addAndGet(now - start);
+        entries.put(host, new Entry(address, now));
+        return address;
+    }
+
+    /** 用缓存的地址连接失败时调用 */
+    public void invalidate(String host) {
+        entries.remove(host);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    /** 实际解析的次数 */
+    public long lookups() {
+        return lookups.get();
+    }
+
+    public long averageLookupNanos() {
+        long count = lookups.get();
+        return count == 0 ? 0 : lookupNanos.get() / count;
+    }
+
+    private static final class Entry {
+        final InetAddress address;
+        final long resolvedNanos;
+
+        Entry(InetAddress address, long resolvedNanos) {
+            this.address = address;
+            this.resolvedNanos = resolvedNanos;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.esp32camviewer.stream;
+
+import java.util.ArrayDeque;
+
+/**
+ * 帧缓冲区复用池。
+ * 稳定状态下帧大小变化不大，归还的数组可以被下一帧直接复用，避免每帧分配。
+ */
+public final class ByteArrayPool {
+    private final int maxPooled;
+    private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+    private long allocations = 0;
+
+    public ByteArrayPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * 取出一个长度不小于minCapacity的数组，池中没有合适的才新分配。
+     */
+    public synchronized byte[] acquire(int minCapacity) {
+        int n = free.size();
+        for (int i = 0; i < n; i++) {
+            byte[] candidate = free.pollFirst();
+            if (candidate.length >= minCapacity) {
+                return candidate;
+            }
+            // 太小的放回队尾，留给更小的请求
+            free.addLast(candidate);
+        }
+        allocations++;
+        return new byte[roundUp(minCapacity)];
+    }
+
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || free.size() >= maxPooled) {
+            return;
+        }
+        free.addLast(buffer);
+    }
+
+    /** 累计新分配次数，稳定状态下应该不再增长 */
+    public synchronized long allocations() {
+        return allocations;
+    }
+
+    public synchronized int pooledCount() {
+        return free.size();
+    }
+
+    // 按2的幂向上取整，减少帧大小小幅波动导致的重新分配
+    private static int roundUp(int size) {
+        int highest = Integer.highestOneBit(Math.max(size, 64));
+        if (highest == size || highest >= (1 << 30)) {
+            return size;
+        }
+        return highest << 1;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 保证每个摄像头（主机:端口）同时只有一个视频流会话。
+ *
+ * 启动新会话时关闭同一摄像头上还在的旧会话，新会话等旧会话的连接全部关闭后才发起连接：
+ * 快速切换摄像头、横竖屏重建界面时，不会有两条连接同时占着摄像头（固件同时只服务少数几个客户端），
+ * 也不会有旧连接在后台继续收帧。旧会话结束后从表里移除，不会一直持有已关闭的会话。
+ */
+public final class CameraSessions {
+    /** 进程内共用的会话表，查看器都用这个 */
+    public static final CameraSessions SHARED = new CameraSessions();
+
+    private final ConcurrentHashMap<String, ReconnectingStream> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 关闭同一摄像头的旧会话并启动session，立即返回；旧会话还没结束时，新会话在它结束后再连接。
+     * 地址无效或连接无法发起时关闭session并抛出异常。
+     */
+    public void start(ReconnectingStream session) throws IOException {
+        String camera;
+        try {
+            camera = cameraOf(session.url());
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+        ReconnectingStream previous = sessions.put(camera, session);
+        if (previous == session) {
+            return;
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        session.whenTerminated(() -> sessions.remove(camera, session));
+        try {
+            session.startAfter(previous);
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /** 这个摄像头当前的会话，没有时返回null */
+    public ReconnectingStream current(String url) throws IOException {
+        return sessions.get(cameraOf(url));
+    }
+
+    /** 还没结束的会话数 */
+    public int size() {
+        return sessions.size();
+    }
+
+    static String cameraOf(String url) throws IOException {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("地址无效: " + url, e);
+        }
+        if (uri.getHost() == null) {
+            throw new IOException("地址无效: " + url);
+        }
+        return uri.getHost() + ":" + (uri.getPort() == -1 ? 80 : uri.getPort());
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.esp32camviewer.stream;
+
+import java.util.Arrays;
+
+/**
+ * 记录固定数量的解码耗时样本，用于比较不同解码器。非线程安全。
+ */
+public final class DecodeTimings {
+    private final long[] samples;
+    private int count = 0;
+    private int failures = 0;
+
+    public DecodeTimings(int capacity) {
+        samples = new long[capacity];
+    }
+
+    public void record(long nanos) {
+        if (count < samples.length) {
+            samples[count++] = nanos;
+        }
+    }
+
+    public void recordFailure() {
+        failures++;
+    }
+
+    public boolean isFull() {
+        return count == samples.length;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int failures() {
+        return failures;
+    }
+
+    /** 中位数，没有样本时为Long.MAX_VALUE */
+    public long medianNanos() {
+        return percentileNanos(50);
+    }
+
+    public long percentileNanos(int percentile) {
+        if (count == 0) {
+            return Long.MAX_VALUE;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = Math.min(count - 1, (int) ((long) count * percentile / 100));
+        return sorted[index];
+    }
+}
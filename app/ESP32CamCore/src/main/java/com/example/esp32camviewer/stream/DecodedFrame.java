@@ -0,0 +1,52 @@
+package com.example.esp32camviewer.stream;
+
+/**
+ * 解码后的一帧及其在各阶段的时间戳（System.nanoTime()）。
+ */
+public final class DecodedFrame<T> {
+    private final T image;
+    private final long sequence;
+    private final long receivedNanos;
+    private final long decodeStartNanos;
+    private final long decodedNanos;
+    private volatile long presentedNanos = 0;
+
+    DecodedFrame(T image, long sequence, long receivedNanos, long decodeStartNanos, long decodedNanos) {
+        this.image = image;
+        this.sequence = sequence;
+        this.receivedNanos = receivedNanos;
+        this.decodeStartNanos = decodeStartNanos;
+        this.decodedNanos = decodedNanos;
+    }
+
+    public T image() {
+        return image;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    /** 读取阶段收到完整帧的时间 */
+    public long receivedNanos() {
+        return receivedNanos;
+    }
+
+    /** 解码线程取到帧的时间，与receivedNanos的差是排队等待解码的时间 */
+    public long decodeStartNanos() {
+        return decodeStartNanos;
+    }
+
+    public long decodedNanos() {
+        return decodedNanos;
+    }
+
+    /** 渲染回调返回的时间，尚未显示时为0 */
+    public long presentedNanos() {
+        return presentedNanos;
+    }
+
+    void markPresented(long nanos) {
+        presentedNanos = nanos;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.esp32camviewer.stream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在同一批样本帧上比较多个解码器的耗时。
+ * 不依赖具体平台：JVM上用于基准，Android上可用录制的帧在设备上比较各解码后端。
+ */
+public final class DecoderComparison {
+    private DecoderComparison() {
+    }
+
+    public static final class Result {
+        public final String name;
+        public final long medianNanos;
+        public final long p95Nanos;
+        public final int failures;
+
+        Result(String name, DecodeTimings timings) {
+            this.name = name;
+            this.medianNanos = timings.medianNanos();
+            this.p95Nanos = timings.percentileNanos(95);
+            this.failures = timings.failures();
+        }
+
+        @Override
+        public String toString() {
+            return name + ": median=" + medianNanos / 1000 + "us p95=" + p95Nanos / 1000 + "us failures=" + failures;
+        }
+    }
+
+    /**
+     * 每个解码器把所有样本帧解码rounds遍（第一遍不计时，用于预热），结果按中位数从快到慢排列。
+     * 解码失败的解码器排在最后。
+     */
+    public static <T> List<Result> run(Map<String, FramePipeline.Decoder<T>> decoders,
+                                       FramePipeline.Recycler<T> recycler,
+                                       List<byte[]> frames, int rounds) {
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, FramePipeline.Decoder<T>> entry : decoders.entrySet()) {
+            DecodeTimings timings = new DecodeTimings(frames.size() * Math.max(1, rounds - 1));
+            for (int round = 0; round < rounds; round++) {
+                for (byte[] jpeg : frames) {
+                    long start = System.nanoTime();
+                    T image = entry.getValue().decode(JpegFrame.wrap(jpeg, jpeg.length));
+                    long elapsed = System.nanoTime() - start;
+                    if (image == null) {
+                        timings.recordFailure();
+                        continue;
+                    }
+                    if (round > 0 || rounds == 1) {
+                        timings.record(elapsed);
+                    }
+                    if (recycler != null) {
+                        recycler.recycle(image);
+                    }
+                }
+            }
+            results.add(new Result(entry.getKey(), timings));
+        }
+        Collections.sort(results, (a, b) -> {
+            if ((a.failures == 0) != (b.failures == 0)) {
+                return a.failures == 0 ? -1 : 1;
+            }
+            return Long.compare(a.medianNanos, b.medianNanos);
+        });
+        return results;
+    }
+}
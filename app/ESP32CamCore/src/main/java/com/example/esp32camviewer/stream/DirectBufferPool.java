@@ -0,0 +1,61 @@
+package com.example.esp32camviewer.stream;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 读socket用的直接缓冲区复用池，按容量分组。
+ * 直接缓冲区分配慢、由GC之外的内存承担，连接断开或按帧大小换缓冲区时归还，之后直接复用。
+ */
+public final class DirectBufferPool {
+    private final int maxPerSize;
+    private final Map<Integer, ArrayDeque<ByteBuffer>> pools = new HashMap<>();
+    private long allocations = 0;
+    private long inUse = 0;
+
+    /**
+     * @param maxPerSize 每种容量最多保留的缓冲区数
+     */
+    public DirectBufferPool(int maxPerSize) {
+        this.maxPerSize = maxPerSize;
+    }
+
+    /** 取一块容量正好为capacity的缓冲区，内容未清零 */
+    public synchronized ByteBuffer acquire(int capacity) {
+        ArrayDeque<ByteBuffer> pool = pools.get(capacity);
+        ByteBuffer buffer = pool == null ? null : pool.pollFirst();
+        inUse++;
+        if (buffer != null) {
+            return buffer;
+        }
+        allocations++;
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        inUse--;
+        ArrayDeque<ByteBuffer> pool = pools.get(buffer.capacity());
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            pools.put(buffer.capacity(), pool);
+        }
+        if (pool.size() < maxPerSize) {
+            pool.addLast(buffer);
+        }
+    }
+
+    /** 借出还没归还的缓冲区数，所有连接都关闭后应为0 */
+    public synchronized long inUse() {
+        return inUse;
+    }
+
+    /** 累计新分配次数，稳定状态下应该不再增长 */
+    public synchronized long allocations() {
+        return allocations;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.esp32camviewer.stream;
+
+/**
+ * 解析出完整JPEG帧时的回调，在读取线程上执行。
+ * 帧的所有权交给回调方，用完必须调用{@link JpegFrame#release()}。
+ */
+public interface FrameListener {
+    void onFrame(JpegFrame frame);
+}
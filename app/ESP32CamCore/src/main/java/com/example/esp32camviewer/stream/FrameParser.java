@@ -0,0 +1,29 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 把HTTP响应正文切成JPEG帧。实现都非线程安全，只能在读取线程上调用。
+ */
+public interface FrameParser {
+    /** 送入一段已读到的数据 */
+    void feed(byte[] chunk, int offset, int length);
+
+    /**
+     * 送入缓冲区中[position, limit)的全部数据，返回时position等于limit。
+     * 用于NIO客户端从直接缓冲区读到的数据，帧正文从缓冲区直接拷进帧缓冲区。
+     */
+    void feed(ByteBuffer buffer);
+
+    /**
+     * 从输入流读取一次并解析。实现可以把帧正文直接读进帧缓冲区，省去中间拷贝。
+     *
+     * @return 流已结束时返回false
+     */
+    boolean readFrom(InputStream in) throws IOException;
+
+    /** 丢弃未完成的帧，用于断线重连 */
+    void reset();
+}
@@ -0,0 +1,22 @@
+package com.example.esp32camviewer.stream;
+
+/**
+ * 按响应的Content-Type选择解析方式：带boundary的multipart流按分段头解析，
+ * 其他情况退回按JPEG标记切帧。
+ */
+public final class FrameParsers {
+    private FrameParsers() {
+    }
+
+    public static FrameParser create(String contentType, FrameListener listener) {
+        return create(contentType, listener, new ByteArrayPool(4));
+    }
+
+    public static FrameParser create(String contentType, FrameListener listener, ByteArrayPool pool) {
+        String boundary = MultipartMjpegParser.boundaryOf(contentType);
+        if (boundary != null) {
+            return new MultipartMjpegParser(boundary, listener, pool);
+        }
+        return new MjpegFrameExtractor(listener, pool);
+    }
+}
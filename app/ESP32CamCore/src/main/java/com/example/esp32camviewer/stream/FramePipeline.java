@@ -0,0 +1,381 @@
+package com.example.esp32camviewer.stream;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 读取、解码、渲染三段流水线。
+ *
+ * 读取线程只负责收帧并调用{@link #submit(JpegFrame)}，解码在独立线程上进行，
+ * 渲染交给renderExecutor（Android上即主线程Handler）。阶段之间都是{@link LatestFrameSlot}，
+ * 下游跟不上时只保留最新一帧，解码慢不会再拖住读socket，主线程队列里也最多只有一个待渲染任务。
+ * 解码好的帧还没被渲染取走时不开始解下一帧，等渲染取走后直接解那时最新的一帧，
+ * 不会解出注定被替换、显示不出来的帧。录像、移动检测等需要每一帧的消费者在submit()之前从读取线程拿帧。
+ *
+ * 多路流同时显示时可以传入共享的decodeExecutor（有界线程池），不再每路一个解码线程。
+ * 每路同一时间最多有一个解码任务在池中，解完一帧后重新排队，各路轮流使用工作线程。
+ * 暂停或限速时读取照常进行，多出的帧直接释放，不解码。
+ * 设置了{@link DuplicateFilter}时，和上一次解码的画面几乎一样的帧也不解码、不渲染，画面停在上一帧。
+ */
+public final class FramePipeline<T> {
+
+    /** 解码一帧，失败返回null。不能在返回后继续持有frame */
+    public interface Decoder<T> {
+        T decode(JpegFrame frame);
+    }
+
+    /** 在renderExecutor上执行，显示解码结果 */
+    public interface Renderer<T> {
+        void render(DecodedFrame<T> frame);
+    }
+
+    /** 回收解码后没来得及显示就被替换掉的图像 */
+    public interface Recycler<T> {
+        void recycle(T image);
+    }
+
+    /** 在解码阶段判断一帧和上一次解码的帧是否几乎一样，同一时间只在一个线程上调用 */
+    public interface DuplicateFilter {
+        boolean isDuplicate(JpegFrame frame);
+
+        /** 上一次解码的帧没能解出来，下一帧不能再和它比较 */
+        void reset();
+    }
+
+    /** 每显示一帧回调一次，在renderExecutor上执行 */
+    public interface TimingListener {
+        void onPresented(DecodedFrame<?> frame);
+    }
+
+    private final Decoder<T> decoder;
+    private final Renderer<T> renderer;
+    private final Executor renderExecutor;
+    private final Recycler<T> recycler;
+    private final Executor decodeExecutor;
+
+    private final LatestFrameSlot<JpegFrame> decodeSlot = new LatestFrameSlot<>();
+    private final LatestFrameSlot<DecodedFrame<T>> renderSlot = new LatestFrameSlot<>();
+    private final AtomicBoolean renderScheduled = new AtomicBoolean(false);
+    private final Runnable renderTask = this::renderLatest;
+    private final AtomicBoolean decodeScheduled = new AtomicBoolean(false);
+    private final Runnable decodeTask = this::decodeNext;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong decoded = new AtomicLong();
+    private final AtomicLong decodeFailures = new AtomicLong();
+    private final AtomicLong presented = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    // 以下只在渲染线程上写
+    private volatile long latencySumNanos = 0;
+    private volatile long latencyMaxNanos = 0;
+    private volatile long lastLatencyNanos = 0;
+
+    private volatile TimingListener timingListener;
+    private volatile DuplicateFilter duplicateFilter;
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private volatile long minFrameIntervalNanos = 0;
+    // 下一帧最早可以解码的时间，只在读取线程上访问
+    private long nextAcceptNanos = Long.MIN_VALUE;
+    private Thread decodeThread;
+
+    public FramePipeline(Decoder<T> decoder, Renderer<T> renderer, Executor renderExecutor) {
+        this(decoder, renderer, renderExecutor, null);
+    }
+
+    public FramePipeline(Decoder<T> decoder, Renderer<T> renderer, Executor renderExecutor, Recycler<T> recycler) {
+        this(decoder, renderer, renderExecutor, recycler, null);
+    }
+
+    /**
+     * @param decodeExecutor 多路共享的解码线程池，为null时使用自己的解码线程
+     */
+    public FramePipeline(Decoder<T> decoder, Renderer<T> renderer, Executor renderExecutor, Recycler<T> recycler,
+                         Executor decodeExecutor) {
+        this.decoder = decoder;
+        this.renderer = renderer;
+        this.renderExecutor = renderExecutor;
+        this.recycler = recycler;
+        this.decodeExecutor = decodeExecutor;
+    }
+
+    public void setTimingListener(TimingListener listener) {
+        this.timingListener = listener;
+    }
+
+    /** 跳过和上一次解码的帧几乎一样的帧，为null时每帧都解码 */
+    public void setDuplicateFilter(DuplicateFilter filter) {
+        this.duplicateFilter = filter;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        if (decodeExecutor != null) {
+            if (decodeSlot.isOccupied()) {
+                scheduleDecode();
+            }
+            return;
+        }
+        decodeThread = new Thread(this::decodeLoop, "frame-decoder");
+        decodeThread.setDaemon(true);
+        decodeThread.start();
+    }
+
+    /**
+     * 暂停解码，例如画面移出屏幕或被用户暂停。连接和读取不受影响，收到的帧直接释放。
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * 限制解码帧率，超出的帧直接释放。传入0或{@link TileFrameRatePolicy#UNLIMITED}表示不限。
+     */
+    public void setMaxFps(int maxFps) {
+        minFrameIntervalNanos = maxFps <= 0 ? 0 : 1_000_000_000L / maxFps;
+    }
+
+    /**
+     * 读取阶段交出一帧。解码线程还没取走上一帧时，上一帧直接丢弃。
+     */
+    public void submit(JpegFrame frame) {
+        received.incrementAndGet();
+        if (paused || !acceptByRate(frame.receivedNanos())) {
+            skipped.incrementAndGet();
+            frame.release();
+            return;
+        }
+        JpegFrame stale = decodeSlot.offer(frame);
+        if (stale == frame) {
+            // 已经stop()：切换会话时I/O线程上还在路上的帧，按停止时没解码的帧计数，计数在停止后仍然对得上
+            skipped.incrementAndGet();
+            frame.release();
+            return;
+        }
+        if (stale != null) {
+            stale.release();
+        }
+        if (decodeExecutor != null && running) {
+            scheduleDecode();
+        }
+    }
+
+    private boolean acceptByRate(long receivedNanos) {
+        long interval = minFrameIntervalNanos;
+        if (interval == 0) {
+            return true;
+        }
+        // 留1/8的余量，源帧率刚好等于上限时不会因为到达时间抖动而隔帧丢弃
+        if (nextAcceptNanos != Long.MIN_VALUE && receivedNanos - (nextAcceptNanos - interval / 8) < 0) {
+            return false;
+        }
+        // 按上限的节拍累加而不是从本帧重新计时，20fps限到15fps时是每4帧解3帧而不是隔帧解码
+        boolean fellBehind = nextAcceptNanos == Long.MIN_VALUE || receivedNanos - nextAcceptNanos >= interval;
+        nextAcceptNanos = fellBehind ? receivedNanos + interval : nextAcceptNanos + interval;
+        return true;
+    }
+
+    /** 停止解码线程，释放还在槽里的帧，可以在任意线程调用 */
+    public synchronized void stop() {
+        running = false;
+        JpegFrame pending = decodeSlot.close();
+        if (pending != null) {
+            skipped.incrementAndGet();
+            pending.release();
+        }
+        DecodedFrame<T> undisplayed = renderSlot.close();
+        if (undisplayed != null) {
+            recycle(undisplayed.image());
+        }
+        if (decodeThread != null) {
+            decodeThread.interrupt();
+            decodeThread = null;
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(received.get(), decoded.get(), decodeFailures.get(), presented.get(),
+                decodeSlot.dropped(), renderSlot.dropped(), skipped.get(), unchanged.get(),
+                lastLatencyNanos, latencySumNanos, latencyMaxNanos);
+    }
+
+    private void decodeLoop() {
+        while (running) {
+            JpegFrame frame;
+            try {
+                // 上一帧还没显示时等着，这期间到达的帧在解码槽里互相替换，不解码
+                renderSlot.awaitEmpty();
+                frame = decodeSlot.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (frame == null) {
+                break;
+            }
+            decodeOne(frame);
+        }
+    }
+
+    // 共享线程池上的解码任务：每次只解一帧，还有新帧时重新排到队尾。
+    // 上一帧还没显示时不解码，由渲染任务取走上一帧后重新投递
+    private void decodeNext() {
+        if (!renderSlot.isOccupied()) {
+            JpegFrame frame = decodeSlot.poll();
+            if (frame != null) {
+                decodeOne(frame);
+            }
+        }
+        // 解码期间到达的帧看到标记未清除不会投递任务，所以清除后要再检查一次
+        decodeScheduled.set(false);
+        scheduleDecodeIfReady();
+    }
+
+    // 解码槽和渲染槽各自先改状态再检查对方，两边都不会漏掉投递
+    private void scheduleDecodeIfReady() {
+        if (running && decodeSlot.isOccupied() && !renderSlot.isOccupied()) {
+            scheduleDecode();
+        }
+    }
+
+    private void scheduleDecode() {
+        // 标记在任务执行完才清除，保证同一路不会有两个解码任务同时运行
+        if (decodeScheduled.compareAndSet(false, true)) {
+            decodeExecutor.execute(decodeTask);
+        }
+    }
+
+    private void decodeOne(JpegFrame frame) {
+        DuplicateFilter filter = duplicateFilter;
+        if (filter != null && filter.isDuplicate(frame)) {
+            unchanged.incrementAndGet();
+            frame.release();
+            return;
+        }
+        long start = System.nanoTime();
+        T image;
+        try {
+            image = decoder.decode(frame);
+        } finally {
+            frame.release();
+        }
+        if (image == null) {
+            decodeFailures.incrementAndGet();
+            if (filter != null) {
+                filter.reset();
+            }
+            return;
+        }
+        decoded.incrementAndGet();
+
+        DecodedFrame<T> result = new DecodedFrame<>(image, frame.sequence(), frame.receivedNanos(),
+                start, System.nanoTime());
+        DecodedFrame<T> stale = renderSlot.offer(result);
+        if (stale != null) {
+            recycle(stale.image());
+        }
+        // 渲染线程上已经有一个待执行的任务时不再重复投递，它会取到最新的一帧
+        if (renderScheduled.compareAndSet(false, true)) {
+            renderExecutor.execute(renderTask);
+        }
+    }
+
+    private void renderLatest() {
+        // 先清标记再取帧，取帧之后到达的新帧会重新投递任务
+        renderScheduled.set(false);
+        DecodedFrame<T> frame = renderSlot.poll();
+        if (frame == null) {
+            return;
+        }
+        if (decodeExecutor != null) {
+            // 渲染这一帧的同时解下一帧
+            scheduleDecodeIfReady();
+        }
+        renderer.render(frame);
+
+        long now = System.nanoTime();
+        frame.markPresented(now);
+        long latency = now - frame.receivedNanos();
+        lastLatencyNanos = latency;
+        latencySumNanos += latency;
+        if (latency > latencyMaxNanos) {
+            latencyMaxNanos = latency;
+        }
+        presented.incrementAndGet();
+
+        TimingListener listener = timingListener;
+        if (listener != null) {
+            listener.onPresented(frame);
+        }
+    }
+
+    private void recycle(T image) {
+        if (recycler != null) {
+            recycler.recycle(image);
+        }
+    }
+
+    /** 流水线计数的快照 */
+    public static final class Stats {
+        public final long received;
+        public final long decoded;
+        public final long decodeFailures;
+        public final long presented;
+        /** 解码线程来不及取走而丢弃的帧 */
+        public final long droppedBeforeDecode;
+        /** 解码完成但被更新的帧替换、没有显示的帧 */
+        public final long droppedBeforeRender;
+        /** 暂停、超过帧率上限或停止时还没解码的帧 */
+        public final long skipped;
+        /** 和正在显示的画面几乎一样、不用解码的帧 */
+        public final long unchanged;
+        /** 最近一帧从收到到显示的耗时 */
+        public final long lastLatencyNanos;
+        private final long latencySumNanos;
+        public final long maxLatencyNanos;
+
+        Stats(long received, long decoded, long decodeFailures, long presented,
+              long droppedBeforeDecode, long droppedBeforeRender, long skipped, long unchanged,
+              long lastLatencyNanos, long latencySumNanos, long maxLatencyNanos) {
+            this.received = received;
+            this.decoded = decoded;
+            this.decodeFailures = decodeFailures;
+            this.presented = presented;
+            this.droppedBeforeDecode = droppedBeforeDecode;
+            this.droppedBeforeRender = droppedBeforeRender;
+            this.skipped = skipped;
+            this.unchanged = unchanged;
+            this.lastLatencyNanos = lastLatencyNanos;
+            this.latencySumNanos = latencySumNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        /**
+         * 没有解码的帧：被更新的帧替换、暂停、限速或停止时还没解码，
+         * 停止后received = decoded + decodeFailures + unchanged + notDecoded()。画面没变的帧不算在内，不表示跟不上
+         */
+        public long notDecoded() {
+            return droppedBeforeDecode + skipped;
+        }
+
+        public long averageLatencyNanos() {
+            return presented == 0 ? 0 : latencySumNanos / presented;
+        }
+
+        @Override
+        public String toString() {
+            return "received=" + received + " decoded=" + decoded + " presented=" + presented
+                    + " notDecoded=" + notDecoded() + " dropped=" + droppedBeforeDecode + "/" + droppedBeforeRender
+                    + " skipped=" + skipped + " unchanged=" + unchanged
+                    + " latency=" + averageLatencyNanos() / 1000000 + "ms(max " + maxLatencyNanos / 1000000 + "ms)";
+        }
+    }
+}
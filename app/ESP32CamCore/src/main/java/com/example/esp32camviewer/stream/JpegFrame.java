@@ -0,0 +1,58 @@
+package com.example.esp32camviewer.stream;
+
+/**
+ * 一帧完整的JPEG数据，数据存放在池化数组中。
+ * 拿到帧的一方负责在用完后调用release()，之后不能再访问data。
+ */
+public final class JpegFrame {
+    private final ByteArrayPool pool;
+    private byte[] data;
+    private final int length;
+    private final long sequence;
+    private final long receivedNanos;
+
+    JpegFrame(ByteArrayPool pool, byte[] data, int length, long sequence, long receivedNanos) {
+        this.pool = pool;
+        this.data = data;
+        this.length = length;
+        this.sequence = sequence;
+        this.receivedNanos = receivedNanos;
+    }
+
+    /** 包装一段不来自池的JPEG数据，例如校准或测试用的样本帧 */
+    public static JpegFrame wrap(byte[] data, int length) {
+        return new JpegFrame(null, data, length, 0, System.nanoTime());
+    }
+
+    /** 同{@link #wrap(byte[], int)}，保留原来的序号和接收时间，例如从事件前缓冲里复制出来的帧 */
+    public static JpegFrame wrap(byte[] data, int length, long sequence, long receivedNanos) {
+        return new JpegFrame(null, data, length, sequence, receivedNanos);
+    }
+
+    /** 底层数组，有效数据为[0, length) */
+    public byte[] data() {
+        return data;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** 本连接内的帧序号，从0开始 */
+    public long sequence() {
+        return sequence;
+    }
+
+    /** 收到帧结束标记时的System.nanoTime() */
+    public long receivedNanos() {
+        return receivedNanos;
+    }
+
+    public void release() {
+        byte[] buffer = data;
+        data = null;
+        if (buffer != null && pool != null) {
+            pool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.esp32camviewer.stream;
+
+/**
+ * 只解析JPEG头部的段，不解码图像数据。
+ */
+public final class JpegHeaderReader {
+    // libjpeg能在DCT域直接缩小的最大倍数（1/8）
+    public static final int MAX_SAMPLE_SIZE = 8;
+
+    private JpegHeaderReader() {
+    }
+
+    /**
+     * 从SOF段读取图像尺寸。
+     *
+     * @return 高16位为宽、低16位为高；找不到SOF时返回-1
+     */
+    public static int readDimensions(byte[] jpeg, int length) {
+        if (length < 4 || jpeg[0] != (byte) 0xFF || jpeg[1] != (byte) 0xD8) {
+            return -1;
+        }
+        int i = 2;
+        while (i + 3 < length) {
+            if (jpeg[i] != (byte) 0xFF) {
+                return -1;
+            }
+            int marker = jpeg[i + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // 填充字节
+                i++;
+                continue;
+            }
+            int segmentLength = ((jpeg[i + 2] & 0xFF) << 8) | (jpeg[i + 3] & 0xFF);
+            if (isStartOfFrame(marker)) {
+                if (i + 8 >= length) {
+                    return -1;
+                }
+                int height = ((jpeg[i + 5] & 0xFF) << 8) | (jpeg[i + 6] & 0xFF);
+                int width = ((jpeg[i + 7] & 0xFF) << 8) | (jpeg[i + 8] & 0xFF);
+                return (width << 16) | height;
+            }
+            if (marker == 0xDA || segmentLength < 2) {
+                // 到了扫描数据还没有SOF，或者段长度无效
+                return -1;
+            }
+            i += 2 + segmentLength;
+        }
+        return -1;
+    }
+
+    public static int width(int dimensions) {
+        return dimensions >>> 16;
+    }
+
+    public static int height(int dimensions) {
+        return dimensions & 0xFFFF;
+    }
+
+    /**
+     * 按显示区域选择缩小倍数（1、2、4、8，解码器可以在DCT域直接缩小，不需要先解出全图），
+     * 保证按fitCenter显示时缩小后的图像仍不少于屏幕上实际占用的像素。目标尺寸未知时返回1。
+     */
+    public static int sampleSizeFor(int width, int height, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return 1;
+        }
+        // fitCenter的缩放比例由受限的那一边决定，即两边比例中较大的一个
+        int ratio = Math.max(width / targetWidth, height / targetHeight);
+        int sampleSize = 1;
+        while (sampleSize * 2 <= ratio && sampleSize < MAX_SAMPLE_SIZE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /** 按sampleSize缩小后的边长，与libjpeg一样向上取整 */
+    public static int scaledSize(int size, int sampleSize) {
+        return (size + sampleSize - 1) / sampleSize;
+    }
+
+    // SOF0-SOF15，排除DHT(C4)、JPG(C8)、DAC(CC)
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+}
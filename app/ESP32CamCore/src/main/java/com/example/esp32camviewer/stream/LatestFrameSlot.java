@@ -0,0 +1,81 @@
+package com.example.esp32camviewer.stream;
+
+/**
+ * 只能放一个元素的交接槽：新元素直接替换还没被取走的旧元素。
+ * 下游跟不上时丢掉的是过时的帧，而不是在队列里越积越多、延迟越来越大。
+ */
+public final class LatestFrameSlot<T> {
+    private T item;
+    private boolean closed = false;
+    private long dropped = 0;
+
+    /**
+     * 放入新元素。
+     *
+     * @return 被替换掉的旧元素，没有则为null；槽已关闭时原样返回newItem。调用方负责释放返回值
+     */
+    public synchronized T offer(T newItem) {
+        if (closed) {
+            return newItem;
+        }
+        T old = item;
+        item = newItem;
+        if (old != null) {
+            dropped++;
+        }
+        notifyAll();
+        return old;
+    }
+
+    /** 等待并取走元素，槽关闭后返回null */
+    public synchronized T take() throws InterruptedException {
+        while (item == null && !closed) {
+            wait();
+        }
+        return remove();
+    }
+
+    /** 不等待，槽为空时返回null */
+    public synchronized T poll() {
+        return remove();
+    }
+
+    /** 等到槽里的元素被取走（或槽关闭），上游据此在下游还没取走结果时不开始处理下一个元素 */
+    public synchronized void awaitEmpty() throws InterruptedException {
+        while (item != null && !closed) {
+            wait();
+        }
+    }
+
+    private T remove() {
+        T result = item;
+        item = null;
+        if (result != null) {
+            notifyAll();
+        }
+        return result;
+    }
+
+    /** 是否已有元素在等待被取走 */
+    public synchronized boolean isOccupied() {
+        return item != null;
+    }
+
+    /**
+     * 关闭槽并唤醒等待者。
+     *
+     * @return 尚未被取走的元素，调用方负责释放
+     */
+    public synchronized T close() {
+        closed = true;
+        T result = item;
+        item = null;
+        notifyAll();
+        return result;
+    }
+
+    /** 因被新元素替换而丢弃的数量 */
+    public synchronized long dropped() {
+        return dropped;
+    }
+}
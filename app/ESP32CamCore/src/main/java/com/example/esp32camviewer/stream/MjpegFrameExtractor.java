@@ -0,0 +1,199 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * 按JPEG的SOI(FFD8)/EOI(FFD9)标记从MJPEG字节流中切出帧。
+ *
+ * 每个读取块只扫描一遍，标记跨块时靠prevFF状态衔接；帧数据整段拷贝进池化数组，
+ * 不再逐字节写ByteArrayOutputStream再toByteArray()查看末尾两个字节。
+ * 切帧规则与原先查看器里的循环保持一致：帧内再次遇到SOI时从该位置重新开始。
+ * 服务器没有声明multipart boundary时作为后备解析方式，见{@link FrameParsers}。
+ */
+public final class MjpegFrameExtractor implements FrameParser {
+    private static final byte MARKER = (byte) 0xFF;
+    private static final byte SOI = (byte) 0xD8;
+    private static final byte EOI = (byte) 0xD9;
+
+    // 初始帧缓冲大小，VGA质量10的帧一般在这个范围内
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    // 单帧上限，超过说明流已错乱，丢弃当前帧
+    static final int MAX_FRAME_SIZE = 8 * 1024 * 1024;
+    // readFrom()每次读取的字节数
+    static final int READ_CHUNK = 1024;
+
+    private final FrameListener listener;
+    private final ByteArrayPool pool;
+
+    private byte[] frameBuffer;
+    private int frameSize = 0;
+    private boolean inFrame = false;
+    private boolean prevFF = false;
+    private long sequence = 0;
+    private long droppedFrames = 0;
+    private byte[] readBuffer;
+
+    public MjpegFrameExtractor(FrameListener listener) {
+        this(listener, new ByteArrayPool(4));
+    }
+
+    public MjpegFrameExtractor(FrameListener listener, ByteArrayPool pool) {
+        this.listener = listener;
+        this.pool = pool;
+    }
+
+    /**
+     * 送入一段刚读到的数据，其中每遇到一个完整帧就回调一次listener。
+     */
+    @Override
+    public void feed(byte[] chunk, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+
+        while (i < end) {
+            if (!inFrame) {
+                // 在帧外只找SOI，中间的multipart头直接跳过
+                for (; i < end; i++) {
+                    byte b = chunk[i];
+                    if (prevFF && b == SOI) {
+                        startFrame();
+                        i++;
+                        break;
+                    }
+                    prevFF = b == MARKER;
+                }
+                continue;
+            }
+
+            int segmentStart = i;
+            boolean frameEnded = false;
+            for (; i < end; i++) {
+                byte b = chunk[i];
+                if (prevFF) {
+                    if (b == EOI) {
+                        append(chunk, segmentStart, i + 1 - segmentStart);
+                        i++;
+                        if (inFrame) {
+                            finishFrame();
+                        }
+                        frameEnded = true;
+                        break;
+                    }
+                    if (b == SOI) {
+                        // 帧内出现新的SOI：丢掉之前的内容，从这里重新开始
+                        frameSize = 0;
+                        append2(MARKER, SOI);
+                        segmentStart = i + 1;
+                        prevFF = false;
+                        continue;
+                    }
+                }
+                prevFF = b == MARKER;
+            }
+            if (!frameEnded && inFrame) {
+                append(chunk, segmentStart, end - segmentStart);
+            }
+        }
+    }
+
+    @Override
+    public void feed(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            ((Buffer) buffer).position(buffer.limit());
+            return;
+        }
+        // 按标记切帧需要逐字节扫描，直接缓冲区的数据分块取出后扫描
+        if (readBuffer == null) {
+            readBuffer = new byte[READ_CHUNK];
+        }
+        while (buffer.hasRemaining()) {
+            int n = Math.min(readBuffer.length, buffer.remaining());
+            buffer.get(readBuffer, 0, n);
+            feed(readBuffer, 0, n);
+        }
+    }
+
+    @Override
+    public boolean readFrom(InputStream in) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = new byte[READ_CHUNK];
+        }
+        int bytesRead = in.read(readBuffer, 0, readBuffer.length);
+        if (bytesRead == -1) {
+            return false;
+        }
+        feed(readBuffer, 0, bytesRead);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        inFrame = false;
+        prevFF = false;
+        frameSize = 0;
+        sequence = 0;
+    }
+
+    /** 超过单帧上限而被丢弃的帧数 */
+    public long droppedFrames() {
+        return droppedFrames;
+    }
+
+    private void startFrame() {
+        if (frameBuffer == null) {
+            frameBuffer = pool.acquire(INITIAL_CAPACITY);
+        }
+        inFrame = true;
+        prevFF = false;
+        frameSize = 0;
+        append2(MARKER, SOI);
+    }
+
+    private void finishFrame() {
+        inFrame = false;
+        prevFF = false;
+        // 整个数组交给回调方，下一帧再从池里取
+        JpegFrame frame = new JpegFrame(pool, frameBuffer, frameSize, sequence++, System.nanoTime());
+        frameBuffer = null;
+        frameSize = 0;
+        listener.onFrame(frame);
+    }
+
+    private void append(byte[] src, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int required = frameSize + length;
+        if (required > MAX_FRAME_SIZE) {
+            droppedFrames++;
+            inFrame = false;
+            prevFF = false;
+            frameSize = 0;
+            return;
+        }
+        ensureCapacity(required);
+        System.arraycopy(src, offset, frameBuffer, frameSize, length);
+        frameSize = required;
+    }
+
+    private void append2(byte first, byte second) {
+        ensureCapacity(frameSize + 2);
+        frameBuffer[frameSize++] = first;
+        frameBuffer[frameSize++] = second;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= frameBuffer.length) {
+            return;
+        }
+        // 只在帧比以往都大时才换更大的数组，已有内容拷贝一次
+        byte[] larger = pool.acquire(Math.max(required, frameBuffer.length * 2));
+        System.arraycopy(frameBuffer, 0, larger, 0, frameSize);
+        pool.release(frameBuffer);
+        frameBuffer = larger;
+    }
+}
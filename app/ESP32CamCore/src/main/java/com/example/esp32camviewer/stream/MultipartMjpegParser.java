@@ -0,0 +1,323 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 按multipart/x-mixed-replace的分段边界和每段的Content-Length切帧。
+ *
+ * 固件每帧都发送"--frame"、Content-Type、Content-Length和空行，正文长度已知，
+ * 所以正文可以整段读进预先分配好的帧缓冲区，不需要逐字节找JPEG标记，
+ * 带EXIF缩略图（内嵌FFD8/FFD9）的帧也不会被切错。
+ * 某一段没有Content-Length时，该段退回按EOI标记找帧尾。
+ */
+public final class MultipartMjpegParser implements FrameParser {
+    private static final int STATE_SEEK_BOUNDARY = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_BODY = 2;
+    private static final int STATE_BODY_SCAN = 3;
+
+    // 分段头单行的最大长度，超出部分忽略
+    private static final int MAX_LINE = 256;
+    // 没有Content-Length时的初始帧缓冲大小
+    private static final int SCAN_INITIAL_CAPACITY = 64 * 1024;
+    // 没有Content-Length时从直接缓冲区每次取出扫描的字节数
+    private static final int SCAN_CHUNK = 4 * 1024;
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+
+    private final FrameListener listener;
+    private final ByteArrayPool pool;
+    private final byte[] delimiter;
+    private final byte[] bareBoundary;
+
+    private int state = STATE_SEEK_BOUNDARY;
+    private final byte[] line = new byte[MAX_LINE];
+    private int lineLength = 0;
+    private int contentLength = -1;
+
+    private byte[] body;
+    private int bodyLength = 0;
+    private boolean prevFF = false;
+
+    private long sequence = 0;
+    private byte[] readBuffer;
+    // feed(ByteBuffer)在分段头和按标记找帧尾时使用的小块中转
+    private byte[] scratch;
+
+    public MultipartMjpegParser(String boundary, FrameListener listener) {
+        this(boundary, listener, new ByteArrayPool(4));
+    }
+
+    public MultipartMjpegParser(String boundary, FrameListener listener, ByteArrayPool pool) {
+        this.listener = listener;
+        this.pool = pool;
+        this.delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        // 有的服务器在声明里就带了"--"，实际分隔行不再重复加前缀
+        this.bareBoundary = boundary.startsWith("--") ? boundary.getBytes(StandardCharsets.US_ASCII) : delimiter;
+    }
+
+    /**
+     * 从Content-Type中取出boundary参数，不是multipart类型或没有boundary时返回null。
+     */
+    public static String boundaryOf(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String lower = contentType.toLowerCase(Locale.US);
+        if (!lower.trim().startsWith("multipart/")) {
+            return null;
+        }
+        int index = lower.indexOf("boundary=");
+        if (index < 0) {
+            return null;
+        }
+        String value = contentType.substring(index + "boundary=".length());
+        int semicolon = value.indexOf(';');
+        if (semicolon >= 0) {
+            value = value.substring(0, semicolon);
+        }
+        value = value.trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public void feed(byte[] chunk, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+
+        while (i < end) {
+            switch (state) {
+                case STATE_BODY: {
+                    // 正文长度已知，整段拷贝
+                    int n = Math.min(contentLength - bodyLength, end - i);
+                    System.arraycopy(chunk, i, body, bodyLength, n);
+                    bodyLength += n;
+                    i += n;
+                    if (bodyLength == contentLength) {
+                        emitBody();
+                    }
+                    break;
+                }
+                case STATE_BODY_SCAN:
+                    i = scanBody(chunk, i, end);
+                    break;
+                default:
+                    i = readLine(chunk, i, end);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void feed(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            ((Buffer) buffer).position(buffer.limit());
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[SCAN_CHUNK];
+        }
+        while (buffer.hasRemaining()) {
+            if (state == STATE_BODY) {
+                // 正文从直接缓冲区一次拷进帧缓冲区
+                int n = Math.min(contentLength - bodyLength, buffer.remaining());
+                buffer.get(body, bodyLength, n);
+                bodyLength += n;
+                if (bodyLength == contentLength) {
+                    emitBody();
+                }
+            } else {
+                // 分段头每次只取一行的长度，进入正文后剩下的字节留在缓冲区里走上面的整段拷贝
+                int n = Math.min(state == STATE_BODY_SCAN ? SCAN_CHUNK : MAX_LINE, buffer.remaining());
+                buffer.get(scratch, 0, n);
+                feed(scratch, 0, n);
+            }
+        }
+    }
+
+    @Override
+    public boolean readFrom(InputStream in) throws IOException {
+        if (state == STATE_BODY) {
+            // 正文直接读进帧缓冲区，不经过中间数组
+            int bytesRead = in.read(body, bodyLength, contentLength - bodyLength);
+            if (bytesRead == -1) {
+                return false;
+            }
+            bodyLength += bytesRead;
+            if (bodyLength == contentLength) {
+                emitBody();
+            }
+            return true;
+        }
+
+        if (readBuffer == null) {
+            readBuffer = new byte[MjpegFrameExtractor.READ_CHUNK];
+        }
+        int bytesRead = in.read(readBuffer, 0, readBuffer.length);
+        if (bytesRead == -1) {
+            return false;
+        }
+        feed(readBuffer, 0, bytesRead);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        if (body != null) {
+            pool.release(body);
+            body = null;
+        }
+        state = STATE_SEEK_BOUNDARY;
+        lineLength = 0;
+        contentLength = -1;
+        bodyLength = 0;
+        prevFF = false;
+        sequence = 0;
+    }
+
+    // 读取一行分段头，遇到换行时处理该行，返回下一个未处理的位置
+    private int readLine(byte[] chunk, int i, int end) {
+        for (; i < end; i++) {
+            byte b = chunk[i];
+            if (b == '\n') {
+                onLine();
+                lineLength = 0;
+                return i + 1;
+            }
+            if (b != '\r' && lineLength < MAX_LINE) {
+                line[lineLength++] = b;
+            }
+        }
+        return i;
+    }
+
+    private void onLine() {
+        if (state == STATE_SEEK_BOUNDARY) {
+            if (startsWith(delimiter) || startsWith(bareBoundary)) {
+                state = STATE_HEADERS;
+                contentLength = -1;
+            }
+            return;
+        }
+
+        // STATE_HEADERS
+        if (lineLength == 0) {
+            startBody();
+        } else if (startsWithIgnoreCase(CONTENT_LENGTH)) {
+            contentLength = parseLength(CONTENT_LENGTH.length);
+        }
+    }
+
+    private void startBody() {
+        bodyLength = 0;
+        if (contentLength == 0) {
+            state = STATE_SEEK_BOUNDARY;
+        } else if (contentLength > 0 && contentLength <= MjpegFrameExtractor.MAX_FRAME_SIZE) {
+            body = pool.acquire(contentLength);
+            state = STATE_BODY;
+        } else {
+            // 没有可用的Content-Length，退回按EOI标记找帧尾
+            body = pool.acquire(SCAN_INITIAL_CAPACITY);
+            prevFF = false;
+            state = STATE_BODY_SCAN;
+        }
+    }
+
+    private int scanBody(byte[] chunk, int i, int end) {
+        int start = i;
+        for (; i < end; i++) {
+            byte b = chunk[i];
+            if (prevFF && b == (byte) 0xD9) {
+                appendScanned(chunk, start, i + 1 - start);
+                if (state == STATE_BODY_SCAN) {
+                    emitBody();
+                }
+                return i + 1;
+            }
+            prevFF = b == (byte) 0xFF;
+        }
+        appendScanned(chunk, start, end - start);
+        return end;
+    }
+
+    private void appendScanned(byte[] chunk, int offset, int length) {
+        int required = bodyLength + length;
+        if (required > MjpegFrameExtractor.MAX_FRAME_SIZE) {
+            // 一直找不到帧尾，丢弃这一段重新找边界
+            pool.release(body);
+            body = null;
+            bodyLength = 0;
+            state = STATE_SEEK_BOUNDARY;
+            return;
+        }
+        if (required > body.length) {
+            byte[] larger = pool.acquire(Math.max(required, body.length * 2));
+            System.arraycopy(body, 0, larger, 0, bodyLength);
+            pool.release(body);
+            body = larger;
+        }
+        System.arraycopy(chunk, offset, body, bodyLength, length);
+        bodyLength = required;
+    }
+
+    private void emitBody() {
+        JpegFrame frame = new JpegFrame(pool, body, bodyLength, sequence++, System.nanoTime());
+        body = null;
+        bodyLength = 0;
+        contentLength = -1;
+        state = STATE_SEEK_BOUNDARY;
+        listener.onFrame(frame);
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (lineLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWithIgnoreCase(byte[] lowerPrefix) {
+        if (lineLength < lowerPrefix.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerPrefix.length; i++) {
+            byte b = line[i];
+            if (b >= 'A' && b <= 'Z') {
+                b = (byte) (b + ('a' - 'A'));
+            }
+            if (b != lowerPrefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int parseLength(int from) {
+        long value = -1;
+        for (int i = from; i < lineLength; i++) {
+            byte b = line[i];
+            if (b >= '0' && b <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (b - '0');
+                if (value > Integer.MAX_VALUE) {
+                    return -1;
+                }
+            } else if (b != ' ' && b != '\t') {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,599 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非阻塞的MJPEG客户端：多路连接共用一到两个I/O线程，每个线程一个Selector。
+ *
+ * 每个连接从池里借一块直接缓冲区，socket数据读进缓冲区后直接交给FrameParser，
+ * multipart正文从直接缓冲区一次拷进帧缓冲区，不再经过BufferedInputStream和1KB读取数组。
+ * 读缓冲区和SO_RCVBUF按最近的帧大小调整（见{@link ReceiveBufferSizer}），同一摄像头重连时沿用上次的统计，
+ * 分辨率越高每次read()读得越多，每帧的系统调用次数基本不随分辨率增加。
+ * 主机名通过{@link AddressCache}解析，没有缓存时在后台线程解析，open()不会阻塞调用线程；
+ * 响应头一到就开始切帧，每路连接记录建立连接、收到响应头和第一帧的耗时（见{@link StreamStats}）。
+ * 帧回调、onConnected和onClosed都在I/O线程上执行，回调里只能做很快的事（例如FramePipeline.submit）。
+ */
+public final class NioMjpegClient implements Closeable {
+
+    /** 连接状态回调，在I/O线程上执行 */
+    public interface StreamCallback {
+        /** 收到200响应头，开始接收帧 */
+        void onConnected(Stream stream, String contentType);
+
+        /** 连接已关闭，之后不会再有帧回调。error为null表示主动关闭或服务器正常结束 */
+        void onClosed(Stream stream, IOException error);
+    }
+
+    // 不知道帧大小时的读缓冲区大小
+    static final int READ_BUFFER_SIZE = 32 * 1024;
+    // 响应头上限，超过说明不是摄像头的流
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+    // 没有事件时也定期醒来检查超时
+    private static final long SELECT_TIMEOUT_MS = 200;
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_SENDING = 1;
+    private static final int STATE_HEADERS = 2;
+    private static final int STATE_STREAMING = 3;
+
+    // 没有缓存的主机名在这里解析，空闲一分钟后线程退出
+    private static final ExecutorService RESOLVER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "mjpeg-resolve");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final IoThread[] ioThreads;
+    private final DirectBufferPool bufferPool;
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private final AtomicInteger openStreams = new AtomicInteger();
+    // 每个摄像头（主机:端口）上次连接的典型帧大小，重连时直接用合适的缓冲区
+    private final ConcurrentHashMap<String, Integer> frameSizeHints = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+    private volatile boolean tcpNoDelay = true;
+    private volatile boolean keepAlive = true;
+    private volatile int fixedReadBufferSize = 0;
+    private volatile AddressCache addressCache = AddressCache.DEFAULT;
+
+    /**
+     * @param ioThreadCount I/O线程数，单路查看用1，多路网格用2
+     */
+    public NioMjpegClient(int ioThreadCount) {
+        ioThreads = new IoThread[Math.max(1, ioThreadCount)];
+        bufferPool = new DirectBufferPool(16);
+    }
+
+    /**
+     * 之后打开的连接是否设置TCP_NODELAY，默认开启。
+     * 流连接上只发一次请求，影响的是请求发出的时机；关闭后小请求可能被Nagle算法攒着等ACK。
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * 之后打开的连接是否开启SO_KEEPALIVE，默认开启。
+     * 摄像头断电或离开Wi-Fi时不会发FIN，读超时之外由内核探测再兜底一次。
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * 固定之后打开的连接的读缓冲区大小，SO_RCVBUF取两倍；传0恢复按帧大小自适应（默认）。
+     * 主要用于基准对比。
+     */
+    public void setFixedReadBufferSize(int size) {
+        this.fixedReadBufferSize = Math.max(0, size);
+    }
+
+    /** 替换主机名解析缓存，默认与控制通道共用{@link AddressCache#DEFAULT} */
+    public void setAddressCache(AddressCache addressCache) {
+        this.addressCache = addressCache;
+    }
+
+    /**
+     * 发起连接，立即返回。IP和已缓存的主机名直接连接，其他主机名在后台线程解析，解析失败时onClosed收到异常。
+     *
+     * @param listener 每收到一帧回调一次，拿到帧的一方负责release()
+     */
+    public Stream open(String url, int connectTimeoutMs, int readTimeoutMs,
+                       FrameListener listener, StreamCallback callback) throws IOException {
+        if (closed) {
+            throw new IOException("客户端已关闭");
+        }
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("地址无效: " + url, e);
+        }
+        if (uri.getHost() == null) {
+            throw new IOException("地址无效: " + url);
+        }
+        int port = uri.getPort() == -1 ? 80 : uri.getPort();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        String host = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + port;
+
+        IoThread ioThread = ioThread();
+        String authority = uri.getHost() + ":" + port;
+        Integer hint = frameSizeHints.get(authority);
+        Stream stream = new Stream(ioThread, uri.getHost(), port, authority, request(host, path),
+                connectTimeoutMs, readTimeoutMs, listener, callback, hint == null ? 0 : hint);
+        InetAddress cached = addressCache.cached(uri.getHost());
+        if (cached != null) {
+            stream.address = new InetSocketAddress(cached, port);
+            ioThread.execute(stream::register);
+        } else {
+            RESOLVER.execute(stream::resolve);
+        }
+        return stream;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** 已经open()、还没有回调onClosed的连接数，用于检查断开后是否有连接残留 */
+    public int openStreams() {
+        return openStreams.get();
+    }
+
+    /** 连接借用中的读缓冲区数，所有连接关闭后应为0 */
+    public long buffersInUse() {
+        return bufferPool.inUse();
+    }
+
+    /** 关闭所有连接并停止I/O线程，各连接的onClosed仍会回调 */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (ioThreads) {
+            for (IoThread ioThread : ioThreads) {
+                if (ioThread != null) {
+                    ioThread.selector.wakeup();
+                }
+            }
+        }
+    }
+
+    private IoThread ioThread() throws IOException {
+        int index = Math.floorMod(nextThread.getAndIncrement(), ioThreads.length);
+        synchronized (ioThreads) {
+            // 第一次用到时才创建，只做单路查看时不会多开线程
+            if (ioThreads[index] == null) {
+                ioThreads[index] = new IoThread("mjpeg-io-" + index);
+            }
+            return ioThreads[index];
+        }
+    }
+
+    /** 检查响应状态，返回Content-Type（可能为null）；不是200、不是HTTP或用chunked编码时抛出异常 */
+    static String contentTypeOf(String headers) throws IOException {
+        String[] lines = headers.split("\r?\n");
+        String[] status = lines[0].split(" ");
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new IOException("不是HTTP响应: " + lines[0]);
+        }
+        if (!"200".equals(status[1])) {
+            throw new IOException("HTTP " + status[1]);
+        }
+        String contentType = null;
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("content-type")) {
+                contentType = value;
+            } else if (name.equals("transfer-encoding") && value.toLowerCase(Locale.US).contains("chunked")) {
+                throw new IOException("不支持chunked传输编码");
+            }
+        }
+        return contentType;
+    }
+
+    static byte[] request(String host, String path) {
+        // 不声明keep-alive，服务器按连接关闭结束响应，不会用chunked编码
+        return ("GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Accept: multipart/x-mixed-replace, image/jpeg\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** 一路连接，close()可以在任意线程调用 */
+    public final class Stream implements Closeable {
+        private final IoThread ioThread;
+        private final String hostName;
+        private final int port;
+        private final String authority;
+        private final AddressCache resolverCache = addressCache;
+        private volatile InetSocketAddress address;
+        private final ByteBuffer request;
+        private final long connectTimeoutNanos;
+        private final long readTimeoutNanos;
+        private final FrameListener listener;
+        private final StreamCallback callback;
+        private final ByteArrayPool framePool = new ByteArrayPool(4);
+        private final boolean noDelay = tcpNoDelay;
+        private final boolean keepAliveEnabled = keepAlive;
+        private final int fixedBufferSize = fixedReadBufferSize;
+        private final ReceiveBufferSizer sizer;
+
+        // 以下只在I/O线程上访问
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer buffer;
+        private int state = STATE_CONNECTING;
+        private final byte[] header = new byte[MAX_HEADER_SIZE];
+        private int headerLength = 0;
+        private FrameParser parser;
+        private long startedNanos;
+        private long lastReadNanos;
+
+        private volatile boolean open = true;
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong frames = new AtomicLong();
+        private volatile long streamingStartedNanos;
+        private volatile long streamingEndedNanos;
+        private volatile int readBufferSize;
+        private volatile int receiveBufferSize;
+        private volatile int bufferResizes;
+        private final long openedNanos = System.nanoTime();
+        private volatile long connectedNanos;
+        private volatile long headersNanos;
+        private volatile long firstFrameNanos;
+
+        Stream(IoThread ioThread, String hostName, int port, String authority, byte[] request, int connectTimeoutMs,
+               int readTimeoutMs, FrameListener listener, StreamCallback callback, int frameSizeHint) {
+            this.ioThread = ioThread;
+            this.hostName = hostName;
+            this.port = port;
+            this.authority = authority;
+            this.request = ByteBuffer.wrap(request);
+            this.connectTimeoutNanos = connectTimeoutMs * 1_000_000L;
+            this.readTimeoutNanos = readTimeoutMs * 1_000_000L;
+            this.listener = listener;
+            this.callback = callback;
+            this.sizer = new ReceiveBufferSizer(frameSizeHint);
+            this.readBufferSize = fixedBufferSize > 0 ? fixedBufferSize : sizer.readBufferSize();
+            openStreams.incrementAndGet();
+        }
+
+        /** 断开连接，onClosed(stream, null)随后在I/O线程上回调 */
+        @Override
+        public void close() {
+            ioThread.execute(() -> finish(null));
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public long bytesRead() {
+            return bytesRead.get();
+        }
+
+        /** read()调用次数，用于估算每次读取的字节数 */
+        public long reads() {
+            return reads.get();
+        }
+
+        /** 读取计数快照，连接关闭后仍可调用，时长截止到关闭时 */
+        public StreamStats stats() {
+            long started = streamingStartedNanos;
+            long ended = open ? System.nanoTime() : streamingEndedNanos;
+            return new StreamStats(reads.get(), bytesRead.get(), frames.get(), started == 0 ? 0 : ended - started,
+                    readBufferSize, receiveBufferSize, bufferResizes, sinceOpened(connectedNanos),
+                    sinceOpened(headersNanos), sinceOpened(firstFrameNanos));
+        }
+
+        private long sinceOpened(long nanos) {
+            return nanos == 0 ? 0 : nanos - openedNanos;
+        }
+
+        // 在解析线程上执行
+        private void resolve() {
+            try {
+                address = new InetSocketAddress(resolverCache.resolve(hostName), port);
+            } catch (UnknownHostException e) {
+                ioThread.execute(() -> finish(new UnknownHostException("无法解析主机: " + hostName)));
+                return;
+            }
+            if (closed) {
+                // 解析期间客户端已关闭，I/O线程可能已经退出，直接结束，onClosed照常回调
+                ioThread.execute(() -> finish(new IOException("客户端已关闭")));
+            } else {
+                ioThread.execute(this::register);
+            }
+        }
+
+        private void register() {
+            if (!open) {
+                return;
+            }
+            if (closed) {
+                finish(new IOException("客户端已关闭"));
+                return;
+            }
+            startedNanos = System.nanoTime();
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, noDelay);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, keepAliveEnabled);
+                // 连接前设置，内核按它协商TCP窗口缩放因子，连接后再调大才能真正用上
+                setReceiveBuffer();
+                key = channel.register(ioThread.selector, SelectionKey.OP_CONNECT, this);
+                if (channel.connect(address)) {
+                    onConnect();
+                }
+            } catch (IOException e) {
+                finish(e);
+            }
+        }
+
+        private void onConnect() throws IOException {
+            if (!channel.finishConnect()) {
+                return;
+            }
+            connectedNanos = System.nanoTime();
+            state = STATE_SENDING;
+            key.interestOps(SelectionKey.OP_WRITE);
+            onWritable();
+        }
+
+        private void onWritable() throws IOException {
+            channel.write(request);
+            if (request.hasRemaining()) {
+                return;
+            }
+            state = STATE_HEADERS;
+            buffer = bufferPool.acquire(readBufferSize);
+            lastReadNanos = System.nanoTime();
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void onReadable() throws IOException {
+            // 转成Buffer调用：Java 8和旧版Android的ByteBuffer没有返回ByteBuffer的clear()/flip()重载
+            ((Buffer) buffer).clear();
+            int n = channel.read(buffer);
+            reads.incrementAndGet();
+            if (n == -1) {
+                finish(state == STATE_STREAMING ? null : new IOException("服务器在响应头之前断开连接"));
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            lastReadNanos = System.nanoTime();
+            bytesRead.addAndGet(n);
+            ((Buffer) buffer).flip();
+            if (state == STATE_HEADERS) {
+                readHeaders();
+            }
+            if (state == STATE_STREAMING && buffer.hasRemaining()) {
+                parser.feed(buffer);
+                // parser已经取走了全部数据，这时换缓冲区不会丢字节
+                if (fixedBufferSize == 0 && sizer.update()) {
+                    resizeBuffers();
+                }
+            }
+        }
+
+        private void onFrame(JpegFrame frame) {
+            if (frames.incrementAndGet() == 1) {
+                firstFrameNanos = System.nanoTime();
+            }
+            sizer.onFrame(frame.length());
+            listener.onFrame(frame);
+        }
+
+        private void resizeBuffers() throws IOException {
+            readBufferSize = sizer.readBufferSize();
+            bufferPool.release(buffer);
+            buffer = bufferPool.acquire(readBufferSize);
+            bufferResizes++;
+            setReceiveBuffer();
+        }
+
+        private void setReceiveBuffer() throws IOException {
+            int size = fixedBufferSize > 0 ? fixedBufferSize * 2 : sizer.receiveBufferSize();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, size);
+            receiveBufferSize = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        }
+
+        // 找到空行为止，之后的字节留在buffer里交给parser
+        private void readHeaders() throws IOException {
+            while (buffer.hasRemaining()) {
+                if (headerLength == header.length) {
+                    throw new IOException("响应头过长");
+                }
+                byte b = buffer.get();
+                header[headerLength++] = b;
+                if (b == '\n' && endsWithBlankLine()) {
+                    onHeaders(new String(header, 0, headerLength, StandardCharsets.ISO_8859_1));
+                    return;
+                }
+            }
+        }
+
+        private boolean endsWithBlankLine() {
+            int end = headerLength;
+            return (end >= 4 && header[end - 4] == '\r' && header[end - 3] == '\n' && header[end - 2] == '\r')
+                    || (end >= 2 && header[end - 2] == '\n');
+        }
+
+        private void onHeaders(String text) throws IOException {
+            String contentType = contentTypeOf(text);
+            parser = FrameParsers.create(contentType, this::onFrame, framePool);
+            state = STATE_STREAMING;
+            streamingStartedNanos = System.nanoTime();
+            headersNanos = streamingStartedNanos;
+            if (callback != null) {
+                callback.onConnected(this, contentType);
+            }
+        }
+
+        private void checkTimeout(long now) {
+            if (state == STATE_CONNECTING || state == STATE_SENDING) {
+                if (now - startedNanos > connectTimeoutNanos) {
+                    finish(new SocketTimeoutException("connect timed out"));
+                }
+            } else if (now - lastReadNanos > readTimeoutNanos) {
+                finish(new SocketTimeoutException("Read timed out"));
+            }
+        }
+
+        private void handle(SelectionKey selected) {
+            try {
+                if (selected.isConnectable()) {
+                    onConnect();
+                } else if (selected.isWritable()) {
+                    onWritable();
+                } else if (selected.isReadable()) {
+                    onReadable();
+                }
+            } catch (IOException e) {
+                finish(e);
+            } catch (RuntimeException e) {
+                // 回调里的异常只断开这一路，不影响同一线程上的其他连接
+                finish(new IOException(e));
+            }
+        }
+
+        private void finish(IOException error) {
+            if (!open) {
+                return;
+            }
+            streamingEndedNanos = System.nanoTime();
+            open = false;
+            int typical = sizer.typicalFrameSize();
+            if (typical > 0) {
+                frameSizeHints.put(authority, typical);
+            }
+            if (error != null && state <= STATE_SENDING) {
+                // 连不上时缓存的地址可能已经过时（摄像头换了IP），下次重新解析
+                resolverCache.invalidate(hostName);
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (parser != null) {
+                parser.reset();
+            }
+            if (buffer != null) {
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+            openStreams.decrementAndGet();
+            if (callback != null) {
+                callback.onClosed(this, error);
+            }
+        }
+    }
+
+    private final class IoThread implements Runnable {
+        final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // 线程退出后为true，之后提交的任务由提交方直接执行
+        private volatile boolean exited = false;
+
+        IoThread(String name) throws IOException {
+            selector = Selector.open();
+            Thread thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (exited) {
+                // 关闭后还在解析的连接到这里结束；I/O线程不再运行，不会和它并发访问连接
+                runTasks();
+            } else {
+                selector.wakeup();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select(SELECT_TIMEOUT_MS);
+                    runTasks();
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        if (key.isValid()) {
+                            ((Stream) key.attachment()).handle(key);
+                        }
+                    }
+                    long now = System.nanoTime();
+                    for (SelectionKey key : selector.keys()) {
+                        if (key.isValid()) {
+                            ((Stream) key.attachment()).checkTimeout(now);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // Selector出错时下面关闭所有连接
+            } finally {
+                runTasks();
+                for (SelectionKey key : selector.keys()) {
+                    ((Stream) key.attachment()).finish(null);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+                exited = true;
+                // 设置exited之前提交的任务
+                runTasks();
+            }
+        }
+    }
+}
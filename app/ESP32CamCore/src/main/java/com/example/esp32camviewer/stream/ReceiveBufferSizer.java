@@ -0,0 +1,88 @@
+package com.example.esp32camviewer.stream;
+
+import java.util.Arrays;
+
+/**
+ * 按最近收到的帧大小决定读缓冲区和SO_RCVBUF的大小。
+ *
+ * 读缓冲区取最近帧大小的90分位向上取整到2的幂：数据已经到齐时一次read()就能读完一帧，
+ * VGA约36KB用64KB，UXGA约160KB用256KB。SO_RCVBUF取两帧，应用处理一帧时内核还能收下一帧，
+ * Wi-Fi抖动时不至于把TCP窗口收到零。
+ * 缓冲区变大立即生效；变小要降到当前的1/4以下才调整，避免画面复杂度变化时来回换缓冲区。
+ * 只在I/O线程上访问。
+ */
+public final class ReceiveBufferSizer {
+    static final int MIN_READ_BUFFER = 16 * 1024;
+    static final int MAX_READ_BUFFER = 256 * 1024;
+    static final int MIN_RECEIVE_BUFFER = 64 * 1024;
+    static final int MAX_RECEIVE_BUFFER = 1024 * 1024;
+    // 按最近多少帧统计
+    private static final int WINDOW = 32;
+    // 至少收到这么多帧才调整，第一帧之前只能用初始值
+    private static final int MIN_SAMPLES = 4;
+    // multipart分段头和边界约100字节，留出余量
+    private static final int PART_OVERHEAD = 512;
+
+    private final int[] recent = new int[WINDOW];
+    private final int[] sorted = new int[WINDOW];
+    private int count = 0;
+    private int next = 0;
+    private int readBufferSize;
+
+    /**
+     * @param frameSizeHint 预计的帧大小，例如同一摄像头上次连接的统计值；不知道时传0
+     */
+    public ReceiveBufferSizer(int frameSizeHint) {
+        readBufferSize = frameSizeHint > 0 ? readBufferFor(frameSizeHint) : NioMjpegClient.READ_BUFFER_SIZE;
+    }
+
+    public void onFrame(int length) {
+        recent[next] = length;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+    }
+
+    /** 最近帧大小的90分位，还没有样本时返回0 */
+    public int typicalFrameSize() {
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(recent, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        return sorted[(count * 9 - 1) / 10];
+    }
+
+    /**
+     * 按当前统计更新读缓冲区大小，变化时返回true，调用方随后换缓冲区并重新设置SO_RCVBUF。
+     */
+    public boolean update() {
+        if (count < MIN_SAMPLES) {
+            return false;
+        }
+        int target = readBufferFor(typicalFrameSize());
+        if (target > readBufferSize || target * 4 <= readBufferSize) {
+            readBufferSize = target;
+            return true;
+        }
+        return false;
+    }
+
+    public int readBufferSize() {
+        return readBufferSize;
+    }
+
+    public int receiveBufferSize() {
+        return Math.max(MIN_RECEIVE_BUFFER, Math.min(MAX_RECEIVE_BUFFER, readBufferSize * 2));
+    }
+
+    static int readBufferFor(int frameSize) {
+        int wanted = frameSize + PART_OVERHEAD;
+        int size = MIN_READ_BUFFER;
+        while (size < wanted && size < MAX_READ_BUFFER) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
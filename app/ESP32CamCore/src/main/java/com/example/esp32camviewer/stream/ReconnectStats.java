@@ -0,0 +1,48 @@
+package com.example.esp32camviewer.stream;
+
+/** 自动重连会话的计数快照，见{@link ReconnectingStream#stats()} */
+public final class ReconnectStats {
+    /** 发起过的连接数，包括备用连接 */
+    public final long connects;
+    /** 没有可用连接、进入退避等待的次数 */
+    public final long interruptions;
+    /** 停滞后备用连接先来帧、替换了旧连接的次数 */
+    public final long stallSwaps;
+    /** 停滞后旧连接先恢复、备用连接被关闭的次数 */
+    public final long stallRecoveries;
+    /** 恢复过的中断次数（重连或切到备用连接后收到第一帧） */
+    public final long outages;
+    public final long totalOutageNanos;
+    public final long maxOutageNanos;
+    public final long lastOutageNanos;
+    /** 首次连接从发起到第一帧的时间 */
+    public final long firstFrameNanos;
+    /** 最近一条新连接从发起到第一帧的时间 */
+    public final long lastTimeToFirstFrameNanos;
+
+    ReconnectStats(long connects, long interruptions, long stallSwaps, long stallRecoveries, long outages,
+                   long totalOutageNanos, long maxOutageNanos, long lastOutageNanos, long firstFrameNanos,
+                   long lastTimeToFirstFrameNanos) {
+        this.connects = connects;
+        this.interruptions = interruptions;
+        this.stallSwaps = stallSwaps;
+        this.stallRecoveries = stallRecoveries;
+        this.outages = outages;
+        this.totalOutageNanos = totalOutageNanos;
+        this.maxOutageNanos = maxOutageNanos;
+        this.lastOutageNanos = lastOutageNanos;
+        this.firstFrameNanos = firstFrameNanos;
+        this.lastTimeToFirstFrameNanos = lastTimeToFirstFrameNanos;
+    }
+
+    public long averageOutageNanos() {
+        return outages == 0 ? 0 : totalOutageNanos / outages;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("连接%d次 中断%d次 停滞切换%d次 停滞恢复%d次 中断时长 平均%dms 最长%dms 首帧%dms 最近重连首帧%dms",
+                connects, interruptions, stallSwaps, stallRecoveries, averageOutageNanos() / 1_000_000,
+                maxOutageNanos / 1_000_000, firstFrameNanos / 1_000_000, lastTimeToFirstFrameNanos / 1_000_000);
+    }
+}
@@ -0,0 +1,470 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自动重连的视频流会话：连接断开后按带抖动的指数退避重连，帧始终交给同一个FrameListener，
+ * 中断期间画面停在最后一帧，直到新连接的第一帧。
+ *
+ * 连接还在但超过停滞时限（默认2秒，比5秒读超时短）没有收到数据时，保留旧连接，另开一条备用连接，
+ * 哪条先来帧就用哪条，另一条关闭。固件对同一查看器的新视频流请求会直接替换旧连接。
+ * 每次恢复记录中断时长（中断前最后一帧到恢复后第一帧）和新连接的首帧耗时，见{@link #stats()}。
+ *
+ * close()立即返回，连接在I/O线程上马上关闭（不等读超时），读缓冲区随之归还；
+ * 所有连接都回调了onStreamClosed之后会话才算结束，用{@link #awaitTermination(long)}等待。
+ * 同一摄像头的新会话要等旧会话结束再连接，用{@link CameraSessions}启动。
+ *
+ * 回调在I/O线程或重连线程上执行，只能做很快的事。
+ */
+public final class ReconnectingStream implements Closeable {
+
+    /** 会话状态回调，在I/O线程或重连线程上执行 */
+    public interface Listener {
+        /**
+         * 一条新连接收到第一帧（首次连接、重连或切到备用连接）。
+         *
+         * @param timeToFirstFrameNanos 从发起这条连接到第一帧的时间
+         * @param outageNanos           中断前最后一帧到这一帧的时间，首次连接时为0
+         */
+        void onFirstFrame(NioMjpegClient.Stream stream, long timeToFirstFrameNanos, long outageNanos);
+
+        /**
+         * 没有可用的连接了，retryDelayMs后重连。error为null表示服务器正常结束了响应
+         *
+         * @param attempt 自上一帧以来连续失败的次数，从1开始
+         */
+        void onInterrupted(IOException error, int attempt, long retryDelayMs);
+
+        /** 底层的每条连接关闭时回调一次，用于记录这条连接的读取统计 */
+        void onStreamClosed(NioMjpegClient.Stream stream, IOException error);
+    }
+
+    /** 多久没有收到数据算停滞 */
+    public static final int DEFAULT_STALL_TIMEOUT_MS = 2000;
+    static final long INITIAL_RETRY_DELAY_MS = 250;
+    static final long MAX_RETRY_DELAY_MS = 8000;
+
+    // 所有会话共用一个线程做重连定时和停滞检查，任务都很短
+    private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+    private final NioMjpegClient client;
+    private final String url;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final FrameListener frameListener;
+    private final Listener listener;
+    private final Random random = new Random();
+    private volatile int stallTimeoutMs = DEFAULT_STALL_TIMEOUT_MS;
+
+    // 以下由this保护
+    private Connection active;
+    // 停滞时另开的连接，先来帧就替换active
+    private Connection standby;
+    private boolean started = false;
+    private boolean closed = false;
+    private int attempt = 0;
+    private long lastFrameNanos = 0;
+    private ScheduledFuture<?> retryTask;
+    private ScheduledFuture<?> watchdogTask;
+    // 已经open()、还没回调onClosed的连接数，关闭后降到0时会话结束
+    private int liveConnections = 0;
+    private boolean ended = false;
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private final List<Runnable> terminationActions = new ArrayList<>();
+
+    private long connects = 0;
+    private long interruptions = 0;
+    private long stallSwaps = 0;
+    private long stallRecoveries = 0;
+    private long outages = 0;
+    private long totalOutageNanos = 0;
+    private long maxOutageNanos = 0;
+    private long lastOutageNanos = 0;
+    private long firstFrameNanos = 0;
+    private long lastTimeToFirstFrameNanos = 0;
+
+    /**
+     * @param frameListener 所有连接的帧都交给它，拿到帧的一方负责release()
+     */
+    public ReconnectingStream(NioMjpegClient client, String url, int connectTimeoutMs, int readTimeoutMs,
+                              FrameListener frameListener, Listener listener) {
+        this.client = client;
+        this.url = url;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.frameListener = frameListener;
+        this.listener = listener;
+    }
+
+    /** 在start()之前调用 */
+    public void setStallTimeoutMs(int stallTimeoutMs) {
+        this.stallTimeoutMs = stallTimeoutMs;
+    }
+
+    /**
+     * 发起第一条连接，立即返回。地址无效时直接抛出，不会重试；之后的失败都自动重连。
+     */
+    public synchronized void start() throws IOException {
+        if (started || closed) {
+            return;
+        }
+        started = true;
+        active = openConnection();
+        startWatchdog();
+    }
+
+    /**
+     * 等previous结束（所有连接都已关闭）后再发起第一条连接，previous为null时同start()。
+     * 之后连不上时和重连一样按退避重试，不会抛出。等待期间被关闭的，也要等previous结束才算结束，
+     * 连续快速切换时后面的会话不会越过还没关完的连接。
+     */
+    void startAfter(ReconnectingStream previous) throws IOException {
+        if (previous == null) {
+            start();
+            return;
+        }
+        synchronized (this) {
+            if (started || closed) {
+                return;
+            }
+            started = true;
+            // previous结束前算作一条还没关闭的连接
+            liveConnections++;
+            startWatchdog();
+        }
+        previous.whenTerminated(this::previousTerminated);
+    }
+
+    private void previousTerminated() {
+        List<Runnable> actions;
+        synchronized (this) {
+            liveConnections--;
+            actions = terminateIfDone();
+        }
+        finishTermination(actions);
+        reconnect();
+    }
+
+    public String url() {
+        return url;
+    }
+
+    /** 当前的底层连接，重连间隙为null */
+    public synchronized NioMjpegClient.Stream currentStream() {
+        return active == null ? null : active.stream;
+    }
+
+    /** 是否有连接正在收帧（而不是在等待重连或刚发起连接） */
+    public synchronized boolean isReceiving() {
+        return active != null && active.gotFrame;
+    }
+
+    public synchronized ReconnectStats stats() {
+        return new ReconnectStats(connects, interruptions, stallSwaps, stallRecoveries, outages, totalOutageNanos,
+                maxOutageNanos, lastOutageNanos, firstFrameNanos, lastTimeToFirstFrameNanos);
+    }
+
+    /** 停止重连并断开所有连接，立即返回；各连接的onStreamClosed仍会回调，之后会话结束 */
+    @Override
+    public void close() {
+        Connection current;
+        Connection spare;
+        List<Runnable> actions;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (retryTask != null) {
+                retryTask.cancel(false);
+            }
+            if (watchdogTask != null) {
+                watchdogTask.cancel(false);
+            }
+            current = active;
+            spare = standby;
+            active = null;
+            standby = null;
+            actions = terminateIfDone();
+        }
+        close(current);
+        close(spare);
+        finishTermination(actions);
+    }
+
+    /** 已经close()并且所有连接都已关闭 */
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    /** 等会话结束，返回是否在超时前结束；要先调用close() */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return terminated.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** 会话结束时执行action（在关闭最后一条连接的线程上），已经结束时立即执行 */
+    void whenTerminated(Runnable action) {
+        synchronized (this) {
+            if (!ended) {
+                terminationActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * 第attempt次重连前的等待时间：250ms起每次翻倍，最长8秒，实际取一半到全部之间的随机值，
+     * 同一个AP下的多路摄像头断线后不会同时重连。
+     */
+    static long retryDelayMs(int attempt, Random random) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 16);
+        long base = Math.min(MAX_RETRY_DELAY_MS, INITIAL_RETRY_DELAY_MS << shift);
+        return base / 2 + (long) (random.nextDouble() * (base / 2 + 1));
+    }
+
+    // 调用方持有锁
+    private Connection openConnection() throws IOException {
+        Connection connection = new Connection();
+        connection.stream = client.open(url, connectTimeoutMs, readTimeoutMs, connection, connection);
+        connects++;
+        liveConnections++;
+        return connection;
+    }
+
+    // 调用方持有锁
+    private void startWatchdog() {
+        long period = Math.max(50, stallTimeoutMs / 4);
+        watchdogTask = SCHEDULER.scheduleAtFixedRate(this::checkStall, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // 调用方持有锁；已关闭且没有连接时标记结束，返回要在锁外交给finishTermination的动作，没有结束时返回null
+    private List<Runnable> terminateIfDone() {
+        if (!closed || liveConnections > 0 || ended) {
+            return null;
+        }
+        ended = true;
+        List<Runnable> actions = new ArrayList<>(terminationActions);
+        terminationActions.clear();
+        return actions;
+    }
+
+    // 先执行结束动作再放行awaitTermination，等待方醒来时会话表之类的状态已经更新
+    private void finishTermination(List<Runnable> actions) {
+        if (actions == null) {
+            return;
+        }
+        try {
+            for (Runnable action : actions) {
+                action.run();
+            }
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    private void reconnect() {
+        IOException error;
+        List<Runnable> actions;
+        synchronized (this) {
+            retryTask = null;
+            if (closed || active != null) {
+                return;
+            }
+            if (client.isClosed()) {
+                // 客户端已经关闭，再重连也打不开
+                closed = true;
+                watchdogTask.cancel(false);
+                actions = terminateIfDone();
+                error = null;
+            } else {
+                try {
+                    active = openConnection();
+                    return;
+                } catch (IOException e) {
+                    error = e;
+                    actions = null;
+                }
+            }
+        }
+        if (error == null) {
+            finishTermination(actions);
+            return;
+        }
+        connectionLost(error);
+    }
+
+    private void checkStall() {
+        synchronized (this) {
+            Connection current = active;
+            // 还没收到第一帧的连接由连接超时和读超时处理
+            if (closed || current == null || !current.gotFrame || standby != null) {
+                return;
+            }
+            long now = System.nanoTime();
+            long bytes = current.stream.bytesRead();
+            if (bytes != current.lastBytes) {
+                current.lastBytes = bytes;
+                current.lastProgressNanos = now;
+                return;
+            }
+            if (now - current.lastProgressNanos < stallTimeoutMs * 1_000_000L) {
+                return;
+            }
+            try {
+                standby = openConnection();
+                return;
+            } catch (IOException e) {
+                // 开不了备用连接时继续等旧连接，读超时后按断开处理
+            }
+        }
+    }
+
+    private void onFrame(Connection connection, JpegFrame frame) {
+        Connection replaced = null;
+        boolean first;
+        long timeToFirstFrame = 0;
+        long outage = 0;
+        synchronized (this) {
+            if (closed || (connection != active && connection != standby)) {
+                frame.release();
+                return;
+            }
+            if (connection == standby) {
+                // 备用连接先来帧，切过去
+                replaced = active;
+                active = connection;
+                standby = null;
+                stallSwaps++;
+            } else if (standby != null) {
+                // 旧连接恢复了，备用连接不再需要
+                replaced = standby;
+                standby = null;
+                stallRecoveries++;
+            }
+            long now = System.nanoTime();
+            first = !connection.gotFrame;
+            if (first) {
+                connection.gotFrame = true;
+                connection.lastProgressNanos = now;
+                timeToFirstFrame = now - connection.openedNanos;
+                lastTimeToFirstFrameNanos = timeToFirstFrame;
+                if (lastFrameNanos == 0) {
+                    firstFrameNanos = timeToFirstFrame;
+                } else {
+                    outage = now - lastFrameNanos;
+                    outages++;
+                    totalOutageNanos += outage;
+                    lastOutageNanos = outage;
+                    maxOutageNanos = Math.max(maxOutageNanos, outage);
+                }
+            }
+            lastFrameNanos = now;
+            attempt = 0;
+        }
+        close(replaced);
+        if (first) {
+            listener.onFirstFrame(connection.stream, timeToFirstFrame, outage);
+        }
+        frameListener.onFrame(frame);
+    }
+
+    private void onClosed(Connection connection, IOException error) {
+        listener.onStreamClosed(connection.stream, error);
+        List<Runnable> actions;
+        synchronized (this) {
+            liveConnections--;
+            actions = terminateIfDone();
+        }
+        finishTermination(actions);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (connection == standby) {
+                standby = null;
+                if (active != null) {
+                    // 备用连接失败，旧连接再停滞一个时限后才另开
+                    active.lastProgressNanos = System.nanoTime();
+                }
+                return;
+            }
+            if (connection != active) {
+                return;
+            }
+            active = null;
+            if (standby != null) {
+                // 旧连接断了，备用连接接着等第一帧
+                active = standby;
+                standby = null;
+                return;
+            }
+        }
+        connectionLost(error);
+    }
+
+    private void connectionLost(IOException error) {
+        int failures;
+        long delay;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            failures = ++attempt;
+            interruptions++;
+            delay = retryDelayMs(failures, random);
+            retryTask = SCHEDULER.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+        }
+        listener.onInterrupted(error, failures, delay);
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null && connection.stream != null) {
+            connection.stream.close();
+        }
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "stream-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private final class Connection implements FrameListener, NioMjpegClient.StreamCallback {
+        final long openedNanos = System.nanoTime();
+        volatile NioMjpegClient.Stream stream;
+        // 以下由外层的锁保护
+        boolean gotFrame = false;
+        long lastBytes = 0;
+        long lastProgressNanos = openedNanos;
+
+        @Override
+        public void onFrame(JpegFrame frame) {
+            ReconnectingStream.this.onFrame(this, frame);
+        }
+
+        @Override
+        public void onConnected(NioMjpegClient.Stream stream, String contentType) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void onClosed(NioMjpegClient.Stream stream, IOException error) {
+            this.stream = stream;
+            ReconnectingStream.this.onClosed(this, error);
+        }
+    }
+}
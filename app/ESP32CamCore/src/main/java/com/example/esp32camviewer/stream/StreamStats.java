@@ -0,0 +1,58 @@
+package com.example.esp32camviewer.stream;
+
+/** 一路连接的读取计数快照，见{@link NioMjpegClient.Stream#stats()} */
+public final class StreamStats {
+    /** read()系统调用次数，包括没读到数据的 */
+    public final long reads;
+    public final long bytes;
+    public final long frames;
+    /** 从收到响应头到现在（或连接关闭）的时长 */
+    public final long streamingNanos;
+    /** 当前读缓冲区大小 */
+    public final int readBufferSize;
+    /** 内核实际采用的SO_RCVBUF，Linux上是设置值的两倍 */
+    public final int receiveBufferSize;
+    /** 按帧大小更换读缓冲区的次数 */
+    public final int bufferResizes;
+    /** 从open()到TCP连接建立，包括解析主机名；没到这一步时为0，下同 */
+    public final long connectNanos;
+    /** 从open()到收到响应头 */
+    public final long headersNanos;
+    /** 从open()到切出第一帧 */
+    public final long firstFrameNanos;
+
+    StreamStats(long reads, long bytes, long frames, long streamingNanos, int readBufferSize, int receiveBufferSize,
+                int bufferResizes, long connectNanos, long headersNanos, long firstFrameNanos) {
+        this.reads = reads;
+        this.bytes = bytes;
+        this.frames = frames;
+        this.streamingNanos = streamingNanos;
+        this.readBufferSize = readBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.bufferResizes = bufferResizes;
+        this.connectNanos = connectNanos;
+        this.headersNanos = headersNanos;
+        this.firstFrameNanos = firstFrameNanos;
+    }
+
+    public long bytesPerRead() {
+        return reads == 0 ? 0 : bytes / reads;
+    }
+
+    public double readsPerFrame() {
+        return frames == 0 ? 0 : (double) reads / frames;
+    }
+
+    public double framesPerSecond() {
+        return streamingNanos <= 0 ? 0 : frames * 1e9 / streamingNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("reads=%d bytes=%d frames=%d %.1ffps %dB/read %.1f reads/frame buffer=%dK rcvbuf=%dK"
+                        + " connect=%.1fms headers=%.1fms firstFrame=%.1fms",
+                reads, bytes, frames, framesPerSecond(), bytesPerRead(), readsPerFrame(),
+                readBufferSize / 1024, receiveBufferSize / 1024,
+                connectNanos / 1e6, headersNanos / 1e6, firstFrameNanos / 1e6);
+    }
+}
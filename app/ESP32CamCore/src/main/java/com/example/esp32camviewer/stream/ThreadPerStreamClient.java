@@ -0,0 +1,312 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每路连接一个线程的阻塞式MJPEG客户端，给无界面的JVM程序（中继、服务器端批量接入）用。
+ * 每个会话在自己的线程上依次完成连接、发请求、读响应头、读取切帧和分发，代码是顺序的，没有状态机。
+ *
+ * 线程来自构造时传入的ThreadFactory。Java 21以上用{@link #virtualThreads()}，每路一个虚拟线程，
+ * 阻塞在读取上时不占用平台线程，几百上千路摄像头也只用和CPU核数相当的平台线程；
+ * 更早的JVM上只能用{@link #platformThreads()}，每路占一个平台线程和它的栈，路数多时改用{@link NioMjpegClient}。
+ *
+ * 取消是结构化的：客户端持有自己打开的所有会话，{@link #close()}关闭全部连接并等每个会话的线程都结束才返回，
+ * 不会有会话比客户端活得更久。单个会话的close()直接关闭socket，阻塞中的connect/read立即抛出异常退出，
+ * 不需要读取循环轮询标志位，也不依赖线程中断（平台线程上的socket读取不响应中断）。
+ * 帧回调和onConnected、onClosed都在会话自己的线程上执行。
+ */
+public final class ThreadPerStreamClient implements Closeable {
+
+    /** 会话状态回调，在会话的线程上执行 */
+    public interface Callback {
+        /** 收到200响应头，开始接收帧 */
+        void onConnected(Session session, String contentType);
+
+        /** 会话已结束，之后不会再有帧回调。error为null表示主动关闭或服务器正常结束 */
+        void onClosed(Session session, IOException error);
+    }
+
+    private static final int READ_BUFFER_SIZE = NioMjpegClient.READ_BUFFER_SIZE;
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+    // close()等会话线程结束的上限，正常情况下关闭socket后几毫秒内就退出
+    private static final long CLOSE_WAIT_MS = 5000;
+
+    private final ThreadFactory threads;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    /** 用平台线程，每个会话的线程名为mjpeg-session-编号 */
+    public static ThreadFactory platformThreads() {
+        AtomicInteger next = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "mjpeg-session-" + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 用虚拟线程（Java 21的Thread.ofVirtual()），当前JVM不支持时返回null。
+     * 模块按Java 8编译，通过反射调用，在老版本JVM和Android上也能加载这个类。
+     */
+    public static ThreadFactory virtualThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "mjpeg-session-", 0L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public ThreadPerStreamClient(ThreadFactory threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * 启动一个会话，立即返回；连接和主机名解析都在会话线程上进行，失败时onClosed收到异常。
+     *
+     * @param listener 每收到一帧回调一次，拿到帧的一方负责release()
+     */
+    public Session open(String url, int connectTimeoutMs, int readTimeoutMs,
+                        FrameListener listener, Callback callback) throws IOException {
+        if (closed) {
+            throw new IOException("客户端已关闭");
+        }
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("地址无效: " + url, e);
+        }
+        if (uri.getHost() == null) {
+            throw new IOException("地址无效: " + url);
+        }
+        int port = uri.getPort() == -1 ? 80 : uri.getPort();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        String host = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + port;
+        Session session = new Session(uri.getHost(), port, NioMjpegClient.request(host, path), connectTimeoutMs,
+                readTimeoutMs, listener, callback);
+        sessions.add(session);
+        // 和close()并发时，要么close()看到这个会话，要么这里看到closed
+        if (closed) {
+            sessions.remove(session);
+            throw new IOException("客户端已关闭");
+        }
+        try {
+            Thread thread = threads.newThread(session::run);
+            session.thread = thread;
+            thread.start();
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // 平台线程开得太多时系统拒绝创建新线程
+            sessions.remove(session);
+            session.finished.countDown();
+            throw new IOException("无法启动会话线程: " + e, e);
+        }
+        return session;
+    }
+
+    /** 还没有结束的会话数 */
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** 关闭所有会话，等它们的线程都结束后返回；各会话的onClosed在返回前回调完 */
+    @Override
+    public void close() {
+        closed = true;
+        List<Session> open = new ArrayList<>(sessions);
+        for (Session session : open) {
+            session.cancel();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_WAIT_MS);
+        try {
+            for (Session session : open) {
+                session.finished.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** 一路连接，close()可以在任意线程调用 */
+    public final class Session implements Closeable {
+        private final String hostName;
+        private final int port;
+        private final byte[] request;
+        private final int connectTimeoutMs;
+        private final int readTimeoutMs;
+        private final FrameListener listener;
+        private final Callback callback;
+        private final Socket socket = new Socket();
+        private final ByteArrayPool framePool = new ByteArrayPool(4);
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong frames = new AtomicLong();
+        private volatile boolean cancelled = false;
+        private volatile Thread thread;
+
+        Session(String hostName, int port, byte[] request, int connectTimeoutMs, int readTimeoutMs,
+                FrameListener listener, Callback callback) {
+            this.hostName = hostName;
+            this.port = port;
+            this.request = request;
+            this.connectTimeoutMs = connectTimeoutMs;
+            this.readTimeoutMs = readTimeoutMs;
+            this.listener = listener;
+            this.callback = callback;
+        }
+
+        /** 断开连接，onClosed(session, null)随后在会话线程上回调；要等线程结束用{@link #await(long)} */
+        @Override
+        public void close() {
+            cancel();
+        }
+
+        /** 等会话线程结束，返回是否已结束 */
+        public boolean await(long timeoutMs) throws InterruptedException {
+            return finished.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        public boolean isOpen() {
+            return finished.getCount() > 0;
+        }
+
+        public long bytesRead() {
+            return bytesRead.get();
+        }
+
+        public long reads() {
+            return reads.get();
+        }
+
+        public long frames() {
+            return frames.get();
+        }
+
+        /** 会话所在的线程，虚拟线程的名字也是mjpeg-session-编号 */
+        public Thread thread() {
+            return thread;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            try {
+                // 阻塞在connect()或read()上的线程会立即收到SocketException
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void run() {
+            IOException error = null;
+            try {
+                stream();
+            } catch (IOException e) {
+                error = cancelled ? null : e;
+            } finally {
+                cancel();
+                sessions.remove(this);
+                try {
+                    if (callback != null) {
+                        callback.onClosed(this, error);
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            }
+        }
+
+        private void stream() throws IOException {
+            if (cancelled) {
+                return;
+            }
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.setSoTimeout(readTimeoutMs);
+            socket.connect(new InetSocketAddress(hostName, port), connectTimeoutMs);
+            OutputStream out = socket.getOutputStream();
+            out.write(request);
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int length = 0;
+            int headerEnd;
+            while ((headerEnd = headerEnd(buffer, length)) < 0) {
+                if (length >= MAX_HEADER_SIZE) {
+                    throw new IOException("响应头过长");
+                }
+                int n = in.read(buffer, length, MAX_HEADER_SIZE - length);
+                if (n < 0) {
+                    throw new IOException("服务器在响应头结束前关闭了连接");
+                }
+                length += n;
+            }
+            String contentType = NioMjpegClient.contentTypeOf(
+                    new String(buffer, 0, headerEnd, StandardCharsets.ISO_8859_1));
+            FrameParser parser = FrameParsers.create(contentType, frame -> {
+                frames.incrementAndGet();
+                listener.onFrame(frame);
+            }, framePool);
+            if (callback != null) {
+                callback.onConnected(this, contentType);
+            }
+            // 和响应头一起读到的正文
+            if (length > headerEnd) {
+                parser.feed(buffer, headerEnd, length - headerEnd);
+            }
+            bytesRead.addAndGet(length);
+            reads.incrementAndGet();
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                bytesRead.addAndGet(n);
+                reads.incrementAndGet();
+                parser.feed(buffer, 0, n);
+            }
+        }
+    }
+
+    /** 找到响应头后的空行，返回正文开始的位置，还没读完响应头时返回-1 */
+    private static int headerEnd(byte[] buffer, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != '\n') {
+                continue;
+            }
+            if (i + 2 < length && buffer[i + 1] == '\r' && buffer[i + 2] == '\n') {
+                return i + 3;
+            }
+            if (i + 1 < length && buffer[i + 1] == '\n') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.esp32camviewer.stream;
+
+/**
+ * 多路网格中每个画面的解码帧率上限。画面越小，人眼越看不出高帧率，
+ * 按画面在屏幕上的像素面积分档；不可见或被暂停的画面不解码。
+ */
+public final class TileFrameRatePolicy {
+    /** 不解码，连接保持 */
+    public static final int PAUSED = 0;
+    /** 不限，跟随摄像头帧率 */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private TileFrameRatePolicy() {
+    }
+
+    /**
+     * @param widthPx  画面在屏幕上的宽度（像素）
+     * @param heightPx 画面在屏幕上的高度（像素）
+     * @param visible  画面是否在屏幕内且未被用户暂停
+     */
+    public static int maxFpsFor(int widthPx, int heightPx, boolean visible) {
+        if (!visible || widthPx <= 0 || heightPx <= 0) {
+            return PAUSED;
+        }
+        long area = (long) widthPx * heightPx;
+        if (area < 160 * 120) {
+            return 5;
+        }
+        if (area < 320 * 240) {
+            return 10;
+        }
+        if (area < 640 * 480) {
+            return 15;
+        }
+        return UNLIMITED;
+    }
+
+    /** 把策略结果应用到流水线 */
+    public static void apply(FramePipeline<?> pipeline, int maxFps) {
+        pipeline.setPaused(maxFps == PAUSED);
+        pipeline.setMaxFps(maxFps);
+    }
+}
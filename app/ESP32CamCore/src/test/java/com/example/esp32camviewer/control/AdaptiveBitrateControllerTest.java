@@ -0,0 +1,306 @@
+package com.example.esp32camviewer.control;
+
+import com.example.esp32camviewer.metrics.StreamMetrics;
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import com.example.esp32camviewer.stream.NioMjpegClient;
+import com.example.esp32camviewer.stream.StandInMjpegServer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveBitrateControllerTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final int VGA_Q10_BYTES = 36 * 1024;
+
+    private static AdaptiveBitrateController.Level level(FrameSize size, int quality) {
+        for (AdaptiveBitrateController.Level level : AdaptiveBitrateController.LADDER) {
+            if (level.frameSize == size && level.quality == quality) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException(size + "/q" + quality);
+    }
+
+    // 一秒的窗口，帧大小按VGA、画质10的36KB和档位估算
+    private static AdaptiveBitrateController.Sample window(AdaptiveBitrateController.Level level, int frames,
+                                                           int notDecoded, double decodeMs) {
+        long bytesPerFrame = Math.round(VGA_Q10_BYTES * level.relativeBytes());
+        return new AdaptiveBitrateController.Sample(SECOND, frames, frames * bytesPerFrame, notDecoded,
+                Math.round(decodeMs * 1_000_000));
+    }
+
+    // 一秒的窗口，链路每秒只能传bandwidth字节，摄像头最多发fps帧
+    private static AdaptiveBitrateController.Sample linkWindow(AdaptiveBitrateController.Level level, int fps,
+                                                               long bandwidth) {
+        long bytesPerFrame = Math.round(VGA_Q10_BYTES * level.relativeBytes());
+        return window(level, (int) Math.min(fps, Math.round((double) bandwidth / bytesPerFrame)), 0, 2);
+    }
+
+    @Test
+    public void slowLinkStepsDownToTheHighestLevelThatFits() {
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(null, 20, FrameSize.UXGA, null);
+        assertSame(level(FrameSize.VGA, 10), controller.level());
+
+        // 目标20fps只收到8帧，36KB一帧，链路约288KB/s；VGA画质15要480KB/s，CIF画质12约231KB/s
+        assertSame(level(FrameSize.CIF, 12), controller.update(window(controller.level(), 8, 0, 5)));
+
+        // 已知容量放不下上一档，再好的窗口也不试
+        for (int i = 0; i < 10; i++) {
+            assertSame(level(FrameSize.CIF, 12), controller.update(window(controller.level(), 20, 0, 2)));
+        }
+    }
+
+    @Test
+    public void capacityIsForgottenAndTheNextLevelProbed() {
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(null, 20, FrameSize.UXGA, null);
+        controller.setCapacityMemoryWindows(4);
+        controller.setHoldWindows(2);
+        controller.update(window(controller.level(), 8, 0, 5));
+        AdaptiveBitrateController.Level low = controller.level();
+
+        List<AdaptiveBitrateController.Level> seen = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            seen.add(controller.update(window(controller.level(), 20, 0, 2)));
+        }
+        assertSame(low, seen.get(4));
+        assertTrue(seen.toString(), AdaptiveBitrateController.LADDER.indexOf(seen.get(7))
+                > AdaptiveBitrateController.LADDER.indexOf(low));
+    }
+
+    @Test
+    public void slowDecodingPicksALevelThatCanBeDecodedInTime() {
+        List<String> reasons = new ArrayList<>();
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(null, 20, FrameSize.UXGA,
+                new AdaptiveBitrateController.Listener() {
+                    @Override
+                    public void onLevelChanged(AdaptiveBitrateController.Level from,
+                                               AdaptiveBitrateController.Level to, String reason) {
+                        reasons.add(reason);
+                    }
+
+                    @Override
+                    public void onUnsupported(CommandResult result) {
+                    }
+                });
+        // 帧间隔50ms，解码p90 60ms；解码耗时和像素数成正比，CIF约23ms，VGA的两档都不行
+        assertSame(level(FrameSize.CIF, 12), controller.update(window(controller.level(), 20, 0, 60)));
+        assertEquals(1, reasons.size());
+        assertTrue(reasons.get(0), reasons.get(0).startsWith("解码"));
+    }
+
+    @Test
+    public void manyUndecodedFramesStepDownOneLevel() {
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(null, 20, FrameSize.UXGA, null);
+        assertSame(level(FrameSize.VGA, 15), controller.update(window(controller.level(), 20, 8, 10)));
+    }
+
+    @Test
+    public void windowsWithoutFramesAndSettlingWindowsAreIgnored() {
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(null, 20, FrameSize.UXGA, null);
+        assertSame(level(FrameSize.VGA, 10), controller.update(window(controller.level(), 0, 0, 0)));
+        controller.update(window(controller.level(), 5, 0, 5));
+        AdaptiveBitrateController.Level lowered = controller.level();
+        assertNotSame(level(FrameSize.VGA, 10), lowered);
+        // 切换后的第一个窗口里还是旧设置的帧
+        assertSame(lowered, controller.update(window(level(FrameSize.VGA, 10), 5, 0, 5)));
+    }
+
+    @Test
+    public void failedProbeDoublesTheWaitBeforeTryingThatLevelAgain() {
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(null, 20, FrameSize.UXGA, null);
+        controller.setHoldWindows(2);
+        AdaptiveBitrateController.Level svga = level(FrameSize.SVGA, 10);
+        controller.update(window(controller.level(), 20, 0, 5));
+        assertSame(svga, controller.update(window(controller.level(), 20, 0, 5)));
+        controller.update(window(svga, 20, 0, 5));
+        // 升到SVGA后渲染跟不上
+        assertSame(level(FrameSize.VGA, 10), controller.update(window(svga, 20, 8, 5)));
+        assertEquals(4, controller.holdWindows(svga));
+    }
+
+    @Test
+    public void climbsUntilTheLinkIsFullThenBacksOffFromTheFailedProbe() {
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(null, 25, FrameSize.UXGA, null);
+        controller.setHoldWindows(2);
+        AdaptiveBitrateController.Level svga = level(FrameSize.SVGA, 10);
+        AdaptiveBitrateController.Level xga = level(FrameSize.XGA, 10);
+        List<AdaptiveBitrateController.Level> seen = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            // 1750KB/s：SVGA 25fps约1.4MB/s放得下，XGA约2.3MB/s只有19fps
+            seen.add(controller.update(linkWindow(controller.level(), 25, 1750 * 1024)));
+        }
+        // 每档等2个窗口后升，切换后的第一个窗口不判断；XGA试探失败按测到的容量退回SVGA，不退到VGA
+        assertEquals(seen.toString(), Arrays.asList(level(FrameSize.VGA, 10), svga, svga, svga, xga, xga),
+                seen.subList(0, 6));
+        assertEquals(seen.toString(), Collections.nCopies(10, svga), seen.subList(6, 16));
+        // 记得的容量放不下XGA，不再反复试；容量失效后要等加倍的窗口数
+        assertEquals(4, controller.holdWindows(xga));
+    }
+
+    @Test
+    public void maximumFrameSizeIsRespected() {
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(null, 20, FrameSize.SVGA, null);
+        controller.setHoldWindows(1);
+        for (int i = 0; i < 10; i++) {
+            controller.update(window(controller.level(), 20, 0, 1));
+        }
+        assertSame(level(FrameSize.SVGA, 10), controller.level());
+    }
+
+    // 以下在本机的模拟摄像头上端到端运行：模拟服务器按设置生成帧、限制链路带宽，控制通道发真实的命令
+
+    @Test
+    public void slowLinkEndToEnd() throws Exception {
+        try (Camera camera = new Camera(25, 400 * 1024, FrameSize.UXGA)) {
+            List<AdaptiveBitrateController.Level> levels = camera.run(8);
+            // VGA画质10要900KB/s，CIF画质12约290KB/s放得下，VGA画质15要600KB/s放不下
+            AdaptiveBitrateController.Level cif = level(FrameSize.CIF, 12);
+            assertSame(levels.toString(), cif, camera.controller.level());
+            assertEquals(levels.toString(), Collections.nCopies(4, cif), levels.subList(4, 8));
+            assertEquals("cif", camera.server.frameSize());
+            assertEquals(12, camera.server.quality());
+            assertTrue("降档后" + camera.lastFps + "fps", camera.lastFps >= 20);
+        }
+    }
+
+    @Test
+    public void climbsAndBacksOffEndToEnd() throws Exception {
+        try (Camera camera = new Camera(25, 1750 * 1024, FrameSize.UXGA)) {
+            List<AdaptiveBitrateController.Level> levels = camera.run(14);
+            // 具体怎么升降见上面的合成窗口；这里只看真实的链路上升上去过、最后停在链路放得下的一档
+            int vga = AdaptiveBitrateController.LADDER.indexOf(level(FrameSize.VGA, 10));
+            int xga = AdaptiveBitrateController.LADDER.indexOf(level(FrameSize.XGA, 10));
+            int highest = 0;
+            for (AdaptiveBitrateController.Level level : levels) {
+                highest = Math.max(highest, AdaptiveBitrateController.LADDER.indexOf(level));
+            }
+            assertTrue(levels.toString(), highest > vga);
+            AdaptiveBitrateController.Level last = camera.controller.level();
+            assertTrue(levels.toString(), AdaptiveBitrateController.LADDER.indexOf(last) < xga);
+            assertEquals(last.frameSize.pathName(), camera.server.frameSize());
+        }
+    }
+
+    @Test
+    public void frameSizeRejectedByTheFirmwareIsNotUsedAgain() throws Exception {
+        try (Camera camera = new Camera(25, 0, FrameSize.VGA)) {
+            List<AdaptiveBitrateController.Level> levels = camera.run(8);
+            // 模拟固件只初始化到VGA，SVGA回复400后退回VGA，之后不再升
+            assertTrue(levels.toString(), levels.contains(level(FrameSize.SVGA, 10)));
+            assertSame(level(FrameSize.VGA, 10), camera.controller.level());
+            assertEquals("vga", camera.server.frameSize());
+            assertTrue(camera.controller.isSupported());
+        }
+    }
+
+    @Test
+    public void firmwareWithoutTheEndpointsStopsTheController() throws Exception {
+        AtomicReference<CommandResult> unsupported = new AtomicReference<>();
+        try (StandInCommandServer server = new StandInCommandServer();
+             CommandChannel channel = new CommandChannel(server.host())) {
+            AdaptiveBitrateController controller = new AdaptiveBitrateController(channel, 20, FrameSize.UXGA,
+                    new AdaptiveBitrateController.Listener() {
+                        @Override
+                        public void onLevelChanged(AdaptiveBitrateController.Level from,
+                                                   AdaptiveBitrateController.Level to, String reason) {
+                        }
+
+                        @Override
+                        public void onUnsupported(CommandResult result) {
+                            unsupported.set(result);
+                        }
+                    });
+            controller.start();
+            long deadline = System.nanoTime() + 3 * SECOND;
+            while (controller.isSupported() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(controller.isSupported());
+            assertEquals(404, unsupported.get().statusCode);
+            // 停止后不再调整
+            AdaptiveBitrateController.Level before = controller.level();
+            assertSame(before, controller.update(window(before, 5, 0, 5)));
+        }
+    }
+
+    /** 模拟摄像头、视频流、指标和控制器，按窗口运行控制器 */
+    private static final class Camera implements AutoCloseable {
+        private static final long WINDOW_MS = 500;
+
+        final StandInMjpegServer server;
+        final NioMjpegClient client = new NioMjpegClient(1);
+        final CommandChannel channel;
+        final StreamMetrics metrics = new StreamMetrics("camera");
+        final AdaptiveBitrateController controller;
+        final NioMjpegClient.Stream stream;
+        volatile double lastFps;
+
+        /**
+         * @param bandwidth 链路每秒字节数，0为不限
+         * @param supported 模拟固件支持的最大分辨率，更大的回复400
+         */
+        Camera(int fps, long bandwidth, FrameSize supported) throws Exception {
+            Random random = new Random(23);
+            server = new StandInMjpegServer(Collections.singletonList(new byte[0]), fps);
+            server.setFrameSource((name, quality) -> {
+                FrameSize size = FrameSize.valueOf(name.toUpperCase());
+                if (size.compareTo(supported) > 0) {
+                    return null;
+                }
+                // 帧大小和档位估算的方式一致：按像素数，画质数值翻倍减半
+                int bytes = (int) ((long) VGA_Q10_BYTES * size.pixels() / FrameSize.VGA.pixels() * 10 / quality);
+                List<byte[]> frames = new ArrayList<>();
+                for (int i = 0; i < 3; i++) {
+                    frames.add(MjpegTestStreams.jpeg(MjpegTestStreams.FrameSize.VGA, bytes, random));
+                }
+                return frames;
+            });
+            server.setBandwidthLimit(bandwidth);
+            channel = new CommandChannel(server.host());
+            controller = new AdaptiveBitrateController(channel, fps, FrameSize.UXGA, null);
+            controller.setHoldWindows(2);
+            stream = client.open(server.url(), 2000, 5000, frame -> {
+                metrics.onFrame(frame);
+                frame.release();
+            }, null);
+        }
+
+        /** 运行windows个窗口，返回每个窗口之后的档位 */
+        List<AdaptiveBitrateController.Level> run(int windows) throws InterruptedException {
+            List<AdaptiveBitrateController.Level> levels = new ArrayList<>();
+            // 等连上并收到第一帧再开始
+            long deadline = System.nanoTime() + 5 * SECOND;
+            while (metrics.snapshot().frames == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            controller.start();
+            StreamMetrics.Snapshot last = metrics.snapshot();
+            for (int i = 0; i < windows; i++) {
+                Thread.sleep(WINDOW_MS);
+                StreamMetrics.Snapshot now = metrics.snapshot();
+                StreamMetrics.Snapshot interval = now.minus(last);
+                last = now;
+                lastFps = interval.framesPerSecond();
+                levels.add(controller.update(AdaptiveBitrateController.Sample.of(interval)));
+            }
+            return levels;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+            client.close();
+            channel.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.esp32camviewer.control;
+
+import com.example.esp32camviewer.stream.AddressCache;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CommandChannelTest {
+
+    @Test
+    public void commandsReuseOneKeepAliveConnection() throws Exception {
+        try (StandInCommandServer server = new StandInCommandServer();
+             CommandChannel channel = new CommandChannel(server.host())) {
+            List<CommandResult> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                results.add(sendAndWait(channel, CameraCommand.light("/led/", i % 2 == 0)));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                CommandResult result = results.get(i);
+                assertTrue(result.toString(), result.isSuccess());
+                assertEquals(i > 0, result.reusedConnection);
+                assertTrue(result.roundTripNanos > 0);
+            }
+            assertEquals("on", results.get(4).body);
+            assertTrue(server.isLightOn());
+            assertEquals(1, server.connections());
+            assertEquals(1, channel.connectionCount());
+            assertEquals(5, channel.sentCount());
+            assertTrue(channel.averageRoundTripNanos() > 0);
+            assertTrue(channel.maxRoundTripNanos() >= channel.averageRoundTripNanos());
+        }
+    }
+
+    @Test
+    public void rapidTogglesOnlySendTheLatest() throws Exception {
+        try (StandInCommandServer server = new StandInCommandServer();
+             CommandChannel channel = new CommandChannel(server.host())) {
+            server.setResponseDelayMs(300);
+            // 先让命令线程忙于一条慢命令，后面的开关灯都在排队
+            CountDownLatch slowDone = new CountDownLatch(1);
+            channel.send(new CameraCommand("慢命令", "/led/on", "slow", 2000), result -> slowDone.countDown());
+            waitForRequests(server, 1);
+
+            List<CommandResult> results = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch allDone = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                channel.send(CameraCommand.light("/flash/", i % 2 == 0), result -> {
+                    results.add(result);
+                    allDone.countDown();
+                });
+            }
+            assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+            assertTrue(allDone.await(5, TimeUnit.SECONDS));
+
+            int superseded = 0;
+            CommandResult sent = null;
+            for (CommandResult result : results) {
+                if (result.superseded) {
+                    superseded++;
+                } else {
+                    sent = result;
+                }
+            }
+            assertEquals(3, superseded);
+            assertNotNull(sent);
+            assertEquals("/flash/off", sent.command.path());
+            assertTrue(sent.isSuccess());
+            assertEquals(Arrays.asList("/led/on", "/flash/off"), server.requests());
+            assertFalse(server.isLightOn());
+            assertEquals(3, channel.coalescedCount());
+        }
+    }
+
+    @Test
+    public void slowCommandTimesOutWithoutBlockingTheNext() throws Exception {
+        try (StandInCommandServer server = new StandInCommandServer();
+             CommandChannel channel = new CommandChannel(server.host())) {
+            server.setResponseDelayMs(1500);
+            long start = System.nanoTime();
+            CommandResult timedOut = sendAndWait(channel, new CameraCommand("开灯", "/led/on", "light", 300));
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue(timedOut.error instanceof SocketTimeoutException);
+            assertFalse(timedOut.isSuccess());
+            assertTrue("超时用了 " + elapsedMs + "ms", elapsedMs < 1200);
+
+            server.setResponseDelayMs(0);
+            CommandResult next = sendAndWait(channel, CameraCommand.light("/led/", false));
+            assertTrue(next.toString(), next.isSuccess());
+            assertFalse(next.reusedConnection);
+            assertEquals(1, channel.failedCount());
+            assertEquals(2, channel.connectionCount());
+        }
+    }
+
+    @Test
+    public void closedKeepAliveConnectionIsReplacedAndCommandResent() throws Exception {
+        try (StandInCommandServer server = new StandInCommandServer();
+             CommandChannel channel = new CommandChannel(server.host())) {
+            // 服务器比通道更早关闭空闲连接，通道下次复用时才发现
+            server.setIdleTimeoutMs(100);
+            assertTrue(sendAndWait(channel, CameraCommand.light("/led/", true)).isSuccess());
+            Thread.sleep(400);
+
+            CommandResult result = sendAndWait(channel, CameraCommand.light("/led/", false));
+            assertTrue(result.toString(), result.isSuccess());
+            assertFalse(result.reusedConnection);
+            assertEquals(Arrays.asList("/led/on", "/led/off"), server.requests());
+            assertEquals(2, server.connections());
+            assertEquals(0, channel.failedCount());
+        }
+    }
+
+    @Test
+    public void worksWithFirmwareThatClosesAfterEachResponse() throws Exception {
+        try (StandInCommandServer server = new StandInCommandServer();
+             CommandChannel channel = new CommandChannel(server.host())) {
+            server.setKeepAlive(false);
+            for (int i = 0; i < 3; i++) {
+                CommandResult result = sendAndWait(channel, CameraCommand.light("/flash/", i % 2 == 0));
+                assertTrue(result.toString(), result.isSuccess());
+                assertFalse(result.reusedConnection);
+            }
+            CommandResult missing = sendAndWait(channel, new CameraCommand("未知", "/unknown", "unknown", 2000));
+            assertEquals(404, missing.statusCode);
+            assertNull(missing.error);
+            assertEquals(4, server.connections());
+            assertEquals(0, channel.failedCount());
+        }
+    }
+
+    @Test
+    public void malformedContentLengthFailsTheCommandOnly() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             CommandChannel channel = new CommandChannel("127.0.0.1:" + server.getLocalPort())) {
+            Thread device = new Thread(() -> {
+                for (String length : new String[]{"99999999999", "-5", "abc"}) {
+                    try (Socket socket = server.accept()) {
+                        socket.getInputStream().read(new byte[1024]);
+                        socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nContent-Length: " + length
+                                + "\r\n\r\non").getBytes(StandardCharsets.US_ASCII));
+                    } catch (IOException ignored) {
+                        return;
+                    }
+                }
+            }, "bad-device");
+            device.start();
+            for (int i = 0; i < 3; i++) {
+                CommandResult result = sendAndWait(channel, CameraCommand.light("/led/", true));
+                assertNotNull(result.toString(), result.error);
+                assertTrue(result.error.getMessage(), result.error.getMessage().startsWith("bad Content-Length"));
+            }
+            assertEquals(3, channel.sentCount());
+            assertEquals(3, channel.failedCount());
+            device.join(5000);
+        }
+    }
+
+    @Test
+    public void slowNameResolutionCountsAgainstTheCommandTimeout() throws Exception {
+        // 第一次解析要800ms，比命令的超时长
+        AddressCache addresses = new AddressCache(TimeUnit.MINUTES.toNanos(1), host -> {
+            try {
+                Thread.sleep(800);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return InetAddress.getLoopbackAddress();
+        });
+        try (StandInCommandServer server = new StandInCommandServer();
+             CommandChannel channel = new CommandChannel("camera.local:" + server.port(), addresses)) {
+            long start = System.nanoTime();
+            CommandResult timedOut = sendAndWait(channel, new CameraCommand("开灯", "/led/on", "light", 300));
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(String.valueOf(timedOut.error), timedOut.error instanceof SocketTimeoutException);
+            assertTrue("超时用了 " + elapsedMs + "ms", elapsedMs < 700);
+            assertEquals(0, server.connections());
+
+            // 解析在后台完成后进了缓存，下一条命令不再等
+            Thread.sleep(800);
+            CommandResult next = sendAndWait(channel, new CameraCommand("开灯", "/led/on", "light", 300));
+            assertTrue(next.toString(), next.isSuccess());
+            assertEquals(1, addresses.lookups());
+        }
+    }
+
+    private static CommandResult sendAndWait(CommandChannel channel, CameraCommand command) throws Exception {
+        AtomicReference<CommandResult> result = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        channel.send(command, r -> {
+            result.set(r);
+            done.countDown();
+        });
+        assertTrue("命令没有返回: " + command, done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private static void waitForRequests(StandInCommandServer server, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.requests().size() < count) {
+            assertTrue("服务器没有收到请求", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.esp32camviewer.device;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceListTest {
+
+    @Test
+    public void formatAndParseRoundTrip() {
+        DeviceList list = new DeviceList();
+        list.add(new CameraDevice("门口", "192.168.1.20", CameraDevice.TYPE_ESP32_CAM));
+        list.add(new CameraDevice(null, "192.168.1.21:8080", CameraDevice.TYPE_XIAO));
+
+        DeviceList parsed = DeviceList.parse(list.format());
+        assertEquals(2, parsed.size());
+        CameraDevice first = parsed.devices().get(0);
+        assertEquals("门口", first.name());
+        assertEquals("/flash/", first.lightEndpoint());
+        CameraDevice second = parsed.devices().get(1);
+        assertEquals("192.168.1.21:8080", second.name());
+        assertEquals(CameraDevice.TYPE_XIAO, second.type());
+        assertEquals("http://192.168.1.21:8080", second.streamUrl());
+        assertEquals("/led/", second.lightEndpoint());
+    }
+
+    @Test
+    public void sameHostReplacesInPlace() {
+        DeviceList list = new DeviceList();
+        assertTrue(list.add(new CameraDevice(null, "10.0.0.1", null)));
+        assertTrue(list.add(new CameraDevice(null, "10.0.0.2", null)));
+        assertFalse(list.add(new CameraDevice("车库", "10.0.0.1", CameraDevice.TYPE_XIAO)));
+        assertEquals(2, list.size());
+        assertEquals("车库", list.devices().get(0).name());
+
+        assertTrue(list.remove("10.0.0.1"));
+        assertEquals("10.0.0.2", list.devices().get(0).host());
+    }
+
+    @Test
+    public void emptyListFallsBackToSingleViewerAddress() {
+        DeviceList list = DeviceList.load(null, "192.168.4.1", "ESP32 XIAO");
+        assertEquals(1, list.size());
+        assertEquals(CameraDevice.TYPE_XIAO, list.devices().get(0).type());
+
+        assertTrue(DeviceList.load("", "", "ESP32-CAM").isEmpty());
+        // 已有列表时不再合并单路地址
+        assertEquals(1, DeviceList.load("a\t10.0.0.9\tESP32-CAM\n\n", "192.168.4.1", null).size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.esp32camviewer.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverTheRangeWithBoundedRelativeError() {
+        int previous = -1;
+        for (long value = 0; value < (1L << 29); value = value < 1000 ? value + 1 : value + value / 97) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue("桶号随值单调不减: " + value, index >= previous);
+            previous = index;
+            if (value < (1L << 28)) {
+                long estimate = LatencyHistogram.medianValue(index);
+                assertTrue(value + " -> " + estimate, Math.abs(estimate - value) <= Math.max(1, value / 128));
+                assertTrue(LatencyHistogram.lowestValue(index) <= value);
+            } else {
+                assertEquals("超出范围的值计入最后一个桶", LatencyHistogram.BUCKETS - 1, index);
+            }
+        }
+        assertEquals(0, LatencyHistogram.indexOf(-5));
+    }
+
+    @Test
+    public void percentilesMatchExactValuesWithinOnePercent() {
+        Random random = new Random(11);
+        long[] values = new long[100_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // 对数正态分布，中位数约20ms，长尾到秒级
+            values[i] = (long) Math.exp(Math.log(20_000) + random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.count());
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long estimate = snapshot.percentile(percentile);
+            assertTrue(percentile + "%: " + exact + " vs " + estimate, Math.abs(estimate - exact) <= exact / 100 + 1);
+        }
+        long max = values[values.length - 1];
+        assertTrue(Math.abs(snapshot.max() - max) <= max / 100);
+        assertEquals(0, new LatencyHistogram().snapshot().percentile(99));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothingAndSnapshotsSubtract() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+        LatencyHistogram.Snapshot before = histogram.snapshot();
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            long value = 1000 * (t + 1);
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histogram.record(value);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        LatencyHistogram.Snapshot after = histogram.snapshot();
+        assertEquals(200_001, after.count());
+        LatencyHistogram.Snapshot interval = after.minus(before);
+        assertEquals(200_000, interval.count());
+        // 四种值各占1/4，最小的5µs只在之前的快照里
+        assertTrue(Math.abs(interval.percentile(10) - 1000) <= 10);
+        assertTrue(Math.abs(interval.percentile(100) - 4000) <= 40);
+        assertEquals(2500, interval.mean(), 25);
+    }
+}
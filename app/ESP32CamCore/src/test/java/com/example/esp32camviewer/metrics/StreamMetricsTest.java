@@ -0,0 +1,124 @@
+package com.example.esp32camviewer.metrics;
+
+import com.example.esp32camviewer.stream.FramePipeline;
+import com.example.esp32camviewer.stream.JpegFrame;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StreamMetricsTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ratesJitterAndPipelineCountsComeFromTheSnapshots() {
+        StreamMetrics metrics = new StreamMetrics("前门");
+        // 解码和渲染都在调用线程上执行
+        FramePipeline<Long> pipeline = new FramePipeline<>(frame -> frame.sequence(), frame -> {
+        }, Runnable::run, null, Runnable::run);
+        metrics.attach(pipeline);
+        pipeline.start();
+
+        StreamMetrics.Snapshot start = metrics.snapshot();
+        long base = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            // 平均50ms一帧，间隔在45ms和55ms之间交替，每帧10KB
+            long received = base + i * 50 * MILLIS + (i % 2 == 0 ? 0 : 5 * MILLIS);
+            JpegFrame frame = JpegFrame.wrap(new byte[10_000], 10_000, i, received);
+            metrics.onFrame(frame);
+            pipeline.submit(frame);
+        }
+        StreamMetrics.Snapshot end = metrics.snapshot();
+        pipeline.stop();
+
+        assertEquals(100, end.frames);
+        assertEquals(100, end.decoded);
+        assertEquals(100, end.displayed);
+        assertEquals(0, end.notDecoded);
+        assertEquals(99, end.arrivalIntervals.count());
+        assertEquals(100, end.decodeTimes.count());
+        assertEquals(50_000, end.arrivalIntervals.percentile(50), 5_000 + 500);
+        // 相邻间隔差10ms，平滑后接近10ms
+        assertEquals(10 * MILLIS, end.jitterNanos, 1 * MILLIS);
+
+        StreamMetrics.Snapshot interval = end.minus(start);
+        assertEquals(100, interval.frames);
+        assertEquals(1_000_000, interval.bytes);
+        assertEquals(interval.frames * 1e9 / interval.elapsedNanos, interval.framesPerSecond(), 1e-9);
+        assertEquals(interval.bytes * 8 / 1000.0 * 1e9 / interval.elapsedNanos, interval.kilobitsPerSecond(), 1e-6);
+        assertTrue(interval.toOverlayText(), interval.toOverlayText().contains("fps"));
+    }
+
+    @Test
+    public void exportsJsonToFileAndLoopbackHttp() throws Exception {
+        StreamMetrics metrics = new StreamMetrics("院子 \"2\"");
+        for (int i = 0; i < 10; i++) {
+            metrics.onFrame(2048, i * 50 * MILLIS + 1);
+        }
+        String json = MetricsExport.toJson(Collections.singletonList(metrics.snapshot()));
+        assertTrue(json, json.startsWith("{\"streams\":[{\"name\":\"院子 \\\"2\\\"\","));
+        assertTrue(json, json.contains("\"frames\":10,\"bytes\":20480,"));
+        assertTrue(json, json.contains("\"arrivalIntervalMs\":{\"count\":9,"));
+        assertTrue(json, json.endsWith("}}]}"));
+        assertEquals("括号配对", count(json, '{'), count(json, '}'));
+
+        File file = new File(folder.getRoot(), "metrics/latest.json");
+        MetricsExport.writeJson(file, json);
+        MetricsExport.writeJson(file, json);
+        assertEquals(json, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals("没有留下临时文件", 1, file.getParentFile().list().length);
+
+        StreamMetrics second = new StreamMetrics("后门");
+        try (MetricsHttpServer server = new MetricsHttpServer(0,
+                () -> MetricsExport.toJson(Arrays.asList(metrics.snapshot(), second.snapshot())))) {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.port()
+                    + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("application/json; charset=utf-8", connection.getContentType());
+            String body = read(connection.getInputStream());
+            assertTrue(body, body.contains("\"name\":\"后门\""));
+            assertEquals(2, body.split("\"name\"").length - 1);
+
+            HttpURLConnection missing = (HttpURLConnection) new URL("http://127.0.0.1:" + server.port()
+                    + "/other").openConnection();
+            assertEquals(404, missing.getResponseCode());
+        }
+    }
+
+    private static int count(String text, char c) {
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
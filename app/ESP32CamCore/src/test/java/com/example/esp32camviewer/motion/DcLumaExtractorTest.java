@@ -0,0 +1,166 @@
+package com.example.esp32camviewer.motion;
+
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DcLumaExtractorTest {
+
+    @Test
+    public void dcLumaMatchesBlockAveragesOfFullDecode() throws IOException {
+        DcLumaExtractor extractor = new DcLumaExtractor();
+        for (MjpegTestStreams.FrameSize size : new MjpegTestStreams.FrameSize[]{
+                MjpegTestStreams.FrameSize.VGA, MjpegTestStreams.FrameSize.SVGA, MjpegTestStreams.FrameSize.UXGA}) {
+            byte[] jpeg = MjpegTestStreams.decodableFrames(size, 1).get(0);
+            assertTrue(size.name(), extractor.extract(jpeg, jpeg.length));
+            assertEquals(size.width / 8, extractor.blocksWide());
+            assertEquals(size.height / 8, extractor.blocksHigh());
+            assertMatchesFullDecode(size.name(), extractor, jpeg);
+        }
+    }
+
+    @Test
+    public void handlesGrayscaleRestartMarkersAndPartialBlocks() throws IOException {
+        DcLumaExtractor extractor = new DcLumaExtractor();
+        BufferedImage color = image(203, 117, BufferedImage.TYPE_INT_RGB, 1);
+        byte[] restarts = encode(color, false, 3);
+        assertTrue("写入了DRI段", indexOf(restarts, (byte) 0xFF, (byte) 0xDD) > 0);
+        assertTrue("有RST标记", indexOf(restarts, (byte) 0xFF, (byte) 0xD0) > 0);
+        assertTrue(extractor.extract(restarts, restarts.length));
+        assertEquals(26, extractor.blocksWide());
+        assertEquals(15, extractor.blocksHigh());
+        assertMatchesFullDecode("重启间隔", extractor, restarts);
+
+        // 灰度图只有一个分量，扫描不交织
+        byte[] gray = encode(image(203, 117, BufferedImage.TYPE_BYTE_GRAY, 2), false, 0);
+        assertTrue(extractor.extract(gray, gray.length));
+        assertMatchesFullDecode("灰度", extractor, gray);
+    }
+
+    @Test
+    public void rejectsUnsupportedAndCorruptFrames() throws IOException {
+        DcLumaExtractor extractor = new DcLumaExtractor();
+        byte[] progressive = encode(image(320, 240, BufferedImage.TYPE_INT_RGB, 3), true, 0);
+        assertFalse("渐进式", extractor.extract(progressive, progressive.length));
+        // 结构像JPEG但没有霍夫曼表
+        List<byte[]> noTables = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 4);
+        for (byte[] jpeg : noTables) {
+            assertFalse(extractor.extract(jpeg, jpeg.length));
+        }
+        byte[] valid = MjpegTestStreams.decodableFrames(MjpegTestStreams.FrameSize.VGA, 1).get(0);
+        assertFalse("只有头部", extractor.extract(valid, 200));
+        Random random = new Random(5);
+        for (int n = 0; n < 200; n++) {
+            // 随机破坏头部和熵编码数据，只要求不抛异常
+            byte[] damaged = valid.clone();
+            for (int k = 0; k < 20; k++) {
+                damaged[2 + random.nextInt(damaged.length - 2)] = (byte) random.nextInt(256);
+            }
+            extractor.extract(damaged, random.nextInt(damaged.length));
+        }
+        assertTrue("损坏的帧之后还能正常解析", extractor.extract(valid, valid.length));
+        assertMatchesFullDecode("恢复", extractor, valid);
+    }
+
+    /** 平均误差不超过1.5，单块不超过8（DC量化步长和颜色转换的舍入） */
+    private static void assertMatchesFullDecode(String label, DcLumaExtractor extractor, byte[] jpeg)
+            throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        int fullWide = decoded.getWidth() / 8;
+        int fullHigh = decoded.getHeight() / 8;
+        short[] luma = extractor.luma();
+        long totalError = 0;
+        int maxError = 0;
+        for (int by = 0; by < fullHigh; by++) {
+            for (int bx = 0; bx < fullWide; bx++) {
+                double sum = 0;
+                for (int y = by * 8; y < by * 8 + 8; y++) {
+                    for (int x = bx * 8; x < bx * 8 + 8; x++) {
+                        if (decoded.getRaster().getNumBands() == 1) {
+                            // 灰度图的getRGB()会做色彩空间转换，直接取样本值
+                            sum += decoded.getRaster().getSample(x, y, 0);
+                            continue;
+                        }
+                        int rgb = decoded.getRGB(x, y);
+                        sum += 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                    }
+                }
+                int error = (int) Math.abs(Math.round(sum / 64) - luma[by * extractor.blocksWide() + bx]);
+                totalError += error;
+                maxError = Math.max(maxError, error);
+            }
+        }
+        double averageError = (double) totalError / (fullWide * fullHigh);
+        assertTrue(label + " 平均误差" + averageError, averageError <= 1.5);
+        assertTrue(label + " 最大误差" + maxError, maxError <= 8);
+    }
+
+    private static int indexOf(byte[] data, byte first, byte second) {
+        for (int i = 0; i + 1 < data.length; i++) {
+            if (data[i] == first && data[i + 1] == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static BufferedImage image(int width, int height, int type, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(16)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(16)) & 0xFF;
+                int b = ((x / 20 + y / 20) % 2) * 200;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, boolean progressive, int restartInterval) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.8f);
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+            if (restartInterval > 0) {
+                String format = "javax_imageio_jpeg_image_1.0";
+                Element tree = (Element) metadata.getAsTree(format);
+                Node markers = tree.getElementsByTagName("markerSequence").item(0);
+                IIOMetadataNode dri = new IIOMetadataNode("dri");
+                dri.setAttribute("interval", String.valueOf(restartInterval));
+                markers.insertBefore(dri, markers.getFirstChild());
+                metadata.setFromTree(format, tree);
+            }
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.esp32camviewer.motion;
+
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DuplicateFrameFilterTest {
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Test
+    public void staticStretchesAreSkippedAndMovingFramesAreAllKept() throws Exception {
+        // 20fps：静止、移动、静止、移动，静止时只有噪点和自动曝光引起的亮度起伏
+        boolean[] moving = new boolean[200];
+        Arrays.fill(moving, 50, 90, true);
+        Arrays.fill(moving, 150, 170, true);
+        List<byte[]> jpegs = MjpegTestStreams.motionScenes(MjpegTestStreams.FrameSize.VGA, moving, 3);
+        DuplicateFrameFilter filter = new DuplicateFrameFilter();
+        int staticFrames = 0;
+        int staticSkipped = 0;
+        for (int i = 0; i < jpegs.size(); i++) {
+            byte[] jpeg = jpegs.get(i);
+            boolean duplicate = filter.isDuplicate(jpeg, jpeg.length, i * FRAME_INTERVAL_NANOS);
+            if (moving[i]) {
+                assertFalse("第" + i + "帧在移动，不能跳过", duplicate);
+            } else if (i > 0 && !moving[i - 1]) {
+                staticFrames++;
+                staticSkipped += duplicate ? 1 : 0;
+            }
+        }
+        DuplicateFrameFilter.Stats stats = filter.stats();
+        assertEquals(200, stats.frames);
+        assertEquals(staticSkipped, stats.duplicates);
+        assertTrue("静止画面只跳过了" + staticSkipped + "/" + staticFrames + "帧", staticSkipped > staticFrames * 7 / 10);
+        assertTrue(stats.toString(), stats.savedByteRatio() > 0.4);
+    }
+
+    @Test
+    public void smallObjectAppearingIsNotSkipped() throws Exception {
+        Random random = new Random(11);
+        DuplicateFrameFilter filter = new DuplicateFrameFilter();
+        byte[] first = encode(scene(random, false));
+        assertFalse(filter.isDuplicate(first, first.length, 0));
+        byte[] same = encode(scene(random, false));
+        assertTrue("只有噪点不同的帧应跳过", filter.isDuplicate(same, same.length, FRAME_INTERVAL_NANOS));
+        // 画面角落出现一个32x32的物体，长度变化不大，要靠DC亮度发现
+        byte[] object = encode(scene(random, true));
+        assertFalse(filter.isDuplicate(object, object.length, 2 * FRAME_INTERVAL_NANOS));
+        assertEquals(2, filter.stats().lumaChecks);
+    }
+
+    @Test
+    public void exactCopiesAreRecognisedWithoutEntropyDecoding() {
+        byte[] jpeg = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 1, 2).get(0);
+        DuplicateFrameFilter filter = new DuplicateFrameFilter();
+        assertFalse(filter.isDuplicate(jpeg, jpeg.length, 0));
+        for (int i = 1; i < 10; i++) {
+            assertTrue(filter.isDuplicate(jpeg, jpeg.length, i * FRAME_INTERVAL_NANOS));
+        }
+        DuplicateFrameFilter.Stats stats = filter.stats();
+        assertEquals(9, stats.exactDuplicates);
+        assertEquals(0, stats.lumaChecks);
+        assertEquals(0.9, stats.savedFrameRatio(), 1e-9);
+    }
+
+    @Test
+    public void keepsAFrameAfterMaxIntervalAndWhenSettingsChange() throws Exception {
+        byte[] vga = MjpegTestStreams.motionScenes(MjpegTestStreams.FrameSize.VGA, new boolean[1], 4).get(0);
+        byte[] svga = MjpegTestStreams.motionScenes(MjpegTestStreams.FrameSize.SVGA, new boolean[1], 4).get(0);
+        DuplicateFrameFilter filter = new DuplicateFrameFilter();
+        int kept = 0;
+        // 同一幅画面3秒，每秒保留一帧
+        for (int i = 0; i < 60; i++) {
+            kept += filter.isDuplicate(vga, vga.length, i * FRAME_INTERVAL_NANOS) ? 0 : 1;
+        }
+        assertEquals(3, kept);
+        // 分辨率变了，头部不同
+        assertFalse(filter.isDuplicate(svga, svga.length, 60 * FRAME_INTERVAL_NANOS));
+        assertTrue(filter.isDuplicate(svga, svga.length, 61 * FRAME_INTERVAL_NANOS));
+        filter.reset();
+        assertFalse(filter.isDuplicate(svga, svga.length, 62 * FRAME_INTERVAL_NANOS));
+        // 不是JPEG的数据交给解码器
+        byte[] garbage = new byte[100];
+        assertFalse(filter.isDuplicate(garbage, garbage.length, 63 * FRAME_INTERVAL_NANOS));
+        assertFalse(filter.isDuplicate(garbage, garbage.length, 64 * FRAME_INTERVAL_NANOS));
+    }
+
+    // 有纹理的静止场景加传感器噪点，object为true时右下角多一个32x32的深色物体
+    private static BufferedImage scene(Random random, boolean object) {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        for (int y = 0; y < 480; y += 8) {
+            g.setColor(new Color(90 + y * 100 / 480, 110, 130 - y * 60 / 480));
+            g.fillRect(0, y, 640, 8);
+        }
+        g.setColor(new Color(200, 200, 190));
+        g.fillRect(480, 60, 80, 160);
+        if (object) {
+            g.setColor(new Color(60, 50, 70));
+            g.fillRect(560, 400, 32, 32);
+        }
+        g.dispose();
+        for (int n = 640 * 480 / 200; n > 0; n--) {
+            int x = random.nextInt(640);
+            int y = random.nextInt(480);
+            int delta = random.nextInt(41) - 20;
+            Color color = new Color(image.getRGB(x, y));
+            image.setRGB(x, y, new Color(clamp(color.getRed() + delta), clamp(color.getGreen() + delta),
+                    clamp(color.getBlue() + delta)).getRGB());
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.8f);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.esp32camviewer.motion;
+
+import com.example.esp32camviewer.record.MjpegRecorder;
+import com.example.esp32camviewer.record.RecordingReader;
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MotionDetectorTest {
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void detectsLabelledMotionInARecordedStream() throws Exception {
+        // 20fps录像：静止10秒里穿插两段移动，其余时间只有噪点和自动曝光引起的亮度起伏
+        boolean[] moving = new boolean[200];
+        label(moving, 40, 70);
+        label(moving, 130, 150);
+        List<byte[]> jpegs = MjpegTestStreams.motionScenes(MjpegTestStreams.FrameSize.VGA, moving, 9);
+        File directory = new File(folder.getRoot(), "recording");
+        long base = System.nanoTime();
+        try (MjpegRecorder recorder = new MjpegRecorder(directory)) {
+            for (int i = 0; i < jpegs.size(); i++) {
+                assertTrue(recorder.offer(jpegs.get(i), jpegs.get(i).length, base + i * FRAME_INTERVAL_NANOS));
+            }
+        }
+
+        MotionDetector detector = new MotionDetector();
+        int truePositives = 0;
+        int falsePositives = 0;
+        int falseNegatives = 0;
+        int events = 0;
+        boolean wasMotion = false;
+        try (RecordingReader reader = RecordingReader.open(directory)) {
+            assertEquals(moving.length, reader.frameCount());
+            for (int i = 0; i < reader.frameCount(); i++) {
+                JpegFrame frame = reader.readFrame(i);
+                assertTrue(detector.analyze(frame.data(), frame.length()) >= 0);
+                boolean motion = detector.isMotion();
+                if (motion && !wasMotion) {
+                    events++;
+                }
+                wasMotion = motion;
+                // 移动结束后保持holdFrames帧属于预期行为，不算误报
+                if (!moving[i] && motion && endedWithin(moving, i, MotionDetector.DEFAULT_HOLD_FRAMES + 2)) {
+                    continue;
+                }
+                if (moving[i] && motion) {
+                    truePositives++;
+                } else if (motion) {
+                    falsePositives++;
+                } else if (moving[i]) {
+                    falseNegatives++;
+                }
+            }
+        }
+        double precision = (double) truePositives / (truePositives + falsePositives);
+        double recall = (double) truePositives / (truePositives + falseNegatives);
+        String summary = "准确率" + precision + " 召回率" + recall + " 事件" + events;
+        assertTrue(summary, precision >= 0.98);
+        assertTrue(summary, recall >= 0.95);
+        assertEquals(summary, 2, events);
+    }
+
+    @Test
+    public void analyzeDoesNotAllocatePerFrame() throws Exception {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        List<byte[]> jpegs = MjpegTestStreams.decodableFrames(MjpegTestStreams.FrameSize.SVGA, 8);
+        MotionDetector detector = new MotionDetector();
+        for (byte[] jpeg : jpegs) {
+            detector.analyze(jpeg, jpeg.length);
+        }
+        long before = allocations.getThreadAllocatedBytes(thread);
+        float total = 0;
+        for (int i = 0; i < 400; i++) {
+            byte[] jpeg = jpegs.get(i % jpegs.size());
+            total += detector.analyze(jpeg, jpeg.length);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        assertTrue("分析400帧分配了" + allocated + "字节", allocated < 16 * 1024);
+        assertTrue("方块在移动", total > 0);
+    }
+
+    @Test
+    public void monitorAnalyzesLatestFramesOnItsOwnThread() throws Exception {
+        boolean[] moving = new boolean[60];
+        label(moving, 10, 30);
+        List<byte[]> jpegs = MjpegTestStreams.motionScenes(MjpegTestStreams.FrameSize.VGA, moving, 3);
+        CountDownLatch ended = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger callbackOnCaller = new AtomicInteger();
+        Thread caller = Thread.currentThread();
+        MotionMonitor monitor = new MotionMonitor(new MotionDetector(), new MotionMonitor.Listener() {
+            @Override
+            public void onMotionStarted(float score, long receivedNanos) {
+                started.incrementAndGet();
+                if (Thread.currentThread() == caller) {
+                    callbackOnCaller.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onMotionEnded(long receivedNanos) {
+                ended.countDown();
+            }
+        });
+        monitor.start();
+        for (int i = 0; i < jpegs.size(); i++) {
+            byte[] jpeg = jpegs.get(i);
+            assertTrue(monitor.offer(jpeg, jpeg.length, i * FRAME_INTERVAL_NANOS));
+            Thread.sleep(5);
+        }
+        assertTrue(monitor.toString(), ended.await(5, TimeUnit.SECONDS));
+        monitor.close();
+        assertFalse("关闭后不再接受帧", monitor.offer(jpegs.get(0), jpegs.get(0).length, 0));
+
+        assertEquals(1, started.get());
+        assertEquals(0, callbackOnCaller.get());
+        assertEquals(0, monitor.failedFrames());
+        assertEquals(1, monitor.motionEvents());
+        assertTrue(monitor.toString(), monitor.analyzedFrames() + monitor.skippedFrames() <= jpegs.size());
+        assertTrue(monitor.toString(), monitor.analyzedFrames() > jpegs.size() / 2);
+    }
+
+    private static void label(boolean[] moving, int from, int to) {
+        for (int i = from; i < to; i++) {
+            moving[i] = true;
+        }
+    }
+
+    private static boolean endedWithin(boolean[] moving, int frame, int frames) {
+        for (int i = frame - 1; i >= 0 && i >= frame - frames; i--) {
+            if (moving[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
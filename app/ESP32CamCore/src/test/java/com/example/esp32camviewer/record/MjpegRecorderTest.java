@@ -0,0 +1,168 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.motion.DuplicateFrameFilter;
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MjpegRecorderTest {
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void framesRoundTripAcrossSegmentsAndSeekByTimestamp() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 60, 1);
+        File directory = new File(folder.getRoot(), "recording");
+        // 每段大约放5帧，录制过程中换多次段
+        long segmentBytes = jpegs.get(0).length * 5L;
+        MjpegRecorder recorder = new MjpegRecorder(directory, segmentBytes, MjpegRecorder.DEFAULT_MAX_PENDING_BYTES);
+        long base = System.nanoTime();
+        for (int i = 0; i < jpegs.size(); i++) {
+            byte[] jpeg = jpegs.get(i);
+            assertTrue(recorder.offer(jpeg, jpeg.length, base + i * FRAME_INTERVAL_NANOS));
+        }
+        recorder.close();
+        assertEquals(60, recorder.framesWritten());
+        assertEquals(0, recorder.droppedFrames());
+        assertTrue(recorder.segmentCount() > 5);
+
+        try (RecordingReader reader = RecordingReader.open(directory)) {
+            assertEquals(60, reader.frameCount());
+            assertEquals(recorder.segmentCount(), reader.segmentCount());
+            long offset = reader.timestampNanos(0);
+            for (int i = 0; i < jpegs.size(); i++) {
+                JpegFrame frame = reader.readFrame(i);
+                assertArrayEquals(jpegs.get(i), Arrays.copyOf(frame.data(), frame.length()));
+                assertEquals(offset + i * FRAME_INTERVAL_NANOS, reader.timestampNanos(i));
+            }
+            for (int i = 0; i < jpegs.size(); i++) {
+                long timestamp = reader.timestampNanos(i);
+                assertEquals(i, reader.seek(timestamp));
+                assertEquals(i, reader.seek(timestamp + FRAME_INTERVAL_NANOS / 2));
+            }
+            assertEquals(0, reader.seek(-1));
+            assertEquals(59, reader.seek(Long.MAX_VALUE));
+            assertEquals(reader.timestampNanos(59), reader.durationNanos());
+
+            // 复用同一个缓冲区读帧
+            ByteBuffer buffer = ByteBuffer.allocate(jpegs.get(30).length + 16);
+            assertEquals(jpegs.get(30).length, reader.readFrame(30, buffer));
+            assertArrayEquals(jpegs.get(30), Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+    }
+
+    @Test
+    public void duplicateFramesOnlyAddIndexEntriesAndKeepTheirTimestamps() throws Exception {
+        // 5秒静止画面，每段只放得下几帧真实数据
+        List<byte[]> jpegs = MjpegTestStreams.motionScenes(MjpegTestStreams.FrameSize.VGA, new boolean[100], 6);
+        File directory = new File(folder.getRoot(), "recording");
+        MjpegRecorder recorder = new MjpegRecorder(directory, jpegs.get(0).length * 3L,
+                MjpegRecorder.DEFAULT_MAX_PENDING_BYTES);
+        recorder.setDuplicateFilter(new DuplicateFrameFilter());
+        long base = System.nanoTime();
+        long total = 0;
+        for (int i = 0; i < jpegs.size(); i++) {
+            byte[] jpeg = jpegs.get(i);
+            total += jpeg.length;
+            assertTrue(recorder.offer(jpeg, jpeg.length, base + i * FRAME_INTERVAL_NANOS));
+        }
+        recorder.close();
+        assertEquals(100, recorder.framesWritten());
+        assertTrue("只有" + recorder.duplicateFrames() + "帧去重", recorder.duplicateFrames() > 70);
+        assertTrue(recorder.bytesWritten() < total * 3 / 10);
+        assertTrue(recorder.segmentCount() > 2);
+
+        try (RecordingReader reader = RecordingReader.open(directory)) {
+            assertEquals(100, reader.frameCount());
+            long offset = reader.timestampNanos(0);
+            byte[] previous = null;
+            int stored = 0;
+            for (int i = 0; i < jpegs.size(); i++) {
+                assertEquals(offset + i * FRAME_INTERVAL_NANOS, reader.timestampNanos(i));
+                JpegFrame frame = reader.readFrame(i);
+                byte[] jpeg = Arrays.copyOf(frame.data(), frame.length());
+                // 要么是这一帧本身，要么沿用上一帧的数据
+                if (Arrays.equals(jpegs.get(i), jpeg)) {
+                    stored++;
+                } else {
+                    assertArrayEquals("第" + i + "帧", previous, jpeg);
+                }
+                previous = jpeg;
+            }
+            assertEquals(100 - recorder.duplicateFrames(), stored);
+        }
+    }
+
+    @Test
+    public void dropsFramesInsteadOfQueueingPastTheLimit() throws Exception {
+        File directory = new File(folder.getRoot(), "recording");
+        MjpegRecorder recorder = new MjpegRecorder(directory, MjpegRecorder.DEFAULT_SEGMENT_BYTES, 1000);
+        byte[] large = MjpegTestStreams.jpeg(MjpegTestStreams.FrameSize.VGA, 2000, new Random(2));
+        byte[] small = MjpegTestStreams.jpeg(MjpegTestStreams.FrameSize.VGA, 500, new Random(3));
+
+        assertFalse(recorder.offer(large, large.length, System.nanoTime()));
+        assertTrue(recorder.offer(small, small.length, System.nanoTime()));
+        recorder.close();
+        assertFalse("关闭后不再接受帧", recorder.offer(small, small.length, System.nanoTime()));
+
+        assertEquals(1, recorder.framesWritten());
+        assertEquals(2, recorder.droppedFrames());
+        try (RecordingReader reader = RecordingReader.open(directory)) {
+            assertEquals(1, reader.frameCount());
+            assertEquals(small.length, reader.frameLength(0));
+        }
+    }
+
+    @Test
+    public void halfWrittenIndexEntryIsIgnored() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 4);
+        File directory = new File(folder.getRoot(), "recording");
+        MjpegRecorder recorder = new MjpegRecorder(directory);
+        for (byte[] jpeg : jpegs) {
+            assertTrue(recorder.offer(jpeg, jpeg.length, System.nanoTime()));
+        }
+        recorder.close();
+        // 模拟写索引时进程被杀
+        try (FileOutputStream out = new FileOutputStream(new File(directory, "00000.idx"), true)) {
+            out.write(new byte[7]);
+        }
+
+        try (RecordingReader reader = RecordingReader.open(directory)) {
+            assertEquals(3, reader.frameCount());
+            JpegFrame last = reader.readFrame(2);
+            assertArrayEquals(jpegs.get(2), Arrays.copyOf(last.data(), last.length()));
+        }
+    }
+
+    @Test
+    public void existingRecordingIsNotOverwritten() throws Exception {
+        File directory = new File(folder.getRoot(), "recording");
+        byte[] jpeg = MjpegTestStreams.jpeg(MjpegTestStreams.FrameSize.VGA, 500, new Random(5));
+        try (MjpegRecorder recorder = new MjpegRecorder(directory)) {
+            recorder.offer(jpeg, jpeg.length, System.nanoTime());
+        }
+        try {
+            new MjpegRecorder(directory).close();
+            fail("覆盖了已有的录像");
+        } catch (IOException expected) {
+        }
+        try (RecordingReader reader = RecordingReader.open(directory)) {
+            assertEquals(1, reader.frameCount());
+        }
+    }
+}
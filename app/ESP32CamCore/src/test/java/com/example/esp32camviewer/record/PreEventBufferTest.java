@@ -0,0 +1,210 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class PreEventBufferTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictsByBytesAgeAndSlots() {
+        PreEventBuffer bytes = new PreEventBuffer(10_000, 100 * SECOND, 100);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(bytes.offer(frame(i, 3000), 3000, i * SECOND));
+        }
+        // 第4帧放不下末尾的1000字节，从开头写，覆盖第1帧
+        assertEquals(3, bytes.bufferedFrames());
+        assertEquals(1, bytes.oldestSequence());
+        assertEquals(1, bytes.evictedByBytes());
+        assertEquals(9000, bytes.bufferedBytes());
+
+        PreEventBuffer age = new PreEventBuffer(1_000_000, SECOND * 5 / 2, 100);
+        for (int i = 0; i < 10; i++) {
+            age.offer(frame(i, 100), 100, i * SECOND);
+        }
+        assertEquals(3, age.bufferedFrames());
+        assertEquals(2 * SECOND, age.bufferedNanos());
+        assertEquals(7, age.evictedByAge());
+
+        PreEventBuffer slots = new PreEventBuffer(1_000_000, 100 * SECOND, 4);
+        for (int i = 0; i < 10; i++) {
+            slots.offer(frame(i, 100), 100, i * SECOND);
+        }
+        assertEquals(4, slots.bufferedFrames());
+        assertEquals(6, slots.evictedBySlots());
+
+        assertFalse("超过缓冲区大小的帧", slots.offer(new byte[2_000_000], 2_000_000, 11 * SECOND));
+        assertEquals(1, slots.droppedFrames());
+        assertEquals(4, slots.bufferedFrames());
+    }
+
+    @Test
+    public void readsCopyExactBytesAndReportEvictedFrames() {
+        PreEventBuffer buffer = new PreEventBuffer(10_000, 100 * SECOND, 100);
+        for (int i = 0; i < 6; i++) {
+            buffer.offer(frame(i, 2000 + i), 2000 + i, i * SECOND);
+        }
+        ByteBuffer target = ByteBuffer.allocate(4096);
+        assertEquals(-1, buffer.read(0, target));
+        assertEquals(0, target.position());
+        assertNull(buffer.copy(0));
+        assertEquals(-1, buffer.receivedNanos(0));
+
+        long oldest = buffer.oldestSequence();
+        assertEquals(2003, buffer.read(3, target));
+        assertArrayEquals(frame(3, 2003), Arrays.copyOf(target.array(), target.position()));
+        JpegFrame copy = buffer.copy(5);
+        assertEquals(5, copy.sequence());
+        assertEquals(5 * SECOND, copy.receivedNanos());
+        assertArrayEquals(frame(5, 2005), Arrays.copyOf(copy.data(), copy.length()));
+
+        List<JpegFrame> recent = buffer.copySince(4 * SECOND);
+        assertEquals(2, recent.size());
+        assertEquals(4, recent.get(0).sequence());
+        assertTrue(oldest > 0);
+    }
+
+    @Test
+    public void concurrentReadersNeverSeeOverwrittenData() throws Exception {
+        // 缓冲区很小，写入方很快绕回覆盖，读取方复制到一半被覆盖的情况会经常发生
+        PreEventBuffer buffer = new PreEventBuffer(64 * 1024, 100 * SECOND, 64);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong goodReads = new AtomicLong();
+        AtomicLong badReads = new AtomicLong();
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            long seed = r;
+            readers[r] = new Thread(() -> {
+                Random random = new Random(seed);
+                ByteBuffer target = ByteBuffer.allocate(16 * 1024);
+                while (running.get()) {
+                    long oldest = buffer.oldestSequence();
+                    long next = buffer.nextSequence();
+                    if (next == oldest) {
+                        continue;
+                    }
+                    long sequence = oldest + random.nextInt((int) (next - oldest));
+                    target.clear();
+                    int length = buffer.read(sequence, target);
+                    if (length < 0) {
+                        continue;
+                    }
+                    if (length == lengthOf(sequence) && allBytesAre(target.array(), length, (byte) sequence)) {
+                        goodReads.incrementAndGet();
+                    } else {
+                        badReads.incrementAndGet();
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        byte[] frame = new byte[16 * 1024];
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(800);
+        for (long sequence = 0; System.nanoTime() < end; sequence++) {
+            int length = lengthOf(sequence);
+            Arrays.fill(frame, 0, length, (byte) sequence);
+            buffer.offer(frame, length, sequence);
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, badReads.get());
+        assertTrue(goodReads.get() > 0);
+    }
+
+    @Test
+    public void recordingStartsWithPreEventFramesAndContinuesLive() throws Exception {
+        long interval = TimeUnit.MILLISECONDS.toNanos(40);
+        long base = System.nanoTime();
+        PreEventBuffer buffer = new PreEventBuffer(1024 * 1024, 10 * SECOND, 256);
+        for (int i = 0; i < 50; i++) {
+            buffer.offer(frame(i, 1000 + i), 1000 + i, base + i * interval);
+        }
+        File directory = new File(folder.getRoot(), "event");
+        MjpegRecorder recorder = new MjpegRecorder(directory);
+        // 最新一帧（第49帧）和它之前1秒内的帧，从第24帧开始
+        buffer.recordTo(recorder, SECOND);
+        for (int i = 50; i < 60; i++) {
+            buffer.offer(frame(i, 1000 + i), 1000 + i, base + i * interval);
+        }
+        assertSame(recorder, buffer.stopRecording());
+        buffer.offer(frame(60, 1060), 1060, base + 60 * interval);
+        recorder.close();
+
+        try (RecordingReader reader = RecordingReader.open(directory)) {
+            assertEquals(36, reader.frameCount());
+            for (int i = 0; i < reader.frameCount(); i++) {
+                int original = 24 + i;
+                JpegFrame frame = reader.readFrame(i);
+                assertArrayEquals(frame(original, 1000 + original), Arrays.copyOf(frame.data(), frame.length()));
+                assertEquals(i * interval, reader.timestampNanos(i));
+            }
+        }
+    }
+
+    @Test
+    public void ingestDoesNotGrowTheHeapOverHoursAt25Fps() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        // 4MB、10秒的缓冲，按25fps写入3小时的帧（时间戳按25fps生成，不真的等）
+        PreEventBuffer buffer = new PreEventBuffer(4 * 1024 * 1024, 10 * SECOND, 256);
+        byte[] frame = frame(1, 24 * 1024);
+        long interval = SECOND / 25;
+        long frames = 3 * 3600 * 25;
+        for (long i = 0; i < 1000; i++) {
+            buffer.offer(frame, frame.length - (int) (i % 512), i * interval);
+        }
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (long i = 1000; i < frames; i++) {
+            buffer.offer(frame, frame.length - (int) (i % 512), i * interval);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("写入" + frames + "帧分配了" + allocated + "字节", allocated < 64 * 1024);
+        assertEquals(frames, buffer.offeredFrames());
+        assertTrue(buffer.bufferedBytes() <= buffer.capacityBytes());
+        assertTrue(buffer.bufferedNanos() <= 10 * SECOND);
+        assertTrue(buffer.toString(), buffer.bufferedFrames() > 100);
+    }
+
+    private static byte[] frame(int index, int length) {
+        byte[] frame = new byte[length];
+        new Random(index).nextBytes(frame);
+        return frame;
+    }
+
+    private static int lengthOf(long sequence) {
+        return 4096 + (int) (sequence * 7919 % 8192);
+    }
+
+    private static boolean allBytesAre(byte[] data, int length, byte value) {
+        for (int i = 0; i < length; i++) {
+            if (data[i] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
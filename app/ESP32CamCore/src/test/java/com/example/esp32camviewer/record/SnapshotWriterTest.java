@@ -0,0 +1,275 @@
+package com.example.esp32camviewer.record;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import com.example.esp32camviewer.stream.NioMjpegClient;
+import com.example.esp32camviewer.stream.StandInMjpegServer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SnapshotWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void burstCapturesConsecutiveRawFramesWithoutStallingTheStream() throws Exception {
+        // 7帧内容各不相同的VGA流，50fps，比固件快一倍
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 7, 8);
+        File directory = new File(folder.getRoot(), "snapshots");
+        SnapshotWriter writer = new SnapshotWriter(directory, null);
+        AtomicLong firstCaptured = new AtomicLong(-1);
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 50);
+             NioMjpegClient client = new NioMjpegClient(1)) {
+            CountDownLatch warmedUp = new CountDownLatch(10);
+            NioMjpegClient.Stream stream = client.open(server.url(), 2000, 2000, frame -> {
+                if (writer.offer(frame)) {
+                    firstCaptured.compareAndSet(-1, frame.sequence());
+                }
+                frame.release();
+                warmedUp.countDown();
+            }, null);
+            assertTrue(warmedUp.await(5, TimeUnit.SECONDS));
+
+            CountDownLatch captured = new CountDownLatch(1);
+            AtomicReference<SnapshotWriter.Result> result = new AtomicReference<>();
+            assertTrue(writer.capture(50, r -> {
+                result.set(r);
+                captured.countDown();
+            }));
+            assertFalse("上一次连拍还没结束", writer.capture(1, null));
+            assertTrue(captured.await(5, TimeUnit.SECONDS));
+            stream.close();
+
+            SnapshotWriter.Result burst = result.get();
+            assertNull(burst.error);
+            // 连拍期间收帧不受影响：50fps的流上没有丢帧，拍到的是连续的50帧，原样写入
+            assertEquals(0, burst.dropped);
+            assertEquals(50, burst.files.size());
+            assertTrue(burst.thumbnails.isEmpty());
+            for (int i = 0; i < 50; i++) {
+                byte[] expected = jpegs.get((int) ((firstCaptured.get() + i) % jpegs.size()));
+                assertArrayEquals("第" + i + "张", expected, Files.readAllBytes(burst.files.get(i).toPath()));
+            }
+            assertEquals(burst.files.get(0).getName().replace("_01.jpg", "_50.jpg"), burst.files.get(49).getName());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void snapshotIsWrittenWithAThumbnail() throws Exception {
+        byte[] jpeg = MjpegTestStreams.decodableFrames(MjpegTestStreams.FrameSize.VGA, 1).get(0);
+        File directory = new File(folder.getRoot(), "snapshots");
+        SnapshotWriter writer = new SnapshotWriter(directory, SnapshotWriterTest::thumbnail);
+        CountDownLatch captured = new CountDownLatch(1);
+        AtomicReference<SnapshotWriter.Result> result = new AtomicReference<>();
+        assertFalse("没有请求时不复制", writer.offer(JpegFrame.wrap(jpeg, jpeg.length)));
+        assertTrue(writer.capture(1, r -> {
+            result.set(r);
+            captured.countDown();
+        }));
+        assertTrue(writer.isCapturing());
+        assertTrue(writer.offer(JpegFrame.wrap(jpeg, jpeg.length)));
+        assertFalse(writer.isCapturing());
+        assertTrue(captured.await(5, TimeUnit.SECONDS));
+        writer.close();
+
+        SnapshotWriter.Result single = result.get();
+        assertNull(single.error);
+        assertEquals(1, single.files.size());
+        File file = single.files.get(0);
+        assertEquals(directory, file.getParentFile());
+        assertTrue(file.getName().matches("\\d{8}-\\d{6}-\\d{3}\\.jpg"));
+        assertArrayEquals("原样写入，不重新编码", jpeg, Files.readAllBytes(file.toPath()));
+        File thumbnail = single.thumbnails.get(0);
+        assertEquals(new File(new File(directory, SnapshotWriter.THUMBNAIL_DIRECTORY), file.getName()), thumbnail);
+        BufferedImage image = ImageIO.read(thumbnail);
+        assertEquals(160, image.getWidth());
+        assertEquals(120, image.getHeight());
+    }
+
+    @Test
+    public void snapshotTakesTheLatestFrameWithoutWaitingForTheStream() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 14);
+        PreEventBuffer frames = new PreEventBuffer(1024 * 1024, TimeUnit.SECONDS.toNanos(10), 64);
+        SnapshotWriter writer = new SnapshotWriter(new File(folder.getRoot(), "snapshots"), null);
+        try {
+            // 还没有画面
+            SnapshotWriter.Result empty = snapshot(writer, frames);
+            assertTrue(empty.files.isEmpty());
+            assertNotNull(empty.error);
+
+            for (int i = 0; i < jpegs.size(); i++) {
+                byte[] jpeg = jpegs.get(i);
+                frames.offer(JpegFrame.wrap(jpeg, jpeg.length, i, i * 50_000_000L));
+            }
+            // 之后不再有新帧（画面卡住或正在重连），拍到的是停在屏幕上的最后一帧
+            SnapshotWriter.Result latest = snapshot(writer, frames);
+            assertNull(latest.error);
+            assertEquals(1, latest.files.size());
+            assertArrayEquals(jpegs.get(2), Files.readAllBytes(latest.files.get(0).toPath()));
+            assertFalse(writer.isCapturing());
+        } finally {
+            writer.close();
+        }
+        assertFalse("关闭后不再接受请求", writer.snapshot(frames, null));
+    }
+
+    @Test
+    public void burstTimesOutWithTheFramesItGot() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 2, 15);
+        SnapshotWriter writer = new SnapshotWriter(new File(folder.getRoot(), "snapshots"), null);
+        CountDownLatch captured = new CountDownLatch(1);
+        AtomicReference<SnapshotWriter.Result> result = new AtomicReference<>();
+        assertTrue(writer.capture(5, 200, r -> {
+            result.set(r);
+            captured.countDown();
+        }));
+        // 收到两帧后视频流中断
+        for (byte[] jpeg : jpegs) {
+            assertTrue(writer.offer(JpegFrame.wrap(jpeg, jpeg.length)));
+        }
+        assertTrue(captured.await(3, TimeUnit.SECONDS));
+        SnapshotWriter.Result burst = result.get();
+        assertTrue(burst.timedOut);
+        assertEquals(2, burst.files.size());
+        assertEquals(3, burst.dropped);
+        assertFalse(writer.isCapturing());
+
+        // 超时之后可以重新连拍，恢复后的帧不会算进上一次
+        assertFalse(writer.offer(JpegFrame.wrap(jpegs.get(0), jpegs.get(0).length)));
+        CountDownLatch next = new CountDownLatch(1);
+        AtomicReference<SnapshotWriter.Result> nextResult = new AtomicReference<>();
+        assertTrue(writer.capture(1, r -> {
+            nextResult.set(r);
+            next.countDown();
+        }));
+        assertTrue(writer.offer(JpegFrame.wrap(jpegs.get(1), jpegs.get(1).length)));
+        assertTrue(next.await(3, TimeUnit.SECONDS));
+        assertFalse(nextResult.get().timedOut);
+        assertEquals(1, nextResult.get().files.size());
+        assertEquals(2, burst.files.size());
+        writer.close();
+    }
+
+    @Test
+    public void slowStorageDropsFramesInsteadOfBlockingTheStream() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 2, 10);
+        // 排队上限只放得下两三帧，缩略图每张要50ms
+        SnapshotWriter writer = new SnapshotWriter(new File(folder.getRoot(), "snapshots"), (jpeg, length, file) -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            Files.write(file.toPath(), new byte[]{1});
+        }, jpegs.get(0).length * 5 / 2);
+        CountDownLatch captured = new CountDownLatch(1);
+        AtomicReference<SnapshotWriter.Result> result = new AtomicReference<>();
+        assertTrue(writer.capture(10, r -> {
+            result.set(r);
+            captured.countDown();
+        }));
+        for (int i = 0; i < 10; i++) {
+            byte[] jpeg = jpegs.get(i % 2);
+            writer.offer(JpegFrame.wrap(jpeg, jpeg.length));
+        }
+        assertTrue(captured.await(5, TimeUnit.SECONDS));
+
+        // offer()等存储的话排队不会超过上限，也就不会丢帧
+        SnapshotWriter.Result burst = result.get();
+        assertTrue(burst.toString(), burst.dropped > 0);
+        assertEquals(10, burst.files.size() + burst.dropped);
+        assertEquals(burst.dropped, writer.droppedFrames());
+        assertEquals(burst.files.size(), burst.thumbnails.size());
+
+        // 关闭时没拍完的请求按已拍到的帧回调
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicReference<SnapshotWriter.Result> partial = new AtomicReference<>();
+        assertTrue(writer.capture(5, r -> {
+            partial.set(r);
+            closed.countDown();
+        }));
+        writer.offer(JpegFrame.wrap(jpegs.get(0), jpegs.get(0).length));
+        writer.close();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, partial.get().files.size());
+        assertEquals(4, partial.get().dropped);
+        assertFalse("关闭后不再接受请求", writer.capture(1, null));
+    }
+
+    @Test
+    public void failedThumbnailDoesNotFailTheSavedPhoto() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 13);
+        AtomicLong thumbnails = new AtomicLong();
+        // 第二张的缩略图生成失败
+        SnapshotWriter writer = new SnapshotWriter(new File(folder.getRoot(), "snapshots"), (jpeg, length, file) -> {
+            if (thumbnails.incrementAndGet() == 2) {
+                throw new IOException("解码失败");
+            }
+            Files.write(file.toPath(), new byte[]{1});
+        });
+        CountDownLatch captured = new CountDownLatch(1);
+        AtomicReference<SnapshotWriter.Result> result = new AtomicReference<>();
+        assertTrue(writer.capture(3, r -> {
+            result.set(r);
+            captured.countDown();
+        }));
+        for (byte[] jpeg : jpegs) {
+            assertTrue(writer.offer(JpegFrame.wrap(jpeg, jpeg.length)));
+        }
+        assertTrue(captured.await(5, TimeUnit.SECONDS));
+        writer.close();
+
+        SnapshotWriter.Result burst = result.get();
+        assertNull(burst.error);
+        assertEquals(0, burst.dropped);
+        assertEquals(3, burst.files.size());
+        assertEquals(3, burst.thumbnails.size());
+        assertNotNull(burst.thumbnails.get(0));
+        assertNull(burst.thumbnails.get(1));
+        assertEquals(burst.files.get(2).getName(), burst.thumbnails.get(2).getName());
+        assertArrayEquals(jpegs.get(1), Files.readAllBytes(burst.files.get(1).toPath()));
+        assertEquals(3, writer.framesWritten());
+        assertEquals(1, writer.thumbnailFailures());
+    }
+
+    private static SnapshotWriter.Result snapshot(SnapshotWriter writer, PreEventBuffer frames) throws Exception {
+        CountDownLatch captured = new CountDownLatch(1);
+        AtomicReference<SnapshotWriter.Result> result = new AtomicReference<>();
+        assertTrue(writer.snapshot(frames, r -> {
+            result.set(r);
+            captured.countDown();
+        }));
+        assertTrue(captured.await(3, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    // 缩小到1/4，相当于Android上inSampleSize=4
+    private static void thumbnail(byte[] jpeg, int length, File file) throws IOException {
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(jpeg, 0, length));
+        BufferedImage scaled = new BufferedImage(source.getWidth() / 4, source.getHeight() / 4,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.drawImage(source, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+        g.dispose();
+        ImageIO.write(scaled, "jpeg", file);
+    }
+}
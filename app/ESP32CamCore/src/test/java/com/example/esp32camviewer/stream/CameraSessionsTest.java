@@ -0,0 +1,164 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CameraSessionsTest {
+
+    @Test
+    public void newSessionConnectsAfterThePreviousOneHasTerminated() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 4);
+        CameraSessions sessions = new CameraSessions();
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 30);
+             NioMjpegClient client = new NioMjpegClient(1)) {
+            CountDownLatch firstStarted = new CountDownLatch(1);
+            ReconnectingStream first = new ReconnectingStream(client, server.url(), 2000, 5000,
+                    JpegFrame::release, listener(firstStarted::countDown));
+            sessions.start(first);
+            assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+            assertSame(first, sessions.current(server.url()));
+
+            AtomicReference<String> seenAtFirstFrame = new AtomicReference<>();
+            CountDownLatch secondStarted = new CountDownLatch(1);
+            ReconnectingStream second = new ReconnectingStream(client, server.url(), 2000, 5000,
+                    JpegFrame::release, listener(() -> {
+                        seenAtFirstFrame.set(first.isTerminated() + "/" + client.openStreams());
+                        secondStarted.countDown();
+                    }));
+            // 没有关闭first就启动second，由会话表关闭first
+            sessions.start(second);
+            assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+            assertEquals("second连上时first已结束，只有一条连接", "true/1", seenAtFirstFrame.get());
+            assertSame(second, sessions.current(server.url()));
+            assertEquals(1, sessions.size());
+            assertEquals(2, server.connections());
+
+            second.close();
+            assertTrue(second.awaitTermination(1000));
+            assertEquals(0, sessions.size());
+            assertNull(sessions.current(server.url()));
+        }
+    }
+
+    @Test
+    public void rapidStartAndCloseCyclesLeaveNoConnectionsBehind() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 5);
+        CameraSessions sessions = new CameraSessions();
+        Random random = new Random(5);
+        List<ReconnectingStream> started = new ArrayList<>();
+        AtomicInteger maxOpen = new AtomicInteger();
+        AtomicInteger firstFrames = new AtomicInteger();
+        long[] teardownNanos = new long[200];
+        int teardowns = 0;
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 50);
+             NioMjpegClient client = new NioMjpegClient(1)) {
+            Thread sampler = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    maxOpen.accumulateAndGet(client.openStreams(), Math::max);
+                    Thread.yield();
+                }
+            });
+            sampler.setDaemon(true);
+            sampler.start();
+            try {
+                ReconnectingStream previous = null;
+                for (int i = 0; i < 200; i++) {
+                    CountDownLatch firstFrame = new CountDownLatch(1);
+                    ReconnectingStream session = new ReconnectingStream(client, server.url(), 2000, 5000,
+                            JpegFrame::release, listener(() -> {
+                                maxOpen.accumulateAndGet(client.openStreams(), Math::max);
+                                firstFrames.incrementAndGet();
+                                firstFrame.countDown();
+                            }));
+                    started.add(session);
+                    if (previous != null && random.nextBoolean()) {
+                        // 界面按正常顺序停止旧会话再启动新的，记录关闭到会话结束的耗时
+                        long start = System.nanoTime();
+                        previous.close();
+                        assertTrue("第" + i + "次关闭后会话没有结束", previous.awaitTermination(2000));
+                        teardownNanos[teardowns++] = System.nanoTime() - start;
+                    }
+                    // 另一半直接启动新会话，由会话表关闭旧的
+                    sessions.start(session);
+                    if (i % 10 == 0) {
+                        assertTrue(firstFrame.await(5, TimeUnit.SECONDS));
+                    } else {
+                        Thread.sleep(random.nextInt(5));
+                    }
+                    previous = session;
+                }
+                previous.close();
+            } finally {
+                sampler.interrupt();
+                sampler.join(1000);
+            }
+
+            for (ReconnectingStream session : started) {
+                assertTrue(session.awaitTermination(2000));
+            }
+            assertTrue(firstFrames.get() >= 20);
+            assertTrue("同一摄像头同时有" + maxOpen.get() + "条连接", maxOpen.get() <= 1);
+            assertEquals(0, client.openStreams());
+            assertEquals("读缓冲区没有全部归还", 0, client.buffersInUse());
+            assertEquals(0, sessions.size());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (server.activeClients() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("服务器端还有连接", 0, server.activeClients());
+
+            long[] sorted = Arrays.copyOf(teardownNanos, teardowns);
+            Arrays.sort(sorted);
+            assertTrue(sorted.length > 50);
+            long p99Ms = TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length * 99 / 100]);
+            long maxMs = TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length - 1]);
+            assertTrue("关闭p99 " + p99Ms + "ms", p99Ms < 500);
+            assertTrue("关闭最长 " + maxMs + "ms", maxMs < 1000);
+        }
+    }
+
+    @Test
+    public void invalidAddressIsRejectedAndTheSessionClosed() throws Exception {
+        CameraSessions sessions = new CameraSessions();
+        try (NioMjpegClient client = new NioMjpegClient(1)) {
+            ReconnectingStream session = new ReconnectingStream(client, "not a url", 2000, 5000,
+                    JpegFrame::release, listener(() -> {
+                    }));
+            try {
+                sessions.start(session);
+                fail("地址无效时应抛出异常");
+            } catch (IOException expected) {
+            }
+            assertTrue(session.isTerminated());
+            assertEquals(0, sessions.size());
+        }
+    }
+
+    private static ReconnectingStream.Listener listener(Runnable onFirstFrame) {
+        return new ReconnectingStream.Listener() {
+            @Override
+            public void onFirstFrame(NioMjpegClient.Stream stream, long timeToFirstFrameNanos, long outageNanos) {
+                onFirstFrame.run();
+            }
+
+            @Override
+            public void onInterrupted(IOException error, int attempt, long retryDelayMs) {
+            }
+
+            @Override
+            public void onStreamClosed(NioMjpegClient.Stream stream, IOException error) {
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecoderComparisonTest {
+
+    @Test
+    public void ranksWorkingDecodersBeforeFailingOnes() throws Exception {
+        List<byte[]> frames = MjpegTestStreams.decodableFrames(MjpegTestStreams.FrameSize.VGA, 4);
+        Map<String, FramePipeline.Decoder<BufferedImage>> decoders = new LinkedHashMap<>();
+        decoders.put("failing", frame -> null);
+        decoders.put("imageio", new JvmDecoders.AllocatingDecoder());
+
+        List<DecoderComparison.Result> results = DecoderComparison.run(decoders, null, frames, 2);
+
+        assertEquals(2, results.size());
+        assertEquals("imageio", results.get(0).name);
+        assertEquals(0, results.get(0).failures);
+        assertTrue(results.get(0).medianNanos > 0);
+        assertTrue(results.get(0).p95Nanos >= results.get(0).medianNanos);
+        assertEquals("failing", results.get(1).name);
+        assertEquals(8, results.get(1).failures);
+    }
+
+    @Test
+    public void reusingDecoderDecodesIntoRecycledImage() throws Exception {
+        List<byte[]> frames = MjpegTestStreams.decodableFrames(MjpegTestStreams.FrameSize.VGA, 2);
+        JvmDecoders.ReusingDecoder decoder = new JvmDecoders.ReusingDecoder();
+
+        BufferedImage first = decoder.decode(JpegFrame.wrap(frames.get(0), frames.get(0).length));
+        assertEquals(640, first.getWidth());
+        decoder.recycle(first);
+        BufferedImage second = decoder.decode(JpegFrame.wrap(frames.get(1), frames.get(1).length));
+
+        assertTrue(first == second);
+    }
+
+    @Test
+    public void sampledDecoderOutputsScaledImage() throws Exception {
+        List<byte[]> frames = MjpegTestStreams.decodableFrames(MjpegTestStreams.FrameSize.UXGA, 2);
+        JvmDecoders.ReusingDecoder decoder = new JvmDecoders.ReusingDecoder(4);
+
+        BufferedImage first = decoder.decode(JpegFrame.wrap(frames.get(0), frames.get(0).length));
+        decoder.recycle(first);
+        BufferedImage second = decoder.decode(JpegFrame.wrap(frames.get(1), frames.get(1).length));
+
+        assertEquals(400, first.getWidth());
+        assertEquals(300, first.getHeight());
+        assertTrue(first == second);
+    }
+
+    @Test
+    public void timingsReportMedianAndPercentile() {
+        DecodeTimings timings = new DecodeTimings(5);
+        for (long nanos : new long[]{50, 10, 40, 20, 30, 99}) {
+            timings.record(nanos);
+        }
+
+        assertTrue(timings.isFull());
+        assertEquals(5, timings.count());
+        assertEquals(30, timings.medianNanos());
+        assertEquals(50, timings.percentileNanos(95));
+        assertEquals(Long.MAX_VALUE, new DecodeTimings(3).medianNanos());
+    }
+}
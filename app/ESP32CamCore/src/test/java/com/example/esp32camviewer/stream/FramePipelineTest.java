@@ -0,0 +1,361 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+
+    @Test
+    public void slowDecoderDropsStaleFramesInsteadOfQueueing() throws Exception {
+        ExecutorService renderThread = Executors.newSingleThreadExecutor();
+        List<Long> presented = Collections.synchronizedList(new ArrayList<>());
+        List<Long> recycled = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch lastFrameShown = new CountDownLatch(1);
+        final int total = 100;
+
+        FramePipeline<Long> pipeline = new FramePipeline<>(
+                frame -> {
+                    sleep(5);
+                    return frame.sequence();
+                },
+                frame -> {
+                    presented.add(frame.image());
+                    if (frame.image() == total - 1) {
+                        lastFrameShown.countDown();
+                    }
+                },
+                renderThread,
+                recycled::add);
+        pipeline.start();
+
+        ByteArrayPool pool = new ByteArrayPool(8);
+        for (int i = 0; i < total; i++) {
+            pipeline.submit(new JpegFrame(pool, pool.acquire(16), 16, i, System.nanoTime()));
+            sleep(1);
+        }
+        assertTrue(lastFrameShown.await(5, TimeUnit.SECONDS));
+        pipeline.stop();
+        renderThread.shutdown();
+        assertTrue(renderThread.awaitTermination(5, TimeUnit.SECONDS));
+
+        FramePipeline.Stats stats = pipeline.stats();
+        assertEquals(total, stats.received);
+        assertTrue("解码跟不上时应丢帧: " + stats, stats.droppedBeforeDecode > 0);
+        assertEquals(total, stats.decoded + stats.droppedBeforeDecode);
+        assertEquals(stats.decoded, stats.presented + recycled.size());
+        assertEquals(presented.size(), stats.presented);
+        // 显示顺序单调递增，最后一帧一定被显示
+        for (int i = 1; i < presented.size(); i++) {
+            assertTrue(presented.get(i) > presented.get(i - 1));
+        }
+        assertEquals(Long.valueOf(total - 1), presented.get(presented.size() - 1));
+        // 丢掉的帧都还回了池，池里最多只需要新分配解码中+排队中两块
+        assertTrue(pool.allocations() <= 3);
+    }
+
+    @Test
+    public void renderTaskIsNotQueuedPerFrameAndBlockedRenderStopsDecoding() throws Exception {
+        List<Runnable> mainQueue = new ArrayList<>();
+        List<Long> presented = new ArrayList<>();
+        List<Long> decoded = Collections.synchronizedList(new ArrayList<>());
+        FramePipeline<Long> pipeline = new FramePipeline<>(
+                frame -> {
+                    decoded.add(frame.sequence());
+                    return frame.sequence();
+                },
+                frame -> presented.add(frame.image()),
+                command -> {
+                    synchronized (mainQueue) {
+                        mainQueue.add(command);
+                    }
+                });
+        pipeline.start();
+
+        // 主线程被卡住期间不断有新帧到达：第一帧解码后等着显示，其余帧在解码槽里互相替换，不解码
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(new JpegFrame(null, new byte[1], 1, i, System.nanoTime()));
+            sleep(2);
+        }
+        sleep(20);
+        assertEquals(Collections.singletonList(0L), decoded);
+        Runnable first;
+        synchronized (mainQueue) {
+            assertEquals(1, mainQueue.size());
+            first = mainQueue.remove(0);
+        }
+        first.run();
+        assertEquals(Collections.singletonList(0L), presented);
+
+        // 渲染取走第一帧后立即解当时最新的一帧
+        for (int i = 0; i < 500 && decoded.size() < 2; i++) {
+            sleep(2);
+        }
+        assertEquals(2, decoded.size());
+        assertEquals(Long.valueOf(9), decoded.get(1));
+        pipeline.stop();
+
+        synchronized (mainQueue) {
+            assertEquals(1, mainQueue.size());
+            mainQueue.get(0).run();
+        }
+        // 停止后还留在主线程队列里的渲染任务不再显示任何帧
+        assertEquals(1, presented.size());
+        FramePipeline.Stats stats = pipeline.stats();
+        assertEquals(10, stats.received);
+        assertEquals(2, stats.decoded);
+        assertEquals(8, stats.notDecoded());
+        assertEquals(0, stats.droppedBeforeRender);
+    }
+
+    @Test
+    public void unchangedFramesAreNeitherDecodedNorRendered() throws Exception {
+        List<Long> decoded = Collections.synchronizedList(new ArrayList<>());
+        List<Long> presented = Collections.synchronizedList(new ArrayList<>());
+        FramePipeline<Long> pipeline = new FramePipeline<>(
+                frame -> {
+                    decoded.add(frame.sequence());
+                    // 第3帧解码失败，画面还是第0帧，下一帧不能和第3帧比较
+                    return frame.sequence() == 3 ? null : frame.sequence();
+                },
+                frame -> presented.add(frame.image()),
+                Runnable::run);
+        // 内容（第一个字节）和上一次解码的帧相同时算没变
+        pipeline.setDuplicateFilter(new FramePipeline.DuplicateFilter() {
+            private int last = -1;
+
+            @Override
+            public boolean isDuplicate(JpegFrame frame) {
+                int content = frame.data()[0];
+                boolean duplicate = content == last;
+                last = content;
+                return duplicate;
+            }
+
+            @Override
+            public void reset() {
+                last = -1;
+            }
+        });
+        pipeline.start();
+        int[] contents = {1, 1, 1, 2, 2, 2, 3, 3};
+        for (int i = 0; i < contents.length; i++) {
+            pipeline.submit(new JpegFrame(null, new byte[]{(byte) contents[i]}, 1, i, System.nanoTime()));
+            for (int wait = 0; wait < 500 && pipeline.stats().decoded + pipeline.stats().decodeFailures
+                    + pipeline.stats().unchanged < i + 1; wait++) {
+                sleep(2);
+            }
+        }
+        pipeline.stop();
+
+        assertEquals(Arrays.asList(0L, 3L, 4L, 6L), decoded);
+        assertEquals(Arrays.asList(0L, 4L, 6L), presented);
+        FramePipeline.Stats stats = pipeline.stats();
+        assertEquals(4, stats.unchanged);
+        assertEquals("画面没变不算跟不上", 0, stats.notDecoded());
+        assertEquals(stats.received, stats.decoded + stats.decodeFailures + stats.unchanged + stats.notDecoded());
+    }
+
+    @Test
+    public void sharedDecodePoolNeverDecodesOneStreamConcurrently() throws Exception {
+        final int streams = 6;
+        final int frames = 60;
+        ExecutorService decodePool = Executors.newFixedThreadPool(2);
+        ExecutorService renderThread = Executors.newSingleThreadExecutor();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch lastFramesShown = new CountDownLatch(streams);
+        List<FramePipeline<Long>> pipelines = new ArrayList<>();
+
+        for (int s = 0; s < streams; s++) {
+            AtomicInteger inFlight = new AtomicInteger();
+            FramePipeline<Long> pipeline = new FramePipeline<>(
+                    frame -> {
+                        if (inFlight.incrementAndGet() > 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        sleep(2);
+                        inFlight.decrementAndGet();
+                        return frame.sequence();
+                    },
+                    frame -> {
+                        if (frame.image() == frames - 1) {
+                            lastFramesShown.countDown();
+                        }
+                    },
+                    renderThread, null, decodePool);
+            pipeline.start();
+            pipelines.add(pipeline);
+        }
+
+        // 每路一个读取线程，同时送帧
+        List<Thread> readers = new ArrayList<>();
+        for (FramePipeline<Long> pipeline : pipelines) {
+            Thread reader = new Thread(() -> {
+                for (int i = 0; i < frames; i++) {
+                    pipeline.submit(new JpegFrame(null, new byte[1], 1, i, System.nanoTime()));
+                    sleep(1);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        // 两个工作线程轮流服务六路，每一路的最后一帧都要解码并显示
+        assertTrue(lastFramesShown.await(5, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (FramePipeline<Long> pipeline : pipelines) {
+            pipeline.stop();
+            FramePipeline.Stats stats = pipeline.stats();
+            assertEquals(frames, stats.decoded + stats.droppedBeforeDecode);
+        }
+        decodePool.shutdown();
+        renderThread.shutdown();
+    }
+
+    @Test
+    public void pausedAndRateLimitedFramesAreSkippedBeforeDecode() {
+        List<Long> decoded = new ArrayList<>();
+        ByteArrayPool pool = new ByteArrayPool(4);
+        // 解码和渲染都直接在调用线程上执行，结果是确定的
+        FramePipeline<Long> pipeline = new FramePipeline<>(
+                frame -> {
+                    decoded.add(frame.sequence());
+                    return frame.sequence();
+                },
+                frame -> {
+                },
+                Runnable::run, null, Runnable::run);
+        pipeline.start();
+
+        pipeline.setPaused(true);
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(new JpegFrame(pool, pool.acquire(16), 16, i, i * 50_000_000L));
+        }
+        assertEquals(0, decoded.size());
+        assertEquals(10, pipeline.stats().skipped);
+
+        // 20fps的源限到10fps：间隔50ms的帧隔一帧解一帧
+        pipeline.setPaused(false);
+        pipeline.setMaxFps(10);
+        for (int i = 10; i < 30; i++) {
+            pipeline.submit(new JpegFrame(pool, pool.acquire(16), 16, i, i * 50_000_000L));
+        }
+        assertEquals(10, decoded.size());
+        for (int i = 1; i < decoded.size(); i++) {
+            assertEquals(2, decoded.get(i) - decoded.get(i - 1));
+        }
+
+        // 取消限速后每帧都解码
+        pipeline.setMaxFps(0);
+        for (int i = 30; i < 35; i++) {
+            pipeline.submit(new JpegFrame(pool, pool.acquire(16), 16, i, i * 50_000_000L));
+        }
+        assertEquals(15, decoded.size());
+        FramePipeline.Stats stats = pipeline.stats();
+        assertEquals(35, stats.received);
+        assertEquals(20, stats.skipped);
+        // 跳过的帧都立即还回了池
+        assertTrue(pool.allocations() <= 2);
+        pipeline.stop();
+    }
+
+    @Test
+    public void framesSubmittedAfterStopAreReleasedAndCounted() {
+        ByteArrayPool pool = new ByteArrayPool(4);
+        FramePipeline<Long> pipeline = new FramePipeline<>(JpegFrame::sequence, frame -> {
+        }, Runnable::run, null, Runnable::run);
+        pipeline.start();
+        pipeline.submit(new JpegFrame(pool, pool.acquire(16), 16, 0, 0));
+        pipeline.stop();
+        // 切换会话时I/O线程的回调可能晚于stop()
+        for (int i = 1; i < 4; i++) {
+            pipeline.submit(new JpegFrame(pool, pool.acquire(16), 16, i, i * 50_000_000L));
+        }
+        FramePipeline.Stats stats = pipeline.stats();
+        assertEquals(4, stats.received);
+        assertEquals(1, stats.decoded);
+        assertEquals(3, stats.skipped);
+        assertEquals(stats.received, stats.decoded + stats.decodeFailures + stats.unchanged + stats.notDecoded());
+        // 停止后的帧都还回了池
+        assertEquals(1, pool.allocations());
+    }
+
+    @Test
+    public void sixtyFpsFloodAgainstSlowDecoderOnlyDecodesFramesThatGetShown() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 8, 1);
+        ExecutorService renderThread = Executors.newSingleThreadExecutor();
+        AtomicLong recorded = new AtomicLong();
+        AtomicLong lastShown = new AtomicLong(-1);
+        AtomicInteger outOfOrder = new AtomicInteger();
+        // 解码一帧30ms（约33fps），渲染一帧5ms
+        FramePipeline<Long> pipeline = new FramePipeline<>(
+                frame -> {
+                    sleep(30);
+                    return frame.sequence();
+                },
+                frame -> {
+                    sleep(5);
+                    if (frame.image() <= lastShown.getAndSet(frame.image())) {
+                        outOfOrder.incrementAndGet();
+                    }
+                },
+                renderThread);
+        pipeline.start();
+
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 60);
+             NioMjpegClient client = new NioMjpegClient(1)) {
+            NioMjpegClient.Stream stream = client.open(server.url(), 2000, 2000, frame -> {
+                // 录像、移动检测等消费者在读取线程上拿到每一帧，之后才交给显示
+                recorded.incrementAndGet();
+                pipeline.submit(frame);
+            }, new NioMjpegClient.StreamCallback() {
+                @Override
+                public void onConnected(NioMjpegClient.Stream stream, String contentType) {
+                }
+
+                @Override
+                public void onClosed(NioMjpegClient.Stream stream, IOException error) {
+                }
+            });
+            sleep(1500);
+            stream.close();
+        }
+        pipeline.stop();
+        renderThread.shutdown();
+        assertTrue(renderThread.awaitTermination(5, TimeUnit.SECONDS));
+
+        FramePipeline.Stats stats = pipeline.stats();
+        assertEquals(recorded.get(), stats.received);
+        assertTrue("60fps下1.5秒收到的帧: " + stats, stats.received >= 60);
+        assertEquals(stats.toString(), stats.received, stats.decoded + stats.decodeFailures + stats.notDecoded());
+        assertTrue("解码跟不上时应跳过: " + stats, stats.notDecoded() > stats.received / 3);
+        // 没有解出来却显示不了的帧，停止时最多还有一帧在等渲染
+        assertEquals(stats.toString(), 0, stats.droppedBeforeRender);
+        assertTrue(stats.toString(), stats.decoded - stats.presented <= 1);
+        assertEquals(0, outOfOrder.get());
+        // 没有积压：收到到显示不超过一次等待加一次解码和渲染
+        assertTrue(stats.toString(), stats.maxLatencyNanos < TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
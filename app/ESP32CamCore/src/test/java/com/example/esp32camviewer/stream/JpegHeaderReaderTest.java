@@ -0,0 +1,59 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class JpegHeaderReaderTest {
+
+    @Test
+    public void readsDimensionsFromSof() throws Exception {
+        for (MjpegTestStreams.FrameSize size : MjpegTestStreams.FrameSize.values()) {
+            byte[] jpeg = MjpegTestStreams.jpeg(size, 1024, new Random(1));
+            int dimensions = JpegHeaderReader.readDimensions(jpeg, jpeg.length);
+            assertEquals(size.width, JpegHeaderReader.width(dimensions));
+            assertEquals(size.height, JpegHeaderReader.height(dimensions));
+        }
+    }
+
+    @Test
+    public void readsDimensionsFromEncodedJpeg() throws Exception {
+        // ImageIO编码的帧在SOF前还有DQT、DHT等段
+        List<byte[]> frames = MjpegTestStreams.decodableFrames(MjpegTestStreams.FrameSize.SVGA, 1);
+        int dimensions = JpegHeaderReader.readDimensions(frames.get(0), frames.get(0).length);
+        assertEquals(800, JpegHeaderReader.width(dimensions));
+        assertEquals(600, JpegHeaderReader.height(dimensions));
+    }
+
+    @Test
+    public void rejectsTruncatedOrNonJpegData() {
+        byte[] jpeg = MjpegTestStreams.jpeg(MjpegTestStreams.FrameSize.VGA, 1024, new Random(1));
+        assertEquals(-1, JpegHeaderReader.readDimensions(jpeg, 22));
+        assertEquals(-1, JpegHeaderReader.readDimensions(new byte[]{'-', '-', 'f', 'r'}, 4));
+    }
+
+    @Test
+    public void choosesLargestSampleSizeThatStillFillsTheView() {
+        // UXGA显示在400x300的区域里，缩小到1/4刚好填满
+        assertEquals(4, JpegHeaderReader.sampleSizeFor(1600, 1200, 400, 300));
+        assertEquals(2, JpegHeaderReader.sampleSizeFor(1600, 1200, 500, 400));
+        // 竖屏时宽度受限：1080宽显示1600的图，不能缩小
+        assertEquals(1, JpegHeaderReader.sampleSizeFor(1600, 1200, 1080, 2000));
+        // 横屏高度受限
+        assertEquals(2, JpegHeaderReader.sampleSizeFor(1600, 1200, 2400, 540));
+        // 最多缩小到1/8
+        assertEquals(8, JpegHeaderReader.sampleSizeFor(1600, 1200, 64, 48));
+        // 还没有布局时按原尺寸解码
+        assertEquals(1, JpegHeaderReader.sampleSizeFor(1600, 1200, 0, 0));
+    }
+
+    @Test
+    public void scaledSizeRoundsUp() {
+        assertEquals(400, JpegHeaderReader.scaledSize(1600, 4));
+        assertEquals(38, JpegHeaderReader.scaledSize(300, 8));
+        assertEquals(640, JpegHeaderReader.scaledSize(640, 1));
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.esp32camviewer.stream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * JVM上的两种JPEG解码方式，对应Android上每帧新分配Bitmap和通过inBitmap复用Bitmap两种做法，
+ * 用于在没有设备时验证比较工具和基准本身。
+ */
+final class JvmDecoders {
+    private JvmDecoders() {
+    }
+
+    /** 每帧ImageIO.read()，每次都新建读取器和图像 */
+    static final class AllocatingDecoder implements FramePipeline.Decoder<BufferedImage> {
+        @Override
+        public BufferedImage decode(JpegFrame frame) {
+            try {
+                return ImageIO.read(new ByteArrayInputStream(frame.data(), 0, frame.length()));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 复用同一个ImageReader，尺寸不变时解码进上一张图像。
+     * sampleSize大于1时隔行隔列取样，对应Android上按显示尺寸设置的inSampleSize。
+     */
+    static final class ReusingDecoder implements FramePipeline.Decoder<BufferedImage>, FramePipeline.Recycler<BufferedImage> {
+        private final ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        private final ImageReadParam param = reader.getDefaultReadParam();
+        private final int sampleSize;
+        private BufferedImage reusable;
+
+        ReusingDecoder() {
+            this(1);
+        }
+
+        ReusingDecoder(int sampleSize) {
+            this.sampleSize = sampleSize;
+            if (sampleSize > 1) {
+                param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+            }
+        }
+
+        @Override
+        public BufferedImage decode(JpegFrame frame) {
+            try (MemoryCacheImageInputStream input = new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(frame.data(), 0, frame.length()))) {
+                reader.setInput(input, true, true);
+                BufferedImage destination = reusable;
+                reusable = null;
+                if (destination != null
+                        && (destination.getWidth() != JpegHeaderReader.scaledSize(reader.getWidth(0), sampleSize)
+                        || destination.getHeight() != JpegHeaderReader.scaledSize(reader.getHeight(0), sampleSize))) {
+                    destination = null;
+                }
+                param.setDestination(destination);
+                return reader.read(0, param);
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void recycle(BufferedImage image) {
+            reusable = image;
+        }
+    }
+}
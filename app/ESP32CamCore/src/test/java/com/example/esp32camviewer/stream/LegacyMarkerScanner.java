@@ -0,0 +1,41 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 原先三个查看器中streamVideo()的切帧循环（去掉解码部分），作为正确性和性能对照。
+ */
+public final class LegacyMarkerScanner {
+    public interface Sink {
+        void onFrame(byte[] jpegData);
+    }
+
+    private final Sink sink;
+    private final ByteArrayOutputStream jpegBuffer = new ByteArrayOutputStream();
+    private boolean headerFound = false;
+
+    public LegacyMarkerScanner(Sink sink) {
+        this.sink = sink;
+    }
+
+    public void feed(byte[] buffer, int bytesRead) {
+        for (int i = 0; i < bytesRead; i++) {
+            jpegBuffer.write(buffer[i]);
+
+            if (jpegBuffer.size() >= 2 &&
+                    jpegBuffer.toByteArray()[jpegBuffer.size() - 2] == (byte) 0xFF &&
+                    jpegBuffer.toByteArray()[jpegBuffer.size() - 1] == (byte) 0xD8) {
+                headerFound = true;
+                jpegBuffer.reset();
+                jpegBuffer.write(0xFF);
+                jpegBuffer.write(0xD8);
+            } else if (headerFound && jpegBuffer.size() >= 2 &&
+                    jpegBuffer.toByteArray()[jpegBuffer.size() - 2] == (byte) 0xFF &&
+                    jpegBuffer.toByteArray()[jpegBuffer.size() - 1] == (byte) 0xD9) {
+                headerFound = false;
+                sink.onFrame(jpegBuffer.toByteArray());
+                jpegBuffer.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MjpegFrameExtractorTest {
+
+    @Test
+    public void matchesLegacyLoopForEveryChunkSize() {
+        byte[] stream = smallStream(6);
+        List<byte[]> expected = new ArrayList<>();
+        LegacyMarkerScanner legacy = new LegacyMarkerScanner(expected::add);
+        feedLegacy(legacy, stream, 1024);
+
+        for (int chunk : new int[]{1, 2, 3, 7, 1024, stream.length}) {
+            List<byte[]> actual = extract(stream, chunk);
+            assertEquals("chunk=" + chunk, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertArrayEquals("chunk=" + chunk + " frame=" + i, expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void markerSplitAcrossChunks() {
+        byte[] stream = {0x10, (byte) 0xFF, (byte) 0xD8, 0x01, 0x02, (byte) 0xFF, (byte) 0xD9, 0x20};
+        List<byte[]> frames = new ArrayList<>();
+        MjpegFrameExtractor extractor = new MjpegFrameExtractor(copyInto(frames));
+        extractor.feed(stream, 0, 2);
+        extractor.feed(stream, 2, 4);
+        extractor.feed(stream, 6, 2);
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(Arrays.copyOfRange(stream, 1, 7), frames.get(0));
+    }
+
+    @Test
+    public void soiInsideFrameRestartsFrame() {
+        byte[] stream = {(byte) 0xFF, (byte) 0xD8, 0x01, (byte) 0xFF, (byte) 0xD8, 0x02, (byte) 0xFF, (byte) 0xD9};
+        List<byte[]> frames = extract(stream, 3);
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(new byte[]{(byte) 0xFF, (byte) 0xD8, 0x02, (byte) 0xFF, (byte) 0xD9}, frames.get(0));
+    }
+
+    @Test
+    public void steadyStateReusesPooledBuffer() {
+        byte[] stream = MjpegTestStreams.multipartStream(MjpegTestStreams.FrameSize.SVGA, 20, 7);
+        ByteArrayPool pool = new ByteArrayPool(4);
+        int[] count = {0};
+        MjpegFrameExtractor extractor = new MjpegFrameExtractor(frame -> {
+            count[0]++;
+            frame.release();
+        }, pool);
+
+        for (int offset = 0; offset < stream.length; offset += 1024) {
+            extractor.feed(stream, offset, Math.min(1024, stream.length - offset));
+        }
+
+        assertEquals(20, count[0]);
+        // 第一帧超过初始容量时换过一次数组，此后不再分配
+        assertTrue("allocations=" + pool.allocations(), pool.allocations() <= 2);
+    }
+
+    private static byte[] smallStream(int frames) {
+        Random random = new Random(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < frames; i++) {
+            byte[] header = ("--frame\r\nContent-Type: image/jpeg\r\n\r\n").getBytes();
+            out.write(header, 0, header.length);
+            byte[] jpeg = MjpegTestStreams.jpeg(MjpegTestStreams.FrameSize.VGA, 2000 + i * 37, random);
+            out.write(jpeg, 0, jpeg.length);
+            out.write('\r');
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    private static List<byte[]> extract(byte[] stream, int chunkSize) {
+        List<byte[]> frames = new ArrayList<>();
+        MjpegFrameExtractor extractor = new MjpegFrameExtractor(copyInto(frames));
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            extractor.feed(stream, offset, Math.min(chunkSize, stream.length - offset));
+        }
+        return frames;
+    }
+
+    private static FrameListener copyInto(List<byte[]> frames) {
+        return frame -> {
+            frames.add(Arrays.copyOf(frame.data(), frame.length()));
+            frame.release();
+        };
+    }
+
+    private static void feedLegacy(LegacyMarkerScanner legacy, byte[] stream, int chunkSize) {
+        byte[] buffer = new byte[chunkSize];
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            int n = Math.min(chunkSize, stream.length - offset);
+            System.arraycopy(stream, offset, buffer, 0, n);
+            legacy.feed(buffer, n);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MultipartMjpegParserTest {
+
+    @Test
+    public void splitsFirmwareStreamByContentLength() {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 5, 11);
+        byte[] stream = MjpegTestStreams.multipartStream(jpegs);
+
+        for (int chunk : new int[]{1, 5, 1024, stream.length}) {
+            List<byte[]> frames = new ArrayList<>();
+            MultipartMjpegParser parser = new MultipartMjpegParser("frame", copyInto(frames));
+            for (int offset = 0; offset < stream.length; offset += chunk) {
+                parser.feed(stream, offset, Math.min(chunk, stream.length - offset));
+            }
+            assertFrames("chunk=" + chunk, jpegs, frames);
+        }
+    }
+
+    @Test
+    public void readFromInputStreamReadsBodiesDirectly() throws IOException {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.SVGA, 4, 5);
+        InputStream in = new ByteArrayInputStream(MjpegTestStreams.multipartStream(jpegs));
+        List<byte[]> frames = new ArrayList<>();
+        FrameParser parser = FrameParsers.create("multipart/x-mixed-replace; boundary=frame", copyInto(frames));
+
+        assertTrue(parser instanceof MultipartMjpegParser);
+        while (parser.readFrom(in)) {
+            // 读到流结束
+        }
+        assertFrames("readFrom", jpegs, frames);
+    }
+
+    @Test
+    public void embeddedThumbnailMarkersDoNotSplitFrame() {
+        // 正文里带一个完整的内嵌JPEG（EXIF缩略图），按标记切会被切成两半
+        byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, 0x01,
+                (byte) 0xFF, (byte) 0xD8, 0x02, (byte) 0xFF, (byte) 0xD9,
+                0x03, (byte) 0xFF, (byte) 0xD9};
+        byte[] stream = MjpegTestStreams.multipartStream(Arrays.asList(jpeg, jpeg));
+        List<byte[]> frames = new ArrayList<>();
+        MultipartMjpegParser parser = new MultipartMjpegParser("frame", copyInto(frames));
+        parser.feed(stream, 0, stream.length);
+
+        assertFrames("thumbnail", Arrays.asList(jpeg, jpeg), frames);
+    }
+
+    @Test
+    public void partWithoutContentLengthFallsBackToMarkerScan() {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 2, 9);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] jpeg : jpegs) {
+            MjpegTestStreams.writeAscii(out, "--frame\r\nContent-Type: image/jpeg\r\n\r\n");
+            out.write(jpeg, 0, jpeg.length);
+            MjpegTestStreams.writeAscii(out, "\r\n");
+        }
+        byte[] stream = out.toByteArray();
+        List<byte[]> frames = new ArrayList<>();
+        MultipartMjpegParser parser = new MultipartMjpegParser("frame", copyInto(frames));
+        for (int offset = 0; offset < stream.length; offset += 1024) {
+            parser.feed(stream, offset, Math.min(1024, stream.length - offset));
+        }
+
+        assertFrames("no length", jpegs, frames);
+    }
+
+    @Test
+    public void directBufferFeedMatchesArrayFeed() {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 4, 13);
+        byte[] stream = MjpegTestStreams.multipartStream(jpegs);
+
+        // 带boundary按Content-Length解析，不带时按标记切帧，两种解析器都要支持直接缓冲区
+        for (String contentType : new String[]{"multipart/x-mixed-replace; boundary=frame", "image/jpeg"}) {
+            for (int chunk : new int[]{7, 4096, 32 * 1024}) {
+                List<byte[]> frames = new ArrayList<>();
+                FrameParser parser = FrameParsers.create(contentType, copyInto(frames));
+                ByteBuffer buffer = ByteBuffer.allocateDirect(chunk);
+                for (int offset = 0; offset < stream.length; offset += chunk) {
+                    buffer.clear();
+                    buffer.put(stream, offset, Math.min(chunk, stream.length - offset));
+                    buffer.flip();
+                    parser.feed(buffer);
+                    assertFalse(buffer.hasRemaining());
+                }
+                assertFrames(contentType + " chunk=" + chunk, jpegs, frames);
+            }
+        }
+    }
+
+    @Test
+    public void parsesBoundaryFromContentType() {
+        assertEquals("frame", MultipartMjpegParser.boundaryOf("multipart/x-mixed-replace; boundary=frame"));
+        assertEquals("frame", MultipartMjpegParser.boundaryOf("Multipart/X-Mixed-Replace;Boundary=\"frame\"; charset=x"));
+        assertEquals("--myboundary", MultipartMjpegParser.boundaryOf("multipart/x-mixed-replace;boundary=--myboundary"));
+        assertNull(MultipartMjpegParser.boundaryOf("image/jpeg"));
+        assertNull(MultipartMjpegParser.boundaryOf("multipart/x-mixed-replace"));
+        assertNull(MultipartMjpegParser.boundaryOf(null));
+    }
+
+    @Test
+    public void declaredDashesAreNotRepeated() {
+        byte[] jpeg = MjpegTestStreams.jpeg(MjpegTestStreams.FrameSize.VGA, 500, new Random(1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MjpegTestStreams.writeAscii(out, "--myboundary\r\nContent-Length: " + jpeg.length + "\r\n\r\n");
+        out.write(jpeg, 0, jpeg.length);
+        byte[] stream = out.toByteArray();
+        List<byte[]> frames = new ArrayList<>();
+        new MultipartMjpegParser("--myboundary", copyInto(frames)).feed(stream, 0, stream.length);
+
+        assertFrames("dashes", Arrays.asList(jpeg), frames);
+    }
+
+    @Test
+    public void withoutBoundaryUsesMarkerExtractor() {
+        assertTrue(FrameParsers.create("image/jpeg", frame -> frame.release()) instanceof MjpegFrameExtractor);
+        assertTrue(FrameParsers.create(null, frame -> frame.release()) instanceof MjpegFrameExtractor);
+    }
+
+    private static void assertFrames(String message, List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(message + " frame=" + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    private static FrameListener copyInto(List<byte[]> frames) {
+        return frame -> {
+            frames.add(Arrays.copyOf(frame.data(), frame.length()));
+            frame.release();
+        };
+    }
+}
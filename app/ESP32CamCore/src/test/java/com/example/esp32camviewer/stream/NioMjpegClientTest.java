@@ -0,0 +1,337 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class NioMjpegClientTest {
+
+    @Test
+    public void oneIoThreadServesSeveralCameras() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 7);
+        List<StandInMjpegServer> servers = new ArrayList<>();
+        NioMjpegClient client = new NioMjpegClient(1);
+        Set<String> frameThreads = Collections.synchronizedSet(new HashSet<>());
+        AtomicInteger wrongLength = new AtomicInteger();
+        CountDownLatch enoughFrames = new CountDownLatch(4 * 10);
+        CountDownLatch closed = new CountDownLatch(4);
+        List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+        List<NioMjpegClient.Stream> streams = new ArrayList<>();
+        Set<String> contentTypes = Collections.synchronizedSet(new HashSet<>());
+        try {
+            for (int i = 0; i < 4; i++) {
+                StandInMjpegServer server = new StandInMjpegServer(jpegs, 100);
+                servers.add(server);
+                streams.add(client.open(server.url(), 2000, 2000, frame -> {
+                    frameThreads.add(Thread.currentThread().getName());
+                    if (frame.length() != jpegs.get((int) (frame.sequence() % jpegs.size())).length) {
+                        wrongLength.incrementAndGet();
+                    }
+                    frame.release();
+                    enoughFrames.countDown();
+                }, new NioMjpegClient.StreamCallback() {
+                    @Override
+                    public void onConnected(NioMjpegClient.Stream stream, String contentType) {
+                        contentTypes.add(contentType);
+                    }
+
+                    @Override
+                    public void onClosed(NioMjpegClient.Stream stream, IOException error) {
+                        if (error != null) {
+                            errors.add(error);
+                        }
+                        closed.countDown();
+                    }
+                }));
+            }
+
+            assertTrue(enoughFrames.await(5, TimeUnit.SECONDS));
+            for (NioMjpegClient.Stream stream : streams) {
+                stream.close();
+            }
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            assertEquals(Collections.emptyList(), errors);
+            assertEquals(0, wrongLength.get());
+            assertEquals(Collections.singleton("multipart/x-mixed-replace; boundary=frame"), contentTypes);
+            // 四路的帧都在同一个I/O线程上回调
+            assertEquals(Collections.singleton("mjpeg-io-0"), frameThreads);
+            for (NioMjpegClient.Stream stream : streams) {
+                assertFalse(stream.isOpen());
+                // 一次读取通常包含一帧的大部分，不再是1KB一次
+                assertTrue(stream.bytesRead() / stream.reads() > 1024);
+            }
+        } finally {
+            client.close();
+            for (StandInMjpegServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    public void stalledStreamTimesOut() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 1, 3);
+        NioMjpegClient client = new NioMjpegClient(1);
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 50)) {
+            server.setStalled(true);
+            AtomicReference<IOException> error = new AtomicReference<>();
+            CountDownLatch closed = new CountDownLatch(1);
+            client.open(server.url(), 2000, 300, JpegFrame::release, closeCallback(error, closed));
+
+            assertTrue(closed.await(3, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(error.get()), error.get() instanceof SocketTimeoutException);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void httpErrorIsReported() throws Exception {
+        NioMjpegClient client = new NioMjpegClient(1);
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread responder = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    Thread.sleep(1000);
+                } catch (IOException | InterruptedException ignored) {
+                }
+            });
+            responder.setDaemon(true);
+            responder.start();
+
+            AtomicReference<IOException> error = new AtomicReference<>();
+            CountDownLatch closed = new CountDownLatch(1);
+            client.open("http://127.0.0.1:" + server.getLocalPort() + "/", 2000, 2000,
+                    JpegFrame::release, closeCallback(error, closed));
+
+            assertTrue(closed.await(3, TimeUnit.SECONDS));
+            assertEquals("HTTP 404", error.get().getMessage());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void closingClientClosesOpenStreams() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 1, 5);
+        NioMjpegClient client = new NioMjpegClient(2);
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 50)) {
+            CountDownLatch closed = new CountDownLatch(2);
+            AtomicReference<IOException> error = new AtomicReference<>();
+            client.open(server.url(), 2000, 2000, JpegFrame::release, closeCallback(error, closed));
+            client.open(server.url(), 2000, 2000, JpegFrame::release, closeCallback(error, closed));
+            Thread.sleep(200);
+
+            client.close();
+            assertTrue(closed.await(3, TimeUnit.SECONDS));
+            assertNull(error.get());
+            try {
+                client.open(server.url(), 2000, 2000, JpegFrame::release, null);
+                fail("关闭后不能再打开连接");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void readBufferFollowsFrameSizeAndIsRememberedOnReconnect() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.UXGA, 3, 11);
+        NioMjpegClient client = new NioMjpegClient(1);
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 50)) {
+            StreamStats first = receive(client, server.url(), 20);
+            // 约160KB一帧，从32KB换成256KB
+            assertEquals(256 * 1024, first.readBufferSize);
+            assertEquals(1, first.bufferResizes);
+            assertTrue(first.receiveBufferSize >= 256 * 1024);
+            assertTrue(first.frames >= 20);
+
+            // 同一摄像头重连时直接用上次的大小
+            StreamStats second = receive(client, server.url(), 10);
+            assertEquals(256 * 1024, second.readBufferSize);
+            assertEquals(0, second.bufferResizes);
+            // 接收缓冲区在连接前就按上次的大小设置；每帧读几次取决于socket时序，不作断言
+            assertTrue(second.toString(), second.receiveBufferSize >= 256 * 1024);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void slowHostNameIsResolvedOffTheCallerAndCached() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 1, 12);
+        AtomicInteger lookups = new AtomicInteger();
+        // 模拟mDNS解析.local名字要300ms
+        AddressCache cache = new AddressCache(TimeUnit.MINUTES.toNanos(1), host -> {
+            lookups.incrementAndGet();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return InetAddress.getLoopbackAddress();
+        });
+        NioMjpegClient client = new NioMjpegClient(1);
+        client.setAddressCache(cache);
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 50)) {
+            String url = "http://esp32cam.local:" + server.port() + "/";
+            long start = System.nanoTime();
+            CountDownLatch firstFrame = new CountDownLatch(1);
+            CountDownLatch closed = new CountDownLatch(1);
+            AtomicReference<IOException> error = new AtomicReference<>();
+            NioMjpegClient.Stream stream = client.open(url, 2000, 2000, frame -> {
+                frame.release();
+                firstFrame.countDown();
+            }, closeCallback(error, closed));
+            assertTrue("open()阻塞了调用线程", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200));
+            assertTrue(firstFrame.await(5, TimeUnit.SECONDS));
+            stream.close();
+            assertTrue(closed.await(3, TimeUnit.SECONDS));
+            assertNull(error.get());
+
+            StreamStats cold = stream.stats();
+            assertTrue(cold.toString(), cold.connectNanos >= TimeUnit.MILLISECONDS.toNanos(300));
+            assertTrue(cold.headersNanos >= cold.connectNanos);
+            assertTrue(cold.firstFrameNanos >= cold.headersNanos);
+
+            // 第二次连接直接用缓存的地址
+            StreamStats warm = receive(client, url, 1);
+            assertEquals(1, lookups.get());
+            assertEquals(1, cache.hits());
+            assertTrue(warm.toString(), warm.connectNanos < TimeUnit.MILLISECONDS.toNanos(200));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void closingWhileResolvingStillReportsOnClosed() throws Exception {
+        CountDownLatch resolving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AddressCache cache = new AddressCache(TimeUnit.MINUTES.toNanos(1), host -> {
+            resolving.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return InetAddress.getLoopbackAddress();
+        });
+        NioMjpegClient client = new NioMjpegClient(1);
+        client.setAddressCache(cache);
+        AtomicReference<IOException> error = new AtomicReference<>();
+        CountDownLatch closed = new CountDownLatch(1);
+        client.open("http://esp32cam.local/", 2000, 2000, JpegFrame::release, closeCallback(error, closed));
+        assertTrue(resolving.await(3, TimeUnit.SECONDS));
+
+        // 解析还没完成时关闭客户端，等I/O线程退出后才返回解析结果
+        client.close();
+        Thread.sleep(300);
+        release.countDown();
+        assertTrue("onClosed没有回调", closed.await(3, TimeUnit.SECONDS));
+        assertNotNull(error.get());
+        assertEquals(0, client.openStreams());
+        assertEquals(0, client.buffersInUse());
+    }
+
+    @Test
+    public void unresolvableHostIsReportedThroughOnClosed() throws Exception {
+        AddressCache cache = new AddressCache(TimeUnit.MINUTES.toNanos(1), host -> {
+            throw new UnknownHostException(host);
+        });
+        NioMjpegClient client = new NioMjpegClient(1);
+        client.setAddressCache(cache);
+        try {
+            AtomicReference<IOException> error = new AtomicReference<>();
+            CountDownLatch closed = new CountDownLatch(1);
+            client.open("http://missing.local/", 2000, 2000, JpegFrame::release, closeCallback(error, closed));
+
+            assertTrue(closed.await(3, TimeUnit.SECONDS));
+            assertTrue(error.get() instanceof UnknownHostException);
+            assertNull(cache.cached("missing.local"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void failedConnectInvalidatesCachedAddress() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        AddressCache cache = new AddressCache(TimeUnit.MINUTES.toNanos(1), host -> {
+            lookups.incrementAndGet();
+            return InetAddress.getLoopbackAddress();
+        });
+        NioMjpegClient client = new NioMjpegClient(1);
+        client.setAddressCache(cache);
+        int port;
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = unused.getLocalPort();
+        }
+        try {
+            // 端口上没有服务，连接被拒绝，缓存的地址作废
+            AtomicReference<IOException> error = new AtomicReference<>();
+            CountDownLatch closed = new CountDownLatch(1);
+            client.open("http://esp32cam.local:" + port + "/", 2000, 2000, JpegFrame::release,
+                    closeCallback(error, closed));
+            assertTrue(closed.await(3, TimeUnit.SECONDS));
+            assertNotNull(error.get());
+            assertEquals(1, lookups.get());
+            assertNull(cache.cached("esp32cam.local"));
+            // IP字面量不查DNS
+            assertNotNull(cache.cached("127.0.0.1"));
+            assertEquals(1, lookups.get());
+        } finally {
+            client.close();
+        }
+    }
+
+    private static StreamStats receive(NioMjpegClient client, String url, int frameCount) throws Exception {
+        CountDownLatch enoughFrames = new CountDownLatch(frameCount);
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicReference<IOException> error = new AtomicReference<>();
+        NioMjpegClient.Stream stream = client.open(url, 2000, 2000, frame -> {
+            frame.release();
+            enoughFrames.countDown();
+        }, closeCallback(error, closed));
+        assertTrue(enoughFrames.await(5, TimeUnit.SECONDS));
+        stream.close();
+        assertTrue(closed.await(3, TimeUnit.SECONDS));
+        assertNull(error.get());
+        return stream.stats();
+    }
+
+    private static NioMjpegClient.StreamCallback closeCallback(AtomicReference<IOException> error, CountDownLatch closed) {
+        return new NioMjpegClient.StreamCallback() {
+            @Override
+            public void onConnected(NioMjpegClient.Stream stream, String contentType) {
+            }
+
+            @Override
+            public void onClosed(NioMjpegClient.Stream stream, IOException e) {
+                if (e != null) {
+                    error.set(e);
+                }
+                closed.countDown();
+            }
+        };
+    }
+}
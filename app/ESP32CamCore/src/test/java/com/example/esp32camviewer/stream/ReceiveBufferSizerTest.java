@@ -0,0 +1,55 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReceiveBufferSizerTest {
+
+    @Test
+    public void growsToHoldATypicalFrame() {
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(0);
+        assertEquals(NioMjpegClient.READ_BUFFER_SIZE, sizer.readBufferSize());
+        for (int i = 0; i < 3; i++) {
+            sizer.onFrame(80 * 1024);
+        }
+        // 样本太少时不调整
+        assertFalse(sizer.update());
+        sizer.onFrame(80 * 1024);
+        assertTrue(sizer.update());
+        assertEquals(128 * 1024, sizer.readBufferSize());
+        assertEquals(256 * 1024, sizer.receiveBufferSize());
+        assertFalse(sizer.update());
+    }
+
+    @Test
+    public void shrinksOnlyWhenFramesGetMuchSmaller() {
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(120 * 1024);
+        assertEquals(128 * 1024, sizer.readBufferSize());
+        for (int i = 0; i < 32; i++) {
+            sizer.onFrame(50 * 1024);
+        }
+        // 64KB就够，但不到当前的1/4，保持不变
+        assertFalse(sizer.update());
+        for (int i = 0; i < 32; i++) {
+            sizer.onFrame(10 * 1024);
+        }
+        assertTrue(sizer.update());
+        assertEquals(ReceiveBufferSizer.MIN_READ_BUFFER, sizer.readBufferSize());
+        assertEquals(ReceiveBufferSizer.MIN_RECEIVE_BUFFER, sizer.receiveBufferSize());
+    }
+
+    @Test
+    public void occasionalLargeFramesDoNotSetTheSize() {
+        ReceiveBufferSizer sizer = new ReceiveBufferSizer(0);
+        for (int i = 0; i < 32; i++) {
+            sizer.onFrame(i % 16 == 0 ? 200 * 1024 : 36 * 1024);
+        }
+        // 90分位仍是36KB，偶尔的大帧多读几次即可
+        assertEquals(36 * 1024, sizer.typicalFrameSize());
+        assertTrue(sizer.update());
+        assertEquals(64 * 1024, sizer.readBufferSize());
+        assertEquals(ReceiveBufferSizer.MAX_READ_BUFFER,
+                ReceiveBufferSizer.readBufferFor(MjpegTestStreams.FrameSize.UXGA.typicalBytes));
+    }
+}
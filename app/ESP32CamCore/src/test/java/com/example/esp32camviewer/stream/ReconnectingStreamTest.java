@@ -0,0 +1,218 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReconnectingStreamTest {
+
+    @Test
+    public void reconnectsAfterDisconnectAndRecordsOutage() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 1);
+        RecordingListener listener = new RecordingListener();
+        AtomicInteger frames = new AtomicInteger();
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 30);
+             NioMjpegClient client = new NioMjpegClient(1);
+             ReconnectingStream session = new ReconnectingStream(client, server.url(), 2000, 5000,
+                     frame -> {
+                         frames.incrementAndGet();
+                         frame.release();
+                     }, listener)) {
+            session.start();
+            FirstFrame initial = listener.firstFrames.poll(5, TimeUnit.SECONDS);
+            assertNotNull(initial);
+            assertEquals(0, initial.outageNanos);
+            assertTrue(initial.timeToFirstFrameNanos > 0);
+
+            server.dropConnections();
+            FirstFrame recovered = listener.firstFrames.poll(5, TimeUnit.SECONDS);
+            assertNotNull("断开后没有重连", recovered);
+            assertTrue(recovered.outageNanos > 0);
+            assertTrue("中断 " + recovered.outageNanos / 1_000_000 + "ms",
+                    recovered.outageNanos < TimeUnit.MILLISECONDS.toNanos(1500));
+
+            ReconnectStats stats = session.stats();
+            assertEquals(2, stats.connects);
+            assertEquals(1, stats.interruptions);
+            assertEquals(1, stats.outages);
+            assertEquals(recovered.outageNanos, stats.lastOutageNanos);
+            assertEquals(initial.timeToFirstFrameNanos, stats.firstFrameNanos);
+            assertEquals(recovered.timeToFirstFrameNanos, stats.lastTimeToFirstFrameNanos);
+            assertEquals(1, listener.attempts.size());
+            assertEquals(Integer.valueOf(1), listener.attempts.get(0));
+            assertTrue(session.isReceiving());
+
+            int before = frames.get();
+            Thread.sleep(300);
+            assertTrue(frames.get() > before);
+        }
+    }
+
+    @Test
+    public void stalledConnectionIsReplacedBeforeReadTimeout() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 2);
+        RecordingListener listener = new RecordingListener();
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 30);
+             NioMjpegClient client = new NioMjpegClient(1);
+             ReconnectingStream session = new ReconnectingStream(client, server.url(), 2000, 5000,
+                     JpegFrame::release, listener)) {
+            session.setStallTimeoutMs(300);
+            session.start();
+            assertNotNull(listener.firstFrames.poll(5, TimeUnit.SECONDS));
+            NioMjpegClient.Stream stalled = session.currentStream();
+
+            // 连接还在但不再有数据，5秒读超时之前就切到备用连接
+            server.stallCurrentConnections();
+            FirstFrame swapped = listener.firstFrames.poll(3, TimeUnit.SECONDS);
+            assertNotNull("停滞后没有切到备用连接", swapped);
+            assertNotSame(stalled, swapped.stream);
+            assertTrue("中断 " + swapped.outageNanos / 1_000_000 + "ms",
+                    swapped.outageNanos < TimeUnit.MILLISECONDS.toNanos(2000));
+
+            ReconnectStats stats = session.stats();
+            assertEquals(1, stats.stallSwaps);
+            assertEquals(0, stats.interruptions);
+            assertEquals(1, stats.outages);
+            // 旧连接被主动关闭，不算中断
+            waitForClose(listener, stalled);
+            assertFalse(stalled.isOpen());
+            assertTrue(listener.attempts.isEmpty());
+        }
+    }
+
+    @Test
+    public void backsOffWhileCameraIsDownAndResetsAfterRecovery() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 3);
+        RecordingListener listener = new RecordingListener();
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 30);
+             NioMjpegClient client = new NioMjpegClient(1);
+             ReconnectingStream session = new ReconnectingStream(client, server.url(), 2000, 5000,
+                     JpegFrame::release, listener)) {
+            session.start();
+            assertNotNull(listener.firstFrames.poll(5, TimeUnit.SECONDS));
+
+            server.setRejectConnections(true);
+            server.dropConnections();
+            // 250、500、1000ms档位，抖动后至少等125+250+500ms
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (listener.attempts.size() < 4 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            List<Integer> attempts = new ArrayList<>(listener.attempts);
+            List<Long> delays = new ArrayList<>(listener.delays);
+            assertTrue("重试次数 " + attempts, attempts.size() >= 4);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i + 1), attempts.get(i));
+                long base = ReconnectingStream.INITIAL_RETRY_DELAY_MS << i;
+                assertTrue("第" + (i + 1) + "次等待 " + delays.get(i), delays.get(i) >= base / 2 && delays.get(i) <= base);
+            }
+
+            server.setRejectConnections(false);
+            FirstFrame recovered = listener.firstFrames.poll(10, TimeUnit.SECONDS);
+            assertNotNull("摄像头恢复后没有重连上", recovered);
+            assertTrue(recovered.outageNanos > TimeUnit.MILLISECONDS.toNanos(875));
+
+            // 收到帧后重新从第一档开始退避
+            listener.attempts.clear();
+            server.dropConnections();
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (listener.attempts.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Integer.valueOf(1), listener.attempts.get(0));
+        }
+    }
+
+    @Test
+    public void retryDelayIsJitteredAndCapped() {
+        Random random = new Random(5);
+        Set<Long> firstDelays = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            long first = ReconnectingStream.retryDelayMs(1, random);
+            assertTrue(first >= 125 && first <= 250);
+            firstDelays.add(first);
+            long late = ReconnectingStream.retryDelayMs(40, random);
+            assertTrue(late >= ReconnectingStream.MAX_RETRY_DELAY_MS / 2 && late <= ReconnectingStream.MAX_RETRY_DELAY_MS);
+        }
+        // 多路同时断线时各自的等待时间要错开
+        assertTrue(firstDelays.size() > 10);
+    }
+
+    @Test
+    public void closeStopsReconnecting() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 4);
+        RecordingListener listener = new RecordingListener();
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 30);
+             NioMjpegClient client = new NioMjpegClient(1)) {
+            ReconnectingStream session = new ReconnectingStream(client, server.url(), 2000, 5000,
+                    JpegFrame::release, listener);
+            session.start();
+            assertNotNull(listener.firstFrames.poll(5, TimeUnit.SECONDS));
+            NioMjpegClient.Stream stream = session.currentStream();
+
+            session.close();
+            waitForClose(listener, stream);
+            server.dropConnections();
+            Thread.sleep(600);
+            assertEquals(1, server.connections());
+            assertTrue(listener.attempts.isEmpty());
+            assertNull(session.currentStream());
+        }
+    }
+
+    private static void waitForClose(RecordingListener listener, NioMjpegClient.Stream stream)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!listener.closed.contains(stream)) {
+            assertTrue("连接没有关闭", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class FirstFrame {
+        final NioMjpegClient.Stream stream;
+        final long timeToFirstFrameNanos;
+        final long outageNanos;
+
+        FirstFrame(NioMjpegClient.Stream stream, long timeToFirstFrameNanos, long outageNanos) {
+            this.stream = stream;
+            this.timeToFirstFrameNanos = timeToFirstFrameNanos;
+            this.outageNanos = outageNanos;
+        }
+    }
+
+    private static final class RecordingListener implements ReconnectingStream.Listener {
+        final BlockingQueue<FirstFrame> firstFrames = new LinkedBlockingQueue<>();
+        final List<Integer> attempts = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> delays = Collections.synchronizedList(new ArrayList<>());
+        final Set<NioMjpegClient.Stream> closed = Collections.synchronizedSet(new HashSet<>());
+
+        @Override
+        public void onFirstFrame(NioMjpegClient.Stream stream, long timeToFirstFrameNanos, long outageNanos) {
+            firstFrames.add(new FirstFrame(stream, timeToFirstFrameNanos, outageNanos));
+        }
+
+        @Override
+        public void onInterrupted(IOException error, int attempt, long retryDelayMs) {
+            attempts.add(attempt);
+            delays.add(retryDelayMs);
+        }
+
+        @Override
+        public void onStreamClosed(NioMjpegClient.Stream stream, IOException error) {
+            closed.add(stream);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ThreadPerStreamClientTest {
+
+    @Test
+    public void eachSessionReadsOnItsOwnThread() throws Exception {
+        receiveFromThreeCameras(ThreadPerStreamClient.platformThreads());
+    }
+
+    @Test
+    public void virtualThreadsWhenTheRuntimeHasThem() throws Exception {
+        ThreadFactory virtual = ThreadPerStreamClient.virtualThreads();
+        int feature = Integer.parseInt(System.getProperty("java.specification.version").replaceFirst("^1\\.", "")
+                .replaceFirst("\\..*", ""));
+        assertEquals("Java 21起才有虚拟线程", feature >= 21, virtual != null);
+        if (virtual != null) {
+            receiveFromThreeCameras(virtual);
+        }
+    }
+
+    private static void receiveFromThreeCameras(ThreadFactory threads) throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 7);
+        List<StandInMjpegServer> servers = new ArrayList<>();
+        ThreadPerStreamClient client = new ThreadPerStreamClient(threads);
+        Set<String> frameThreads = Collections.synchronizedSet(new HashSet<>());
+        AtomicInteger wrongLength = new AtomicInteger();
+        CountDownLatch enoughFrames = new CountDownLatch(3 * 10);
+        CountDownLatch closed = new CountDownLatch(3);
+        List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+        Set<String> contentTypes = Collections.synchronizedSet(new HashSet<>());
+        List<ThreadPerStreamClient.Session> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                StandInMjpegServer server = new StandInMjpegServer(jpegs, 100);
+                servers.add(server);
+                sessions.add(client.open(server.url(), 2000, 2000, frame -> {
+                    frameThreads.add(Thread.currentThread().getName());
+                    if (frame.length() != jpegs.get((int) (frame.sequence() % jpegs.size())).length) {
+                        wrongLength.incrementAndGet();
+                    }
+                    frame.release();
+                    enoughFrames.countDown();
+                }, new ThreadPerStreamClient.Callback() {
+                    @Override
+                    public void onConnected(ThreadPerStreamClient.Session session, String contentType) {
+                        contentTypes.add(contentType);
+                    }
+
+                    @Override
+                    public void onClosed(ThreadPerStreamClient.Session session, IOException error) {
+                        if (error != null) {
+                            errors.add(error);
+                        }
+                        closed.countDown();
+                    }
+                }));
+            }
+
+            assertTrue(enoughFrames.await(5, TimeUnit.SECONDS));
+            for (ThreadPerStreamClient.Session session : sessions) {
+                session.close();
+                assertTrue(session.await(1000));
+                assertFalse(session.isOpen());
+                assertTrue(session.frames() > 0);
+                assertTrue(session.bytesRead() / session.reads() > 1024);
+            }
+            assertTrue(closed.await(1, TimeUnit.SECONDS));
+            assertEquals(Collections.emptyList(), errors);
+            assertEquals(0, wrongLength.get());
+            assertEquals(Collections.singleton("multipart/x-mixed-replace; boundary=frame"), contentTypes);
+            // 每路在自己的线程上回调
+            assertEquals(3, frameThreads.size());
+            for (String name : frameThreads) {
+                assertTrue(name, name.startsWith("mjpeg-session-"));
+            }
+            assertEquals(0, client.activeSessions());
+        } finally {
+            client.close();
+            for (StandInMjpegServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    public void closingTheClientCancelsBlockedReadsAndWaitsForThem() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 3, 7);
+        ThreadPerStreamClient client = new ThreadPerStreamClient(ThreadPerStreamClient.platformThreads());
+        CountDownLatch firstFrames = new CountDownLatch(5);
+        AtomicInteger closedCallbacks = new AtomicInteger();
+        List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+        List<ThreadPerStreamClient.Session> sessions = new ArrayList<>();
+        try (StandInMjpegServer server = new StandInMjpegServer(jpegs, 20)) {
+            for (int i = 0; i < 5; i++) {
+                AtomicInteger received = new AtomicInteger();
+                sessions.add(client.open(server.url(), 2000, 30_000, frame -> {
+                    frame.release();
+                    if (received.incrementAndGet() == 1) {
+                        firstFrames.countDown();
+                    }
+                }, new ThreadPerStreamClient.Callback() {
+                    @Override
+                    public void onConnected(ThreadPerStreamClient.Session session, String contentType) {
+                    }
+
+                    @Override
+                    public void onClosed(ThreadPerStreamClient.Session session, IOException error) {
+                        if (error != null) {
+                            errors.add(error);
+                        }
+                        closedCallbacks.incrementAndGet();
+                    }
+                }));
+            }
+            assertTrue(firstFrames.await(5, TimeUnit.SECONDS));
+            // 连接还在但没有数据，五个会话都阻塞在read()上，读超时30秒
+            server.setStalled(true);
+            Thread.sleep(200);
+            assertEquals(5, client.activeSessions());
+
+            long start = System.nanoTime();
+            client.close();
+            long closeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue("关闭用了" + closeMs + "ms", closeMs < 1000);
+            // close()返回时所有会话都已结束，回调都已执行
+            assertEquals(5, closedCallbacks.get());
+            assertEquals("主动关闭不算错误", Collections.emptyList(), errors);
+            assertEquals(0, client.activeSessions());
+            for (ThreadPerStreamClient.Session session : sessions) {
+                assertFalse(session.isOpen());
+                // countDown之后线程只剩返回，很快就结束，不会留下线程
+                session.thread().join(1000);
+                assertFalse(session.thread().isAlive());
+            }
+            try {
+                client.open(server.url(), 2000, 2000, JpegFrame::release, null);
+                fail("关闭后不能再打开会话");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void httpErrorAndRefusedConnectionAreReported() throws Exception {
+        ThreadPerStreamClient client = new ThreadPerStreamClient(ThreadPerStreamClient.platformThreads());
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread responder = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    Thread.sleep(1000);
+                } catch (IOException | InterruptedException ignored) {
+                }
+            });
+            responder.setDaemon(true);
+            responder.start();
+
+            AtomicReference<IOException> error = new AtomicReference<>();
+            CountDownLatch closed = new CountDownLatch(1);
+            client.open("http://127.0.0.1:" + server.getLocalPort() + "/", 2000, 2000,
+                    JpegFrame::release, closeCallback(error, closed));
+            assertTrue(closed.await(3, TimeUnit.SECONDS));
+            assertEquals("HTTP 404", error.get().getMessage());
+
+            int unusedPort;
+            try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                unusedPort = unused.getLocalPort();
+            }
+            AtomicReference<IOException> refused = new AtomicReference<>();
+            CountDownLatch refusedClosed = new CountDownLatch(1);
+            client.open("http://127.0.0.1:" + unusedPort + "/", 2000, 2000,
+                    JpegFrame::release, closeCallback(refused, refusedClosed));
+            assertTrue(refusedClosed.await(3, TimeUnit.SECONDS));
+            assertNotNull(refused.get());
+        } finally {
+            client.close();
+        }
+    }
+
+    private static ThreadPerStreamClient.Callback closeCallback(AtomicReference<IOException> error,
+                                                                CountDownLatch closed) {
+        return new ThreadPerStreamClient.Callback() {
+            @Override
+            public void onConnected(ThreadPerStreamClient.Session session, String contentType) {
+            }
+
+            @Override
+            public void onClosed(ThreadPerStreamClient.Session session, IOException e) {
+                error.set(e);
+                closed.countDown();
+            }
+        };
+    }
+}
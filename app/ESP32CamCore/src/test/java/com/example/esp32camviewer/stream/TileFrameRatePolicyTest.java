@@ -0,0 +1,41 @@
+package com.example.esp32camviewer.stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileFrameRatePolicyTest {
+
+    @Test
+    public void smallerTilesGetLowerFrameRates() {
+        assertEquals(5, TileFrameRatePolicy.maxFpsFor(150, 100, true));
+        assertEquals(10, TileFrameRatePolicy.maxFpsFor(240, 180, true));
+        assertEquals(15, TileFrameRatePolicy.maxFpsFor(540, 405, true));
+        assertEquals(TileFrameRatePolicy.UNLIMITED, TileFrameRatePolicy.maxFpsFor(1080, 810, true));
+    }
+
+    @Test
+    public void hiddenOrEmptyTilesArePaused() {
+        assertEquals(TileFrameRatePolicy.PAUSED, TileFrameRatePolicy.maxFpsFor(1080, 810, false));
+        assertEquals(TileFrameRatePolicy.PAUSED, TileFrameRatePolicy.maxFpsFor(0, 0, true));
+    }
+
+    @Test
+    public void applyPausesOrLimitsPipeline() {
+        FramePipeline<Object> pipeline = new FramePipeline<>(frame -> frame, frame -> {
+        }, Runnable::run, null, Runnable::run);
+        pipeline.start();
+
+        TileFrameRatePolicy.apply(pipeline, TileFrameRatePolicy.PAUSED);
+        assertTrue(pipeline.isPaused());
+        pipeline.submit(JpegFrame.wrap(new byte[1], 1));
+        assertEquals(1, pipeline.stats().skipped);
+
+        TileFrameRatePolicy.apply(pipeline, TileFrameRatePolicy.UNLIMITED);
+        assertFalse(pipeline.isPaused());
+        pipeline.submit(JpegFrame.wrap(new byte[1], 1));
+        pipeline.submit(JpegFrame.wrap(new byte[1], 1));
+        assertEquals(2, pipeline.stats().decoded);
+        pipeline.stop();
+    }
+}
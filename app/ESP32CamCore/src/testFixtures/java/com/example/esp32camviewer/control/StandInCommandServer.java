@@ -0,0 +1,191 @@
+package com.example.esp32camviewer.control;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本机回环上模拟固件的控制接口：/led/on|off、/flash/on|off、/restart，其他路径返回404。
+ * 默认和新固件一样回复后保持连接、空闲5秒关闭；{@link #setKeepAlive(boolean)}为false时
+ * 和旧固件一样每次回复后关闭连接。
+ */
+public final class StandInCommandServer implements Closeable {
+    private final ServerSocket serverSocket;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean closed = false;
+    private volatile boolean keepAlive = true;
+    private volatile int idleTimeoutMs = 5000;
+    private volatile int responseDelayMs = 0;
+    private volatile boolean lightOn = false;
+
+    public StandInCommandServer() throws IOException {
+        serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(this::acceptLoop, "stand-in-command-" + port());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** 不带http://的地址，和查看器里保存的IP格式一致 */
+    public String host() {
+        return "127.0.0.1:" + port();
+    }
+
+    /** 累计接受的连接数 */
+    public int connections() {
+        return connections.get();
+    }
+
+    /** 按收到的顺序排列的请求路径 */
+    public List<String> requests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    public boolean isLightOn() {
+        return lightOn;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /** 控制连接空闲多久后由服务器关闭 */
+    public void setIdleTimeoutMs(int idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /** 每个请求在回复前等待的时间，模拟固件正在发送一帧大图 */
+    public void setResponseDelayMs(int responseDelayMs) {
+        this.responseDelayMs = responseDelayMs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                connections.incrementAndGet();
+                clients.add(client);
+                Thread thread = new Thread(() -> serve(client), "stand-in-command-client-" + port());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+            while (!closed) {
+                client.setSoTimeout(idleTimeoutMs);
+                String requestLine;
+                try {
+                    requestLine = readRequest(in);
+                } catch (SocketTimeoutException e) {
+                    return;
+                }
+                if (requestLine == null) {
+                    return;
+                }
+                String[] parts = requestLine.split(" ");
+                String path = parts.length >= 2 ? parts[1] : "";
+                requests.add(path);
+                if (responseDelayMs > 0) {
+                    Thread.sleep(responseDelayMs);
+                }
+                boolean keep = keepAlive && !path.equals("/restart");
+                out.write(response(path, keep));
+                out.flush();
+                if (!keep) {
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // 客户端断开或服务器关闭
+        } finally {
+            clients.remove(client);
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private byte[] response(String path, boolean keep) {
+        int code = 200;
+        String body;
+        if (path.equals("/led/on") || path.equals("/flash/on")) {
+            lightOn = true;
+            body = "on";
+        } else if (path.equals("/led/off") || path.equals("/flash/off")) {
+            lightOn = false;
+            body = "off";
+        } else if (path.equals("/restart")) {
+            body = "重启中...";
+        } else {
+            code = 404;
+            body = "not found";
+        }
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("HTTP/1.1 " + code + (code == 200 ? " OK" : " Not Found") + "\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: " + bodyBytes.length + "\r\n"
+                + "Connection: " + (keep ? "keep-alive" : "close") + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[head.length + bodyBytes.length];
+        System.arraycopy(head, 0, response, 0, head.length);
+        System.arraycopy(bodyBytes, 0, response, head.length, bodyBytes.length);
+        return response;
+    }
+
+    // 读一个请求的请求行和请求头，返回请求行；连接关闭时返回null
+    private static String readRequest(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        String requestLine = null;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                if (line.length() == 0) {
+                    return requestLine;
+                }
+                if (requestLine == null) {
+                    requestLine = line.toString();
+                }
+                line.setLength(0);
+            } else if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.esp32camviewer.stream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 测试和基准共用的MJPEG数据。
+ * 设置了系统属性esp32cam.corpus.dir时读取其中录制的&lt;帧尺寸&gt;.mjpeg（如vga.mjpeg），
+ * 否则按固件的输出格式生成合成流，帧大小取OV2640在jpeg_quality=10时的典型值。
+ */
+public final class MjpegTestStreams {
+    public static final String CORPUS_DIR_PROPERTY = "esp32cam.corpus.dir";
+
+    public enum FrameSize {
+        VGA(640, 480, 36 * 1024),
+        SVGA(800, 600, 52 * 1024),
+        XGA(1024, 768, 80 * 1024),
+        SXGA(1280, 1024, 120 * 1024),
+        UXGA(1600, 1200, 160 * 1024);
+
+        public final int width;
+        public final int height;
+        public final int typicalBytes;
+
+        FrameSize(int width, int height, int typicalBytes) {
+            this.width = width;
+            this.height = height;
+            this.typicalBytes = typicalBytes;
+        }
+    }
+
+    private MjpegTestStreams() {
+    }
+
+    /** 录制文件存在时返回录制数据，否则返回frameCount帧合成流 */
+    public static byte[] load(FrameSize size, int frameCount) throws IOException {
+        String dir = System.getProperty(CORPUS_DIR_PROPERTY);
+        if (dir != null) {
+            File recorded = new File(dir, size.name().toLowerCase() + ".mjpeg");
+            if (recorded.isFile()) {
+                return Files.readAllBytes(recorded.toPath());
+            }
+        }
+        return multipartStream(size, frameCount, 42);
+    }
+
+    /**
+     * 可以真正解码的JPEG帧，用于比较解码器。录制文件存在时从中切出前frameCount帧，
+     * 否则用ImageIO编码合成画面（渐变背景、移动的方块和噪点），质量约等于固件的jpeg_quality=10。
+     */
+    public static List<byte[]> decodableFrames(FrameSize size, int frameCount) throws IOException {
+        String dir = System.getProperty(CORPUS_DIR_PROPERTY);
+        if (dir != null) {
+            File recorded = new File(dir, size.name().toLowerCase() + ".mjpeg");
+            if (recorded.isFile()) {
+                return splitFrames(Files.readAllBytes(recorded.toPath()), frameCount);
+            }
+        }
+        Random random = new Random(42);
+        List<byte[]> jpegs = new ArrayList<>(frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            jpegs.add(encode(scene(size, i, random), 0.8f));
+        }
+        return jpegs;
+    }
+
+    /** 录制目录里名为name的流（如static-vga.mjpeg）的前frameCount帧，没有设置录制目录或没有这个文件时返回null */
+    public static List<byte[]> recorded(String name, int frameCount) throws IOException {
+        String dir = System.getProperty(CORPUS_DIR_PROPERTY);
+        if (dir == null) {
+            return null;
+        }
+        File recorded = new File(dir, name);
+        return recorded.isFile() ? splitFrames(Files.readAllBytes(recorded.toPath()), frameCount) : null;
+    }
+
+    private static List<byte[]> splitFrames(byte[] stream, int frameCount) {
+        List<byte[]> jpegs = new ArrayList<>(frameCount);
+        FrameParser parser = FrameParsers.create("multipart/x-mixed-replace; boundary=frame", frame -> {
+            if (jpegs.size() < frameCount) {
+                byte[] copy = new byte[frame.length()];
+                System.arraycopy(frame.data(), 0, copy, 0, frame.length());
+                jpegs.add(copy);
+            }
+            frame.release();
+        });
+        parser.feed(stream, 0, stream.length);
+        return jpegs;
+    }
+
+    private static BufferedImage scene(FrameSize size, int index, Random random) {
+        BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        for (int y = 0; y < size.height; y += 8) {
+            g.setColor(new Color(40 + y * 150 / size.height, 90, 160 - y * 100 / size.height));
+            g.fillRect(0, y, size.width, 8);
+        }
+        g.setColor(Color.ORANGE);
+        g.fillRect((index * 16) % size.width, size.height / 3, size.width / 6, size.height / 4);
+        g.dispose();
+        for (int n = size.width * size.height / 50; n > 0; n--) {
+            image.setRGB(random.nextInt(size.width), random.nextInt(size.height), random.nextInt());
+        }
+        return image;
+    }
+
+    /**
+     * 带标注的移动检测序列：固定的室内场景（渐变墙面和几件静止的物体），每帧有传感器噪点，
+     * 亮度随自动曝光缓慢起伏；moving[i]为true的帧里有一个人大小的物体横穿画面，每段移动从画面左侧重新开始。
+     */
+    public static List<byte[]> motionScenes(FrameSize size, boolean[] moving, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<byte[]> jpegs = new ArrayList<>(moving.length);
+        int step = 0;
+        for (int i = 0; i < moving.length; i++) {
+            step = moving[i] ? step + 1 : 0;
+            // 自动曝光：整体亮度在±8%之间起伏，周期约4秒（20fps）
+            float exposure = 1f + 0.08f * (float) Math.sin(i * 2 * Math.PI / 80);
+            BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            for (int y = 0; y < size.height; y += 8) {
+                g.setColor(exposed(new Color(90 + y * 100 / size.height, 110, 130 - y * 60 / size.height), exposure));
+                g.fillRect(0, y, size.width, 8);
+            }
+            g.setColor(exposed(new Color(120, 80, 40), exposure));
+            g.fillRect(size.width / 10, size.height * 2 / 3, size.width / 4, size.height / 5);
+            g.setColor(exposed(new Color(200, 200, 190), exposure));
+            g.fillRect(size.width * 3 / 4, size.height / 8, size.width / 8, size.height / 3);
+            if (moving[i]) {
+                g.setColor(exposed(new Color(60, 50, 70), exposure));
+                int objectWidth = size.width / 12;
+                int x = (step * size.width / 40) % (size.width - objectWidth);
+                g.fillRect(x, size.height / 3, objectWidth, size.height / 2);
+            }
+            g.dispose();
+            for (int n = size.width * size.height / 200; n > 0; n--) {
+                int x = random.nextInt(size.width);
+                int y = random.nextInt(size.height);
+                int rgb = image.getRGB(x, y);
+                int delta = random.nextInt(41) - 20;
+                image.setRGB(x, y, new Color(clamp(((rgb >> 16) & 0xFF) + delta), clamp(((rgb >> 8) & 0xFF) + delta),
+                        clamp((rgb & 0xFF) + delta)).getRGB());
+            }
+            jpegs.add(encode(image, 0.8f));
+        }
+        return jpegs;
+    }
+
+    private static Color exposed(Color color, float exposure) {
+        return new Color(clamp(Math.round(color.getRed() * exposure)), clamp(Math.round(color.getGreen() * exposure)),
+                clamp(Math.round(color.getBlue() * exposure)));
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    static byte[] encode(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /** 与ESP32CAM_Stream.ino输出一致的multipart正文（不含HTTP响应头） */
+    public static byte[] multipartStream(FrameSize size, int frameCount, long seed) {
+        return multipartStream(jpegFrames(size, frameCount, seed));
+    }
+
+    public static byte[] multipartStream(List<byte[]> jpegs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] jpeg : jpegs) {
+            writeAscii(out, "--frame\r\n");
+            writeAscii(out, "Content-Type: image/jpeg\r\n");
+            writeAscii(out, "Content-Length: " + jpeg.length + "\r\n");
+            writeAscii(out, "\r\n");
+            out.write(jpeg, 0, jpeg.length);
+            writeAscii(out, "\r\n");
+        }
+        return out.toByteArray();
+    }
+
+    public static List<byte[]> jpegFrames(FrameSize size, int frameCount, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> jpegs = new ArrayList<>(frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            // 帧大小在典型值上下浮动约10%
+            int length = size.typicalBytes + random.nextInt(size.typicalBytes / 5) - size.typicalBytes / 10;
+            jpegs.add(jpeg(size, length, random));
+        }
+        return jpegs;
+    }
+
+    /**
+     * 生成结构上像JPEG的数据：SOI、APP0、SOF0、SOS，熵编码段里的0xFF都做了字节填充，最后是EOI。
+     */
+    public static byte[] jpeg(FrameSize size, int length, Random random) {
+        byte[] header = {
+                (byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01, 0x01, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00,
+                (byte) 0xFF, (byte) 0xC0, 0x00, 0x11, 0x08,
+                (byte) (size.height >> 8), (byte) size.height, (byte) (size.width >> 8), (byte) size.width,
+                0x03, 0x01, 0x21, 0x00, 0x02, 0x11, 0x01, 0x03, 0x11, 0x01,
+                (byte) 0xFF, (byte) 0xDA, 0x00, 0x0C, 0x03, 0x01, 0x00, 0x02, 0x11, 0x03, 0x11, 0x00, 0x3F, 0x00
+        };
+        int length0 = Math.max(length, header.length + 4);
+        byte[] jpeg = new byte[length0];
+        System.arraycopy(header, 0, jpeg, 0, header.length);
+        int i = header.length;
+        int end = length0 - 2;
+        while (i < end) {
+            byte b = (byte) random.nextInt(256);
+            jpeg[i++] = b;
+            if (b == (byte) 0xFF && i < end) {
+                jpeg[i++] = 0x00;
+            } else if (b == (byte) 0xFF) {
+                jpeg[i - 1] = 0x00;
+            }
+        }
+        jpeg[length0 - 2] = (byte) 0xFF;
+        jpeg[length0 - 1] = (byte) 0xD9;
+        return jpeg;
+    }
+
+    static void writeAscii(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.esp32camviewer.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本机回环上模拟ESP32CAM_Stream.ino的MJPEG服务器，测试和压力测试用。
+ * 每个连接一个线程，按固定帧率循环发送给定的JPEG帧，分段格式与固件一致（boundary=frame，带Content-Length）。
+ *
+ * 设置了{@link FrameSource}后和新固件一样处理/framesize/名字和/quality/数值，之后发送的帧换成按新设置生成的帧；
+ * {@link #setBandwidthLimit(long)}模拟所有连接共用的一条慢链路。
+ */
+public final class StandInMjpegServer implements Closeable {
+    /** 按分辨率和画质给出要循环发送的帧 */
+    public interface FrameSource {
+        /** @return 不支持这个分辨率时返回null，服务器回复400 */
+        List<byte[]> frames(String frameSize, int quality);
+    }
+
+    private static final byte[] RESPONSE_HEADERS = ("HTTP/1.1 200 OK\r\n"
+            + "Access-Control-Allow-Origin: *\r\n"
+            + "Content-Type: multipart/x-mixed-replace; boundary=frame\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    // 链路空闲不到这么久时接着上一段排，sleep多睡的时间不算链路空闲，否则实际带宽比设置的低三成
+    private static final long LINK_SLACK_NANOS = 10_000_000L;
+
+    private volatile List<byte[]> frames;
+    private volatile FrameSource frameSource;
+    private volatile String frameSize = "vga";
+    private volatile int quality = 10;
+    private final AtomicInteger settingChanges = new AtomicInteger();
+    // 模拟链路：每次写出按字节数占用链路一段时间，所有连接排队
+    private volatile long bandwidthBytesPerSecond = 0;
+    private long linkFreeNanos = 0;
+    private final long frameIntervalNanos;
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong framesSent = new AtomicLong();
+    private volatile boolean closed = false;
+    private volatile boolean stalled = false;
+    // 编号不超过它的连接停止发送，之后的新连接照常
+    private volatile int stalledUpTo = 0;
+    private volatile boolean rejecting = false;
+
+    /**
+     * @param frames 循环发送的JPEG帧
+     * @param fps    每个连接的发送帧率，0表示不限速，测吞吐量用
+     */
+    public StandInMjpegServer(List<byte[]> frames, int fps) throws IOException {
+        this.frames = frames;
+        this.frameIntervalNanos = fps <= 0 ? 0 : 1_000_000_000L / fps;
+        this.serverSocket = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+        this.acceptThread = new Thread(this::acceptLoop, "stand-in-accept-" + port());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** 不带http://的地址，和查看器里保存的IP格式一致 */
+    public String host() {
+        return "127.0.0.1:" + port();
+    }
+
+    public String url() {
+        return "http://" + host() + "/";
+    }
+
+    /** 累计接受的连接数 */
+    public int connections() {
+        return connections.get();
+    }
+
+    public int activeClients() {
+        return clients.size();
+    }
+
+    public long framesSent() {
+        return framesSent.get();
+    }
+
+    /** 处理分辨率和画质命令，从固件默认的VGA、画质10开始 */
+    public void setFrameSource(FrameSource source) {
+        frameSource = source;
+        frames = source.frames(frameSize, quality);
+    }
+
+    public String frameSize() {
+        return frameSize;
+    }
+
+    public int quality() {
+        return quality;
+    }
+
+    /** 累计改变设置的命令数 */
+    public int settingChanges() {
+        return settingChanges.get();
+    }
+
+    /** 所有连接合计每秒最多发送的字节数，0表示不限 */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        bandwidthBytesPerSecond = bytesPerSecond;
+    }
+
+    /** 停止发送但不断开连接，模拟Wi-Fi信号差时连接还在、数据不来的情况 */
+    public void setStalled(boolean stalled) {
+        this.stalled = stalled;
+    }
+
+    /** 只让现有连接停止发送，之后的新连接照常发送，模拟旧连接卡住而重新连接能恢复的情况 */
+    public void stallCurrentConnections() {
+        stalledUpTo = connections.get();
+    }
+
+    /** 断开现有的所有连接，服务器继续接受新连接 */
+    public void dropConnections() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    /** 接受连接后不回复直接关闭，模拟摄像头重启期间连不上 */
+    public void setRejectConnections(boolean rejecting) {
+        this.rejecting = rejecting;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                int id = connections.incrementAndGet();
+                if (rejecting) {
+                    client.close();
+                    continue;
+                }
+                clients.add(client);
+                Thread thread = new Thread(() -> serve(client, id), "stand-in-client-" + port());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client, int id) {
+        try {
+            String path = readRequest(client.getInputStream());
+            if (path == null) {
+                return;
+            }
+            if (frameSource != null && (path.startsWith("/framesize/") || path.startsWith("/quality/"))) {
+                serveCommands(client, path);
+                return;
+            }
+            OutputStream out = new BufferedOutputStream(new LinkOutputStream(client.getOutputStream()), 64 * 1024);
+            out.write(RESPONSE_HEADERS);
+            out.flush();
+            long next = System.nanoTime();
+            for (int i = 0; !closed; i++) {
+                if (stalled || id <= stalledUpTo) {
+                    Thread.sleep(10);
+                    next = System.nanoTime();
+                    continue;
+                }
+                byte[] jpeg = frames.get(i % frames.size());
+                out.write(("--frame\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg.length + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.write(jpeg);
+                out.write('\r');
+                out.write('\n');
+                out.flush();
+                framesSent.incrementAndGet();
+
+                if (frameIntervalNanos == 0) {
+                    continue;
+                }
+                next += frameIntervalNanos;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } else if (-wait > frameIntervalNanos) {
+                    // 和摄像头一样，链路跟不上时丢掉落下的帧，不在链路变快后补发
+                    next = System.nanoTime();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // 客户端断开或服务器关闭
+        } finally {
+            clients.remove(client);
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // 和固件一样回复后保持连接，空闲5秒关闭
+    private void serveCommands(Socket client, String firstPath) throws IOException {
+        InputStream in = client.getInputStream();
+        OutputStream out = client.getOutputStream();
+        client.setSoTimeout(5000);
+        String path = firstPath;
+        while (path != null && !closed) {
+            out.write(commandResponse(path));
+            out.flush();
+            try {
+                path = readRequest(in);
+            } catch (SocketTimeoutException e) {
+                return;
+            }
+        }
+    }
+
+    private byte[] commandResponse(String path) {
+        int code = 200;
+        String body;
+        FrameSource source = frameSource;
+        try {
+            if (path.startsWith("/framesize/")) {
+                String size = path.substring("/framesize/".length());
+                List<byte[]> next = source.frames(size, quality);
+                if (next == null) {
+                    throw new IllegalArgumentException(size);
+                }
+                frameSize = size;
+                frames = next;
+                body = "framesize=" + size;
+            } else {
+                int value = Integer.parseInt(path.substring("/quality/".length()));
+                if (value < 4 || value > 63) {
+                    throw new IllegalArgumentException(path);
+                }
+                frames = source.frames(frameSize, value);
+                quality = value;
+                body = "quality=" + value;
+            }
+            settingChanges.incrementAndGet();
+        } catch (IllegalArgumentException e) {
+            code = 400;
+            body = "不支持的设置";
+        }
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        byte[] head = ("HTTP/1.1 " + code + (code == 200 ? " OK" : " Bad Request") + "\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: " + bodyBytes.length + "\r\n"
+                + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[head.length + bodyBytes.length];
+        System.arraycopy(head, 0, response, 0, head.length);
+        System.arraycopy(bodyBytes, 0, response, head.length, bodyBytes.length);
+        return response;
+    }
+
+    // 读请求行和请求头直到空行，返回路径（去掉查询参数）；连接关闭时返回null
+    private static String readRequest(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        String requestLine = null;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                if (line.length() == 0) {
+                    String[] parts = requestLine == null ? new String[0] : requestLine.split(" ");
+                    String path = parts.length >= 2 ? parts[1] : "/";
+                    int query = path.indexOf('?');
+                    return query >= 0 ? path.substring(0, query) : path;
+                }
+                if (requestLine == null) {
+                    requestLine = line.toString();
+                }
+                line.setLength(0);
+            } else if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return null;
+    }
+
+    // 占用模拟链路发送完这么多字节所需的时间，返回要等到的时刻
+    private long reserveLink(int bytes) {
+        long limit = bandwidthBytesPerSecond;
+        if (limit <= 0) {
+            return 0;
+        }
+        synchronized (this) {
+            long start = Math.max(System.nanoTime() - LINK_SLACK_NANOS, linkFreeNanos);
+            linkFreeNanos = start + bytes * 1_000_000_000L / limit;
+            return linkFreeNanos;
+        }
+    }
+
+    /** 按模拟链路的速度写出，每4KB排一次队，多个连接交替占用链路 */
+    private final class LinkOutputStream extends FilterOutputStream {
+        private static final int CHUNK = 4096;
+
+        LinkOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK);
+                long until = reserveLink(n);
+                long wait = until - System.nanoTime();
+                if (until != 0 && wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("发送被中断");
+                    }
+                }
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
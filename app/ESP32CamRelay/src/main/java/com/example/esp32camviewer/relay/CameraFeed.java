@@ -0,0 +1,150 @@
+package com.example.esp32camviewer.relay;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+import com.example.esp32camviewer.stream.NioMjpegClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 一个摄像头的上游连接和它的观看者。
+ *
+ * 固件同一时间只服务一个客户端，所以每个摄像头只保持一条上游连接：第一个观看者到来时连接，
+ * 最后一个离开时断开，把摄像头让给直连的查看器。有观看者时上游断开会在一秒后重连。
+ * 帧在上游I/O线程上分发给所有观看者，每个观看者只保留最新一帧，分发本身不会被慢的观看者拖住。
+ */
+final class CameraFeed {
+    private static final Logger LOG = Logger.getLogger("ESP32CamRelay");
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    private final String name;
+    private final String upstreamUrl;
+    private final NioMjpegClient client;
+    private final ScheduledExecutorService scheduler;
+    private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong upstreamFrames = new AtomicLong();
+    private final AtomicLong upstreamConnections = new AtomicLong();
+    // 已离开的观看者的计数，加上当前观看者的就是总数
+    private final AtomicLong departedSent = new AtomicLong();
+    private final AtomicLong departedDropped = new AtomicLong();
+
+    // 以下由this保护
+    private NioMjpegClient.Stream stream;
+    private boolean reconnectScheduled = false;
+    private boolean closed = false;
+
+    CameraFeed(String name, String upstreamUrl, NioMjpegClient client, ScheduledExecutorService scheduler) {
+        this.name = name;
+        this.upstreamUrl = upstreamUrl;
+        this.client = client;
+        this.scheduler = scheduler;
+    }
+
+    String name() {
+        return name;
+    }
+
+    synchronized void addViewer(Viewer viewer) {
+        viewers.add(viewer);
+        if (stream == null && !reconnectScheduled && !closed) {
+            connect();
+        }
+    }
+
+    synchronized void removeViewer(Viewer viewer) {
+        if (!viewers.remove(viewer)) {
+            return;
+        }
+        departedSent.addAndGet(viewer.framesSent());
+        departedDropped.addAndGet(viewer.framesDropped());
+        if (viewers.isEmpty() && stream != null) {
+            LOG.info(name + " 没有观看者，断开上游");
+            stream.close();
+            stream = null;
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    RelayStats stats() {
+        long sent = departedSent.get();
+        long dropped = departedDropped.get();
+        for (Viewer viewer : viewers) {
+            sent += viewer.framesSent();
+            dropped += viewer.framesDropped();
+        }
+        boolean connected;
+        synchronized (this) {
+            connected = stream != null && stream.isOpen();
+        }
+        return new RelayStats(name, viewers.size(), connected, upstreamConnections.get(), upstreamFrames.get(),
+                sent, dropped);
+    }
+
+    private void connect() {
+        upstreamConnections.incrementAndGet();
+        try {
+            stream = client.open(upstreamUrl, CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS, this::publish,
+                    new NioMjpegClient.StreamCallback() {
+                        @Override
+                        public void onConnected(NioMjpegClient.Stream stream, String contentType) {
+                            LOG.info(name + " 已连接上游 " + upstreamUrl);
+                        }
+
+                        @Override
+                        public void onClosed(NioMjpegClient.Stream stream, IOException error) {
+                            upstreamClosed(stream, error);
+                        }
+                    });
+        } catch (IOException e) {
+            upstreamClosed(null, e);
+        }
+    }
+
+    private synchronized void upstreamClosed(NioMjpegClient.Stream closedStream, IOException error) {
+        if (error != null) {
+            LOG.log(Level.WARNING, name + " 上游断开: " + error.getMessage());
+        }
+        if (closedStream != null && stream != closedStream) {
+            // 观看者都离开后主动断开的旧连接
+            return;
+        }
+        stream = null;
+        if (!viewers.isEmpty() && !closed && !reconnectScheduled) {
+            reconnectScheduled = true;
+            scheduler.schedule(this::reconnect, RECONNECT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void reconnect() {
+        reconnectScheduled = false;
+        if (stream == null && !viewers.isEmpty() && !closed) {
+            connect();
+        }
+    }
+
+    // 上游I/O线程上执行：包装成共享帧，每个观看者各持有一个引用
+    private void publish(JpegFrame frame) {
+        upstreamFrames.incrementAndGet();
+        SharedFrame shared = new SharedFrame(frame);
+        for (Viewer viewer : viewers) {
+            viewer.offer(shared);
+        }
+        shared.release();
+    }
+}
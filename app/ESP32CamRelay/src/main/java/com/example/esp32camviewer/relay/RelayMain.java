@@ -0,0 +1,65 @@
+package com.example.esp32camviewer.relay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 命令行入口：
+ * <pre>
+ * java -jar esp32cam-relay.jar [--port 8080] [--io-threads 2] 名称=地址 [名称=地址 ...]
+ * java -jar esp32cam-relay.jar --port 8080 door=192.168.1.100 garage=http://192.168.1.101/
+ * </pre>
+ * 地址和查看器里一样可以只填IP。每10秒打印一次各摄像头的观看者数和转发计数。
+ */
+public final class RelayMain {
+    private static final long STATS_INTERVAL_MS = 10_000;
+
+    private RelayMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        int ioThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        List<String[]> cameras = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--io-threads") && i + 1 < args.length) {
+                ioThreads = Integer.parseInt(args[++i]);
+            } else if (arg.indexOf('=') > 0) {
+                String name = arg.substring(0, arg.indexOf('='));
+                String address = arg.substring(arg.indexOf('=') + 1);
+                cameras.add(new String[]{name, address.startsWith("http://") ? address : "http://" + address});
+            } else {
+                usage();
+                return;
+            }
+        }
+        if (cameras.isEmpty()) {
+            usage();
+            return;
+        }
+
+        RelayServer relay = new RelayServer(port, ioThreads);
+        for (String[] camera : cameras) {
+            relay.addCamera(camera[0], camera[1]);
+        }
+        relay.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(relay::close));
+        System.out.println("中继已启动，端口 " + relay.port() + "，I/O线程 " + ioThreads);
+        for (String[] camera : cameras) {
+            System.out.println("  http://<本机IP>:" + relay.port() + "/" + camera[0] + " <- " + camera[1]);
+        }
+        while (true) {
+            Thread.sleep(STATS_INTERVAL_MS);
+            for (RelayStats stats : relay.stats()) {
+                System.out.println(stats);
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("用法: [--port 8080] [--io-threads 2] 名称=地址 [名称=地址 ...]");
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.esp32camviewer.relay;
+
+import com.example.esp32camviewer.stream.NioMjpegClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * MJPEG中继：每个摄像头一条上游连接，转发给任意多个HTTP观看者。
+ *
+ * 上游用查看器同样的{@link NioMjpegClient}读取和切帧，切出的帧以{@link SharedFrame}引用计数共享，
+ * 各观看者直接从同一个数组聚集写出。下游是非阻塞的HTTP服务器，几个I/O线程各带一个Selector，
+ * 观看者按连接顺序轮流分到各线程；每个观看者只保留最新一帧，慢的观看者自己丢帧。
+ *
+ * 路径：/&lt;摄像头名&gt;，/ 对应第一个添加的摄像头。输出格式与固件相同（boundary=frame），
+ * ESP32Camera_MobileViewer.html和三个查看器填中继的地址即可。
+ */
+public final class RelayServer implements Closeable {
+    // 没有事件时也定期醒来检查超时
+    private static final long SELECT_TIMEOUT_MS = 200;
+    // 请求不完整或一帧写不出去超过这么久就断开观看者
+    private static final long VIEWER_TIMEOUT_NANOS = 10_000_000_000L;
+
+    private final InetSocketAddress bindAddress;
+    private final IoThread[] ioThreads;
+    private final Map<String, CameraFeed> cameras = new LinkedHashMap<>();
+    private final NioMjpegClient upstreamClient = new NioMjpegClient(1);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "relay-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocketChannel serverChannel;
+    private int nextThread = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param port          监听端口，0表示随机分配
+     * @param ioThreadCount 下游I/O线程数
+     */
+    public RelayServer(int port, int ioThreadCount) {
+        this(new InetSocketAddress(port), ioThreadCount);
+    }
+
+    public RelayServer(InetSocketAddress bindAddress, int ioThreadCount) {
+        this.bindAddress = bindAddress;
+        this.ioThreads = new IoThread[Math.max(1, ioThreadCount)];
+    }
+
+    /** 在start()之前添加 */
+    public synchronized void addCamera(String name, String upstreamUrl) {
+        if (serverChannel != null) {
+            throw new IllegalStateException("中继已启动");
+        }
+        if (name.isEmpty() || name.contains("/")) {
+            throw new IllegalArgumentException("摄像头名不能为空或包含/: " + name);
+        }
+        cameras.put(name, new CameraFeed(name, upstreamUrl, upstreamClient, scheduler));
+    }
+
+    public synchronized void start() throws IOException {
+        if (cameras.isEmpty()) {
+            throw new IllegalStateException("没有摄像头");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(bindAddress, 256);
+        serverChannel.configureBlocking(false);
+        for (int i = 0; i < ioThreads.length; i++) {
+            ioThreads[i] = new IoThread("relay-io-" + i);
+        }
+        // 接受连接也在第一个I/O线程上
+        IoThread acceptor = ioThreads[0];
+        acceptor.execute(() -> {
+            try {
+                serverChannel.register(acceptor.selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                close();
+            }
+        });
+    }
+
+    /** 实际监听的端口 */
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public List<RelayStats> stats() {
+        List<RelayStats> stats = new ArrayList<>();
+        for (CameraFeed feed : cameras.values()) {
+            stats.add(feed.stats());
+        }
+        return stats;
+    }
+
+    /** 断开所有观看者和上游连接 */
+    @Override
+    public void close() {
+        closed = true;
+        for (IoThread ioThread : ioThreads) {
+            if (ioThread != null) {
+                ioThread.selector.wakeup();
+            }
+        }
+        for (CameraFeed feed : cameras.values()) {
+            feed.close();
+        }
+        upstreamClient.close();
+        scheduler.shutdownNow();
+    }
+
+    private CameraFeed route(String path) {
+        if (path.equals("/")) {
+            return cameras.values().iterator().next();
+        }
+        String name = path.substring(1);
+        if (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return cameras.get(name);
+    }
+
+    // 接受线程上执行
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            IoThread ioThread = ioThreads[nextThread];
+            nextThread = (nextThread + 1) % ioThreads.length;
+            Viewer viewer = new Viewer(channel, ioThread, this::route, VIEWER_TIMEOUT_NANOS);
+            SocketChannel accepted = channel;
+            ioThread.execute(() -> {
+                try {
+                    viewer.register(accepted.register(ioThread.selector, SelectionKey.OP_READ, viewer));
+                } catch (IOException e) {
+                    viewer.close();
+                }
+            });
+        }
+    }
+
+    private final class IoThread implements Runnable, Executor {
+        final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        IoThread(String name) throws IOException {
+            selector = Selector.open();
+            Thread thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select(SELECT_TIMEOUT_MS);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            ((Viewer) key.attachment()).handle(key);
+                        }
+                    }
+                    long now = System.nanoTime();
+                    for (SelectionKey key : selector.keys()) {
+                        if (key.isValid() && key.attachment() instanceof Viewer) {
+                            ((Viewer) key.attachment()).checkTimeout(now);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // 监听socket或Selector出错时下面关闭所有连接
+            } finally {
+                // 还没注册的新连接先注册上，下面和其他连接一起关闭
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Viewer) {
+                        ((Viewer) key.attachment()).close();
+                    } else {
+                        try {
+                            key.channel().close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.esp32camviewer.relay;
+
+/** 一个摄像头的中继计数快照 */
+public final class RelayStats {
+    public final String camera;
+    public final int viewers;
+    public final boolean upstreamConnected;
+    /** 累计建立的上游连接数，观看者来来去去时会增长，但同一时间最多一条 */
+    public final long upstreamConnections;
+    public final long upstreamFrames;
+    /** 所有观看者累计收到的帧 */
+    public final long framesSent;
+    /** 观看者来不及发送而丢掉的帧，只丢慢的那一路 */
+    public final long framesDropped;
+
+    RelayStats(String camera, int viewers, boolean upstreamConnected, long upstreamConnections, long upstreamFrames,
+               long framesSent, long framesDropped) {
+        this.camera = camera;
+        this.viewers = viewers;
+        this.upstreamConnected = upstreamConnected;
+        this.upstreamConnections = upstreamConnections;
+        this.upstreamFrames = upstreamFrames;
+        this.framesSent = framesSent;
+        this.framesDropped = framesDropped;
+    }
+
+    @Override
+    public String toString() {
+        return camera + ": viewers=" + viewers + " upstream=" + (upstreamConnected ? "connected" : "idle")
+                + " upstreamFrames=" + upstreamFrames + " sent=" + framesSent + " dropped=" + framesDropped;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.esp32camviewer.relay;
+
+import com.example.esp32camviewer.stream.JpegFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个观看者共用的一帧，带引用计数。
+ *
+ * JPEG数据就是上游解析器放进池化数组的那一份，不为每个观看者复制：每个连接用{@link #buffers()}
+ * 拿到包装同一数组的ByteBuffer，聚集写出分段头、JPEG和结尾的CRLF。最后一个持有者release()后
+ * 数组才还给上游连接的缓冲池。
+ */
+final class SharedFrame {
+    private static final byte[] TRAILER = {'\r', '\n'};
+
+    private final JpegFrame frame;
+    private final byte[] partHeader;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /** 创建后调用方持有一个引用 */
+    SharedFrame(JpegFrame frame) {
+        this.frame = frame;
+        // 分段格式与固件一致，网页和查看器不需要区分连的是摄像头还是中继
+        this.partHeader = ("--frame\r\nContent-Type: image/jpeg\r\nContent-Length: " + frame.length() + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    long sequence() {
+        return frame.sequence();
+    }
+
+    int length() {
+        return frame.length();
+    }
+
+    /** 一个观看者开始持有这一帧 */
+    void retain() {
+        int previous = references.getAndIncrement();
+        if (previous <= 0) {
+            throw new IllegalStateException("帧已释放");
+        }
+    }
+
+    void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            frame.release();
+        } else if (remaining < 0) {
+            throw new IllegalStateException("帧被多次释放");
+        }
+    }
+
+    /** 一次聚集写用的缓冲区，各自有独立的position，底层数组共用。只能在持有引用期间使用 */
+    ByteBuffer[] buffers() {
+        return new ByteBuffer[]{
+                ByteBuffer.wrap(partHeader),
+                ByteBuffer.wrap(frame.data(), 0, frame.length()),
+                ByteBuffer.wrap(TRAILER)
+        };
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.esp32camviewer.relay;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 一个下游观看者连接。除offer()外都在它所属的中继I/O线程上执行。
+ *
+ * 同一时间最多持有两帧：正在写的一帧和等待写的最新一帧。socket发送缓冲区满、上一帧还没写完时，
+ * 新到的帧替换等待中的帧，被替换的直接释放，只有这一路丢帧，上游和其他观看者不受影响。
+ */
+final class Viewer {
+    private static final byte[] STREAM_HEADERS = ("HTTP/1.1 200 OK\r\n"
+            + "Access-Control-Allow-Origin: *\r\n"
+            + "Content-Type: multipart/x-mixed-replace; boundary=frame\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_FOUND = ("HTTP/1.1 404 Not Found\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Content-Length: 9\r\n"
+            + "Connection: close\r\n\r\n"
+            + "not found").getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+
+    /** 按请求路径找摄像头，找不到返回null */
+    interface Router {
+        CameraFeed route(String path);
+    }
+
+    private final SocketChannel channel;
+    private final Executor ioThread;
+    private final Router router;
+    private final long timeoutNanos;
+
+    private final AtomicReference<SharedFrame> pending = new AtomicReference<>();
+    private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+    private final Runnable flushTask = this::flush;
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private volatile boolean closed = false;
+
+    // 以下只在I/O线程上访问
+    private SelectionKey key;
+    private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+    private CameraFeed feed;
+    private ByteBuffer[] out;
+    private SharedFrame writing;
+    private boolean closeAfterWrite = false;
+    private long waitingSinceNanos;
+
+    Viewer(SocketChannel channel, Executor ioThread, Router router, long timeoutNanos) {
+        this.channel = channel;
+        this.ioThread = ioThread;
+        this.router = router;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    void register(SelectionKey key) {
+        this.key = key;
+        waitingSinceNanos = System.nanoTime();
+    }
+
+    long framesSent() {
+        return framesSent.get();
+    }
+
+    long framesDropped() {
+        return framesDropped.get();
+    }
+
+    /** 上游I/O线程上调用，交给这一路一帧 */
+    void offer(SharedFrame frame) {
+        if (closed) {
+            return;
+        }
+        frame.retain();
+        SharedFrame stale = pending.getAndSet(frame);
+        if (stale != null) {
+            stale.release();
+            framesDropped.incrementAndGet();
+        }
+        if (closed) {
+            // 与close()交错时由这里释放，close()之后不会再取pending
+            SharedFrame left = pending.getAndSet(null);
+            if (left != null) {
+                left.release();
+            }
+            return;
+        }
+        if (flushQueued.compareAndSet(false, true)) {
+            ioThread.execute(flushTask);
+        }
+    }
+
+    void handle(SelectionKey selected) {
+        try {
+            if (selected.isReadable()) {
+                onReadable();
+            }
+            if (key.isValid() && selected.isWritable()) {
+                writeMore();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+        }
+    }
+
+    void checkTimeout(long now) {
+        // 请求迟迟不完整，或者一帧写了太久（观看者不再读取），断开
+        if ((feed == null || out != null) && now - waitingSinceNanos > timeoutNanos) {
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        if (feed != null) {
+            feed.removeViewer(this);
+        }
+        if (writing != null) {
+            writing.release();
+            writing = null;
+        }
+        SharedFrame left = pending.getAndSet(null);
+        if (left != null) {
+            left.release();
+        }
+    }
+
+    private void onReadable() throws IOException {
+        if (feed != null || closeAfterWrite) {
+            // 请求之后不应再有数据，读到-1说明观看者断开
+            ((Buffer) request).clear();
+            if (channel.read(request) == -1) {
+                close();
+            }
+            return;
+        }
+        if (channel.read(request) == -1) {
+            close();
+            return;
+        }
+        String text = new String(request.array(), 0, request.position(), StandardCharsets.ISO_8859_1);
+        int end = text.indexOf("\r\n\r\n");
+        if (end < 0) {
+            if (!request.hasRemaining()) {
+                close();
+            }
+            return;
+        }
+        String[] requestLine = text.substring(0, text.indexOf("\r\n")).split(" ");
+        CameraFeed target = requestLine.length >= 2 && requestLine[0].equals("GET")
+                ? router.route(pathOf(requestLine[1])) : null;
+        if (target == null) {
+            closeAfterWrite = true;
+            startWrite(new ByteBuffer[]{ByteBuffer.wrap(NOT_FOUND)}, null);
+            return;
+        }
+        feed = target;
+        startWrite(new ByteBuffer[]{ByteBuffer.wrap(STREAM_HEADERS)}, null);
+        // 响应头开始写出后才加入分发，第一帧一定在响应头之后
+        target.addViewer(this);
+    }
+
+    private static String pathOf(String target) {
+        try {
+            String path = URI.create(target).getPath();
+            return path == null || path.isEmpty() ? "/" : path;
+        } catch (IllegalArgumentException e) {
+            return target;
+        }
+    }
+
+    private void flush() {
+        flushQueued.set(false);
+        if (closed || out != null) {
+            // 正在写的一帧写完后会取等待中的帧
+            return;
+        }
+        try {
+            startNext();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void startNext() throws IOException {
+        SharedFrame next = pending.getAndSet(null);
+        if (next == null) {
+            return;
+        }
+        startWrite(next.buffers(), next);
+    }
+
+    private void startWrite(ByteBuffer[] buffers, SharedFrame frame) throws IOException {
+        out = buffers;
+        writing = frame;
+        waitingSinceNanos = System.nanoTime();
+        writeMore();
+    }
+
+    private void writeMore() throws IOException {
+        if (out == null) {
+            return;
+        }
+        channel.write(out);
+        if (out[out.length - 1].hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return;
+        }
+        out = null;
+        key.interestOps(SelectionKey.OP_READ);
+        if (writing != null) {
+            writing.release();
+            writing = null;
+            framesSent.incrementAndGet();
+        }
+        if (closeAfterWrite) {
+            close();
+            return;
+        }
+        startNext();
+    }
+}
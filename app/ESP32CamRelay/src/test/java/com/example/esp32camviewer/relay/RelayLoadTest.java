@@ -0,0 +1,85 @@
+package com.example.esp32camviewer.relay;
+
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import com.example.esp32camviewer.stream.NioMjpegClient;
+import com.example.esp32camviewer.stream.StandInMjpegServer;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 中继负载测试：本机模拟一个VGA 20fps的摄像头，N个观看者同时通过中继观看（默认200），
+ * 输出每个观看者收到的帧率（最低/平均）、中继丢帧、摄像头连接数和进程CPU。
+ * 观看者也在同一进程里（NioMjpegClient，两个I/O线程），CPU占用包含观看者切帧的开销。
+ *
+ * 运行: gradle loadTest -Pviewers=200 -Pseconds=10
+ */
+public final class RelayLoadTest {
+    private static final int CAMERA_FPS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int viewerCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 8, 42);
+
+        try (StandInMjpegServer camera = new StandInMjpegServer(jpegs, CAMERA_FPS);
+             RelayServer relay = new RelayServer(new InetSocketAddress("127.0.0.1", 0), 2);
+             NioMjpegClient viewers = new NioMjpegClient(2)) {
+            relay.addCamera("cam", camera.url());
+            relay.start();
+            String url = "http://127.0.0.1:" + relay.port() + "/cam";
+
+            List<AtomicLong> counts = new ArrayList<>();
+            for (int i = 0; i < viewerCount; i++) {
+                AtomicLong count = new AtomicLong();
+                counts.add(count);
+                viewers.open(url, 5000, 5000, frame -> {
+                    frame.release();
+                    count.incrementAndGet();
+                }, null);
+            }
+
+            // 等所有观看者连上、JIT预热后开始计数
+            Thread.sleep(2000);
+            long[] before = new long[viewerCount];
+            for (int i = 0; i < viewerCount; i++) {
+                before[i] = counts.get(i).get();
+            }
+            long droppedBefore = relay.stats().get(0).framesDropped;
+            long upstreamBefore = relay.stats().get(0).upstreamFrames;
+            long cpuBefore = processCpuNanos();
+            long wallBefore = System.nanoTime();
+
+            Thread.sleep(seconds * 1000L);
+
+            double wallSeconds = (System.nanoTime() - wallBefore) / 1e9;
+            double cpuCores = (processCpuNanos() - cpuBefore) / 1e9 / wallSeconds;
+            RelayStats stats = relay.stats().get(0);
+            double min = Double.MAX_VALUE;
+            double sum = 0;
+            for (int i = 0; i < viewerCount; i++) {
+                double fps = (counts.get(i).get() - before[i]) / wallSeconds;
+                min = Math.min(min, fps);
+                sum += fps;
+            }
+            double upstreamFps = (stats.upstreamFrames - upstreamBefore) / wallSeconds;
+
+            System.out.printf("观看者 %d，摄像头 %.1f fps，摄像头连接数 %d%n", stats.viewers, upstreamFps,
+                    camera.connections());
+            System.out.printf("每个观看者: 最低 %.1f fps，平均 %.1f fps%n", min, sum / viewerCount);
+            System.out.printf("中继丢帧 %d，进程CPU %.2f 核%n", stats.framesDropped - droppedBefore, cpuCores);
+            System.out.println(min >= upstreamFps * 0.95 ? "所有观看者都达到摄像头帧率" : "有观看者低于摄像头帧率");
+        }
+    }
+
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.esp32camviewer.relay;
+
+import com.example.esp32camviewer.stream.MjpegTestStreams;
+import com.example.esp32camviewer.stream.NioMjpegClient;
+import com.example.esp32camviewer.stream.StandInMjpegServer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RelayServerTest {
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @After
+    public void closeAll() throws Exception {
+        Collections.reverse(resources);
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    public void oneUpstreamConnectionServesEveryViewer() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 4, 3);
+        StandInMjpegServer camera = register(new StandInMjpegServer(jpegs, 50));
+        RelayServer relay = startRelay(camera);
+        NioMjpegClient viewers = register(new NioMjpegClient(1));
+
+        CountDownLatch enoughFrames = new CountDownLatch(5 * 10);
+        AtomicInteger corrupted = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            viewers.open("http://127.0.0.1:" + relay.port() + "/cam", 2000, 2000, frame -> {
+                if (!matchesAny(jpegs, Arrays.copyOf(frame.data(), frame.length()))) {
+                    corrupted.incrementAndGet();
+                }
+                frame.release();
+                enoughFrames.countDown();
+            }, null);
+        }
+
+        assertTrue(enoughFrames.await(5, TimeUnit.SECONDS));
+        assertEquals(0, corrupted.get());
+        // 摄像头只看到中继这一个客户端
+        assertEquals(1, camera.connections());
+        RelayStats stats = relay.stats().get(0);
+        assertEquals(5, stats.viewers);
+        assertTrue(stats.upstreamConnected);
+    }
+
+    @Test
+    public void slowViewerDropsFramesWithoutHoldingBackOthers() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.UXGA, 2, 5);
+        StandInMjpegServer camera = register(new StandInMjpegServer(jpegs, 50));
+        RelayServer relay = startRelay(camera);
+
+        // 发了请求后不再读取，发送缓冲区很快写满
+        Socket stalled = register(new Socket());
+        stalled.setReceiveBufferSize(4096);
+        stalled.connect(new InetSocketAddress("127.0.0.1", relay.port()));
+        stalled.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        NioMjpegClient viewers = register(new NioMjpegClient(1));
+        AtomicInteger received = new AtomicInteger();
+        viewers.open("http://127.0.0.1:" + relay.port() + "/", 2000, 2000, frame -> {
+            frame.release();
+            received.incrementAndGet();
+        }, null);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (relay.stats().get(0).framesDropped == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        int before = received.get();
+        Thread.sleep(1000);
+        int perSecond = received.get() - before;
+
+        RelayStats stats = relay.stats().get(0);
+        assertTrue(stats.toString(), stats.framesDropped > 0);
+        // 正常的观看者仍然跟得上摄像头的50fps
+        assertTrue("fps=" + perSecond, perSecond >= 40);
+    }
+
+    @Test
+    public void lastViewerLeavingReleasesTheCamera() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 2, 9);
+        StandInMjpegServer camera = register(new StandInMjpegServer(jpegs, 50));
+        RelayServer relay = startRelay(camera);
+        NioMjpegClient viewers = register(new NioMjpegClient(1));
+
+        CountDownLatch firstFrame = new CountDownLatch(1);
+        NioMjpegClient.Stream viewer = viewers.open("http://127.0.0.1:" + relay.port() + "/", 2000, 2000, frame -> {
+            frame.release();
+            firstFrame.countDown();
+        }, null);
+        assertTrue(firstFrame.await(3, TimeUnit.SECONDS));
+        viewer.close();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+        while (camera.activeClients() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, camera.activeClients());
+        assertFalse(relay.stats().get(0).upstreamConnected);
+
+        // 新的观看者到来时重新连接摄像头
+        CountDownLatch again = new CountDownLatch(1);
+        viewers.open("http://127.0.0.1:" + relay.port() + "/", 2000, 2000, frame -> {
+            frame.release();
+            again.countDown();
+        }, null);
+        assertTrue(again.await(3, TimeUnit.SECONDS));
+        assertEquals(2, camera.connections());
+    }
+
+    @Test
+    public void unknownCameraIsNotFound() throws Exception {
+        List<byte[]> jpegs = MjpegTestStreams.jpegFrames(MjpegTestStreams.FrameSize.VGA, 1, 1);
+        StandInMjpegServer camera = register(new StandInMjpegServer(jpegs, 10));
+        RelayServer relay = startRelay(camera);
+
+        try (Socket socket = new Socket("127.0.0.1", relay.port())) {
+            socket.setSoTimeout(2000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /garage HTTP/1.1\r\nHost: relay\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            String response = readAll(socket.getInputStream());
+            assertTrue(response, response.startsWith("HTTP/1.1 404"));
+        }
+        assertEquals(0, camera.connections());
+    }
+
+    private RelayServer startRelay(StandInMjpegServer camera) throws IOException {
+        RelayServer relay = register(new RelayServer(new InetSocketAddress("127.0.0.1", 0), 2));
+        relay.addCamera("cam", camera.url());
+        relay.start();
+        return relay;
+    }
+
+    private <T extends AutoCloseable> T register(T resource) {
+        resources.add(resource);
+        return resource;
+    }
+
+    private static boolean matchesAny(List<byte[]> jpegs, byte[] data) {
+        for (byte[] jpeg : jpegs) {
+            if (Arrays.equals(jpeg, data)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            text.append(new String(buffer, 0, n, StandardCharsets.US_ASCII));
+        }
+        return text.toString();
+    }
+}
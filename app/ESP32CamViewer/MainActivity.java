@@ -2,26 +2,29 @@ package com.example.esp32camviewer;
 
 import androidx.appcompat.app.AppCompatActivity;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
+import android.view.SurfaceView;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ImageView;
 import android.widget.Toast;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
+import com.example.esp32camviewer.control.CameraCommand;
+import com.example.esp32camviewer.control.CommandChannel;
+import com.example.esp32camviewer.decode.BitmapPool;
+import com.example.esp32camviewer.decode.DecodeMemoryStats;
+import com.example.esp32camviewer.decode.SelectableDecoder;
+import com.example.esp32camviewer.motion.DuplicateFrameFilter;
+import com.example.esp32camviewer.render.SurfaceFrameRenderer;
+import com.example.esp32camviewer.stream.CameraSessions;
+import com.example.esp32camviewer.stream.FramePipeline;
+import com.example.esp32camviewer.stream.NioMjpegClient;
+import com.example.esp32camviewer.stream.ReconnectingStream;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "ESP32CamViewer";
@@ -30,12 +33,26 @@ public class MainActivity extends AppCompatActivity {
     private Button connectButton;
     private Button ledOnButton;
     private Button ledOffButton;
-    private ImageView streamImageView;
+    private SurfaceView streamSurfaceView;
     
     private String serverIp = "";
     private boolean isStreaming = false;
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    // 视频流在NIO客户端的I/O线程上非阻塞读取，LED等控制命令走单独的控制通道，不等视频帧
+    private final NioMjpegClient streamClient = new NioMjpegClient(1);
+    // 断线后自动重连，重连期间画面停在最后一帧
+    private ReconnectingStream currentSession;
+    private FramePipeline<Bitmap> currentPipeline;
+    private DecodeMemoryStats memoryAtStart;
+    private CommandChannel commandChannel;
+    private String commandChannelHost = "";
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // 解码复用Bitmap：解码中、待显示各一张，加上双缓冲显示中的两张
+    private final BitmapPool bitmapPool = new BitmapPool(4);
+    // 连接开始时用前几帧校准，自动选用最快的解码后端
+    private final SelectableDecoder decoder = new SelectableDecoder(bitmapPool);
+    // 在渲染线程上按vsync直接画到SurfaceView，不占用主线程；画过的Bitmap交还给解码器
+    private final SurfaceFrameRenderer frameRenderer = new SurfaceFrameRenderer(decoder);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -47,7 +64,12 @@ public class MainActivity extends AppCompatActivity {
         connectButton = findViewById(R.id.connect_button);
         ledOnButton = findViewById(R.id.led_on_button);
         ledOffButton = findViewById(R.id.led_off_button);
-        streamImageView = findViewById(R.id.stream_image);
+        streamSurfaceView = findViewById(R.id.stream_surface);
+        
+        // 按画面在屏幕上的实际像素缩小解码，布局变化和旋转时重新计算
+        frameRenderer.attach(streamSurfaceView);
+        streamSurfaceView.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
+                decoder.setTargetSize(right - left, bottom - top));
         
         // 设置连接按钮点击事件
         connectButton.setOnClickListener(v -> {
@@ -76,80 +98,53 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void startStreaming() {
-        executorService.execute(this::streamVideo);
-    }
-    
-    private void stopStreaming() {
-        isStreaming = false;
-    }
-    
-    private void streamVideo() {
-        HttpURLConnection connection = null;
-        InputStream inputStream = null;
-        BufferedInputStream bufferedInputStream = null;
+        memoryAtStart = DecodeMemoryStats.snapshot(bitmapPool);
         
-        try {
-            URL url = new URL("http://" + serverIp);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(5000);
-            
-            inputStream = connection.getInputStream();
-            bufferedInputStream = new BufferedInputStream(inputStream);
-            
-            // MJPEG流解析变量
-            byte[] buffer = new byte[1024];
-            ByteArrayOutputStream jpegBuffer = new ByteArrayOutputStream();
-            boolean headerFound = false;
-            
-            while (isStreaming) {
-                int bytesRead = bufferedInputStream.read(buffer, 0, buffer.length);
-                if (bytesRead == -1) {
-                    break;
-                }
-                
-                for (int i = 0; i < bytesRead; i++) {
-                    jpegBuffer.write(buffer[i]);
+        // 解码在流水线的独立线程上进行，跟不上时只保留最新一帧；渲染在渲染线程上按vsync进行
+        decoder.restartCalibration();
+        FramePipeline<Bitmap> pipeline = new FramePipeline<>(decoder, frameRenderer, frameRenderer.executor(), decoder);
+        // 静止画面里和正在显示的画面几乎一样的帧不解码
+        pipeline.setDuplicateFilter(new DuplicateFrameFilter());
+        pipeline.start();
+        currentPipeline = pipeline;
+        
+        // MJPEG流在I/O线程上非阻塞读取，按multipart边界和Content-Length切帧，服务器未声明boundary时按JPEG标记切帧
+        ReconnectingStream session = new ReconnectingStream(streamClient, "http://" + serverIp, 5000, 5000,
+                pipeline::submit, new ReconnectingStream.Listener() {
+                    @Override
+                    public void onFirstFrame(NioMjpegClient.Stream stream, long timeToFirstFrameNanos, long outageNanos) {
+                        if (outageNanos > 0) {
+                            Log.i(TAG, "已恢复: 中断" + outageNanos / 1_000_000 + "ms，首帧"
+                                    + timeToFirstFrameNanos / 1_000_000 + "ms");
+                        } else {
+                            Log.i(TAG, "首帧: " + timeToFirstFrameNanos / 1_000_000 + "ms");
+                        }
+                    }
                     
-                    // 检查JPEG标记以找到图像的开始和结束
-                    if (jpegBuffer.size() >= 2 && 
-                            (byte) jpegBuffer.toByteArray()[jpegBuffer.size() - 2] == (byte) 0xFF &&
-                            (byte) jpegBuffer.toByteArray()[jpegBuffer.size() - 1] == (byte) 0xD8) {
-                        // 找到JPEG开始标记
-                        headerFound = true;
-                        jpegBuffer.reset();
-                        jpegBuffer.write(0xFF);
-                        jpegBuffer.write(0xD8);
-                    } else if (headerFound && jpegBuffer.size() >= 2 &&
-                            (byte) jpegBuffer.toByteArray()[jpegBuffer.size() - 2] == (byte) 0xFF &&
-                            (byte) jpegBuffer.toByteArray()[jpegBuffer.size() - 1] == (byte) 0xD9) {
-                        // 找到JPEG结束标记 - 处理完整的图像
-                        headerFound = false;
-                        final byte[] jpegData = jpegBuffer.toByteArray();
-                        final Bitmap bitmap = BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length);
-                        
-                        if (bitmap != null) {
-                            mainHandler.post(() -> streamImageView.setImageBitmap(bitmap));
+                    @Override
+                    public void onInterrupted(IOException error, int attempt, long retryDelayMs) {
+                        Log.w(TAG, "连接中断(" + (error == null ? "服务器关闭了连接" : error.getMessage()) + ")，"
+                                + retryDelayMs + "ms后第" + attempt + "次重连");
+                        // 只在刚断开时提示一次，重连过程不反复弹出
+                        if (attempt == 1) {
+                            mainHandler.post(() -> Toast.makeText(MainActivity.this, "连接中断，正在重连...",
+                                    Toast.LENGTH_SHORT).show());
                         }
-                        
-                        jpegBuffer.reset();
                     }
-                }
-            }
-            
+                    
+                    @Override
+                    public void onStreamClosed(NioMjpegClient.Stream stream, IOException error) {
+                        // 每帧read次数和每次读取字节数，反映读缓冲区是否合适
+                        Log.i(TAG, "连接: " + stream.stats());
+                    }
+                });
+        try {
+            CameraSessions.SHARED.start(session);
+            currentSession = session;
         } catch (IOException e) {
-            final String errorMsg = "流媒体错误: " + e.getMessage();
-            Log.e(TAG, errorMsg);
-            mainHandler.post(() -> Toast.makeText(MainActivity.this, errorMsg, Toast.LENGTH_SHORT).show());
-        } finally {
-            try {
-                if (bufferedInputStream != null) bufferedInputStream.close();
-                if (inputStream != null) inputStream.close();
-                if (connection != null) connection.disconnect();
-            } catch (IOException e) {
-                Log.e(TAG, "关闭连接时出错: " + e.getMessage());
-            }
-            
+            pipeline.stop();
+            currentPipeline = null;
+            streamFailed(e);
             mainHandler.post(() -> {
                 connectButton.setText("连接");
                 isStreaming = false;
@@ -157,46 +152,74 @@ public class MainActivity extends AppCompatActivity {
         }
     }
     
+    private void stopStreaming() {
+        isStreaming = false;
+        if (currentSession != null) {
+            currentSession.close();
+            Log.i(TAG, "重连: " + currentSession.stats());
+            currentSession = null;
+        }
+        if (currentPipeline != null) {
+            currentPipeline.stop();
+            // 稳定播放时Bitmap分配数和GC次数应基本不增长
+            FramePipeline.Stats stats = currentPipeline.stats();
+            Log.i(TAG, "流水线: " + stats + " " + frameRenderer.summary(stats) + " 解码器: " + decoder.name()
+                    + " 内存: " + DecodeMemoryStats.snapshot(bitmapPool).since(memoryAtStart));
+            currentPipeline = null;
+        }
+    }
+    
+    private void streamFailed(IOException e) {
+        final String errorMsg = "流媒体错误: " + e.getMessage();
+        Log.e(TAG, errorMsg);
+        mainHandler.post(() -> Toast.makeText(MainActivity.this, errorMsg, Toast.LENGTH_SHORT).show());
+    }
+    
+    // 每个摄像头地址一条控制通道，连续的命令复用同一个连接；换了地址时重建
+    private CommandChannel commandChannel() {
+        if (commandChannel == null || !commandChannelHost.equals(serverIp)) {
+            if (commandChannel != null) {
+                commandChannel.close();
+            }
+            commandChannel = new CommandChannel(serverIp);
+            commandChannelHost = serverIp;
+        }
+        return commandChannel;
+    }
+    
     private void controlLED(String status) {
         if (serverIp.isEmpty()) {
             Toast.makeText(this, "请先连接到ESP32摄像头", Toast.LENGTH_SHORT).show();
             return;
         }
         
-        executorService.execute(() -> {
-            try {
-                URL url = new URL("http://" + serverIp + "/led/" + status);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setConnectTimeout(2000);
-                connection.setReadTimeout(2000);
-                connection.connect();
-                
-                final int responseCode = connection.getResponseCode();
-                mainHandler.post(() -> {
-                    if (responseCode == 200) {
-                        Toast.makeText(MainActivity.this, 
-                                "LED " + (status.equals("on") ? "已开启" : "已关闭"), 
-                                Toast.LENGTH_SHORT).show();
-                    } else {
-                        Toast.makeText(MainActivity.this, 
-                                "控制LED失败，状态码: " + responseCode, 
-                                Toast.LENGTH_SHORT).show();
-                    }
-                });
-                
-                connection.disconnect();
-            } catch (IOException e) {
-                final String errorMsg = "控制LED失败: " + e.getMessage();
-                Log.e(TAG, errorMsg);
-                mainHandler.post(() -> Toast.makeText(MainActivity.this, errorMsg, Toast.LENGTH_SHORT).show());
+        // 连续点击时只发最后一次，被替换的命令不提示
+        commandChannel().send(CameraCommand.light("/led/", status.equals("on")), result -> {
+            if (result.superseded) {
+                return;
             }
+            Log.i(TAG, "控制: " + result);
+            final String message;
+            if (result.error != null) {
+                message = "控制LED失败: " + result.error.getMessage();
+            } else if (result.isSuccess()) {
+                message = "LED " + (status.equals("on") ? "已开启" : "已关闭") + " (" + result.roundTripMillis() + "ms)";
+            } else {
+                message = "控制LED失败，状态码: " + result.statusCode;
+            }
+            mainHandler.post(() -> Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show());
         });
     }
     
     @Override
     protected void onDestroy() {
         stopStreaming();
-        executorService.shutdownNow();
+        streamClient.close();
+        if (commandChannel != null) {
+            commandChannel.close();
+        }
+        frameRenderer.release();
+        decoder.close();
         super.onDestroy();
     }
 } 
\ No newline at end of file
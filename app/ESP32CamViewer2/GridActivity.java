@@ -0,0 +1,343 @@
+package com.example.esp32camviewer;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.SurfaceView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.GridLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.esp32camviewer.decode.BitmapPool;
+import com.example.esp32camviewer.decode.PooledBitmapDecoder;
+import com.example.esp32camviewer.device.CameraDevice;
+import com.example.esp32camviewer.device.DeviceList;
+import com.example.esp32camviewer.motion.DuplicateFrameFilter;
+import com.example.esp32camviewer.render.SurfaceFrameRenderer;
+import com.example.esp32camviewer.stream.CameraSessions;
+import com.example.esp32camviewer.stream.FramePipeline;
+import com.example.esp32camviewer.stream.NioMjpegClient;
+import com.example.esp32camviewer.stream.ReconnectingStream;
+import com.example.esp32camviewer.stream.TileFrameRatePolicy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 多路查看：设备列表中的摄像头以网格显示。
+ *
+ * 所有连接共用NioMjpegClient的两个I/O线程；解码共用一个按核数定长的线程池，渲染共用一个渲染线程。
+ * 画面越小解码帧率越低（见TileFrameRatePolicy），滚出屏幕、切到后台或被点击暂停的画面
+ * 只读取不解码，连接保持，恢复时立即出图。
+ */
+public class GridActivity extends AppCompatActivity {
+    private static final String TAG = "ESP32CamViewer";
+    private static final String PREFS_NAME = "ESP32CamPrefs";
+    private static final String PREF_IP_ADDRESS = "ip_address";
+    private static final String PREF_DEVICE_TYPE = "device_type";
+    // 每路画面的状态文字刷新间隔
+    private static final long LABEL_REFRESH_MS = 1000;
+
+    private ScrollView scrollView;
+    private GridLayout cameraGrid;
+    private EditText ipAddressEditText;
+    private TextView statusText;
+
+    private SharedPreferences settings;
+    private DeviceList deviceList;
+    private final List<Tile> tiles = new ArrayList<>();
+    private boolean resumed = false;
+
+    // 解码线程池按核数定长，所有画面共用；每路同一时间最多占用一个工作线程
+    private final ExecutorService decodePool =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // 所有画面的连接复用两个I/O线程，路数增加不再增加读取线程
+    private final NioMjpegClient streamClient = new NioMjpegClient(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread renderThread = new HandlerThread("grid-render");
+    private final Rect visibleRect = new Rect();
+    private final Runnable labelRefresher = new Runnable() {
+        @Override
+        public void run() {
+            for (Tile tile : tiles) {
+                tile.updateLabel();
+            }
+            mainHandler.postDelayed(this, LABEL_REFRESH_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_grid);
+        renderThread.start();
+
+        settings = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        scrollView = findViewById(R.id.grid_scroll);
+        cameraGrid = findViewById(R.id.camera_grid);
+        ipAddressEditText = findViewById(R.id.grid_ip_address);
+        statusText = findViewById(R.id.grid_status_text);
+        Button addButton = findViewById(R.id.grid_add_button);
+
+        // 还没有设备列表时用单路查看保存的地址
+        deviceList = DeviceList.load(settings.getString(DeviceList.PREF_DEVICES, null),
+                settings.getString(PREF_IP_ADDRESS, ""), settings.getString(PREF_DEVICE_TYPE, "ESP32-CAM"));
+
+        addButton.setOnClickListener(v -> {
+            String ip = ipAddressEditText.getText().toString().trim();
+            if (ip.isEmpty()) {
+                Toast.makeText(this, "请输入ESP32设备的IP地址", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            CameraDevice device = new CameraDevice(null, ip, settings.getString(PREF_DEVICE_TYPE, "ESP32-CAM"));
+            if (!deviceList.add(device)) {
+                Toast.makeText(this, "设备已在列表中", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            saveDevices();
+            ipAddressEditText.setText("");
+            addTile(device);
+            relayout();
+        });
+
+        // 滚动和布局变化时重新判断每个画面是否可见
+        scrollView.setOnScrollChangeListener((v, scrollX, scrollY, oldScrollX, oldScrollY) -> updateVisibility());
+        cameraGrid.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
+                updateVisibility());
+
+        for (CameraDevice device : deviceList.devices()) {
+            addTile(device);
+        }
+        relayout();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        resumed = true;
+        updateVisibility();
+        mainHandler.post(labelRefresher);
+    }
+
+    @Override
+    protected void onPause() {
+        // 切到后台时所有画面停止解码，连接保持
+        resumed = false;
+        updateVisibility();
+        mainHandler.removeCallbacks(labelRefresher);
+        super.onPause();
+    }
+
+    private void addTile(CameraDevice device) {
+        View root = LayoutInflater.from(this).inflate(R.layout.item_camera_tile, cameraGrid, false);
+        Tile tile = new Tile(device, root);
+        tiles.add(tile);
+        cameraGrid.addView(root);
+
+        // 点击暂停/继续，连接断开时重新连接；长按从列表中移除
+        root.setOnClickListener(v -> {
+            if (!tile.connected) {
+                tile.connect();
+            } else {
+                tile.userPaused = !tile.userPaused;
+                updateVisibility();
+            }
+        });
+        root.setOnLongClickListener(v -> {
+            removeTile(tile);
+            return true;
+        });
+        tile.connect();
+    }
+
+    private void removeTile(Tile tile) {
+        tile.close();
+        tiles.remove(tile);
+        cameraGrid.removeView(tile.root);
+        deviceList.remove(tile.device.host());
+        saveDevices();
+        Toast.makeText(this, "已移除 " + tile.device, Toast.LENGTH_SHORT).show();
+        relayout();
+    }
+
+    private void saveDevices() {
+        SharedPreferences.Editor editor = settings.edit();
+        editor.putString(DeviceList.PREF_DEVICES, deviceList.format());
+        editor.apply();
+    }
+
+    // 按路数决定列数，画面保持4:3
+    private void relayout() {
+        int count = tiles.size();
+        int columns = count <= 1 ? 1 : count <= 4 ? 2 : 3;
+        cameraGrid.setColumnCount(columns);
+        int width = (getResources().getDisplayMetrics().widthPixels - scrollView.getPaddingLeft()
+                - scrollView.getPaddingRight()) / columns;
+        for (Tile tile : tiles) {
+            ViewGroup.LayoutParams params = tile.root.getLayoutParams();
+            params.width = width;
+            params.height = width * 3 / 4;
+            tile.root.setLayoutParams(params);
+        }
+        statusText.setText(count == 0 ? "设备列表为空，输入IP添加" : count + " 路摄像头，点击画面暂停，长按移除");
+    }
+
+    // 可见性或画面尺寸变化时调整每路的解码帧率和缩小倍数
+    private void updateVisibility() {
+        for (Tile tile : tiles) {
+            int width = tile.surface.getWidth();
+            int height = tile.surface.getHeight();
+            boolean visible = resumed && !tile.userPaused && tile.root.getGlobalVisibleRect(visibleRect);
+            tile.applyFrameRate(TileFrameRatePolicy.maxFpsFor(width, height, visible));
+            tile.decoder.setTargetSize(width, height);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        for (Tile tile : tiles) {
+            tile.close();
+        }
+        tiles.clear();
+        streamClient.close();
+        decodePool.shutdownNow();
+        renderThread.quitSafely();
+        super.onDestroy();
+    }
+
+    /** 网格中的一路：连接、流水线、解码器和渲染器各一份，解码线程池和渲染线程共用 */
+    private final class Tile {
+        final CameraDevice device;
+        final View root;
+        final SurfaceView surface;
+        final TextView label;
+        // 小画面缩小解码后Bitmap很小，每路保留解码中、待显示和双缓冲共四张
+        final BitmapPool bitmapPool = new BitmapPool(4);
+        final PooledBitmapDecoder decoder = new PooledBitmapDecoder(bitmapPool);
+        final SurfaceFrameRenderer renderer;
+        final FramePipeline<Bitmap> pipeline;
+        final DuplicateFrameFilter duplicates = new DuplicateFrameFilter();
+
+        volatile boolean connected = false;
+        // 断线后自动重连，重连期间停在最后一帧；各路的重连时间带随机抖动，AP重启后不会同时重连
+        volatile ReconnectingStream session;
+        volatile int reconnectAttempt = 0;
+        boolean userPaused = false;
+        int maxFps = TileFrameRatePolicy.UNLIMITED;
+        long lastDecoded = 0;
+
+        Tile(CameraDevice device, View root) {
+            this.device = device;
+            this.root = root;
+            surface = root.findViewById(R.id.tile_surface);
+            label = root.findViewById(R.id.tile_label);
+            renderer = new SurfaceFrameRenderer(decoder, renderThread.getLooper());
+            renderer.attach(surface);
+            pipeline = new FramePipeline<>(decoder, renderer, renderer.executor(), decoder, decodePool);
+            // 看着静止场景的摄像头大多数帧和画面上的一样，不占用共享的解码线程
+            pipeline.setDuplicateFilter(duplicates);
+            pipeline.start();
+            updateLabel();
+        }
+
+        void connect() {
+            if (connected) {
+                return;
+            }
+            connected = true;
+            // 断开期间画面可能已经清掉，重连后的第一帧一定要解码
+            duplicates.reset();
+            ReconnectingStream newSession = new ReconnectingStream(streamClient, device.streamUrl(), 5000, 5000,
+                    pipeline::submit, new ReconnectingStream.Listener() {
+                        @Override
+                        public void onFirstFrame(NioMjpegClient.Stream stream, long timeToFirstFrameNanos,
+                                                 long outageNanos) {
+                            reconnectAttempt = 0;
+                            if (outageNanos > 0) {
+                                Log.i(TAG, device + " 已恢复: 中断" + outageNanos / 1_000_000 + "ms，首帧"
+                                        + timeToFirstFrameNanos / 1_000_000 + "ms");
+                            }
+                            mainHandler.post(Tile.this::updateLabel);
+                        }
+
+                        @Override
+                        public void onInterrupted(IOException error, int attempt, long retryDelayMs) {
+                            reconnectAttempt = attempt;
+                            Log.e(TAG, device + " 流媒体错误: " + (error == null ? "服务器关闭了连接" : error.getMessage())
+                                    + "，" + retryDelayMs + "ms后重连");
+                            mainHandler.post(Tile.this::updateLabel);
+                        }
+
+                        @Override
+                        public void onStreamClosed(NioMjpegClient.Stream stream, IOException error) {
+                            Log.i(TAG, device + " 连接: " + stream.stats());
+                        }
+                    });
+            try {
+                CameraSessions.SHARED.start(newSession);
+                session = newSession;
+            } catch (IOException e) {
+                connected = false;
+                Log.e(TAG, device + " 连接失败: " + e.getMessage());
+            }
+        }
+
+        void applyFrameRate(int fps) {
+            if (fps == maxFps) {
+                return;
+            }
+            maxFps = fps;
+            TileFrameRatePolicy.apply(pipeline, fps);
+        }
+
+        void updateLabel() {
+            // 画面没变、不用解码的帧也算在帧率里
+            FramePipeline.Stats stats = pipeline.stats();
+            long decoded = stats.decoded + stats.unchanged;
+            long fps = (decoded - lastDecoded) * 1000 / LABEL_REFRESH_MS;
+            lastDecoded = decoded;
+            String state;
+            if (!connected) {
+                state = "未连接，点击重连";
+            } else if (reconnectAttempt > 0) {
+                state = "重连中（第" + reconnectAttempt + "次）";
+            } else if (userPaused) {
+                state = "已暂停";
+            } else if (maxFps == TileFrameRatePolicy.PAUSED) {
+                state = "不可见";
+            } else {
+                state = fps + " fps" + (maxFps == TileFrameRatePolicy.UNLIMITED ? "" : "（上限" + maxFps + "）");
+            }
+            label.setText(device.name() + "  " + state);
+        }
+
+        void close() {
+            ReconnectingStream current = session;
+            if (current != null) {
+                current.close();
+                Log.i(TAG, device + " 重连: " + current.stats());
+            }
+            pipeline.stop();
+            Log.i(TAG, device + " 流水线: " + pipeline.stats() + " " + renderer.summary(pipeline.stats()));
+            renderer.detach(surface);
+            renderer.release();
+            decoder.close();
+        }
+    }
+}
@@ -3,120 +3,189 @@ package com.example.esp32camviewer;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
 
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.SurfaceView;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CompoundButton;
 import android.widget.EditText;
-import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import com.example.esp32camviewer.control.AdaptiveBitrateController;
+import com.example.esp32camviewer.control.CameraCommand;
+import com.example.esp32camviewer.control.CommandChannel;
+import com.example.esp32camviewer.control.CommandResult;
+import com.example.esp32camviewer.control.FrameSize;
+import com.example.esp32camviewer.decode.BitmapPool;
+import com.example.esp32camviewer.decode.DecodeMemoryStats;
+import com.example.esp32camviewer.decode.DecoderBackend;
+import com.example.esp32camviewer.decode.JpegThumbnailer;
+import com.example.esp32camviewer.decode.SelectableDecoder;
+import com.example.esp32camviewer.device.CameraDevice;
+import com.example.esp32camviewer.device.DeviceList;
+import com.example.esp32camviewer.metrics.MetricsExport;
+import com.example.esp32camviewer.metrics.MetricsHttpServer;
+import com.example.esp32camviewer.metrics.StreamMetrics;
+import com.example.esp32camviewer.motion.DuplicateFrameFilter;
+import com.example.esp32camviewer.motion.MotionDetector;
+import com.example.esp32camviewer.motion.MotionMonitor;
+import com.example.esp32camviewer.record.MjpegRecorder;
+import com.example.esp32camviewer.record.PreEventBuffer;
+import com.example.esp32camviewer.record.SnapshotWriter;
+import com.example.esp32camviewer.render.SurfaceFrameRenderer;
+import com.example.esp32camviewer.stream.CameraSessions;
+import com.example.esp32camviewer.stream.FramePipeline;
+import com.example.esp32camviewer.stream.NioMjpegClient;
+import com.example.esp32camviewer.stream.ReconnectingStream;
+
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "ESP32CamViewer";
     private static final String PREFS_NAME = "ESP32CamPrefs";
     private static final String PREF_IP_ADDRESS = "ip_address";
     private static final String PREF_DEVICE_TYPE = "device_type";
+    private static final String PREF_DECODER = "decoder_backend";
+    private static final String PREF_AUTO_CONNECT = "auto_connect";
+    private static final String PREF_METRICS_OVERLAY = "metrics_overlay";
+    // 录像从按下录像键之前10秒开始
+    private static final long PRE_EVENT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long METRICS_REFRESH_MS = 1000;
+    private static final long BITRATE_WINDOW_MS = 2000;
+    // 长按拍照按钮连拍的帧数
+    private static final int BURST_FRAMES = 10;
+    private static final double TARGET_FPS = 15;
+    // 打开指标浮层时在本机回环地址上提供JSON，adb forward tcp:8089 tcp:8089后读取
+    private static final int METRICS_PORT = 8089;
     
     private EditText ipAddressEditText;
     private Button connectButton;
     private Button ledOnButton;
     private Button ledOffButton;
     private Button restartButton;
-    private ImageView streamImageView;
+    private Button recordButton;
+    private Button snapshotButton;
+    private Button gridButton;
+    private SurfaceView streamSurfaceView;
     private TextView statusText;
+    private TextView metricsOverlay;
     private Spinner deviceTypeSpinner;
+    private Spinner decoderSpinner;
     private SwitchCompat autoConnectSwitch;
     
     private String serverIp = "";
     private boolean isStreaming = false;
     private String deviceType = "ESP32-CAM"; // 默认为ESP32-CAM
     private boolean autoConnect = false;
+    // 只记录本次启动后第一次出画面的耗时
+    private boolean startupFrameLogged = false;
     
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    // 视频流在NIO客户端的I/O线程上非阻塞读取，LED/重启等控制命令走单独的控制通道，不等视频帧
+    private final NioMjpegClient streamClient = new NioMjpegClient(1);
+    // 断线后自动重连，重连期间画面停在最后一帧
+    private ReconnectingStream currentSession;
+    private FramePipeline<Bitmap> currentPipeline;
+    private MotionMonitor currentMotion;
+    private StreamMetrics currentMetrics;
+    private StreamMetrics.Snapshot lastMetrics;
+    private AdaptiveBitrateController currentBitrate;
+    private StreamMetrics.Snapshot lastBitrateMetrics;
+    private MetricsHttpServer metricsServer;
+    private DecodeMemoryStats memoryAtStart;
+    // 最近10秒的原始JPEG保存在16MB堆外缓冲里，录像时先写入这一段，再接上之后的帧
+    private final PreEventBuffer preEvent = new PreEventBuffer(16 * 1024 * 1024, PRE_EVENT_NANOS, 512);
+    private MjpegRecorder recorder;
+    private Thread preEventExport;
+    // 拍照直接保存解析出的原始JPEG，不重新编码；写文件和缩略图在写线程上
+    private SnapshotWriter snapshots;
+    private CommandChannel commandChannel;
+    private String commandChannelHost = "";
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // 解码复用Bitmap：解码中、待显示各一张，加上双缓冲显示中的两张
+    private final BitmapPool bitmapPool = new BitmapPool(4);
+    // 解码后端可手动选择，默认自动校准；显示过的Bitmap交还给产出它的后端
+    private final SelectableDecoder decoder = new SelectableDecoder(bitmapPool);
+    // 在渲染线程上按vsync直接画到SurfaceView，不占用主线程；画过的Bitmap交还给解码器
+    private final SurfaceFrameRenderer frameRenderer = new SurfaceFrameRenderer(decoder);
     private SharedPreferences settings;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
         
         // 初始化SharedPreferences
         settings = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         
+        // 加载保存的设置
+        String savedIp = settings.getString(PREF_IP_ADDRESS, "");
+        String savedDeviceType = settings.getString(PREF_DEVICE_TYPE, "ESP32-CAM");
+        DecoderBackend savedDecoder = DecoderBackend.fromName(
+                settings.getString(PREF_DECODER, DecoderBackend.AUTO.name()), DecoderBackend.AUTO);
+        autoConnect = settings.getBoolean(PREF_AUTO_CONNECT, false);
+        deviceType = savedDeviceType;
+        decoder.select(savedDecoder);
+        // 会话的帧回调里要用，必须在openSession()之前创建
+        snapshots = new SnapshotWriter(snapshotDirectory(), new JpegThumbnailer());
+        
+        // 自动连接时先发起连接再加载布局，TCP连接和HTTP请求与界面初始化并行进行；
+        // 画面出来之前收到的帧由渲染器保留，Surface创建后立即画出
+        boolean connectEarly = autoConnect && !savedIp.isEmpty();
+        if (connectEarly) {
+            serverIp = savedIp;
+            openSession();
+        }
+        
+        setContentView(R.layout.activity_main);
+        
         // 初始化UI元素
         ipAddressEditText = findViewById(R.id.ip_address);
         connectButton = findViewById(R.id.connect_button);
         ledOnButton = findViewById(R.id.led_on_button);
         ledOffButton = findViewById(R.id.led_off_button);
         restartButton = findViewById(R.id.restart_button);
-        streamImageView = findViewById(R.id.stream_image);
+        recordButton = findViewById(R.id.record_button);
+        snapshotButton = findViewById(R.id.snapshot_button);
+        gridButton = findViewById(R.id.grid_button);
+        streamSurfaceView = findViewById(R.id.stream_surface);
         statusText = findViewById(R.id.status_text);
+        metricsOverlay = findViewById(R.id.metrics_overlay);
         deviceTypeSpinner = findViewById(R.id.device_type_spinner);
+        decoderSpinner = findViewById(R.id.decoder_spinner);
         autoConnectSwitch = findViewById(R.id.auto_connect_switch);
         
-        // 设置设备类型选择器
-        ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(
-                this, R.array.device_types, android.R.layout.simple_spinner_item);
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        deviceTypeSpinner.setAdapter(adapter);
-        
-        // 加载保存的设置
-        String savedIp = settings.getString(PREF_IP_ADDRESS, "");
-        String savedDeviceType = settings.getString(PREF_DEVICE_TYPE, "ESP32-CAM");
+        // 按画面在屏幕上的实际像素缩小解码，布局变化和旋转时重新计算
+        frameRenderer.attach(streamSurfaceView);
+        streamSurfaceView.addOnLayoutChangeListener((v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) ->
+                decoder.setTargetSize(right - left, bottom - top));
         
         ipAddressEditText.setText(savedIp);
         
-        // 设置设备类型
-        if (savedDeviceType.equals("ESP32-CAM")) {
-            deviceTypeSpinner.setSelection(0); // ESP32-CAM位置
-        } else {
-            deviceTypeSpinner.setSelection(1); // ESP32 XIAO位置
-        }
-        
-        // 设置设备类型选择改变监听器
-        deviceTypeSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
-            @Override
-            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                deviceType = parent.getItemAtPosition(position).toString();
-                
-                // 保存设置
-                SharedPreferences.Editor editor = settings.edit();
-                editor.putString(PREF_DEVICE_TYPE, deviceType);
-                editor.apply();
-                
-                // 根据设备类型更新UI
-                updateUIForDeviceType();
-            }
-
-            @Override
-            public void onNothingSelected(AdapterView<?> parent) {
-                // 什么都不做
-            }
-        });
+        // 两个选择器第一帧画面用不到，首次布局之后再创建适配器
+        streamSurfaceView.post(() -> setUpSpinners(savedDeviceType, savedDecoder));
         
         // 设置自动连接开关
         autoConnectSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
             autoConnect = isChecked;
+            settings.edit().putBoolean(PREF_AUTO_CONNECT, isChecked).apply();
             if (autoConnect && !savedIp.isEmpty() && !isStreaming) {
                 // 自动连接
                 serverIp = savedIp;
@@ -134,9 +203,13 @@ public class MainActivity extends AppCompatActivity {
                     return;
                 }
                 
-                // 保存IP地址
+                // 保存IP地址，同时加入多路查看的设备列表
+                DeviceList devices = DeviceList.load(settings.getString(DeviceList.PREF_DEVICES, null),
+                        settings.getString(PREF_IP_ADDRESS, ""), deviceType);
+                devices.add(new CameraDevice(null, ip, deviceType));
                 SharedPreferences.Editor editor = settings.edit();
                 editor.putString(PREF_IP_ADDRESS, ip);
+                editor.putString(DeviceList.PREF_DEVICES, devices.format());
                 editor.apply();
                 
                 // 更新IP地址并开始流
@@ -149,10 +222,37 @@ public class MainActivity extends AppCompatActivity {
             }
         });
         
+        // 多路查看：断开单路连接后打开网格，避免同一台设备被连接两次
+        gridButton.setOnClickListener(v -> {
+            if (isStreaming) {
+                stopStreaming();
+                updateUIForConnection(false);
+            }
+            startActivity(new Intent(this, GridActivity.class));
+        });
+        
         // 设置LED控制按钮
         ledOnButton.setOnClickListener(v -> controlLED("on"));
         ledOffButton.setOnClickListener(v -> controlLED("off"));
         
+        // 录像按钮：开始/停止录制当前视频流
+        recordButton.setOnClickListener(v -> {
+            if (recorder == null) {
+                startRecording();
+            } else {
+                stopRecording();
+            }
+        });
+        
+        // 拍照按钮：单击拍下正在显示的一帧，长按连拍
+        snapshotButton.setOnClickListener(v -> snapshots.snapshot(preEvent, this::onSnapshot));
+        snapshotButton.setOnLongClickListener(v -> {
+            if (!snapshots.capture(BURST_FRAMES, this::onSnapshot)) {
+                Toast.makeText(this, "上一次连拍还在进行", Toast.LENGTH_SHORT).show();
+            }
+            return true;
+        });
+        
         // 设置重启按钮
         restartButton.setOnClickListener(v -> {
             if (serverIp.isEmpty()) {
@@ -160,47 +260,110 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
             
-            // 发送重启命令
-            executorService.execute(() -> {
-                try {
-                    URL url = new URL("http://" + serverIp + "/restart");
-                    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                    connection.setConnectTimeout(2000);
-                    connection.setReadTimeout(2000);
-                    
-                    int responseCode = connection.getResponseCode();
-                    mainHandler.post(() -> {
-                        if (responseCode == 200) {
-                            Toast.makeText(MainActivity.this, "设备正在重启...", Toast.LENGTH_LONG).show();
-                            // 断开当前连接
-                            stopStreaming();
-                            updateUIForConnection(false);
-                        } else {
-                            Toast.makeText(MainActivity.this, "重启失败: " + responseCode, Toast.LENGTH_SHORT).show();
-                        }
-                    });
-                    
-                    connection.disconnect();
-                } catch (IOException e) {
-                    final String errorMsg = "重启命令失败: " + e.getMessage();
-                    Log.e(TAG, errorMsg);
-                    mainHandler.post(() -> Toast.makeText(MainActivity.this, errorMsg, Toast.LENGTH_SHORT).show());
-                }
+            // 发送重启命令，固件回复后才重启
+            commandChannel().send(CameraCommand.restart(), result -> {
+                Log.i(TAG, "控制: " + result);
+                mainHandler.post(() -> {
+                    if (result.error != null) {
+                        Toast.makeText(MainActivity.this, "重启命令失败: " + result.error.getMessage(),
+                                Toast.LENGTH_SHORT).show();
+                    } else if (result.isSuccess()) {
+                        Toast.makeText(MainActivity.this, "设备正在重启...", Toast.LENGTH_LONG).show();
+                        // 断开当前连接
+                        stopStreaming();
+                        updateUIForConnection(false);
+                    } else {
+                        Toast.makeText(MainActivity.this, "重启失败: " + result.statusCode, Toast.LENGTH_SHORT).show();
+                    }
+                });
             });
         });
         
+        // 点状态栏显示/隐藏指标浮层，每秒刷新一次最近一秒的帧率、码率和延迟
+        statusText.setOnClickListener(v -> {
+            boolean show = metricsOverlay.getVisibility() != View.VISIBLE;
+            settings.edit().putBoolean(PREF_METRICS_OVERLAY, show).apply();
+            setMetricsOverlay(show);
+        });
+        setMetricsOverlay(settings.getBoolean(PREF_METRICS_OVERLAY, false));
+        
         // 初次启动时根据设备类型更新UI
         updateUIForDeviceType();
         
-        // 如果设置了自动连接且IP不为空，则自动连接
-        if (!savedIp.isEmpty() && autoConnect) {
-            serverIp = savedIp;
-            startStreaming();
+        // 如果设置了自动连接且IP不为空，连接已经在加载布局前发起
+        if (connectEarly) {
             updateUIForConnection(true);
             autoConnectSwitch.setChecked(true);
         }
     }
     
+    private void setUpSpinners(String savedDeviceType, DecoderBackend savedDecoder) {
+        // 设置设备类型选择器
+        ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(
+                this, R.array.device_types, android.R.layout.simple_spinner_item);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        deviceTypeSpinner.setAdapter(adapter);
+        
+        // 设置解码器选择器，选项顺序与DecoderBackend一致
+        ArrayAdapter<CharSequence> decoderAdapter = ArrayAdapter.createFromResource(
+                this, R.array.decoder_backends, android.R.layout.simple_spinner_item);
+        decoderAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        decoderSpinner.setAdapter(decoderAdapter);
+        decoderSpinner.setSelection(savedDecoder.ordinal());
+        
+        // 设置设备类型
+        if (savedDeviceType.equals("ESP32-CAM")) {
+            deviceTypeSpinner.setSelection(0); // ESP32-CAM位置
+        } else {
+            deviceTypeSpinner.setSelection(1); // ESP32 XIAO位置
+        }
+        
+        // 设置设备类型选择改变监听器
+        deviceTypeSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                deviceType = parent.getItemAtPosition(position).toString();
+                
+                // 保存设置
+                SharedPreferences.Editor editor = settings.edit();
+                editor.putString(PREF_DEVICE_TYPE, deviceType);
+                editor.apply();
+                
+                // 根据设备类型更新UI
+                updateUIForDeviceType();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                // 什么都不做
+            }
+        });
+        
+        // 切换解码器立即生效，选择自动时从下一帧开始重新校准
+        decoderSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                DecoderBackend backend = DecoderBackend.values()[position];
+                if (backend == decoder.selected()) {
+                    return;
+                }
+                if (!backend.isSupported()) {
+                    Toast.makeText(MainActivity.this, "本机不支持" + backend.label() + "，使用BitmapFactory", Toast.LENGTH_SHORT).show();
+                }
+                decoder.select(backend);
+                
+                SharedPreferences.Editor editor = settings.edit();
+                editor.putString(PREF_DECODER, backend.name());
+                editor.apply();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+                // 什么都不做
+            }
+        });
+    }
+    
     private void updateUIForDeviceType() {
         // 根据不同设备类型可以进行UI调整
         // 例如：显示/隐藏特定按钮，改变提示文本等
@@ -225,103 +388,367 @@ public class MainActivity extends AppCompatActivity {
             ledOnButton.setEnabled(true);
             ledOffButton.setEnabled(true);
             restartButton.setEnabled(true);
+            recordButton.setEnabled(true);
+            snapshotButton.setEnabled(true);
         } else {
             connectButton.setText("连接");
             statusText.setText("未连接");
             ledOnButton.setEnabled(false);
             ledOffButton.setEnabled(false);
             restartButton.setEnabled(false);
+            recordButton.setEnabled(false);
+            snapshotButton.setEnabled(false);
             // 清除图像
-            streamImageView.setImageResource(android.R.color.transparent);
+            frameRenderer.clear();
         }
     }
     
     private void startStreaming() {
-        executorService.execute(this::streamVideo);
-    }
-    
-    private void stopStreaming() {
-        isStreaming = false;
+        statusText.setText("连接中...");
+        openSession();
     }
     
-    private void streamVideo() {
-        HttpURLConnection connection = null;
-        InputStream inputStream = null;
-        BufferedInputStream bufferedInputStream = null;
+    // 不访问界面控件，可以在setContentView之前调用
+    private void openSession() {
+        memoryAtStart = DecodeMemoryStats.snapshot(bitmapPool);
         
-        try {
-            URL url = new URL("http://" + serverIp);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(5000);
-            
-            // 显示连接状态
-            mainHandler.post(() -> statusText.setText("连接中..."));
-            
-            inputStream = connection.getInputStream();
-            bufferedInputStream = new BufferedInputStream(inputStream);
-            
-            // 连接成功
-            mainHandler.post(() -> statusText.setText("已连接到: " + serverIp));
-            
-            // MJPEG流解析变量
-            byte[] buffer = new byte[1024];
-            ByteArrayOutputStream jpegBuffer = new ByteArrayOutputStream();
-            boolean headerFound = false;
-            
-            while (isStreaming) {
-                int bytesRead = bufferedInputStream.read(buffer, 0, buffer.length);
-                if (bytesRead == -1) {
-                    break;
-                }
-                
-                for (int i = 0; i < bytesRead; i++) {
-                    jpegBuffer.write(buffer[i]);
+        // 解码在流水线的独立线程上进行，跟不上时只保留最新一帧；渲染在渲染线程上按vsync进行
+        // 自动模式下每次连接都用开头几帧重新校准解码后端
+        decoder.restartCalibration();
+        FramePipeline<Bitmap> pipeline = new FramePipeline<>(decoder, frameRenderer, frameRenderer.executor(), decoder);
+        // 静止画面里和正在显示的画面几乎一样的帧不解码
+        pipeline.setDuplicateFilter(new DuplicateFrameFilter());
+        pipeline.start();
+        currentPipeline = pipeline;
+        
+        // 帧率、码率、抖动和解码/端到端延迟分布，记录一帧只是几次原子加法
+        StreamMetrics metrics = new StreamMetrics(serverIp);
+        metrics.attach(pipeline);
+        currentMetrics = metrics;
+        lastMetrics = metrics.snapshot();
+        
+        // 按每个窗口的帧率、吞吐和解码情况调整固件的分辨率和画质；有PSRAM的ESP32-CAM最高UXGA
+        AdaptiveBitrateController bitrate = new AdaptiveBitrateController(commandChannel(), TARGET_FPS,
+                deviceType.equals("ESP32-CAM") ? FrameSize.UXGA : FrameSize.SVGA,
+                new AdaptiveBitrateController.Listener() {
+                    @Override
+                    public void onLevelChanged(AdaptiveBitrateController.Level from,
+                                               AdaptiveBitrateController.Level to, String reason) {
+                        Log.i(TAG, "画质: " + from + " -> " + to + " (" + reason + ")");
+                    }
                     
-                    // 检查JPEG标记以找到图像的开始和结束
-                    if (jpegBuffer.size() >= 2 && 
-                            (byte) jpegBuffer.toByteArray()[jpegBuffer.size() - 2] == (byte) 0xFF &&
-                            (byte) jpegBuffer.toByteArray()[jpegBuffer.size() - 1] == (byte) 0xD8) {
-                        // 找到JPEG开始标记
-                        headerFound = true;
-                        jpegBuffer.reset();
-                        jpegBuffer.write(0xFF);
-                        jpegBuffer.write(0xD8);
-                    } else if (headerFound && jpegBuffer.size() >= 2 &&
-                            (byte) jpegBuffer.toByteArray()[jpegBuffer.size() - 2] == (byte) 0xFF &&
-                            (byte) jpegBuffer.toByteArray()[jpegBuffer.size() - 1] == (byte) 0xD9) {
-                        // 找到JPEG结束标记 - 处理完整的图像
-                        headerFound = false;
-                        final byte[] jpegData = jpegBuffer.toByteArray();
-                        final Bitmap bitmap = BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length);
-                        
-                        if (bitmap != null) {
-                            mainHandler.post(() -> streamImageView.setImageBitmap(bitmap));
+                    @Override
+                    public void onUnsupported(CommandResult result) {
+                        Log.i(TAG, "固件不支持调整分辨率和画质: " + result);
+                    }
+                });
+        currentBitrate = bitrate;
+        lastBitrateMetrics = lastMetrics;
+        
+        // 移动检测只取JPEG的DC系数，在自己的低优先级线程上分析，不再为它解一遍完整的Bitmap
+        MotionMonitor motion = new MotionMonitor(new MotionDetector(), new MotionMonitor.Listener() {
+            @Override
+            public void onMotionStarted(float score, long receivedNanos) {
+                Log.i(TAG, "检测到移动: 变化" + Math.round(score * 100) + "%");
+                mainHandler.post(() -> {
+                    if (isStreaming) {
+                        statusText.setText("检测到移动: " + serverIp);
+                    }
+                });
+            }
+            
+            @Override
+            public void onMotionEnded(long receivedNanos) {
+                mainHandler.post(() -> {
+                    if (isStreaming) {
+                        statusText.setText("已连接到: " + serverIp);
+                    }
+                });
+            }
+        });
+        motion.start();
+        currentMotion = motion;
+        
+        // MJPEG流在I/O线程上非阻塞读取，按multipart边界和Content-Length切帧，服务器未声明boundary时按JPEG标记切帧
+        ReconnectingStream session = new ReconnectingStream(streamClient, "http://" + serverIp, 5000, 5000,
+                frame -> {
+                    // 在I/O线程上复制进事件前缓冲，录像时由它转给录像线程
+                    preEvent.offer(frame);
+                    // 没有拍照请求时只读一个字段
+                    snapshots.offer(frame);
+                    metrics.onFrame(frame);
+                    motion.offer(frame);
+                    pipeline.submit(frame);
+                }, new ReconnectingStream.Listener() {
+                    @Override
+                    public void onFirstFrame(NioMjpegClient.Stream stream, long timeToFirstFrameNanos, long outageNanos) {
+                        if (outageNanos > 0) {
+                            Log.i(TAG, "已恢复: 中断" + outageNanos / 1_000_000 + "ms，首帧"
+                                    + timeToFirstFrameNanos / 1_000_000 + "ms");
+                        } else {
+                            Log.i(TAG, "首帧: " + timeToFirstFrameNanos / 1_000_000 + "ms " + stream.stats());
+                        }
+                        if (!startupFrameLogged) {
+                            startupFrameLogged = true;
+                            // 从进程启动算起，包括应用初始化和界面加载
+                            Log.i(TAG, "启动到首帧: " + (SystemClock.uptimeMillis() - Process.getStartUptimeMillis()) + "ms");
                         }
-                        
-                        jpegBuffer.reset();
+                        // 固件重启后回到默认设置，每次连上都把当前档位发一遍
+                        bitrate.start();
+                        mainHandler.post(() -> {
+                            if (isStreaming) {
+                                statusText.setText("已连接到: " + serverIp);
+                            }
+                        });
+                    }
+                    
+                    @Override
+                    public void onInterrupted(IOException error, int attempt, long retryDelayMs) {
+                        String reason = error == null ? "服务器关闭了连接" : error.getMessage();
+                        Log.w(TAG, "连接中断(" + reason + ")，" + retryDelayMs + "ms后第" + attempt + "次重连");
+                        mainHandler.post(() -> {
+                            if (isStreaming) {
+                                statusText.setText("连接中断，正在第" + attempt + "次重连: " + reason);
+                            }
+                        });
                     }
+                    
+                    @Override
+                    public void onStreamClosed(NioMjpegClient.Stream stream, IOException error) {
+                        // 每帧read次数和每次读取字节数，反映读缓冲区是否合适
+                        Log.i(TAG, "连接: " + stream.stats());
+                    }
+                });
+        try {
+            // 同一摄像头上一次的连接关完之后才连接，快速断开重连时不会同时占两条
+            CameraSessions.SHARED.start(session);
+            currentSession = session;
+            mainHandler.postDelayed(adjustBitrate, BITRATE_WINDOW_MS);
+        } catch (IOException e) {
+            pipeline.stop();
+            currentPipeline = null;
+            motion.close();
+            currentMotion = null;
+            currentMetrics = null;
+            currentBitrate = null;
+            streamFailed(e);
+            mainHandler.post(() -> updateUIForConnection(false));
+        }
+    }
+    
+    private void stopStreaming() {
+        isStreaming = false;
+        stopRecording();
+        mainHandler.removeCallbacks(adjustBitrate);
+        if (currentBitrate != null) {
+            Log.i(TAG, "最终画质: " + currentBitrate.level());
+            currentBitrate = null;
+        }
+        if (currentSession != null) {
+            currentSession.close();
+            Log.i(TAG, "重连: " + currentSession.stats());
+            currentSession = null;
+        }
+        if (currentPipeline != null) {
+            currentPipeline.stop();
+            // 稳定播放时Bitmap分配数和GC次数应基本不增长
+            FramePipeline.Stats stats = currentPipeline.stats();
+            Log.i(TAG, "流水线: " + stats + " " + frameRenderer.summary(stats) + " 解码器: " + decoder.name()
+                    + " 内存: " + DecodeMemoryStats.snapshot(bitmapPool).since(memoryAtStart));
+            currentPipeline = null;
+            Log.i(TAG, "事件前缓冲: " + preEvent);
+        }
+        if (currentMotion != null) {
+            currentMotion.close();
+            Log.i(TAG, "移动检测: " + currentMotion);
+            currentMotion = null;
+        }
+        if (currentMetrics != null) {
+            exportMetrics(currentMetrics.snapshot());
+            currentMetrics = null;
+        }
+    }
+    
+    // 整个会话的指标写到外部存储的metrics目录，文件名为断开的时间
+    private void exportMetrics(StreamMetrics.Snapshot snapshot) {
+        Log.i(TAG, "指标: " + snapshot);
+        File base = getExternalFilesDir("metrics");
+        if (base == null) {
+            base = new File(getFilesDir(), "metrics");
+        }
+        File file = new File(base, new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date()) + ".json");
+        String json = MetricsExport.toJson(Collections.singletonList(snapshot));
+        new Thread(() -> {
+            try {
+                MetricsExport.writeJson(file, json);
+                Log.i(TAG, "指标已导出: " + file);
+            } catch (IOException e) {
+                Log.e(TAG, "指标导出失败: " + e.getMessage());
+            }
+        }, "metrics-export").start();
+    }
+    
+    private void setMetricsOverlay(boolean show) {
+        metricsOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+        mainHandler.removeCallbacks(refreshMetrics);
+        if (show) {
+            mainHandler.post(refreshMetrics);
+            if (metricsServer == null) {
+                try {
+                    metricsServer = new MetricsHttpServer(METRICS_PORT, () -> {
+                        StreamMetrics metrics = currentMetrics;
+                        return MetricsExport.toJson(metrics == null
+                                ? Collections.<StreamMetrics.Snapshot>emptyList()
+                                : Collections.singletonList(metrics.snapshot()));
+                    });
+                    Log.i(TAG, "指标接口: http://127.0.0.1:" + metricsServer.port() + "/metrics");
+                } catch (IOException e) {
+                    Log.w(TAG, "指标接口无法启动: " + e.getMessage());
                 }
             }
-            
+        } else {
+            closeMetricsServer();
+        }
+    }
+    
+    private void closeMetricsServer() {
+        if (metricsServer != null) {
+            try {
+                metricsServer.close();
+            } catch (IOException e) {
+                Log.w(TAG, "关闭指标接口: " + e.getMessage());
+            }
+            metricsServer = null;
+        }
+    }
+    
+    private final Runnable refreshMetrics = new Runnable() {
+        @Override
+        public void run() {
+            StreamMetrics metrics = currentMetrics;
+            if (metrics == null) {
+                metricsOverlay.setText("未连接");
+            } else {
+                // 显示的是两次刷新之间的值，不是从连接开始的平均；lastMetrics在建立会话时重置
+                StreamMetrics.Snapshot now = metrics.snapshot();
+                metricsOverlay.setText(now.minus(lastMetrics).toOverlayText());
+                lastMetrics = now;
+            }
+            mainHandler.postDelayed(this, METRICS_REFRESH_MS);
+        }
+    };
+    
+    private final Runnable adjustBitrate = new Runnable() {
+        @Override
+        public void run() {
+            StreamMetrics metrics = currentMetrics;
+            AdaptiveBitrateController bitrate = currentBitrate;
+            if (metrics == null || bitrate == null || !bitrate.isSupported()) {
+                return;
+            }
+            StreamMetrics.Snapshot now = metrics.snapshot();
+            bitrate.update(AdaptiveBitrateController.Sample.of(now.minus(lastBitrateMetrics)));
+            lastBitrateMetrics = now;
+            mainHandler.postDelayed(this, BITRATE_WINDOW_MS);
+        }
+    };
+    
+    private void startRecording() {
+        File base = getExternalFilesDir("recordings");
+        if (base == null) {
+            base = new File(getFilesDir(), "recordings");
+        }
+        File directory = new File(base, new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date()));
+        try {
+            MjpegRecorder started = new MjpegRecorder(directory);
+            // 几乎一样的帧只记时间戳，数据沿用上一帧
+            started.setDuplicateFilter(new DuplicateFrameFilter());
+            recorder = started;
+            recordButton.setText("停止录像");
+            Log.i(TAG, "开始录像: " + directory + " 事件前缓冲: " + preEvent);
+            // 事件前的帧写入时排队满了要等，不在主线程上做
+            preEventExport = new Thread(() -> {
+                try {
+                    preEvent.recordTo(started, PRE_EVENT_NANOS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "recorder-pre-event");
+            preEventExport.start();
         } catch (IOException e) {
-            final String errorMsg = "流媒体错误: " + e.getMessage();
-            Log.e(TAG, errorMsg);
-            mainHandler.post(() -> {
-                Toast.makeText(MainActivity.this, errorMsg, Toast.LENGTH_SHORT).show();
-                statusText.setText("连接失败: " + e.getMessage());
-            });
-        } finally {
+            Toast.makeText(this, "无法开始录像: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    private void stopRecording() {
+        MjpegRecorder stopped = recorder;
+        Thread export = preEventExport;
+        if (stopped == null) {
+            return;
+        }
+        recorder = null;
+        preEventExport = null;
+        recordButton.setText("录像");
+        // 关闭时要写完排队的帧并落盘，不占用主线程
+        new Thread(() -> {
             try {
-                if (bufferedInputStream != null) bufferedInputStream.close();
-                if (inputStream != null) inputStream.close();
-                if (connection != null) connection.disconnect();
+                // 等事件前的帧写完、接上新帧之后再断开
+                export.join();
+                preEvent.stopRecording();
+                stopped.close();
+                Log.i(TAG, "录像完成: " + stopped.directory() + " " + stopped.framesWritten() + "帧 "
+                        + stopped.bytesWritten() / 1024 + "KB 去重" + stopped.duplicateFrames() + "帧 丢帧"
+                        + stopped.droppedFrames() + " 分段"
+                        + stopped.segmentCount());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (IOException e) {
-                Log.e(TAG, "关闭连接时出错: " + e.getMessage());
+                Log.e(TAG, "录像写入失败: " + e.getMessage());
+                mainHandler.post(() -> Toast.makeText(MainActivity.this, "录像写入失败: " + e.getMessage(),
+                        Toast.LENGTH_SHORT).show());
             }
-            
-            mainHandler.post(() -> updateUIForConnection(false));
+        }, "recorder-close").start();
+    }
+    
+    private File snapshotDirectory() {
+        File directory = getExternalFilesDir("snapshots");
+        return directory != null ? directory : new File(getFilesDir(), "snapshots");
+    }
+    
+    // 在拍照写线程上回调
+    private void onSnapshot(SnapshotWriter.Result result) {
+        Log.i(TAG, "拍照: " + result + " 平均写入" + snapshots.averageWriteNanosPerFrame() / 1000 + "µs/帧");
+        final String message;
+        if (result.files.isEmpty()) {
+            message = "拍照失败" + (result.error != null ? ": " + result.error.getMessage() : "");
+        } else if (result.requested == 1) {
+            message = "已保存 " + result.files.get(0).getName();
+        } else {
+            message = "连拍已保存 " + result.files.size() + "/" + result.requested + " 张"
+                    + (result.timedOut ? "（画面中断）" : "");
+        }
+        mainHandler.post(() -> Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show());
+    }
+    
+    private void streamFailed(IOException e) {
+        final String errorMsg = "流媒体错误: " + e.getMessage();
+        Log.e(TAG, errorMsg);
+        mainHandler.post(() -> {
+            Toast.makeText(MainActivity.this, errorMsg, Toast.LENGTH_SHORT).show();
+            statusText.setText("连接失败: " + e.getMessage());
+        });
+    }
+    
+    // 每个设备地址一条控制通道，连续的命令复用同一个连接；换了地址时重建
+    private CommandChannel commandChannel() {
+        if (commandChannel == null || !commandChannelHost.equals(serverIp)) {
+            if (commandChannel != null) {
+                commandChannel.close();
+            }
+            commandChannel = new CommandChannel(serverIp);
+            commandChannelHost = serverIp;
         }
+        return commandChannel;
     }
     
     private void controlLED(String status) {
@@ -331,42 +758,41 @@ public class MainActivity extends AppCompatActivity {
         }
         
         String endpoint = deviceType.equals("ESP32-CAM") ? "/flash/" : "/led/";
+        String deviceSpecificName = deviceType.equals("ESP32-CAM") ? "闪光灯" : "LED";
         
-        executorService.execute(() -> {
-            try {
-                URL url = new URL("http://" + serverIp + endpoint + status);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setConnectTimeout(2000);
-                connection.setReadTimeout(2000);
-                connection.connect();
-                
-                final int responseCode = connection.getResponseCode();
-                mainHandler.post(() -> {
-                    if (responseCode == 200) {
-                        String deviceSpecificName = deviceType.equals("ESP32-CAM") ? "闪光灯" : "LED";
-                        Toast.makeText(MainActivity.this, 
-                                deviceSpecificName + " " + (status.equals("on") ? "已开启" : "已关闭"), 
-                                Toast.LENGTH_SHORT).show();
-                    } else {
-                        Toast.makeText(MainActivity.this, 
-                                "控制失败，状态码: " + responseCode, 
-                                Toast.LENGTH_SHORT).show();
-                    }
-                });
-                
-                connection.disconnect();
-            } catch (IOException e) {
-                final String errorMsg = "控制失败: " + e.getMessage();
-                Log.e(TAG, errorMsg);
-                mainHandler.post(() -> Toast.makeText(MainActivity.this, errorMsg, Toast.LENGTH_SHORT).show());
+        // 连续点击时只发最后一次，被替换的命令不提示
+        commandChannel().send(CameraCommand.light(endpoint, status.equals("on")), result -> {
+            if (result.superseded) {
+                return;
             }
+            Log.i(TAG, "控制: " + result);
+            final String message;
+            if (result.error != null) {
+                message = "控制失败: " + result.error.getMessage();
+            } else if (result.isSuccess()) {
+                message = deviceSpecificName + " " + (status.equals("on") ? "已开启" : "已关闭")
+                        + " (" + result.roundTripMillis() + "ms)";
+            } else {
+                message = "控制失败，状态码: " + result.statusCode;
+            }
+            mainHandler.post(() -> Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show());
         });
     }
     
     @Override
     protected void onDestroy() {
+        mainHandler.removeCallbacks(refreshMetrics);
+        mainHandler.removeCallbacks(adjustBitrate);
+        closeMetricsServer();
         stopStreaming();
-        executorService.shutdownNow();
+        streamClient.close();
+        // 排队的照片写完再停写线程，不占用主线程
+        new Thread(snapshots::close, "snapshot-close").start();
+        if (commandChannel != null) {
+            commandChannel.close();
+        }
+        frameRenderer.release();
+        decoder.close();
         super.onDestroy();
     }
 } 
\ No newline at end of file
@@ -2,12 +2,12 @@ package com.example.esp32camviewer
 
 import android.content.Context
 import android.graphics.Bitmap
-import android.graphics.BitmapFactory
 import android.os.Bundle
 import android.util.Log
+import android.view.SurfaceView
 import androidx.activity.ComponentActivity
 import androidx.activity.compose.setContent
-import androidx.compose.foundation.Image
+import androidx.activity.viewModels
 import androidx.compose.foundation.background
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.shape.RoundedCornerShape
@@ -16,10 +16,11 @@ import androidx.compose.runtime.*
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.Color
-import androidx.compose.ui.graphics.asImageBitmap
+import androidx.compose.ui.layout.onSizeChanged
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextAlign
+import androidx.compose.ui.viewinterop.AndroidView
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import androidx.lifecycle.ViewModel
@@ -28,20 +29,31 @@ import androidx.lifecycle.viewmodel.compose.viewModel
 import androidx.lifecycle.viewModelScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
-import java.io.BufferedInputStream
-import java.io.ByteArrayOutputStream
 import java.io.IOException
-import java.net.HttpURLConnection
-import java.net.URL
+import com.example.esp32camviewer.control.CameraCommand
+import com.example.esp32camviewer.control.CommandChannel
+import com.example.esp32camviewer.decode.BitmapPool
+import com.example.esp32camviewer.decode.DecodeMemoryStats
+import com.example.esp32camviewer.decode.DecoderBackend
+import com.example.esp32camviewer.decode.SelectableDecoder
+import com.example.esp32camviewer.motion.DuplicateFrameFilter
+import com.example.esp32camviewer.render.SurfaceFrameRenderer
+import com.example.esp32camviewer.stream.CameraSessions
+import com.example.esp32camviewer.stream.FramePipeline
+import com.example.esp32camviewer.stream.NioMjpegClient
+import com.example.esp32camviewer.stream.ReconnectingStream
 import com.example.esp32camviewer.ui.theme.ESP32CamViewerTheme
 
 class MainActivity : ComponentActivity() {
+    private val viewModel: ESP32CamViewModel by viewModels()
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
+        // 在组合界面之前读取设置并发起自动连接，连接与首次组合、布局并行进行
+        viewModel.loadSavedSettings(this)
         setContent {
             ESP32CamViewerTheme {
-                ESP32CamViewerApp()
+                ESP32CamViewerApp(viewModel)
             }
         }
     }
@@ -64,14 +76,31 @@ class ESP32CamViewModel : ViewModel() {
         private set
     var isConnected by mutableStateOf(false)
         private set
-    var cameraBitmap by mutableStateOf<Bitmap?>(null)
-        private set
     var autoConnect by mutableStateOf(false)
         private set
+    var decoderBackend by mutableStateOf(DecoderBackend.AUTO)
+        private set
     
     // 保存最后连接的IP地址
     private var serverIp = ""
+    private var settingsLoaded = false
     private var isStreaming = false
+    // 视频流在NIO客户端的I/O线程上非阻塞读取，不占用协程的IO线程
+    private val streamClient = NioMjpegClient(1)
+    // 断线后自动重连，重连期间画面停在最后一帧
+    private var currentSession: ReconnectingStream? = null
+    private var currentPipeline: FramePipeline<Bitmap>? = null
+    private var memoryAtStart: DecodeMemoryStats? = null
+    // LED/重启等控制命令走单独的控制通道，不等视频帧；换了地址时重建
+    private var commandChannel: CommandChannel? = null
+    private var commandChannelHost = ""
+    
+    // 解码复用Bitmap：解码中、待显示各一张，加上渲染器显示中的两张，留一张余量
+    private val bitmapPool = BitmapPool(5)
+    // 解码后端可手动选择，默认自动校准；显示过的Bitmap交还给产出它的后端
+    private val decoder = SelectableDecoder(bitmapPool)
+    // 在渲染线程上按vsync直接画到SurfaceView，不经过重组，也不占用主线程
+    val frameRenderer = SurfaceFrameRenderer(decoder)
     
     // 方法：更新IP地址
     fun updateIpAddress(ip: String) {
@@ -88,6 +117,17 @@ class ESP32CamViewModel : ViewModel() {
         autoConnect = value
     }
     
+    // 方法：更新解码后端，立即生效
+    fun updateDecoderBackend(backend: DecoderBackend) {
+        decoderBackend = backend
+        decoder.select(backend)
+    }
+    
+    // 方法：画面显示区域的像素尺寸变化，解码时据此缩小
+    fun updateViewSize(width: Int, height: Int) {
+        decoder.setTargetSize(width, height)
+    }
+    
     // 方法：连接/断开摄像头
     fun toggleConnection(context: Context) {
         if (!isConnected) {
@@ -110,6 +150,19 @@ class ESP32CamViewModel : ViewModel() {
         }
     }
     
+    // 每个设备地址一条控制通道，连续的命令复用同一个连接
+    private fun commandChannel(): CommandChannel {
+        val channel = commandChannel
+        if (channel != null && commandChannelHost == serverIp) {
+            return channel
+        }
+        channel?.close()
+        return CommandChannel(serverIp).also {
+            commandChannel = it
+            commandChannelHost = serverIp
+        }
+    }
+    
     // 方法：控制LED/闪光灯
     fun controlLed(turnOn: Boolean, onResult: (Boolean, String) -> Unit) {
         if (serverIp.isEmpty()) {
@@ -117,72 +170,47 @@ class ESP32CamViewModel : ViewModel() {
             return
         }
         
-        val status = if (turnOn) "on" else "off"
         val endpoint = if (deviceType == DeviceType.ESP32_CAM) "/flash/" else "/led/"
+        val deviceSpecificName = if (deviceType == DeviceType.ESP32_CAM) "闪光灯" else "LED"
         
-        viewModelScope.launch(Dispatchers.IO) {
-            try {
-                val url = URL("http://$serverIp$endpoint$status")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.connectTimeout = 2000
-                connection.readTimeout = 2000
-                connection.connect()
-                
-                val responseCode = connection.responseCode
-                
-                withContext(Dispatchers.Main) {
-                    if (responseCode == 200) {
-                        val deviceSpecificName = if (deviceType == DeviceType.ESP32_CAM) "闪光灯" else "LED"
+        // 连续点击时只发最后一次，被替换的命令不提示
+        commandChannel().send(CameraCommand.light(endpoint, turnOn)) { result ->
+            if (result.superseded) {
+                return@send
+            }
+            Log.i("ESP32CamViewer", "控制: $result")
+            viewModelScope.launch(Dispatchers.Main) {
+                val error = result.error
+                when {
+                    error != null -> onResult(false, "控制失败: ${error.message}")
+                    result.isSuccess -> {
                         val statusText = if (turnOn) "已开启" else "已关闭"
-                        onResult(true, "$deviceSpecificName $statusText")
-                    } else {
-                        onResult(false, "控制失败，状态码: $responseCode")
+                        onResult(true, "$deviceSpecificName $statusText (${result.roundTripMillis()}ms)")
                     }
-                }
-                
-                connection.disconnect()
-            } catch (e: IOException) {
-                val errorMsg = "控制失败: ${e.message}"
-                Log.e("ESP32CamViewer", errorMsg)
-                withContext(Dispatchers.Main) {
-                    onResult(false, errorMsg)
+                    else -> onResult(false, "控制失败，状态码: ${result.statusCode}")
                 }
             }
         }
     }
     
-    // 方法：重启设备
+    // 方法：重启设备，固件回复后才重启
     fun restartDevice(onResult: (Boolean, String) -> Unit) {
         if (serverIp.isEmpty()) {
             onResult(false, "请先连接到ESP32设备")
             return
         }
         
-        viewModelScope.launch(Dispatchers.IO) {
-            try {
-                val url = URL("http://$serverIp/restart")
-                val connection = url.openConnection() as HttpURLConnection
-                connection.connectTimeout = 2000
-                connection.readTimeout = 2000
-                connection.connect()
-                
-                val responseCode = connection.responseCode
-                
-                withContext(Dispatchers.Main) {
-                    if (responseCode == 200) {
+        commandChannel().send(CameraCommand.restart()) { result ->
+            Log.i("ESP32CamViewer", "控制: $result")
+            viewModelScope.launch(Dispatchers.Main) {
+                val error = result.error
+                when {
+                    error != null -> onResult(false, "重启命令失败: ${error.message}")
+                    result.isSuccess -> {
                         onResult(true, "设备正在重启...")
                         stopStreaming()
-                    } else {
-                        onResult(false, "重启失败: $responseCode")
                     }
-                }
-                
-                connection.disconnect()
-            } catch (e: IOException) {
-                val errorMsg = "重启命令失败: ${e.message}"
-                Log.e("ESP32CamViewer", errorMsg)
-                withContext(Dispatchers.Main) {
-                    onResult(false, errorMsg)
+                    else -> onResult(false, "重启失败: ${result.statusCode}")
                 }
             }
         }
@@ -194,108 +222,92 @@ class ESP32CamViewModel : ViewModel() {
         connectionStatus = "连接中..."
         isConnected = true
         
-        viewModelScope.launch(Dispatchers.IO) {
-            var connection: HttpURLConnection? = null
-            var inputStream: BufferedInputStream? = null
-            
-            try {
-                val url = URL("http://$serverIp")
-                connection = url.openConnection() as HttpURLConnection
-                connection.connectTimeout = 5000
-                connection.readTimeout = 5000
-                
-                withContext(Dispatchers.Main) {
-                    connectionStatus = "连接中..."
-                }
-                
-                inputStream = BufferedInputStream(connection.inputStream)
-                
-                withContext(Dispatchers.Main) {
-                    connectionStatus = "已连接到: $serverIp"
-                }
-                
-                // MJPEG流解析变量
-                val buffer = ByteArray(1024)
-                val jpegBuffer = ByteArrayOutputStream()
-                var headerFound = false
-                
-                while (isStreaming) {
-                    val bytesRead = inputStream.read(buffer, 0, buffer.size)
-                    if (bytesRead == -1) break
-                    
-                    for (i in 0 until bytesRead) {
-                        jpegBuffer.write(buffer[i].toInt())
-                        
-                        // 检查JPEG标记以找到图像的开始和结束
-                        if (jpegBuffer.size() >= 2 && 
-                                jpegBuffer.toByteArray()[jpegBuffer.size() - 2] == 0xFF.toByte() &&
-                                jpegBuffer.toByteArray()[jpegBuffer.size() - 1] == 0xD8.toByte()) {
-                            // 找到JPEG开始标记
-                            headerFound = true
-                            jpegBuffer.reset()
-                            jpegBuffer.write(0xFF)
-                            jpegBuffer.write(0xD8)
-                        } else if (headerFound && jpegBuffer.size() >= 2 &&
-                                jpegBuffer.toByteArray()[jpegBuffer.size() - 2] == 0xFF.toByte() &&
-                                jpegBuffer.toByteArray()[jpegBuffer.size() - 1] == 0xD9.toByte()) {
-                            // 找到JPEG结束标记 - 处理完整的图像
-                            headerFound = false
-                            val jpegData = jpegBuffer.toByteArray()
-                            val bitmap = BitmapFactory.decodeByteArray(jpegData, 0, jpegData.size)
-                            
-                            withContext(Dispatchers.Main) {
-                                if (bitmap != null) {
-                                    cameraBitmap = bitmap
-                                }
-                            }
-                            
-                            jpegBuffer.reset()
+        memoryAtStart = DecodeMemoryStats.snapshot(bitmapPool)
+        // 解码在流水线的独立线程上进行，跟不上时只保留最新一帧；渲染在渲染线程上按vsync进行
+        // 自动模式下每次连接都用开头几帧重新校准解码后端
+        decoder.restartCalibration()
+        val pipeline = FramePipeline<Bitmap>(decoder, frameRenderer, frameRenderer.executor(), decoder)
+        // 静止画面里和正在显示的画面几乎一样的帧不解码
+        pipeline.setDuplicateFilter(DuplicateFrameFilter())
+        pipeline.start()
+        currentPipeline = pipeline
+        
+        // MJPEG流在I/O线程上非阻塞读取，按multipart边界和Content-Length切帧，服务器未声明boundary时按JPEG标记切帧
+        val session = ReconnectingStream(streamClient, "http://$serverIp", 5000, 5000, pipeline::submit,
+            object : ReconnectingStream.Listener {
+                override fun onFirstFrame(stream: NioMjpegClient.Stream, timeToFirstFrameNanos: Long, outageNanos: Long) {
+                    if (outageNanos > 0) {
+                        Log.i("ESP32CamViewer", "已恢复: 中断${outageNanos / 1_000_000}ms，首帧${timeToFirstFrameNanos / 1_000_000}ms")
+                    } else {
+                        Log.i("ESP32CamViewer", "首帧: ${timeToFirstFrameNanos / 1_000_000}ms")
+                    }
+                    viewModelScope.launch(Dispatchers.Main) {
+                        if (isStreaming) {
+                            connectionStatus = "已连接到: $serverIp"
                         }
                     }
                 }
                 
-            } catch (e: IOException) {
-                val errorMsg = "流媒体错误: ${e.message}"
-                Log.e("ESP32CamViewer", errorMsg)
-                withContext(Dispatchers.Main) {
-                    connectionStatus = "连接失败: ${e.message}"
-                    isConnected = false
-                    cameraBitmap = null
-                }
-            } finally {
-                try {
-                    inputStream?.close()
-                    connection?.disconnect()
-                } catch (e: IOException) {
-                    Log.e("ESP32CamViewer", "关闭连接时出错: ${e.message}")
+                override fun onInterrupted(error: IOException?, attempt: Int, retryDelayMs: Long) {
+                    val reason = error?.message ?: "服务器关闭了连接"
+                    Log.w("ESP32CamViewer", "连接中断($reason)，${retryDelayMs}ms后第${attempt}次重连")
+                    viewModelScope.launch(Dispatchers.Main) {
+                        if (isStreaming) {
+                            connectionStatus = "连接中断，正在第${attempt}次重连: $reason"
+                        }
+                    }
                 }
                 
-                withContext(Dispatchers.Main) {
-                    if (isStreaming) {
-                        isStreaming = false
-                        isConnected = false
-                        connectionStatus = "未连接"
-                        cameraBitmap = null
-                    }
+                override fun onStreamClosed(stream: NioMjpegClient.Stream, error: IOException?) {
+                    // 每帧read次数和每次读取字节数，反映读缓冲区是否合适
+                    Log.i("ESP32CamViewer", "连接: ${stream.stats()}")
                 }
-            }
+            })
+        try {
+            CameraSessions.SHARED.start(session)
+            currentSession = session
+        } catch (e: IOException) {
+            pipeline.stop()
+            currentPipeline = null
+            Log.e("ESP32CamViewer", "流媒体错误: ${e.message}")
+            isStreaming = false
+            isConnected = false
+            connectionStatus = "连接失败: ${e.message}"
         }
     }
     
     // 方法：停止视频流接收
     private fun stopStreaming() {
         isStreaming = false
+        currentSession?.let {
+            it.close()
+            Log.i("ESP32CamViewer", "重连: ${it.stats()}")
+        }
+        currentSession = null
+        currentPipeline?.let {
+            it.stop()
+            // 稳定播放时Bitmap分配数和GC次数应基本不增长
+            val stats = it.stats()
+            Log.i("ESP32CamViewer", "流水线: $stats ${frameRenderer.summary(stats)} 解码器: ${decoder.name()} 内存: ${DecodeMemoryStats.snapshot(bitmapPool).since(memoryAtStart)}")
+        }
+        currentPipeline = null
         isConnected = false
         connectionStatus = "未连接"
-        cameraBitmap = null
+        frameRenderer.clear()
     }
     
     // 加载保存的设置
     fun loadSavedSettings(context: Context) {
+        // 旋转屏幕时ViewModel保留，不重复加载和连接
+        if (settingsLoaded) {
+            return
+        }
+        settingsLoaded = true
         val sharedPrefs = context.getSharedPreferences("ESP32CamPrefs", Context.MODE_PRIVATE)
         val savedIp = sharedPrefs.getString("ip_address", "") ?: ""
         val savedDeviceType = sharedPrefs.getString("device_type", DeviceType.ESP32_CAM.name) ?: DeviceType.ESP32_CAM.name
         val savedAutoConnect = sharedPrefs.getBoolean("auto_connect", false)
+        val savedDecoder = sharedPrefs.getString("decoder_backend", DecoderBackend.AUTO.name) ?: DecoderBackend.AUTO.name
         
         ipAddress = savedIp
         deviceType = try {
@@ -304,6 +316,7 @@ class ESP32CamViewModel : ViewModel() {
             DeviceType.ESP32_CAM
         }
         autoConnect = savedAutoConnect
+        updateDecoderBackend(DecoderBackend.fromName(savedDecoder, DecoderBackend.AUTO))
         
         // 如果设置了自动连接且IP不为空，则自动连接
         if (autoConnect && savedIp.isNotEmpty()) {
@@ -318,6 +331,21 @@ class ESP32CamViewModel : ViewModel() {
         sharedPrefs.edit().putString("device_type", deviceType.name).apply()
     }
     
+    // 保存解码后端选择
+    fun saveDecoderBackend(context: Context) {
+        val sharedPrefs = context.getSharedPreferences("ESP32CamPrefs", Context.MODE_PRIVATE)
+        sharedPrefs.edit().putString("decoder_backend", decoderBackend.name).apply()
+    }
+    
+    override fun onCleared() {
+        // 先停会话和流水线，解码线程退出后再释放渲染器和解码器
+        stopStreaming()
+        streamClient.close()
+        commandChannel?.close()
+        frameRenderer.release()
+        decoder.close()
+    }
+    
     // 保存自动连接设置
     fun saveAutoConnectSetting(context: Context) {
         val sharedPrefs = context.getSharedPreferences("ESP32CamPrefs", Context.MODE_PRIVATE)
@@ -331,11 +359,6 @@ fun ESP32CamViewerApp(viewModel: ESP32CamViewModel = viewModel()) {
     val snackbarHostState = remember { SnackbarHostState() }
     val scope = rememberCoroutineScope()
     
-    // 加载保存的设置
-    LaunchedEffect(Unit) {
-        viewModel.loadSavedSettings(context)
-    }
-    
     // 主界面
     Scaffold(
         snackbarHost = { SnackbarHost(snackbarHostState) }
@@ -413,6 +436,46 @@ fun ESP32CamViewerApp(viewModel: ESP32CamViewModel = viewModel()) {
                 }
             }
             
+            // 解码器选择，不支持的后端置灰
+            Row(
+                modifier = Modifier.fillMaxWidth(),
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Text("解码器：", 
+                    modifier = Modifier.padding(end = 8.dp),
+                    fontSize = 16.sp
+                )
+                
+                var decoderExpanded by remember { mutableStateOf(false) }
+                Box(
+                    modifier = Modifier
+                        .weight(1f)
+                ) {
+                    OutlinedButton(
+                        onClick = { decoderExpanded = true },
+                        modifier = Modifier.fillMaxWidth()
+                    ) {
+                        Text(viewModel.decoderBackend.label())
+                    }
+                    DropdownMenu(
+                        expanded = decoderExpanded,
+                        onDismissRequest = { decoderExpanded = false }
+                    ) {
+                        DecoderBackend.values().forEach { backend ->
+                            DropdownMenuItem(
+                                text = { Text(backend.label()) },
+                                enabled = backend.isSupported(),
+                                onClick = {
+                                    viewModel.updateDecoderBackend(backend)
+                                    viewModel.saveDecoderBackend(context)
+                                    decoderExpanded = false
+                                }
+                            )
+                        }
+                    }
+                }
+            }
+            
             Spacer(modifier = Modifier.height(8.dp))
             
             // IP地址输入和连接按钮
@@ -447,21 +510,22 @@ fun ESP32CamViewerApp(viewModel: ESP32CamViewModel = viewModel()) {
                 textAlign = TextAlign.Start
             )
             
-            // 视频流显示区域
+            // 视频流显示区域，尺寸变化（包括旋转）时按新的像素尺寸缩小解码
             Box(
                 modifier = Modifier
                     .fillMaxWidth()
                     .weight(1f)
-                    .background(Color.DarkGray, RoundedCornerShape(8.dp)),
+                    .background(Color.DarkGray, RoundedCornerShape(8.dp))
+                    .onSizeChanged { viewModel.updateViewSize(it.width, it.height) },
                 contentAlignment = Alignment.Center
             ) {
-                viewModel.cameraBitmap?.let { bitmap ->
-                    Image(
-                        bitmap = bitmap.asImageBitmap(),
-                        contentDescription = "摄像头画面",
-                        modifier = Modifier.fillMaxSize()
-                    )
-                } ?: run {
+                // SurfaceView由渲染器直接绘制，帧更新不触发重组
+                AndroidView(
+                    factory = { ctx -> SurfaceView(ctx).also { viewModel.frameRenderer.attach(it) } },
+                    modifier = Modifier.fillMaxSize(),
+                    onRelease = { viewModel.frameRenderer.detach(it) }
+                )
+                if (!viewModel.isConnected) {
                     Text(
                         text = "未连接到摄像头",
                         color = Color.White,
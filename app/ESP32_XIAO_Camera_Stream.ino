@@ -36,6 +36,10 @@ WiFiServer server(80);
 // LED引脚定义（如果XIAO上有可用的LED）
 #define LED_PIN 13
 
+// 帧缓冲区按初始化时的分辨率分配，/framesize/只能在它以内调整；有PSRAM时按UXGA初始化再切到VGA
+framesize_t maxFrameSize = FRAMESIZE_SVGA;
+framesize_t defaultFrameSize = FRAMESIZE_SVGA;
+
 void setup() {
   WRITE_PERI_REG(RTC_CNTL_BROWN_OUT_REG, 0); // 禁用断电检测器
   
@@ -68,7 +72,9 @@ void setup() {
   
   // 相机图像质量设置
   if(psramFound()){
-    config.frame_size = FRAMESIZE_VGA; // 640x480分辨率
+    config.frame_size = FRAMESIZE_UXGA;
+    maxFrameSize = FRAMESIZE_UXGA;
+    defaultFrameSize = FRAMESIZE_VGA; // 默认640x480，可用/framesize/调整
     config.jpeg_quality = 10; // 较低的值 = 更高的质量
     config.fb_count = 2;
   } else {
@@ -83,6 +89,12 @@ void setup() {
     Serial.printf("相机初始化失败，错误: 0x%x", err);
     return;
   }
+
+  // 按最大分辨率分配好帧缓冲区后切到默认分辨率
+  sensor_t *sensor = esp_camera_sensor_get();
+  if (sensor && defaultFrameSize != maxFrameSize) {
+    sensor->set_framesize(sensor, defaultFrameSize);
+  }
   
   // 设置Wi-Fi
   WiFi.begin(ssid, password);
@@ -106,72 +118,219 @@ void setup() {
   digitalWrite(LED_PIN, LOW);
 }
 
-void loop() {
-  // 检查是否有客户端连接
-  WiFiClient client = server.available();
-  if (client) {
-    Serial.println("新客户端连接");
-    String currentLine = "";
-    
-    while (client.connected()) {
-      if (client.available()) {
-        char c = client.read();
-        Serial.write(c);
-        
-        if (c == '\n') {
-          // 如果当前行是空行，则是HTTP请求的末尾
-          if (currentLine.length() == 0) {
-            // 发送标准HTTP响应头
-            client.println("HTTP/1.1 200 OK");
-            client.println("Access-Control-Allow-Origin: *"); // 允许跨域访问
-            client.println("Content-Type: multipart/x-mixed-replace; boundary=frame");
-            client.println();
-            
-            // 持续发送图像流
-            while (client.connected()) {
-              // 捕获图像
-              camera_fb_t * fb = esp_camera_fb_get();
-              if(!fb) {
-                Serial.println("图像捕获失败");
-                break;
-              }
-              
-              // 构造HTTP帧头
-              client.println("--frame");
-              client.println("Content-Type: image/jpeg");
-              client.println("Content-Length: " + String(fb->len));
-              client.println();
-              
-              // 发送图像数据
-              client.write((char *)fb->buf, fb->len);
-              client.println();
-              
-              // 释放缓冲区
-              esp_camera_fb_return(fb);
-              
-              // 简单的延迟以控制帧率
-              delay(10);
-            }
-            break;
-          } else {
-            currentLine = "";
-          }
-        } else if (c != '\r') {
-          currentLine += c;
-        }
-        
-        // 处理LED控制请求
-        if (currentLine.endsWith("GET /led/on")) {
-          digitalWrite(LED_PIN, HIGH);
+// 视频流连接（同一时间一个）和控制连接（灯光、分辨率、画质、重启等命令）。
+// 视频流不再独占loop()：每发一帧都处理一次控制连接上的请求，观看时命令也能立即执行。
+// 命令的响应带Content-Length并保持连接，客户端可以在同一条连接上连续发送命令。
+WiFiClient streamClient;
+bool streaming = false;
+WiFiClient controlClient;
+String controlLine = "";
+String controlRequest = "";
+unsigned long controlLastActive = 0;
+
+// 控制连接空闲超过这么久就关闭，让给其他客户端
+#define CONTROL_IDLE_TIMEOUT_MS 5000
+
+// 发送一个短的文本响应
+void sendText(WiFiClient &client, int code, const char* reason, const String &body, bool keepAlive) {
+  client.print("HTTP/1.1 ");
+  client.print(code);
+  client.print(" ");
+  client.println(reason);
+  client.println("Access-Control-Allow-Origin: *");
+  client.println("Content-Type: text/plain; charset=utf-8");
+  client.print("Content-Length: ");
+  client.println(body.length());
+  client.println(keepAlive ? "Connection: keep-alive" : "Connection: close");
+  client.println();
+  client.print(body);
+}
+
+// 发送一帧，捕获失败返回false
+bool sendFrame() {
+  camera_fb_t * fb = esp_camera_fb_get();
+  if (!fb) {
+    Serial.println("图像捕获失败");
+    return false;
+  }
+  
+  // 构造HTTP帧，分段头一次写出，不拆成几个小包
+  streamClient.print("--frame\r\nContent-Type: image/jpeg\r\nContent-Length: " + String(fb->len) + "\r\n\r\n");
+  
+  // 发送图像数据
+  streamClient.write((char *)fb->buf, fb->len);
+  streamClient.println();
+  
+  // 释放图像缓冲区
+  esp_camera_fb_return(fb);
+  return true;
+}
+
+// 控制接口里的分辨率名字，与查看器的FrameSize一致
+struct FrameSizeName {
+  const char *name;
+  framesize_t size;
+};
+const FrameSizeName FRAME_SIZES[] = {
+  {"qvga", FRAMESIZE_QVGA}, {"cif", FRAMESIZE_CIF}, {"vga", FRAMESIZE_VGA}, {"svga", FRAMESIZE_SVGA},
+  {"xga", FRAMESIZE_XGA}, {"sxga", FRAMESIZE_SXGA}, {"uxga", FRAMESIZE_UXGA}
+};
+
+framesize_t frameSizeFromName(const String &name) {
+  for (const FrameSizeName &entry : FRAME_SIZES) {
+    if (name == entry.name) {
+      return entry.size;
+    }
+  }
+  return FRAMESIZE_INVALID;
+}
+
+// 处理一个完整的请求。返回false表示连接已交给视频流或已关闭，不再作为控制连接
+bool handleRequest(WiFiClient &client, const String &requestLine) {
+  // 请求行形如"GET /flash/on HTTP/1.1"，取出路径并去掉查询参数
+  int start = requestLine.indexOf(' ');
+  int end = requestLine.indexOf(' ', start + 1);
+  String path = start < 0 ? "" : requestLine.substring(start + 1, end < 0 ? requestLine.length() : end);
+  int query = path.indexOf('?');
+  if (query >= 0) {
+    path = path.substring(0, query);
+  }
+  
+  // 处理LED控制请求
+  if (path == "/led/on" || path == "/led/off") {
+    bool on = path == "/led/on";
+    digitalWrite(LED_PIN, on ? HIGH : LOW);
+    sendText(client, 200, "OK", on ? "LED已开启" : "LED已关闭", true);
+    return true;
+  }
+  
+  // 调整分辨率，如/framesize/svga，查看器按接收和解码情况自动调整；回复里带上新设置供查看器确认
+  if (path.startsWith("/framesize/")) {
+    String name = path.substring(11);
+    framesize_t size = frameSizeFromName(name);
+    sensor_t *sensor = esp_camera_sensor_get();
+    if (size == FRAMESIZE_INVALID || size > maxFrameSize || !sensor || sensor->set_framesize(sensor, size) != 0) {
+      sendText(client, 400, "Bad Request", "不支持的分辨率: " + name, true);
+      return true;
+    }
+    Serial.println("分辨率: " + name);
+    sendText(client, 200, "OK", "framesize=" + name, true);
+    return true;
+  }
+  
+  // 调整JPEG画质，如/quality/12，4-63，值越低画质越高、帧越大
+  if (path.startsWith("/quality/")) {
+    int quality = path.substring(9).toInt();
+    sensor_t *sensor = esp_camera_sensor_get();
+    if (quality < 4 || quality > 63 || !sensor || sensor->set_quality(sensor, quality) != 0) {
+      sendText(client, 400, "Bad Request", "画质应在4-63之间", true);
+      return true;
+    }
+    Serial.println("画质: " + String(quality));
+    sendText(client, 200, "OK", "quality=" + String(quality), true);
+    return true;
+  }
+  
+  // 处理重启请求
+  if (path == "/restart") {
+    sendText(client, 200, "OK", "重启中...", false);
+    client.flush();
+    delay(1000);
+    ESP.restart();
+    return false;
+  }
+  
+  // 其他路径都是视频流请求，固件同一时间只能发送一路
+  if (streaming) {
+    if (streamClient.connected() && streamClient.remoteIP() != client.remoteIP()) {
+      sendText(client, 503, "Service Unavailable", "已有客户端在观看，多人观看请使用中继", false);
+      client.stop();
+      return false;
+    }
+    // 同一查看器重连：旧连接多半已经断了但还没发现，直接换成新连接
+    Serial.println("查看器重连，替换旧的视频流连接");
+    streamClient.stop();
+    streaming = false;
+  }
+  
+  // 发送标准HTTP响应头，一次写出并紧跟第一帧，查看器不用等下一轮loop
+  client.setNoDelay(true);
+  client.print("HTTP/1.1 200 OK\r\n"
+               "Access-Control-Allow-Origin: *\r\n"
+               "Content-Type: multipart/x-mixed-replace; boundary=frame\r\n"
+               "\r\n");
+  streamClient = client;
+  streaming = true;
+  if (!sendFrame()) {
+    // 第一帧没捕获到时交给loop重试
+    Serial.println("首帧捕获失败，稍后重试");
+  }
+  return false;
+}
+
+// 接受新连接、读取控制连接上的请求，不阻塞
+void pollControl() {
+  if (controlClient && millis() - controlLastActive > CONTROL_IDLE_TIMEOUT_MS) {
+    controlClient.stop();
+  }
+  // 控制连接空闲（没有读了一半的请求）时也接受新连接，否则视频流请求要排队等控制连接超时
+  bool controlIdle = controlLine.length() == 0 && controlRequest.length() == 0 && !controlClient.available();
+  if (!controlClient.connected() || controlIdle) {
+    WiFiClient incoming = server.available();
+    if (!incoming) {
+      if (!controlClient.connected()) {
+        return;
+      }
+    } else {
+      if (controlClient.connected()) {
+        // 查看器下次发命令时会发现连接已关闭并重连
+        controlClient.stop();
+      }
+      Serial.println("新客户端连接");
+      controlClient = incoming;
+      controlLine = "";
+      controlRequest = "";
+      controlLastActive = millis();
+    }
+  }
+  
+  while (controlClient.available()) {
+    char c = controlClient.read();
+    controlLastActive = millis();
+    if (c == '\n') {
+      if (controlLine.length() == 0) {
+        // 空行是HTTP请求的末尾
+        String request = controlRequest;
+        controlRequest = "";
+        if (!handleRequest(controlClient, request)) {
+          controlClient = WiFiClient();
+          return;
         }
-        if (currentLine.endsWith("GET /led/off")) {
-          digitalWrite(LED_PIN, LOW);
+      } else {
+        if (controlRequest.length() == 0) {
+          controlRequest = controlLine;
         }
+        controlLine = "";
       }
+    } else if (c != '\r' && controlLine.length() < 256) {
+      controlLine += c;
     }
-    
-    // 关闭连接
-    client.stop();
-    Serial.println("客户端已断开连接");
   }
-} 
\ No newline at end of file
+}
+
+void loop() {
+  pollControl();
+  
+  if (streaming) {
+    if (!streamClient.connected() || !sendFrame()) {
+      // 关闭连接
+      streamClient.stop();
+      streaming = false;
+      Serial.println("客户端已断开连接");
+    }
+    // 轻微延迟以控制帧率
+    delay(10);
+  } else {
+    delay(1);
+  }
+}